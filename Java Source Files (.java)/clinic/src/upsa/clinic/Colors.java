@@ -9,6 +9,11 @@ public class Colors {
     public static final Color BG1 = new Color(245, 248, 255);
     public static final Color CARD = new Color(255, 255, 255, 240);
     public static final Color TRANSLUCENT = new Color(255, 255, 255, 200);
+    public static final Color CARD_SHADOW = new Color(0, 0, 0, 20);
+
+    // Login Screen
+    public static final Color LOGIN_GRADIENT_START = new Color(120, 80, 200);
+    public static final Color LOGIN_GRADIENT_END = new Color(40, 140, 200);
 
     // Extended Primary Palette
     public static final Color PRIMARY_DARK = new Color(15, 15, 40);
@@ -2,9 +2,15 @@ package upsa.clinic;
 
 import upsa.clinic.panels.*;
 import upsa.clinic.components.*;
+import upsa.clinic.data.EventLog;
+import upsa.clinic.data.HttpQueryService;
+import upsa.clinic.data.Journal;
+import upsa.clinic.data.Replication;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
+import java.util.function.Consumer;
 
 /**
  * Enhanced DashboardView with modern design, role-based access control,
@@ -19,6 +25,9 @@ public class DashboardView extends JFrame {
 
     private final String role;
     private final String username;
+    // Told on the journal's writer thread, so the dialog is shown from the EDT
+    private final Consumer<IOException> journalFailed =
+            failure -> SwingUtilities.invokeLater(() -> showJournalFailure(failure));
 
     // Role permissions - UPDATED: Added vitals and beds panels
     private static final String[] ADMIN_PERMISSIONS = {
@@ -88,6 +97,13 @@ public class DashboardView extends JFrame {
         // Add the new panels
         cards.add(new PatientVitalsPanel(), "vitals");
         cards.add(new BedManagementPanel(), "beds");
+
+        // Every saved table is open now, so this desk can ship or follow changes and answer queries
+        Replication.startConfigured();
+        HttpQueryService.startConfigured();
+        // What is done at the panels from here on is kept in the activity log
+        EventLog.start();
+        Journal.shared().addFailureListener(journalFailed);
     }
 
     private void setupLayout() {
@@ -234,6 +250,26 @@ public class DashboardView extends JFrame {
         return username;
     }
 
+    private void showJournalFailure(IOException failure) {
+        if (!isDisplayable()) {
+            return;
+        }
+        JOptionPane.showMessageDialog(
+                this,
+                "Changes can no longer be saved to disk:\n" + failure.getMessage() + "\n\n" +
+                        "Edits made from now on will be lost when the clinic closes.\n" +
+                        "Fix the problem, e.g. free some disk space, and restart the clinic.",
+                "Saving Stopped",
+                JOptionPane.ERROR_MESSAGE
+        );
+    }
+
+    @Override
+    public void dispose() {
+        Journal.shared().removeFailureListener(journalFailed);
+        super.dispose();
+    }
+
     // Simple notification method (you can enhance this later)
     public void showNotification(String message) {
         JOptionPane.showMessageDialog(this, message, "Notification", JOptionPane.INFORMATION_MESSAGE);
@@ -1,5 +1,7 @@
 package upsa.clinic;
 
+import upsa.clinic.components.BackgroundCache;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.FocusAdapter;
@@ -49,12 +51,8 @@ public class LoginPanel extends JFrame {
         JPanel background = new JPanel() {
             @Override
             protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                Graphics2D g2 = (Graphics2D) g;
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                GradientPaint gp = new GradientPaint(0, 0, new Color(120, 80, 200), getWidth(), getHeight(), new Color(40, 140, 200));
-                g2.setPaint(gp);
-                g2.fillRect(0, 0, getWidth(), getHeight());
+                // The gradient covers the whole panel, background included
+                BackgroundCache.shared().paint(g, this, BackgroundCache.Style.LOGIN_GRADIENT);
             }
         };
         background.setLayout(new GridBagLayout());
@@ -123,14 +121,7 @@ public class LoginPanel extends JFrame {
             @Override
             protected void paintComponent(Graphics g) {
                 super.paintComponent(g);
-                Graphics2D g2 = (Graphics2D) g;
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.setColor(new Color(255, 255, 255, 240));
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 25, 25);
-
-                // Add subtle shadow
-                g2.setColor(new Color(0, 0, 0, 20));
-                g2.drawRoundRect(0, 0, getWidth()-1, getHeight()-1, 25, 25);
+                BackgroundCache.shared().paint(g, this, BackgroundCache.Style.LOGIN_CARD);
             }
         };
         card.setOpaque(false);
@@ -0,0 +1,71 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.AgeIndex;
+import upsa.clinic.data.PatientStore;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Moves the age bands of 1M patients through a year of midnights and
+ * compares each step with recounting the bands from DOB strings, which is
+ * what every age query cost when ages were stored with the row.
+ *
+ * java -Xmx2g upsa.clinic.bench.AgeIndexBenchmark
+ */
+public class AgeIndexBenchmark {
+
+    private static final int ROWS = 1_000_000;
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+
+    public static void main(String[] args) {
+        Random random = new Random(11);
+        PatientStore store = new PatientStore(Clock.fixed(START.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+        String[] dobs = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            Object[] row = PatientStoreFootprint.syntheticRow(i);
+            // Mostly students of 16 to 30
+            dobs[i] = START.minusYears(16).minusDays(random.nextInt(14 * 365)).toString();
+            row[PatientStore.COL_DOB] = dobs[i];
+            store.add(row);
+        }
+
+        long buildStart = System.nanoTime();
+        AgeIndex index = new AgeIndex(store);
+        System.out.printf("Indexed %,d patients in %d ms%n", ROWS, (System.nanoTime() - buildStart) / 1_000_000);
+
+        long[] samples = new long[365];
+        long moved = 0;
+        LocalDate day = START;
+        for (int d = 0; d < samples.length; d++) {
+            day = day.plusDays(1);
+            long start = System.nanoTime();
+            moved += index.advanceTo(day);
+            samples[d] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        System.out.printf("Nightly advance: p50 %.3f ms, max %.3f ms, %,.0f patients moved per night%n",
+                samples[samples.length / 2] / 1e6, samples[samples.length - 1] / 1e6, moved / 365.0);
+
+        // The old way: parse every DOB and recount
+        long start = System.nanoTime();
+        int[] counts = new int[AgeIndex.BANDS.length];
+        for (String dob : dobs) {
+            counts[AgeIndex.bandOf(Period.between(LocalDate.parse(dob), day).getYears())]++;
+        }
+        long rescan = System.nanoTime() - start;
+        System.out.printf("Rescan of DOB strings: %d ms%n", rescan / 1_000_000);
+
+        for (int band = 0; band < counts.length; band++) {
+            if (counts[band] != index.count(band)) {
+                throw new IllegalStateException("Band " + AgeIndex.BANDS[band] + ": index " + index.count(band)
+                        + ", rescan " + counts[band]);
+            }
+            System.out.printf("  %-9s %,9d%n", AgeIndex.BANDS[band], counts[band]);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.AutoBackup;
+import upsa.clinic.data.BackupManifest;
+import upsa.clinic.data.BackupStore;
+import upsa.clinic.data.ClinicFiles;
+import upsa.clinic.data.ClinicRestore;
+import upsa.clinic.data.InventoryFile;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.RestoreEngine;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Front-desk edits while a backup runs: patient edits and pharmacy
+ * dispenses, one every 2 ms, on a data home of 50k patients, 10k medical
+ * records and 1,500 drugs. Reports edit latency without a backup and while
+ * one is frozen and copied, with the backup's duration and how long it held
+ * locks, then restores the backup and checks every patient and drug came
+ * back.
+ *
+ * java upsa.clinic.bench.AutoBackupBenchmark
+ */
+public class AutoBackupBenchmark {
+
+    private static final int PATIENTS = 50_000;
+    private static final int RECORD_FILES = 10_000;
+    private static final int DRUGS = 1_500;
+    private static final long QUIET_MILLIS = 3_000;
+
+    public static void main(String[] args) throws Exception {
+        Path home = Files.createTempDirectory("clinic-home");
+        Path storeDirectory = Files.createTempDirectory("clinic-store");
+        System.setProperty(ClinicFiles.HOME_PROPERTY, home.toString());
+
+        PatientStore patients = new PatientStore();
+        Persistence.open("patients", patients);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < PATIENTS; i++) {
+            rows.add(PatientStoreFootprint.syntheticRow(i));
+        }
+        patients.addAll(rows);
+        Persistence.snapshot();
+
+        Path records = home.resolve("records");
+        for (int i = 0; i < RECORD_FILES; i++) {
+            String id = "PAT-" + (1001 + i);
+            Path file = records.resolve(id.substring(id.length() - 2)).resolve(id + ".txt");
+            Files.createDirectories(file.getParent());
+            Files.write(file, ("allergy\tPenicillin\nvisit\t2025-03-1" + i % 10
+                    + "\tMalaria, treated with artemether-lumefantrine\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (InventoryFile inventory = InventoryFile.open(home.resolve("pharmacy").resolve("inventory.dat"))) {
+            for (int i = 0; i < DRUGS; i++) {
+                inventory.add("DRG-" + (1001 + i), "Drug " + i, "Antibiotic", 1_000_000, 150 + i % 5000,
+                        LocalDate.of(2027, 1, 1).plusDays(i % 700), "Ernest Chemists", "In Stock");
+            }
+
+            Desk quiet = new Desk(patients, inventory);
+            quiet.start();
+            Thread.sleep(QUIET_MILLIS);
+            quiet.finish();
+            quiet.report("no backup");
+
+            AutoBackup autoBackup = new AutoBackup(storeDirectory, Duration.ofDays(1));
+            Desk busy = new Desk(patients, inventory);
+            busy.start();
+            AutoBackup.Run run = autoBackup.backupNow(null);
+            busy.finish();
+            busy.report("during backup");
+            System.out.println(run);
+
+            BackupManifest manifest = BackupManifest.read(run.getResult().getManifest());
+            Path target = Files.createTempDirectory("clinic-restored");
+            new RestoreEngine(BackupStore.open(storeDirectory), Runtime.getRuntime().availableProcessors())
+                    .restore(manifest, ClinicRestore.filesOf(ClinicRestore.EVERYTHING), target, null);
+            int restoredPatients = Persistence.readSaved(target, "patients").size();
+            int restoredDrugs;
+            try (InventoryFile restored = InventoryFile.open(target.resolve("pharmacy").resolve("inventory.dat"))) {
+                restoredDrugs = restored.size();
+            }
+            if (restoredPatients != PATIENTS || restoredDrugs != DRUGS) {
+                throw new IllegalStateException("Backup restored " + restoredPatients + " patients and "
+                        + restoredDrugs + " drugs");
+            }
+            System.out.printf("Restored backup holds all %,d patients and %,d drugs%n", restoredPatients, restoredDrugs);
+        }
+    }
+
+    // Edits a random patient or dispenses a random drug every 2 ms, timing each
+    private static final class Desk extends Thread {
+        private final PatientStore patients;
+        private final InventoryFile inventory;
+        private final List<Long> edits = new ArrayList<>();
+        private volatile boolean stopped = false;
+
+        Desk(PatientStore patients, InventoryFile inventory) {
+            super("front-desk");
+            this.patients = patients;
+            this.inventory = inventory;
+        }
+
+        @Override
+        public void run() {
+            Random random = new Random(42);
+            for (int i = 0; !stopped; i++) {
+                long start = System.nanoTime();
+                if (i % 2 == 0) {
+                    int slot = patients.slotAt(random.nextInt(patients.size()));
+                    Object[] row = PatientStoreFootprint.syntheticRow(random.nextInt(PATIENTS));
+                    row[PatientStore.COL_ID] = patients.get(slot, PatientStore.COL_ID);
+                    patients.set(slot, row);
+                } else {
+                    inventory.addStock(random.nextInt(DRUGS), -1, quantity -> "In Stock");
+                }
+                edits.add(System.nanoTime() - start);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void finish() throws InterruptedException {
+            stopped = true;
+            join();
+        }
+
+        void report(String label) {
+            long[] nanos = edits.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(nanos);
+            System.out.printf("%-16s %,6d edits: p50 %.3f ms, p99 %.3f ms, max %.2f ms%n", label, nanos.length,
+                    nanos[nanos.length / 2] / 1e6, nanos[nanos.length * 99 / 100] / 1e6,
+                    nanos[nanos.length - 1] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.components.BackgroundCache;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Paint cost of the login window's gradient and card and of the dashboard's
+ * patterned background: as they were, filling the whole surface on every
+ * paint, against copying the cached image, and against a window being
+ * dragged to a new size on every paint. Sizes are the login window and a
+ * dashboard on a 1366x768 screen.
+ *
+ * java -Djava.awt.headless=true upsa.clinic.bench.BackgroundPaintBenchmark
+ */
+public class BackgroundPaintBenchmark {
+
+    private static final int PAINTS = 2_000;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.printf("%-18s %-20s %12s %14s%n", "Background", "Paint", "us/paint", "bytes/paint");
+        report(threads, "Login gradient", "drawn every time", new OldLoginBackground(), 520, 680, false);
+        report(threads, "Login gradient", "cached", new Cached(BackgroundCache.Style.LOGIN_GRADIENT), 520, 680, false);
+        report(threads, "Login gradient", "cached, new size", new Cached(BackgroundCache.Style.LOGIN_GRADIENT), 520, 680, true);
+        report(threads, "Login card", "drawn every time", new OldLoginCard(), 380, 460, false);
+        report(threads, "Login card", "cached", new Cached(BackgroundCache.Style.LOGIN_CARD), 380, 460, false);
+        report(threads, "Dashboard", "drawn every time", new OldDashboardBackground(), 1166, 640, false);
+        report(threads, "Dashboard", "cached", new Cached(BackgroundCache.Style.DASHBOARD_PATTERN), 1166, 640, false);
+        report(threads, "Dashboard", "cached, new size", new Cached(BackgroundCache.Style.DASHBOARD_PATTERN), 1166, 640, true);
+        BackgroundCache cache = BackgroundCache.shared();
+        System.out.printf("Cache: %d images kept, %,d drawn, %,d evicted for newer sizes%n",
+                cache.size(), cache.getRenders(), cache.getEvictions());
+    }
+
+    private static void report(com.sun.management.ThreadMXBean threads, String name, String how, JPanel panel,
+                               int width, int height, boolean resize) {
+        BufferedImage screen = new BufferedImage(width + 8, height, BufferedImage.TYPE_INT_RGB);
+        panel.setSize(width, height);
+        // Warm up
+        paint(screen, panel, width, height, resize);
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long started = System.nanoTime();
+        paint(screen, panel, width, height, resize);
+        long nanos = System.nanoTime() - started;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        System.out.printf("%-18s %-20s %12.1f %,14d%n", name, how, nanos / 1e3 / PAINTS, allocated / PAINTS);
+    }
+
+    private static void paint(BufferedImage screen, JPanel panel, int width, int height, boolean resize) {
+        for (int i = 0; i < PAINTS; i++) {
+            if (resize) {
+                panel.setSize(width + (i & 7), height);
+            }
+            Graphics2D g = screen.createGraphics();
+            try {
+                panel.paint(g);
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+
+    private static final class Cached extends JPanel {
+        private final BackgroundCache.Style style;
+
+        Cached(BackgroundCache.Style style) {
+            this.style = style;
+            setOpaque(style != BackgroundCache.Style.LOGIN_CARD);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            BackgroundCache.shared().paint(g, this, style);
+        }
+    }
+
+    // The login window's background as it was painted before
+    private static final class OldLoginBackground extends JPanel {
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            GradientPaint gp = new GradientPaint(0, 0, new Color(120, 80, 200), getWidth(), getHeight(), new Color(40, 140, 200));
+            g2.setPaint(gp);
+            g2.fillRect(0, 0, getWidth(), getHeight());
+        }
+    }
+
+    // The login card as it was painted before
+    private static final class OldLoginCard extends JPanel {
+        OldLoginCard() {
+            setOpaque(false);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(new Color(255, 255, 255, 240));
+            g2.fillRoundRect(0, 0, getWidth(), getHeight(), 25, 25);
+            g2.setColor(new Color(0, 0, 0, 20));
+            g2.drawRoundRect(0, 0, getWidth() - 1, getHeight() - 1, 25, 25);
+        }
+    }
+
+    // The dashboard's background as it was painted before
+    private static final class OldDashboardBackground extends JPanel {
+        OldDashboardBackground() {
+            setBackground(new Color(245, 248, 255));
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2d = (Graphics2D) g;
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setColor(new Color(245, 248, 255));
+            for (int i = 0; i < getWidth(); i += 50) {
+                for (int j = 0; j < getHeight(); j += 50) {
+                    g2d.drawString("⚕", i, j);
+                }
+            }
+        }
+    }
+}
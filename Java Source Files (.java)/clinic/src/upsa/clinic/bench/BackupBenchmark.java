@@ -0,0 +1,110 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.BackupEngine;
+import upsa.clinic.data.Journal;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.TableSnapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backs up a generated data home twice: a first full backup, then again
+ * after a day's worth of changes (0.1% of patients edited and the snapshot
+ * rewritten, more journal entries, new medical records). Reports what each
+ * backup wrote and what deduplication saved, with and without throttling,
+ * and how late a 10 ms ticker standing in for the EDT ran meanwhile.
+ *
+ * java upsa.clinic.bench.BackupBenchmark [patients]
+ */
+public class BackupBenchmark {
+
+    private static final int RECORD_FILES = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        for (long rate : new long[]{Long.MAX_VALUE, BackupEngine.DEFAULT_BYTES_PER_SECOND, 8L * 1024 * 1024}) {
+            Path home = Files.createTempDirectory("clinic-backup");
+            Path store = Files.createTempDirectory("clinic-store");
+            String label = rate == Long.MAX_VALUE ? "unthrottled" : rate / (1024 * 1024) + " MB/s";
+
+            generate(home, patients, 0);
+            run(label + ", first", home, store, rate);
+            generate(home, patients, 1);
+            run(label + ", next day", home, store, rate);
+        }
+    }
+
+    private static void run(String label, Path home, Path store, long rate) throws Exception {
+        BackupEngine engine = new BackupEngine(home, store, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), rate);
+        AtomicLong worstLateness = new AtomicLong();
+        Thread ticker = new Thread(() -> {
+            long due = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                due += 10_000_000L;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                worstLateness.accumulateAndGet(System.nanoTime() - due, Math::max);
+                due = Math.max(due, System.nanoTime());
+            }
+        });
+        ticker.start();
+        BackupEngine.Result result = engine.backup(null);
+        ticker.interrupt();
+        ticker.join();
+        System.out.printf("%-22s %,6.1f MB in %,d files (%,d unchanged) in %.2f s: wrote %,.1f MB in %,d new chunks, "
+                        + "dedup saved %,.1f MB; ticker at most %.1f ms late%n",
+                label, result.getTotalBytes() / 1048576.0, result.getFiles(), result.getUnchangedFiles(),
+                result.getElapsedMillis() / 1000.0, result.getStoredBytes() / 1048576.0, result.getNewChunks(),
+                result.getDeduplicatedBytes() / 1048576.0, worstLateness.get() / 1e6);
+    }
+
+    // Day 0 writes everything; later days change a little of it
+    private static void generate(Path home, int patients, int day) throws IOException {
+        Random random = new Random(day);
+        Path snapshot = home.resolve("snapshots").resolve("patients.snap");
+        Files.createDirectories(snapshot.getParent());
+        try (TableSnapshot.Writer writer = TableSnapshot.create(snapshot, day, PatientStore.COLUMNS.length, patients)) {
+            for (int i = 0; i < patients; i++) {
+                Object[] row = PatientStoreFootprint.syntheticRow(i);
+                row[PatientStore.COL_AGE] = null;
+                if (day > 0 && random.nextInt(1000) == 0) {
+                    row[PatientStore.COL_STATUS] = "Inactive";
+                }
+                writer.row(row);
+            }
+            writer.commit();
+        }
+
+        try (Journal journal = new Journal(home.resolve("journal"), Integer.MAX_VALUE)) {
+            for (int i = 0; i < patients / 10; i++) {
+                journal.append(Journal.Entry.update("patients", random.nextInt(patients), PatientStore.COL_STATUS,
+                        new Object[]{"Active"}));
+            }
+            journal.rotate();
+        }
+
+        Path records = home.resolve("records");
+        Files.createDirectories(records);
+        int first = day == 0 ? 0 : RECORD_FILES + (day - 1) * RECORD_FILES / 20;
+        int count = day == 0 ? RECORD_FILES : RECORD_FILES / 20;
+        for (int i = first; i < first + count; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int visit = 0; visit < 1 + i % 8; visit++) {
+                text.append("2025-0").append(1 + visit).append("-1").append(i % 10)
+                        .append(" | Malaria | Artemether-lumefantrine | Review in two weeks\n");
+            }
+            Files.write(records.resolve("PAT-" + (1001 + i) + ".txt"), text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.Colors;
+import upsa.clinic.components.CachedChart;
+import upsa.clinic.components.RevenueChart;
+import upsa.clinic.components.VisitsChart;
+import upsa.clinic.data.VisitSeries;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Paint cost of the dashboard charts: as they were, drawing everything on
+ * every paint, against the cached charts copying their image, and the
+ * cached charts when every paint is at a new size and has to draw again.
+ * Reports microseconds and bytes allocated per paint at 520x300, about a
+ * chart's size on a 1366x768 screen.
+ *
+ * java -Djava.awt.headless=true upsa.clinic.bench.ChartPaintBenchmark
+ */
+public class ChartPaintBenchmark {
+
+    private static final int WIDTH = 520;
+    private static final int HEIGHT = 300;
+    private static final int PAINTS = 5_000;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        BufferedImage screen = new BufferedImage(WIDTH + 8, HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+        System.out.printf("%-10s %-22s %12s %14s%n", "Chart", "Paint", "us/paint", "bytes/paint");
+        report(threads, screen, "Visits", "drawn every time", new OldVisitsChart(), false);
+        VisitSeries visits = new VisitSeries();
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        for (int day = 0; day < 365; day++) {
+            visits.add(today.minusDays(day), 5 + random.nextInt(20));
+        }
+        report(threads, screen, "Visits", "cached", new VisitsChart(visits), false);
+        report(threads, screen, "Visits", "cached, new size", new VisitsChart(visits), true);
+        report(threads, screen, "Revenue", "drawn every time", new OldRevenueChart(), false);
+        report(threads, screen, "Revenue", "cached", new RevenueChart(), false);
+        report(threads, screen, "Revenue", "cached, new size", new RevenueChart(), true);
+    }
+
+    private static void report(com.sun.management.ThreadMXBean threads, BufferedImage screen, String name,
+                               String how, JPanel chart, boolean resize) {
+        chart.setSize(WIDTH, HEIGHT);
+        // Warm up
+        paint(screen, chart, PAINTS, resize);
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long started = System.nanoTime();
+        paint(screen, chart, PAINTS, resize);
+        long nanos = System.nanoTime() - started;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        String redraws = chart instanceof CachedChart ? ", " + ((CachedChart) chart).getRedraws() + " redraws" : "";
+        System.out.printf("%-10s %-22s %12.1f %,14d%s%n", name, how, nanos / 1e3 / PAINTS, allocated / PAINTS, redraws);
+    }
+
+    private static void paint(BufferedImage screen, JPanel chart, int paints, boolean resize) {
+        for (int i = 0; i < paints; i++) {
+            if (resize) {
+                chart.setSize(WIDTH + (i & 7), HEIGHT);
+            }
+            Graphics2D g = screen.createGraphics();
+            try {
+                chart.paint(g);
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+
+    // The visits chart as the dashboard drew it before
+    private static final class OldVisitsChart extends JPanel {
+        OldVisitsChart() {
+            setBackground(Color.WHITE);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2d = (Graphics2D) g;
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            int width = getWidth();
+            int height = getHeight();
+            int padding = 40;
+
+            g2d.setColor(Colors.BORDER_LIGHT);
+            for (int i = 1; i <= 4; i++) {
+                int y = padding + (height - 2 * padding) * i / 5;
+                g2d.drawLine(padding, y, width - padding, y);
+            }
+
+            int[] visits = {120, 180, 220, 190, 250, 300, 280, 320, 350, 380, 400, 420};
+            int maxVisits = 500;
+            int pointCount = visits.length;
+
+            g2d.setColor(Colors.PRIMARY);
+            g2d.setStroke(new BasicStroke(3));
+            for (int i = 0; i < pointCount - 1; i++) {
+                int x1 = padding + (width - 2 * padding) * i / (pointCount - 1);
+                int y1 = height - padding - (height - 2 * padding) * visits[i] / maxVisits;
+                int x2 = padding + (width - 2 * padding) * (i + 1) / (pointCount - 1);
+                int y2 = height - padding - (height - 2 * padding) * visits[i + 1] / maxVisits;
+                g2d.drawLine(x1, y1, x2, y2);
+            }
+
+            g2d.setColor(Colors.ACCENT);
+            for (int i = 0; i < pointCount; i++) {
+                int x = padding + (width - 2 * padding) * i / (pointCount - 1);
+                int y = height - padding - (height - 2 * padding) * visits[i] / maxVisits;
+                g2d.fillOval(x - 4, y - 4, 8, 8);
+            }
+
+            g2d.setColor(Colors.TEXT_SECONDARY);
+            g2d.setFont(new Font("Segoe UI", Font.PLAIN, 10));
+            String[] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+            for (int i = 0; i < pointCount; i++) {
+                int x = padding + (width - 2 * padding) * i / (pointCount - 1);
+                g2d.drawString(months[i], x - 10, height - padding + 15);
+            }
+        }
+    }
+
+    // The revenue chart as the dashboard drew it before
+    private static final class OldRevenueChart extends JPanel {
+        OldRevenueChart() {
+            setBackground(Color.WHITE);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2d = (Graphics2D) g;
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            int width = getWidth();
+            int height = getHeight();
+            int padding = 40;
+
+            double[] revenue = {12000, 14000, 13000, 16000, 15500, 16968, 18000, 17500, 19000, 18500, 20000, 19500};
+            double maxRevenue = 25000;
+            int barCount = revenue.length;
+            int barWidth = (width - 2 * padding) / barCount;
+
+            for (int i = 0; i < barCount; i++) {
+                int barHeight = (int) ((height - 2 * padding) * revenue[i] / maxRevenue);
+                int x = padding + i * barWidth + barWidth / 4;
+                int y = height - padding - barHeight;
+
+                g2d.setColor(Colors.CHART_COLORS[i % Colors.CHART_COLORS.length]);
+                g2d.fillRect(x, y, barWidth / 2, barHeight);
+
+                g2d.setColor(Colors.TEXT_PRIMARY);
+                g2d.setFont(new Font("Segoe UI", Font.PLAIN, 9));
+                String value = "₵" + (int) (revenue[i] / 1000) + "K";
+                g2d.drawString(value, x - 5, y - 5);
+            }
+
+            g2d.setColor(Colors.TEXT_SECONDARY);
+            g2d.setFont(new Font("Segoe UI", Font.PLAIN, 10));
+            String[] months = {"J", "F", "M", "A", "M", "J", "J", "A", "S", "O", "N", "D"};
+            for (int i = 0; i < barCount; i++) {
+                int x = padding + i * barWidth + barWidth / 4;
+                g2d.drawString(months[i], x + 5, height - padding + 15);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.IdSequence;
+import upsa.clinic.data.PatientCsvImporter;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.PatientTableModel;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a semester-sized registration CSV with a sprinkling of bad rows and
+ * imports it with one parser thread and with several, reporting rows per
+ * second, rejected rows and table events fired. The last run adds the rows
+ * on the EDT the way the patients panel does, batches joined while it is busy.
+ *
+ * java -Xmx1g upsa.clinic.bench.CsvImportBenchmark
+ */
+public class CsvImportBenchmark {
+
+    private static final int ROWS = 300_000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("csv-import");
+        Path csv = directory.resolve("registration.csv");
+        writeCsv(csv);
+        System.out.printf("%,d rows, %.1f MB%n", ROWS, Files.size(csv) / 1048576.0);
+
+        int parallelThreads = Math.max(4, Runtime.getRuntime().availableProcessors() - 1);
+        for (int run = 0; run < 3; run++) {
+            int threads = run == 0 ? 1 : parallelThreads;
+            boolean onEdt = run == 2;
+            PatientTableModel model = new PatientTableModel(new PatientStore());
+            int[] events = new int[1];
+            model.addTableModelListener(e -> {
+                if (e.getType() == TableModelEvent.INSERT) {
+                    events[0]++;
+                }
+            });
+            IdSequence ids = new IdSequence("bench-" + run, 1, 1024, directory);
+            PatientCsvImporter importer = new PatientCsvImporter(
+                    onEdt ? new PatientCsvImporter.EdtSink(model::addRows) : model::addRows, ids, threads);
+
+            long start = System.nanoTime();
+            PatientCsvImporter.Result result = importer.importFile(csv, null);
+            // Rows still queued for the EDT are added before this runs
+            SwingUtilities.invokeAndWait(() -> {
+            });
+            long elapsed = System.nanoTime() - start;
+            if (model.getRowCount() != result.getImported()) {
+                throw new IllegalStateException(model.getRowCount() + " rows added of " + result.getImported());
+            }
+
+            // Rows must arrive in file order however the chunks were parsed
+            for (int row = 1; row < model.getRowCount(); row++) {
+                String previous = model.getValueAt(row - 1, PatientStore.COL_INDEX_NO).toString();
+                if (previous.compareTo(model.getValueAt(row, PatientStore.COL_INDEX_NO).toString()) >= 0) {
+                    throw new IllegalStateException("Row " + row + " is out of file order");
+                }
+            }
+
+            System.out.printf("%2d parser threads%s: %,d imported, %,d rejected in %d ms (%,.0f rows/s, %d insert events)%n",
+                    threads, onEdt ? " on the EDT" : "", result.getImported(), result.getRejected(), elapsed / 1_000_000,
+                    ROWS / (elapsed / 1e9), events[0]);
+        }
+    }
+
+    private static void writeCsv(Path csv) throws Exception {
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write("Full Name,Index No,Program,Level,Gender,DOB,Blood Group,Genotype,Sickling,Phone,Condition,Status");
+            writer.newLine();
+            for (int i = 0; i < ROWS; i++) {
+                Object[] row = PatientStoreFootprint.syntheticRow(i);
+                String dob = row[PatientStore.COL_DOB].toString();
+                String bloodGroup = row[PatientStore.COL_BLOOD_GROUP].toString();
+                // One row in a hundred carries a typing mistake
+                if (i % 100 == 7) {
+                    dob = "12/05/1999";
+                } else if (i % 100 == 57) {
+                    bloodGroup = "O";
+                }
+                writer.write(String.join(",",
+                        row[PatientStore.COL_NAME].toString(),
+                        row[PatientStore.COL_INDEX_NO].toString(),
+                        "\"" + row[PatientStore.COL_PROGRAM] + "\"",
+                        row[PatientStore.COL_LEVEL].toString(),
+                        row[PatientStore.COL_GENDER].toString(),
+                        dob,
+                        bloodGroup,
+                        row[PatientStore.COL_GENOTYPE].toString(),
+                        row[PatientStore.COL_SICKLING].toString(),
+                        row[PatientStore.COL_PHONE].toString(),
+                        row[PatientStore.COL_CONDITION].toString(),
+                        row[PatientStore.COL_STATUS].toString()));
+                writer.newLine();
+            }
+        }
+    }
+}
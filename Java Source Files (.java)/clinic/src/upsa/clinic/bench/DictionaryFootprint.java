@@ -0,0 +1,221 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.StringDictionary;
+
+import javax.swing.table.DefaultTableModel;
+import java.lang.ref.Reference;
+import java.time.LocalDate;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Heap used by a year of clinic activity held in plain DefaultTableModels
+ * and in EncodedTableModels with the panels' shared dictionaries: 120
+ * appointments, 100 invoices, 80 vitals readings and 10 admissions a day.
+ * Every cell is its own String, as when the rows come back from the journal
+ * or from another desk. Then times the status counts the panels show,
+ * comparing strings against comparing codes.
+ *
+ * java -Xmx1g upsa.clinic.bench.DictionaryFootprint
+ */
+public class DictionaryFootprint {
+
+    private static final int DAYS = 365;
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+    private static final String[] DOCTORS = {
+            "Dr. Ama Mensah", "Dr. Kwame Asante", "Dr. Esi Boateng", "Dr. Yaw Bonsu", "Dr. Akua Serwaa",
+            "Dr. Nana Ama", "Dr. Kofi Owusu", "Dr. Abena Darko"
+    };
+    private static final String[] DEPARTMENTS = {
+            "General", "Cardiology", "Pediatrics", "Orthopedics", "Dermatology", "Surgery"
+    };
+    private static final String[] APPOINTMENT_STATUSES = {"Scheduled", "Completed", "Completed", "Cancelled"};
+    private static final String[] SERVICES = {"Consultation", "Laboratory Test", "X-Ray", "Ultrasound", "Surgery"};
+    private static final String[] INVOICE_STATUSES = {"Unpaid", "Paid", "Paid", "Pending", "Partially Paid"};
+    private static final String[] INSURANCE = {"NHIS", "Private", "Corporate"};
+    private static final String[] VITALS_STATUSES = {"Normal", "Normal", "Normal", "Fever", "High Fever"};
+    private static final String[] WARDS = {"General Ward", "ICU", "Maternity", "Pediatrics"};
+    private static final String[] BED_STATUSES = {"Occupied", "Reserved", "Cleaning"};
+    private static final String[] PRIORITIES = {"Low", "Medium", "High", "Critical"};
+
+    private static final String[] APPOINTMENT_COLUMNS = {"ID", "Date", "Time", "Patient", "Doctor", "Department", "Status", "Notes"};
+    private static final String[] BILLING_COLUMNS = {"Invoice#", "Patient", "Service", "Date", "Amount", "Status", "Due Date", "Insurance"};
+    private static final String[] VITALS_COLUMNS = {
+            "Patient ID", "Patient Name", "Temperature (°C)", "Blood Pressure", "Heart Rate", "Oxygen Saturation",
+            "Respiratory Rate", "Weight (kg)", "Height (cm)", "BMI", "Last Updated", "Status"
+    };
+    private static final String[] BED_COLUMNS = {
+            "Bed No", "Ward", "Patient ID", "Patient Name", "Admission Date", "Condition", "Doctor", "Status", "Priority"
+    };
+
+    public static void main(String[] args) {
+        System.out.printf("%-14s %8s %18s %18s %8s%n", "Table", "Rows", "DefaultTableModel", "EncodedTableModel", "Saved");
+        long[] year = new long[2];
+        compare(year, "Appointments", APPOINTMENT_COLUMNS, DAYS * 120, DictionaryFootprint::appointment,
+                DictionaryFootprint::appointments);
+        compare(year, "Billing", BILLING_COLUMNS, DAYS * 100, DictionaryFootprint::invoice, DictionaryFootprint::invoices);
+        compare(year, "Vitals", VITALS_COLUMNS, DAYS * 80, DictionaryFootprint::vitals, DictionaryFootprint::vitalsReadings);
+        compare(year, "Beds", BED_COLUMNS, DAYS * 10, DictionaryFootprint::bed, DictionaryFootprint::beds);
+        print("Year", "", year[0], year[1]);
+        System.out.println("Shared values: " + StringDictionary.describeShared());
+
+        timeCounts();
+    }
+
+    // Heap of the same rows in both models, added to the year's totals
+    private static void compare(long[] year, String table, String[] columns, int rows, IntFunction<Object[]> row,
+                                Supplier<EncodedTableModel> encoded) {
+        long plain = measure(() -> fill(new DefaultTableModel(columns, 0), rows, row));
+        long packed = measure(() -> fill(encoded.get(), rows, row));
+        print(table, String.format("%,d", rows), plain, packed);
+        year[0] += plain;
+        year[1] += packed;
+    }
+
+    private static void print(String table, String rows, long plain, long packed) {
+        System.out.printf("%-14s %8s %15.1f MB %15.1f MB %7.0f%%%n", table, rows,
+                plain / 1048576.0, packed / 1048576.0, 100.0 * (plain - packed) / plain);
+    }
+
+    private static <M extends DefaultTableModel> M fill(M model, int rows, IntFunction<Object[]> row) {
+        for (int i = 0; i < rows; i++) {
+            model.addRow(row.apply(i));
+        }
+        return model;
+    }
+
+    // The panels' models, with the same columns encoded
+
+    private static EncodedTableModel appointments() {
+        return new EncodedTableModel(APPOINTMENT_COLUMNS, 0)
+                .encode(4, StringDictionary.shared("doctor"))
+                .encode(5, StringDictionary.shared("department"))
+                .encode(6, StringDictionary.shared("appointment status", "Scheduled", "Completed", "Cancelled"));
+    }
+
+    private static EncodedTableModel invoices() {
+        return new EncodedTableModel(BILLING_COLUMNS, 0)
+                .encode(2, StringDictionary.shared("service"))
+                .encode(5, StringDictionary.shared("invoice status", "Unpaid", "Paid", "Pending", "Partially Paid"))
+                .encode(7, StringDictionary.shared("insurance"));
+    }
+
+    private static EncodedTableModel vitalsReadings() {
+        return new EncodedTableModel(VITALS_COLUMNS, 0)
+                .encode(11, StringDictionary.shared("vitals status", "Normal", "Fever", "High Fever"));
+    }
+
+    private static EncodedTableModel beds() {
+        return new EncodedTableModel(BED_COLUMNS, 0)
+                .encode(1, StringDictionary.shared("ward", "General Ward", "ICU", "Maternity", "Pediatrics"))
+                .encode(6, StringDictionary.shared("doctor"))
+                .encode(7, StringDictionary.shared("bed status"))
+                .encode(8, StringDictionary.shared("priority"));
+    }
+
+    // Synthetic rows, one String per cell
+
+    private static Object[] appointment(int i) {
+        return new Object[]{
+                i + 1, date(i / 120), fresh(String.format("%02d:%02d", 8 + i % 9, i % 4 * 15)), fresh("Patient " + i % 5000),
+                pick(DOCTORS, i), pick(DEPARTMENTS, i / 3), pick(APPOINTMENT_STATUSES, i / 7), fresh("Follow-up " + i % 40)
+        };
+    }
+
+    private static Object[] invoice(int i) {
+        return new Object[]{
+                fresh("INV-" + (1001 + i)), fresh("Patient " + i % 5000), pick(SERVICES, i), date(i / 100),
+                fresh(String.format("₵%,.2f", 50 + i % 300 * 5.0)), pick(INVOICE_STATUSES, i / 3),
+                date(i / 100 + 30), pick(INSURANCE, i / 5)
+        };
+    }
+
+    private static Object[] vitals(int i) {
+        return new Object[]{
+                fresh("PAT-" + (1001 + i % 5000)), fresh("Patient " + i % 5000), fresh(String.valueOf(36.0 + i % 40 / 10.0)),
+                fresh((110 + i % 30) + "/" + (70 + i % 20)), fresh(String.valueOf(60 + i % 40)), fresh((95 + i % 5) + "%"),
+                fresh(String.valueOf(12 + i % 8)), fresh(String.valueOf(50 + i % 50)), fresh(String.valueOf(150 + i % 40)),
+                fresh(String.format("%.1f", 18 + i % 12 * 0.5)), date(i / 80), pick(VITALS_STATUSES, i)
+        };
+    }
+
+    private static Object[] bed(int i) {
+        return new Object[]{
+                fresh(String.format("B-%03d", i % 50)), pick(WARDS, i), fresh("PAT-" + (1001 + i % 5000)),
+                fresh("Patient " + i % 5000), date(i / 10), fresh("Observation"), pick(DOCTORS, i / 2),
+                pick(BED_STATUSES, i / 3), pick(PRIORITIES, i / 5)
+        };
+    }
+
+    private static String date(int day) {
+        return fresh(START.plusDays(day).toString());
+    }
+
+    private static String pick(String[] values, int i) {
+        return fresh(values[i % values.length]);
+    }
+
+    // A copy that shares nothing with the literal, as readUTF would return
+    private static String fresh(String value) {
+        return new String(value.toCharArray());
+    }
+
+    // updateStats over a year of appointments, 200 times each way
+    private static void timeCounts() {
+        int rows = DAYS * 120;
+        EncodedTableModel encoded = fill(appointments(), rows, DictionaryFootprint::appointment);
+        int checksum = 0;
+        long strings = Long.MAX_VALUE, codes = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long started = System.nanoTime();
+            for (int i = 0; i < 200; i++) {
+                checksum += countByString(encoded);
+            }
+            strings = Math.min(strings, System.nanoTime() - started);
+            started = System.nanoTime();
+            for (int i = 0; i < 200; i++) {
+                checksum += encoded.count(6, "Scheduled") + encoded.count(6, "Completed") + encoded.count(6, "Cancelled");
+            }
+            codes = Math.min(codes, System.nanoTime() - started);
+        }
+        System.out.printf("Appointment status counts over %,d rows: strings %.3f ms, codes %.3f ms, %.1fx (checksum %d)%n",
+                rows, strings / 200 / 1e6, codes / 200 / 1e6, (double) strings / codes, checksum);
+    }
+
+    // What AppointmentPanel.updateStats did before
+    private static int countByString(DefaultTableModel model) {
+        int scheduled = 0, completed = 0, cancelled = 0;
+        for (int i = 0; i < model.getRowCount(); i++) {
+            String status = model.getValueAt(i, 6).toString();
+            switch (status.toLowerCase()) {
+                case "scheduled": scheduled++; break;
+                case "completed": completed++; break;
+                case "cancelled": cancelled++; break;
+            }
+        }
+        return scheduled + completed + cancelled;
+    }
+
+    private static long measure(Supplier<Object> builder) {
+        long before = usedHeap();
+        Object retained = builder.get();
+        long after = usedHeap();
+        // Keep the rows reachable until after the second measurement
+        Reference.reachabilityFence(retained);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,140 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.DuplicateDetector;
+import upsa.clinic.data.PatientStore;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Registers 500k patients, one in a hundred a re-registration of an earlier
+ * patient with a typical difference, and times the incremental check on
+ * insert and the whole-registry pass. Reports how many of the planted
+ * duplicates each kind of difference lets through.
+ *
+ * java -Xmx2g upsa.clinic.bench.DuplicateDetectionBenchmark
+ */
+public class DuplicateDetectionBenchmark {
+
+    private static final int ROWS = 500_000;
+    private static final String[] KINDS = {
+            "same Index No", "name typo", "names swapped, new phone", "name typo, new DOB"
+    };
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        PatientStore store = new PatientStore();
+        DuplicateDetector detector = new DuplicateDetector(store);
+
+        // Planted pairs as (original slot << 32 | duplicate slot), and their kind
+        long[] planted = new long[ROWS / 100];
+        int[] plantedKind = new int[planted.length];
+        int plantedCount = 0;
+        Object[][] recent = new Object[100][];
+
+        long[] checkSamples = new long[ROWS / 100];
+        int checkCount = 0;
+        long insertStart = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            Object[] row = PatientStoreFootprint.syntheticRow(i);
+            row[PatientStore.COL_NAME] = FuzzyNameBenchmark.name(random);
+            row[PatientStore.COL_DOB] = LocalDate.of(1990, 1, 1).plusDays(random.nextInt(15 * 365)).toString();
+
+            if (i % 100 == 99) {
+                int original = i - 1 - random.nextInt(98);
+                int kind = plantedCount % KINDS.length;
+                duplicate(row, recent[original % 100], kind, random);
+
+                long start = System.nanoTime();
+                detector.check(row);
+                checkSamples[checkCount++] = System.nanoTime() - start;
+
+                planted[plantedCount] = ((long) original << 32) | i;
+                plantedKind[plantedCount++] = kind;
+            }
+            recent[i % 100] = row;
+            store.add(row);
+        }
+        long insertElapsed = System.nanoTime() - insertStart;
+        Arrays.sort(checkSamples, 0, checkCount);
+        System.out.printf("Inserted %,d patients with incremental checks in %,d ms; flagged on insert: %,d%n",
+                ROWS, insertElapsed / 1_000_000, detector.flaggedCount());
+        System.out.printf("Registration check: p50 %.3f ms, p99 %.3f ms%n",
+                checkSamples[checkCount / 2] / 1e6, checkSamples[checkCount * 99 / 100] / 1e6);
+
+        // Warm up once, then time the whole-registry pass
+        detector.findAll();
+        long start = System.nanoTime();
+        List<DuplicateDetector.Match> matches = detector.findAll();
+        long elapsed = System.nanoTime() - start;
+
+        // Slots equal row numbers here, since nothing was removed
+        Set<Long> found = new HashSet<>();
+        for (DuplicateDetector.Match match : matches) {
+            int a = Math.min(match.getSlot(), match.getOtherSlot());
+            int b = Math.max(match.getSlot(), match.getOtherSlot());
+            found.add(((long) a << 32) | b);
+        }
+        int[] foundPerKind = new int[KINDS.length];
+        int[] plantedPerKind = new int[KINDS.length];
+        int recovered = 0;
+        for (int p = 0; p < plantedCount; p++) {
+            plantedPerKind[plantedKind[p]]++;
+            if (found.contains(planted[p])) {
+                foundPerKind[plantedKind[p]]++;
+                recovered++;
+            }
+        }
+
+        System.out.printf("Full pass on %d cores: %,d ms, %,d pairs reported, %,d of %,d planted found, %,d others%n",
+                Runtime.getRuntime().availableProcessors(), elapsed / 1_000_000, matches.size(),
+                recovered, plantedCount, matches.size() - recovered);
+        System.out.println("  (others are mostly namesakes sharing a DOB, common with this small name pool)");
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            System.out.printf("  %-26s %,5d / %,5d%n", KINDS[kind], foundPerKind[kind], plantedPerKind[kind]);
+        }
+    }
+
+    private static void duplicate(Object[] row, Object[] original, int kind, Random random) {
+        String name = original[PatientStore.COL_NAME].toString();
+        row[PatientStore.COL_NAME] = name;
+        row[PatientStore.COL_DOB] = original[PatientStore.COL_DOB];
+        row[PatientStore.COL_PHONE] = original[PatientStore.COL_PHONE];
+        switch (kind) {
+            case 0:
+                row[PatientStore.COL_INDEX_NO] = original[PatientStore.COL_INDEX_NO];
+                break;
+            case 1:
+                row[PatientStore.COL_NAME] = typo(name, random);
+                break;
+            case 2:
+                String[] words = name.split(" ");
+                row[PatientStore.COL_NAME] = words[1] + " " + words[0];
+                break;
+            default:
+                row[PatientStore.COL_NAME] = typo(name, random);
+                row[PatientStore.COL_DOB] = LocalDate.parse(original[PatientStore.COL_DOB].toString()).plusDays(1).toString();
+                break;
+        }
+    }
+
+    // Drops, doubles or replaces one letter after the first
+    private static String typo(String name, Random random) {
+        int at = 1 + random.nextInt(name.length() - 1);
+        if (name.charAt(at) == ' ') {
+            at--;
+        }
+        switch (random.nextInt(3)) {
+            case 0:
+                return name.substring(0, at) + name.substring(at + 1);
+            case 1:
+                return name.substring(0, at) + name.charAt(at) + name.substring(at);
+            default:
+                return name.substring(0, at) + (char) ('a' + random.nextInt(26)) + name.substring(at + 1);
+        }
+    }
+}
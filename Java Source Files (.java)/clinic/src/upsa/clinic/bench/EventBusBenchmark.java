@@ -0,0 +1,121 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.EventBus;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Throughput and allocation of the event bus with the subscribers the app
+ * has: one on the EDT and one on a background thread. Events are published
+ * in bursts of 256, the most a CSV import or a busy desk produces between
+ * two turns of the EDT, each burst delivered before the next; then as fast
+ * as one thread can publish, where slow subscribers fall behind and are
+ * told what they missed. Reports events per second and bytes allocated per
+ * event by the publisher and by each subscriber's thread; events themselves
+ * allocate nothing, what shows is the scheduling of each delivery turn.
+ *
+ * java upsa.clinic.bench.EventBusBenchmark
+ */
+public class EventBusBenchmark {
+
+    private static final int BURST = 256;
+    private static final int BURSTS = 8_000;
+    private static final int FLOOD = 5_000_000;
+    private static final ClinicEvent.Type[] TYPES = ClinicEvent.Type.values();
+    private static final String[] SUBJECTS = {"DRUG-1001", "PAT-1002", "B-101", "INV-1003"};
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        EventBus bus = new EventBus(4096);
+        Counter edt = new Counter();
+        Counter background = new Counter();
+        EventBus.Subscription onEdt = bus.subscribeOnEdt("edt", edt);
+        EventBus.Subscription onThread = bus.subscribe("background", background);
+
+        // Warm up both paths
+        run(bus, 200, onEdt, onThread);
+
+        long publisher = Thread.currentThread().getId();
+        long edtBefore = allocated(threads, edt), backgroundBefore = allocated(threads, background);
+        long publisherBefore = threads.getThreadAllocatedBytes(publisher);
+        long delivered = onEdt.getDelivered();
+        long started = System.nanoTime();
+        run(bus, BURSTS, onEdt, onThread);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long events = (long) BURSTS * BURST;
+        System.out.printf("Bursts of %d: %,d events delivered to both subscribers in %.2f s, %,.0f events/s%n",
+                BURST, events, seconds, events / seconds);
+        System.out.printf("  bytes allocated per event: publisher %.2f, EDT subscriber %.2f, background subscriber %.2f%n",
+                (double) (threads.getThreadAllocatedBytes(publisher) - publisherBefore) / events,
+                (double) (allocated(threads, edt) - edtBefore) / events,
+                (double) (allocated(threads, background) - backgroundBefore) / events);
+        System.out.printf("  %,d EDT turns, %.0f events per turn, %,d missed%n",
+                onEdt.getBatches(), (double) (onEdt.getDelivered() - delivered) / Math.max(1, onEdt.getBatches()),
+                onEdt.getMissed() + onThread.getMissed());
+
+        publisherBefore = threads.getThreadAllocatedBytes(publisher);
+        long deliveredBefore = onEdt.getDelivered() + onThread.getDelivered();
+        started = System.nanoTime();
+        for (int i = 0; i < FLOOD; i++) {
+            bus.publish(TYPES[i % TYPES.length], SUBJECTS[i & 3], "Paracetamol 500mg", i);
+        }
+        seconds = (System.nanoTime() - started) / 1e9;
+        double publishedPerSecond = FLOOD / seconds;
+        long publisherBytes = threads.getThreadAllocatedBytes(publisher) - publisherBefore;
+        settle(bus, onEdt, onThread);
+        System.out.printf("Flood: %,d events published in %.2f s, %,.0f events/s, %.2f bytes allocated per event%n",
+                FLOOD, seconds, publishedPerSecond, (double) publisherBytes / FLOOD);
+        System.out.printf("  subscribers got %,d and were told they missed %,d; events intact: %s%n",
+                onEdt.getDelivered() + onThread.getDelivered() - deliveredBefore, onEdt.getMissed() + onThread.getMissed(),
+                edt.consistent() && background.consistent() ? "ok" : "WRONG");
+        System.out.println(bus.describeStats());
+        onEdt.close();
+        onThread.close();
+    }
+
+    // Publishes bursts, each delivered to both subscribers before the next
+    private static void run(EventBus bus, int bursts, EventBus.Subscription... subscriptions) throws Exception {
+        for (int burst = 0; burst < bursts; burst++) {
+            for (int i = 0; i < BURST; i++) {
+                bus.publish(TYPES[i % TYPES.length], SUBJECTS[i & 3], "Paracetamol 500mg", i);
+            }
+            settle(bus, subscriptions);
+        }
+    }
+
+    private static void settle(EventBus bus, EventBus.Subscription... subscriptions) throws InterruptedException {
+        for (EventBus.Subscription subscription : subscriptions) {
+            long expected = bus.getPublished();
+            while (subscription.getDelivered() + subscription.getMissed() < expected) {
+                Thread.onSpinWait();
+                Thread.yield();
+            }
+        }
+    }
+
+    private static long allocated(com.sun.management.ThreadMXBean threads, Counter counter) {
+        return counter.thread == 0 ? 0 : threads.getThreadAllocatedBytes(counter.thread);
+    }
+
+    // Checks every event arrives whole: the amount matches the position in its burst or flood
+    private static final class Counter implements EventBus.Subscriber {
+        volatile long thread;
+        private long torn;
+
+        @Override
+        public void onEvent(ClinicEvent event, boolean endOfBatch) {
+            if (thread == 0) {
+                thread = Thread.currentThread().getId();
+            }
+            long amount = event.getAmount();
+            if (event.getType() != TYPES[(int) (amount % TYPES.length)] || event.getSubject() != SUBJECTS[(int) (amount & 3)]) {
+                torn++;
+            }
+        }
+
+        boolean consistent() {
+            return torn == 0;
+        }
+    }
+}
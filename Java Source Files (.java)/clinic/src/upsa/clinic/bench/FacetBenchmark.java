@@ -0,0 +1,86 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.FacetIndex;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.SlotBitmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares facet counts and a three-way screening filter ("Level 300 AND
+ * Genotype AS AND Active") answered from bitmaps against a scan of the store
+ * at 1M patients, and checks both give the same answer.
+ *
+ * java -Xmx3g upsa.clinic.bench.FacetBenchmark
+ */
+public class FacetBenchmark {
+
+    private static final int ROWS = 1_000_000;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) {
+        PatientStore store = new PatientStore();
+        for (int i = 0; i < ROWS; i++) {
+            store.add(PatientStoreFootprint.syntheticRow(i));
+        }
+        FacetIndex facets = new FacetIndex(store);
+
+        Map<Integer, String> screening = new LinkedHashMap<>();
+        screening.put(PatientStore.COL_LEVEL, "300");
+        screening.put(PatientStore.COL_GENOTYPE, "AS");
+        screening.put(PatientStore.COL_STATUS, "Active");
+
+        int scanned = 0;
+        int indexed = 0;
+        long scanCount = 0;
+        long bitmapCount = 0;
+        long scanFilter = 0;
+        long bitmapFilter = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            scanned = store.count(PatientStore.COL_STATUS, "Active");
+            scanCount += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            indexed = facets.count(PatientStore.COL_STATUS, "Active");
+            bitmapCount += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int scanMatches = scanFilter(store, screening);
+            scanFilter += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            SlotBitmap selected = facets.select(screening);
+            int[] slots = selected.toArray();
+            bitmapFilter += System.nanoTime() - start;
+
+            if (scanned != indexed || scanMatches != slots.length) {
+                throw new IllegalStateException("Bitmap and scan disagree");
+            }
+        }
+
+        System.out.printf("Active count (%d):         scan %7.3f ms   bitmap %7.3f ms%n",
+                indexed, scanCount / 1e6 / ROUNDS, bitmapCount / 1e6 / ROUNDS);
+        System.out.printf("300 AND AS AND Active (%d): scan %7.3f ms   bitmap %7.3f ms%n",
+                facets.select(screening).cardinality(), scanFilter / 1e6 / ROUNDS, bitmapFilter / 1e6 / ROUNDS);
+    }
+
+    private static int scanFilter(PatientStore store, Map<Integer, String> selection) {
+        int matches = 0;
+        for (int row = 0; row < store.size(); row++) {
+            int slot = store.slotAt(row);
+            boolean match = true;
+            for (Map.Entry<Integer, String> term : selection.entrySet()) {
+                if (!store.getString(slot, term.getKey()).equals(term.getValue())) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
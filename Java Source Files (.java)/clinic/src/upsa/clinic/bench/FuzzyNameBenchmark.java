@@ -0,0 +1,90 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.FuzzyNameIndex;
+import upsa.clinic.data.PatientStore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times misspelt name lookups against the fuzzy name index at 1M patients.
+ * Names mix common Ghanaian first names and surnames with generated ones so
+ * the index holds tens of thousands of distinct words, as a real registry
+ * would.
+ *
+ * java -Xmx3g upsa.clinic.bench.FuzzyNameBenchmark
+ */
+public class FuzzyNameBenchmark {
+
+    private static final int ROWS = 1_000_000;
+    private static final int ROUNDS = 200;
+
+    private static final String[] FIRST_NAMES = {
+            "Ama", "Kwame", "Esi", "Yaw", "Akua", "Kofi", "Abena", "Kwabena", "Adwoa", "Kojo",
+            "Efua", "Kwaku", "Afua", "Yaa", "Kwesi", "Akosua", "Fiifi", "Araba", "Nana", "Philip"
+    };
+    private static final String[] SURNAMES = {
+            "Mensah", "Ofori", "Boateng", "Bonsu", "Serwaa", "Owusu", "Asante", "Appiah", "Osei", "Agyeman",
+            "Addo", "Darko", "Amoah", "Quaye", "Tetteh", "Acheampong", "Frimpong", "Nkrumah", "Opoku", "Sarpong"
+    };
+    private static final String[] SYLLABLES = {
+            "a", "ba", "bo", "da", "de", "fo", "ga", "ke", "ko", "kwa", "la", "ma", "me", "na", "ni",
+            "no", "pa", "po", "sa", "se", "so", "ta", "te", "to", "wa", "ya", "yo", "dwo", "gye", "nti"
+    };
+    private static final String[] QUERIES = {
+            "Serwah", "Mensa", "Akua Serwa", "Kwamee Ofory", "Boatng", "Esi Boateng", "Filip Asanti",
+            "Kwabna Nkruma", "Tete", "Nti Kobo"
+    };
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        PatientStore store = new PatientStore();
+        for (int i = 0; i < ROWS; i++) {
+            Object[] row = PatientStoreFootprint.syntheticRow(i);
+            row[PatientStore.COL_NAME] = name(random);
+            store.add(row);
+        }
+
+        long buildStart = System.nanoTime();
+        FuzzyNameIndex index = new FuzzyNameIndex(store);
+        System.out.printf("Indexed %d patients, %d distinct name words in %d ms%n",
+                ROWS, index.tokenCount(), (System.nanoTime() - buildStart) / 1_000_000);
+
+        // Warm up before timing
+        for (int round = 0; round < 20; round++) {
+            for (String query : QUERIES) {
+                index.search(query, FuzzyNameIndex.DEFAULT_LIMIT);
+            }
+        }
+
+        for (String query : QUERIES) {
+            long[] samples = new long[ROUNDS];
+            int[] result = new int[0];
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                result = index.search(query, FuzzyNameIndex.DEFAULT_LIMIT);
+                samples[round] = System.nanoTime() - start;
+            }
+            Arrays.sort(samples);
+            String top = result.length == 0 ? "-" : store.getString(result[0], PatientStore.COL_NAME);
+            System.out.printf("%-16s p50 %6.2f ms  p99 %6.2f ms  top: %s%n", query,
+                    samples[ROUNDS / 2] / 1e6, samples[ROUNDS * 99 / 100] / 1e6, top);
+        }
+    }
+
+    static String name(Random random) {
+        String first = random.nextInt(4) == 0 ? generated(random) : FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String last = random.nextInt(2) == 0 ? generated(random) : SURNAMES[random.nextInt(SURNAMES.length)];
+        return first + " " + last;
+    }
+
+    private static String generated(Random random) {
+        StringBuilder word = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+        return word.toString();
+    }
+}
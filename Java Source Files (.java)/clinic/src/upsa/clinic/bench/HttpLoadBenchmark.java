@@ -0,0 +1,214 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.ClinicFiles;
+import upsa.clinic.data.HttpQueryService;
+import upsa.clinic.data.InventoryFile;
+import upsa.clinic.data.Persistence;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Kiosks hammering the HTTP query service while the desk keeps working.
+ * 5,000 appointments, 120 beds and 1,500 drugs; 16 clients on keep-alive
+ * connections request the appointments, a day's appointments, the free beds
+ * and the pharmacy stock in turn, half of them sending back the ETag they
+ * last saw. Meanwhile the desk changes an appointment every 100 ms and
+ * dispenses a drug every 500 ms. Reports requests per second and the p50,
+ * p99 and p99.9 latency of each path.
+ *
+ * java upsa.clinic.bench.HttpLoadBenchmark
+ */
+public class HttpLoadBenchmark {
+
+    private static final int APPOINTMENTS = 5_000;
+    private static final int BEDS = 120;
+    private static final int DRUGS = 1_500;
+    private static final int CLIENTS = 16;
+    private static final long WARMUP_MILLIS = 2_000;
+    private static final long MEASURE_MILLIS = 10_000;
+    private static final String[] PATHS = {
+            "/appointments", "/appointments?date=2025-05-12", "/beds?status=Available", "/pharmacy"};
+
+    private static volatile boolean measuring;
+    private static volatile boolean stopped;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty(ClinicFiles.HOME_PROPERTY, Files.createTempDirectory("clinic-http").toString());
+        // Keep one connection per client alive
+        System.setProperty("http.maxConnections", String.valueOf(CLIENTS));
+
+        DefaultTableModel appointments = new DefaultTableModel(new String[]{
+                "ID", "Date", "Time", "Patient", "Doctor", "Department", "Status", "Notes"}, 0);
+        DefaultTableModel beds = new DefaultTableModel(new String[]{
+                "Bed No", "Ward", "Patient ID", "Patient Name", "Admission Date", "Condition", "Doctor", "Status",
+                "Priority"}, 0);
+        SwingUtilities.invokeAndWait(() -> {
+            Persistence.open("appointments", appointments);
+            Persistence.open("beds", beds);
+            for (int i = 0; i < APPOINTMENTS; i++) {
+                appointments.addRow(new Object[]{i + 1, "2025-05-" + (10 + i % 20),
+                        String.format("%02d:%02d", 8 + i % 9, i % 4 * 15), "Patient " + i, "Dr. Kwame Asante",
+                        "General", "Scheduled", "Routine checkup"});
+            }
+            for (int i = 0; i < BEDS; i++) {
+                boolean free = i % 3 == 0;
+                beds.addRow(new Object[]{"B-" + (101 + i), i % 2 == 0 ? "General Ward" : "Maternity",
+                        free ? "" : "PAT-" + (1001 + i), free ? "" : "Patient " + i, free ? "" : "2025-05-01",
+                        free ? "" : "Stable", free ? "" : "Dr. Ama Mensah", free ? "Available" : "Occupied", "Normal"});
+            }
+        });
+        InventoryFile desk = InventoryFile.open();
+        for (int i = 0; i < DRUGS; i++) {
+            desk.add("DRG-" + (1001 + i), "Drug " + i, "Antibiotic", 1_000_000, 150 + i % 5000,
+                    LocalDate.of(2027, 1, 1).plusDays(i % 700), "Ernest Chemists", "In Stock");
+        }
+
+        HttpQueryService service = new HttpQueryService(0, InventoryFile.open());
+        Thread editor = new Thread(() -> edit(appointments, desk), "desk");
+        editor.setDaemon(true);
+        editor.start();
+
+        Client[] clients = new Client[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = new Client(service.getPort(), i, i % 2 == 0);
+            clients[i].start();
+        }
+        Thread.sleep(WARMUP_MILLIS);
+        long served = service.getRequests();
+        long notModified = service.getNotModified();
+        long serialized = service.getSerialized();
+        measuring = true;
+        Thread.sleep(MEASURE_MILLIS);
+        measuring = false;
+        stopped = true;
+        for (Client client : clients) {
+            client.join();
+        }
+
+        System.out.println(service.describeStats());
+        long total = 0;
+        for (Client client : clients) {
+            total += client.failures;
+        }
+        System.out.printf("%,d clients, %s: %,.0f requests/s, %,d answered 304, %,d bodies serialized, %,d failed%n",
+                CLIENTS, service.usesVirtualThreads() ? "virtual threads" : "thread pool",
+                (service.getRequests() - served) * 1000.0 / MEASURE_MILLIS, service.getNotModified() - notModified,
+                service.getSerialized() - serialized, total);
+        for (int path = 0; path < PATHS.length; path++) {
+            int count = 0;
+            for (Client client : clients) {
+                count += client.counts[path];
+            }
+            long[] all = new long[count];
+            int at = 0;
+            for (Client client : clients) {
+                System.arraycopy(client.nanos[path], 0, all, at, client.counts[path]);
+                at += client.counts[path];
+            }
+            Arrays.sort(all);
+            System.out.printf("  %-30s %,8d requests  p50 %6.2f ms  p99 %6.2f ms  p99.9 %6.2f ms  %,7d bytes%n",
+                    PATHS[path], count, percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999),
+                    clients[0].bytes[path]);
+        }
+        service.close();
+        desk.close();
+    }
+
+    private static void edit(DefaultTableModel appointments, InventoryFile desk) {
+        Random random = new Random(18);
+        String[] statuses = {"Scheduled", "Checked In", "Completed", "Cancelled"};
+        for (int tick = 0; !stopped; tick++) {
+            try {
+                int row = random.nextInt(APPOINTMENTS);
+                String status = statuses[random.nextInt(statuses.length)];
+                SwingUtilities.invokeAndWait(() -> appointments.setValueAt(status, row, 6));
+                if (tick % 5 == 0) {
+                    desk.addStock(random.nextInt(DRUGS), -1, quantity -> "In Stock");
+                }
+                Thread.sleep(100);
+            } catch (Exception e) {
+                return;
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1e6;
+    }
+
+    private static final class Client extends Thread {
+        private final int port;
+        private final boolean revalidates;
+        private final Map<String, String> etags = new HashMap<>();
+        private final byte[] buffer = new byte[64 * 1024];
+        final long[][] nanos = new long[PATHS.length][1 << 16];
+        final int[] counts = new int[PATHS.length];
+        final int[] bytes = new int[PATHS.length];
+        long failures;
+
+        Client(int port, int number, boolean revalidates) {
+            super("client-" + number);
+            setDaemon(true);
+            this.port = port;
+            this.revalidates = revalidates;
+        }
+
+        @Override
+        public void run() {
+            for (int request = 0; !stopped; request++) {
+                int path = request % PATHS.length;
+                long start = System.nanoTime();
+                try {
+                    int read = get(PATHS[path]);
+                    if (read > 0) {
+                        bytes[path] = read;
+                    }
+                } catch (IOException e) {
+                    failures++;
+                    continue;
+                }
+                long took = System.nanoTime() - start;
+                if (measuring && counts[path] < nanos[path].length) {
+                    nanos[path][counts[path]++] = took;
+                }
+            }
+        }
+
+        // Bytes of body read, 0 for a 304
+        private int get(String path) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+                    .openConnection();
+            String etag = etags.get(path);
+            if (revalidates && etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            int status = connection.getResponseCode();
+            if (status != 200 && status != 304) {
+                throw new IOException(path + " answered " + status);
+            }
+            etags.put(path, connection.getHeaderField("ETag"));
+            int total = 0;
+            // Read to the end so the connection goes back for reuse
+            try (InputStream in = connection.getInputStream()) {
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    total += n;
+                }
+            }
+            return total;
+        }
+    }
+}
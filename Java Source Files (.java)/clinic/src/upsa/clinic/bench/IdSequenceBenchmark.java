@@ -0,0 +1,68 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.IdSequence;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Allocates IDs from many threads at once, checks that none is handed out
+ * twice, and checks that a restarted sequence continues above every ID
+ * already issued. Runs against a throwaway directory.
+ *
+ * java upsa.clinic.bench.IdSequenceBenchmark
+ */
+public class IdSequenceBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 250_000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("id-sequence");
+
+        for (int blockSize : new int[]{64, 1024}) {
+            String name = "bench-" + blockSize;
+            IdSequence sequence = new IdSequence(name, 1, blockSize, directory);
+            long[][] issued = new long[THREADS][IDS_PER_THREAD];
+
+            Thread[] threads = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                long[] ids = issued[t];
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = sequence.next();
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long[] all = new long[THREADS * IDS_PER_THREAD];
+            for (int t = 0; t < THREADS; t++) {
+                System.arraycopy(issued[t], 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+            }
+            Arrays.sort(all);
+            for (int i = 1; i < all.length; i++) {
+                if (all[i] == all[i - 1]) {
+                    throw new IllegalStateException("ID " + all[i] + " issued twice");
+                }
+            }
+
+            // A fresh instance stands in for the application restarting
+            long afterRestart = new IdSequence(name, 1, blockSize, directory).next();
+            if (afterRestart <= all[all.length - 1]) {
+                throw new IllegalStateException("Restart reused ID " + afterRestart);
+            }
+
+            System.out.printf("block %5d: %,d unique IDs from %d threads in %d ms (%,.0f IDs/s), restart resumes at %d%n",
+                    blockSize, all.length, THREADS, elapsed / 1_000_000, all.length / (elapsed / 1e9), afterRestart);
+        }
+    }
+}
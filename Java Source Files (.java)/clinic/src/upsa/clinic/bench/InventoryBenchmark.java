@@ -0,0 +1,96 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.InventoryFile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Time to make one dispense durable with 1k, 10k and 50k drugs in stock:
+ * updating the record in place in the memory-mapped inventory file, against
+ * rewriting the whole inventory as CSV and syncing it. Also times how long
+ * a second handle on the same file takes to pick the change up.
+ *
+ * java upsa.clinic.bench.InventoryBenchmark
+ */
+public class InventoryBenchmark {
+
+    private static final int[] DRUGS = {1_000, 10_000, 50_000};
+    private static final int DISPENSES = 500;
+
+    public static void main(String[] args) throws Exception {
+        for (int drugs : DRUGS) {
+            Path directory = Files.createTempDirectory("inventory");
+            Path file = directory.resolve("inventory.dat");
+            try (InventoryFile inventory = InventoryFile.open(file);
+                 InventoryFile otherDesk = InventoryFile.open(file)) {
+                for (int i = 0; i < drugs; i++) {
+                    inventory.add("DRUG-" + (1001 + i), "Drug " + i + " 500mg", "Analgesics", 1_000_000, 50 + i % 500,
+                            LocalDate.of(2027, 1, 1).plusDays(i % 700), "MediCorp Ghana", "In Stock");
+                }
+                otherDesk.poll();
+
+                Random random = new Random(drugs);
+                long[] inPlace = new long[DISPENSES];
+                long[] seen = new long[DISPENSES];
+                for (int i = 0; i < DISPENSES; i++) {
+                    int row = random.nextInt(drugs);
+                    long start = System.nanoTime();
+                    inventory.addStock(row, -1, quantity -> quantity < 20 ? "Low Stock" : "In Stock");
+                    inPlace[i] = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    otherDesk.poll();
+                    seen[i] = System.nanoTime() - start;
+                    if (otherDesk.getQuantity(row) != inventory.getQuantity(row)) {
+                        throw new IllegalStateException("Second handle missed the dispense of row " + row);
+                    }
+                }
+
+                Path csv = directory.resolve("inventory.csv");
+                long[] rewrite = new long[DISPENSES];
+                for (int i = 0; i < DISPENSES; i++) {
+                    int row = random.nextInt(drugs);
+                    long start = System.nanoTime();
+                    inventory.addStock(row, -1, quantity -> quantity < 20 ? "Low Stock" : "In Stock");
+                    rewriteAll(inventory, csv);
+                    rewrite[i] = System.nanoTime() - start;
+                }
+
+                System.out.printf("%,7d drugs: in place p50 %.3f ms, p99 %.3f ms; whole-file rewrite p50 %.2f ms, p99 %.2f ms "
+                                + "(%,d KB); other desk sees it in p50 %.3f ms%n",
+                        drugs, percentile(inPlace, 50), percentile(inPlace, 99), percentile(rewrite, 50),
+                        percentile(rewrite, 99), Files.size(csv) / 1024, percentile(seen, 50));
+            }
+        }
+    }
+
+    private static void rewriteAll(InventoryFile inventory, Path csv) throws IOException {
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            for (int row = 0; row < inventory.size(); row++) {
+                out.write(inventory.getId(row) + "," + inventory.getName(row) + "," + inventory.getCategory(row) + ","
+                        + inventory.getQuantity(row) + "," + inventory.getUnitPrice(row) + "," + inventory.getExpiry(row)
+                        + "," + inventory.getSupplier(row) + "," + inventory.getStatus(row) + "\n");
+            }
+            out.flush();
+            channel.force(false);
+        }
+    }
+
+    private static double percentile(long[] nanos, int percent) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length * percent / 100] / 1e6;
+    }
+}
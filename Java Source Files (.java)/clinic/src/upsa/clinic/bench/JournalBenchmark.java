@@ -0,0 +1,98 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.Journal;
+import upsa.clinic.data.PatientStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a steady stream of patient inserts, updates and deletes into a
+ * journal from several threads, first with group commit and then with one
+ * fsync per entry, and reports the time from append until the entry is
+ * durable, the achieved throughput and how many entries shared each sync.
+ * Finally reads the journal back to check every entry survived.
+ *
+ * java upsa.clinic.bench.JournalBenchmark [mutations per second]
+ */
+public class JournalBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int SECONDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        run("group commit", rate, Integer.MAX_VALUE);
+        run("fsync per entry", rate, 1);
+    }
+
+    private static void run(String label, int rate, int maxBatch) throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        int total = rate * SECONDS;
+        long[] latencies = new long[total];
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch durable = new CountDownLatch(total);
+
+        Journal journal = new Journal(directory, maxBatch);
+        long intervalNanos = 1_000_000_000L * THREADS / rate;
+        long begin = System.nanoTime();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                long due = begin;
+                int i;
+                while ((i = next.getAndIncrement()) < total) {
+                    // Paced by schedule, not by completion, so a slow journal shows as latency
+                    due += intervalNanos;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    int index = i;
+                    long start = System.nanoTime();
+                    journal.append(mutation(i, random)).thenRun(() -> {
+                        latencies[index] = System.nanoTime() - start;
+                        durable.countDown();
+                    });
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        durable.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        journal.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %,d mutations in %.2f s = %,.0f/s durable; append-to-durable p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                label, total, seconds, total / seconds, latencies[total / 2] / 1e6,
+                latencies[total * 99 / 100] / 1e6, latencies[total - 1] / 1e6);
+        System.out.printf("%-16s %s%n", "", journal.describeStats());
+
+        AtomicInteger read = new AtomicInteger();
+        long bytes = Journal.read(directory, 0, entry -> read.incrementAndGet());
+        System.out.printf("%-16s read back %,d of %,d entries (%,d bytes)%n", "", read.get(), total, bytes);
+    }
+
+    private static Journal.Entry mutation(int i, Random random) {
+        int rows = 1 + i;
+        switch (random.nextInt(4)) {
+            case 0:
+                return Journal.Entry.delete("patients", random.nextInt(rows), random.nextInt(rows));
+            case 1:
+                return Journal.Entry.update("patients", random.nextInt(rows), PatientStore.COL_STATUS,
+                        new Object[]{random.nextBoolean() ? "Active" : "Inactive"});
+            default:
+                return Journal.Entry.insert("patients", rows, new Object[][]{PatientStoreFootprint.syntheticRow(i)});
+        }
+    }
+}
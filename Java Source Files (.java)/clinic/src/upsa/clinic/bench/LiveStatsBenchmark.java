@@ -0,0 +1,328 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.ClinicStats.Stat;
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.InventoryFile;
+import upsa.clinic.data.InventoryTableModel;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.StringDictionary;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.DefaultTableModel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the dashboard figures against a full recount after bursts of
+ * random changes to every table they watch: appointments booked, completed
+ * and cancelled, doctors on and off duty, drugs dispensed and restocked,
+ * invoices raised, paid and deleted, beds assigned and released, vitals
+ * and patients added and removed. Each burst is posted to the EDT in small
+ * batches, as edits and shipped journal entries arrive, and the benchmark
+ * counts how often the dashboard would have been refreshed meanwhile.
+ * Visits per day are checked against a recount as well.
+ * Also reports the cost of keeping the figures per change, against what a
+ * recount of every table would cost.
+ *
+ * java -Djava.awt.headless=true upsa.clinic.bench.LiveStatsBenchmark
+ */
+public class LiveStatsBenchmark {
+
+    private static final int BURSTS = 5;
+    private static final int CHANGES = 10_000;
+    private static final int BATCH = 10;
+
+    private static final String TODAY = LocalDate.now().toString();
+    private static final String[] APPOINTMENT_STATUSES = {"Scheduled", "Completed", "Cancelled"};
+    private static final String[] DOCTOR_STATUSES = {"Active", "On Leave", "Inactive"};
+    private static final String[] INVOICE_STATUSES = {"Unpaid", "Paid", "Pending", "Partially Paid"};
+    private static final String[] BED_STATUSES = {"Occupied", "Reserved", "Cleaning"};
+
+    private final Random random = new Random(42);
+    private final PatientStore patients = new PatientStore();
+    private final EncodedTableModel appointments = new EncodedTableModel(
+            new String[]{"ID", "Date", "Time", "Patient", "Doctor", "Department", "Status", "Notes"}, 0)
+            .encode(6, StringDictionary.shared("appointment status", APPOINTMENT_STATUSES));
+    private final EncodedTableModel doctors = new EncodedTableModel(
+            new String[]{"ID", "Name", "Specialty", "Department", "Phone", "Email", "Availability", "Status", "Experience"}, 0)
+            .encode(7, StringDictionary.shared("doctor status", DOCTOR_STATUSES));
+    private final EncodedTableModel billing = new EncodedTableModel(
+            new String[]{"Invoice#", "Patient", "Service", "Date", "Amount", "Status", "Due Date", "Insurance"}, 0)
+            .encode(5, StringDictionary.shared("invoice status", INVOICE_STATUSES));
+    private final EncodedTableModel beds = new EncodedTableModel(
+            new String[]{"Bed No", "Ward", "Patient ID", "Patient Name", "Admission Date", "Condition", "Doctor",
+                    "Status", "Priority"}, 0)
+            .encode(7, StringDictionary.shared("bed status", BED_STATUSES));
+    private final DefaultTableModel vitals = new DefaultTableModel(new String[]{"Patient ID", "Patient Name"}, 0);
+    private final InventoryFile inventory;
+    private final InventoryTableModel pharmacy;
+    private final ClinicStats stats = new ClinicStats();
+
+    // What the dashboard last showed, and how often it was refreshed
+    private final Map<Stat, Long> shown = new EnumMap<>(Stat.class);
+    private int refreshes;
+    private int serial;
+
+    private LiveStatsBenchmark(InventoryFile inventory) {
+        this.inventory = inventory;
+        this.pharmacy = new InventoryTableModel(inventory);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("live-stats");
+        try (InventoryFile inventory = InventoryFile.open(directory.resolve("inventory.dat"))) {
+            LiveStatsBenchmark benchmark = new LiveStatsBenchmark(inventory);
+            SwingUtilities.invokeAndWait(benchmark::fill);
+            benchmark.run();
+        }
+    }
+
+    // Starting data, then the figures start watching
+    private void fill() {
+        for (int i = 0; i < 10_000; i++) {
+            patients.add(PatientStoreFootprint.syntheticRow(i));
+        }
+        for (int i = 0; i < 5_000; i++) {
+            addAppointment();
+        }
+        for (int i = 0; i < 40; i++) {
+            doctors.addRow(new Object[]{"DOC-" + (1001 + i), "Dr. " + i, "General", "General", "", "", "Mon-Fri",
+                    pick(DOCTOR_STATUSES), "6-10 years"});
+        }
+        for (int i = 0; i < 300; i++) {
+            int quantity = random.nextInt(200);
+            inventory.add("DRUG-" + (1001 + i), "Drug " + i, "Analgesics", quantity, 50 + i,
+                    LocalDate.of(2027, 1, 1), "MediCorp Ghana", stockStatus(quantity));
+        }
+        for (int i = 0; i < 4_000; i++) {
+            addInvoice();
+        }
+        for (int i = 0; i < 40; i++) {
+            addBed();
+        }
+        for (int i = 0; i < 1_000; i++) {
+            vitals.addRow(new Object[]{"PAT-" + (1001 + i), "Patient " + i});
+        }
+
+        stats.watchPatients(patients);
+        stats.watchAppointments(appointments);
+        stats.watchDoctors(doctors);
+        stats.watchPharmacy(pharmacy);
+        stats.watchBilling(billing);
+        stats.watchBeds(beds);
+        stats.watchVitals(vitals);
+        stats.addChangeListener(e -> {
+            refreshes++;
+            for (Stat stat : Stat.values()) {
+                shown.put(stat, stats.get(stat));
+            }
+        });
+    }
+
+    private void run() throws Exception {
+        long changeNanos = 0, recountNanos = 0;
+        for (int burst = 1; burst <= BURSTS; burst++) {
+            int refreshesBefore = refreshes();
+            long started = System.nanoTime();
+            long[] busy = new long[1];
+            for (int posted = 0; posted < CHANGES; posted += BATCH) {
+                SwingUtilities.invokeLater(() -> {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < BATCH; i++) {
+                        change();
+                    }
+                    busy[0] += System.nanoTime() - start;
+                });
+                Thread.sleep(1);
+            }
+            SwingUtilities.invokeAndWait(() -> { });
+            double seconds = (System.nanoTime() - started) / 1e9;
+            // Let the last refresh of the burst run
+            Thread.sleep(ClinicStats.REFRESH_MILLIS * 2L);
+
+            long[] recount = new long[1];
+            String[] wrong = new String[1];
+            SwingUtilities.invokeAndWait(() -> {
+                long start = System.nanoTime();
+                Map<Stat, Long> expected = recount();
+                recount[0] = System.nanoTime() - start;
+                for (Stat stat : Stat.values()) {
+                    if (stats.get(stat) != expected.get(stat) || !expected.get(stat).equals(shown.get(stat))) {
+                        wrong[0] = stat + " is " + stats.get(stat) + ", shown " + shown.get(stat)
+                                + ", recounted " + expected.get(stat);
+                    }
+                }
+                Map<LocalDate, Integer> visits = recountVisits();
+                for (int back = 0; back < 60; back++) {
+                    LocalDate day = LocalDate.now().minusDays(back);
+                    int expectedVisits = visits.getOrDefault(day, 0);
+                    if (stats.getVisits().getCount(day) != expectedVisits) {
+                        wrong[0] = "Visits on " + day + " are " + stats.getVisits().getCount(day)
+                                + ", recounted " + expectedVisits;
+                    }
+                }
+            });
+            if (wrong[0] != null) {
+                throw new IllegalStateException("Burst " + burst + ": " + wrong[0]);
+            }
+            int burstRefreshes = refreshes() - refreshesBefore;
+            System.out.printf("Burst %d: %,d changes over %.2f s, %d dashboard refreshes, figures and visits match a recount%n",
+                    burst, CHANGES, seconds, burstRefreshes);
+            changeNanos += busy[0];
+            recountNanos += recount[0];
+        }
+        System.out.printf("Per change, table update and figures: %.3f ms; recounting every table instead: %.3f ms%n",
+                changeNanos / 1e6 / (BURSTS * CHANGES), recountNanos / 1e6 / BURSTS);
+        SwingUtilities.invokeAndWait(() -> {
+            for (Stat stat : Stat.values()) {
+                System.out.printf("  %-20s %,d of %,d rows%n", stat, stats.get(stat), stats.rows(stat));
+            }
+        });
+    }
+
+    // Appointments that were not cancelled, per day
+    private Map<LocalDate, Integer> recountVisits() {
+        Map<LocalDate, Integer> visits = new HashMap<>();
+        for (int row = 0; row < appointments.getRowCount(); row++) {
+            if (!"Cancelled".equals(appointments.getValueAt(row, 6))) {
+                visits.merge(LocalDate.parse(appointments.getValueAt(row, 1).toString()), 1, Integer::sum);
+            }
+        }
+        return visits;
+    }
+
+    private int refreshes() throws Exception {
+        int[] count = new int[1];
+        SwingUtilities.invokeAndWait(() -> count[0] = refreshes);
+        return count[0];
+    }
+
+    // One random change to one of the tables
+    private void change() {
+        switch (random.nextInt(14)) {
+            case 0: addAppointment(); break;
+            case 1: removeRow(appointments); break;
+            case 2: setRandom(appointments, 6, APPOINTMENT_STATUSES); break;
+            case 3: setDate(appointments, 1); break;
+            case 4: setRandom(doctors, 7, DOCTOR_STATUSES); break;
+            case 5: inventory.addStock(random.nextInt(inventory.size()), random.nextInt(41) - 20,
+                    LiveStatsBenchmark::stockStatus); break;
+            case 6: addInvoice(); break;
+            case 7: removeRow(billing); break;
+            case 8: setRandom(billing, 5, INVOICE_STATUSES); break;
+            case 9: setDate(billing, 3); break;
+            case 10: if (beds.getRowCount() < 50) addBed(); else removeRow(beds); break;
+            case 11: setRandom(beds, 7, BED_STATUSES); break;
+            case 12: if (random.nextBoolean()) vitals.addRow(new Object[]{"PAT-1001", "Patient"}); else removeRow(vitals); break;
+            default:
+                if (random.nextBoolean()) {
+                    patients.add(PatientStoreFootprint.syntheticRow(serial++));
+                } else if (patients.size() > 0) {
+                    patients.remove(patients.slotAt(random.nextInt(patients.size())));
+                }
+        }
+    }
+
+    private void addAppointment() {
+        appointments.addRow(new Object[]{serial++, date(), "09:00", "Patient", "Dr. Ama Mensah", "General",
+                pick(APPOINTMENT_STATUSES), ""});
+    }
+
+    private void addInvoice() {
+        billing.addRow(new Object[]{"INV-" + serial++, "Patient", "Consultation", date(),
+                String.format("₵%,.2f", 10 + random.nextInt(200_000) / 100.0), pick(INVOICE_STATUSES), date(), "NHIS"});
+    }
+
+    private void addBed() {
+        beds.addRow(new Object[]{"B-" + serial++, "General Ward", "PAT-1001", "Patient", TODAY, "Observation",
+                "Dr. Ama Mensah", pick(BED_STATUSES), "Medium"});
+    }
+
+    private void removeRow(DefaultTableModel model) {
+        if (model.getRowCount() > 0) {
+            model.removeRow(random.nextInt(model.getRowCount()));
+        }
+    }
+
+    private void setRandom(DefaultTableModel model, int column, String[] values) {
+        if (model.getRowCount() > 0) {
+            model.setValueAt(pick(values), random.nextInt(model.getRowCount()), column);
+        }
+    }
+
+    private void setDate(DefaultTableModel model, int column) {
+        if (model.getRowCount() > 0) {
+            model.setValueAt(date(), random.nextInt(model.getRowCount()), column);
+        }
+    }
+
+    // Today, this month or some other day, each a fresh String
+    private String date() {
+        int back = random.nextInt(4) == 0 ? 0 : random.nextInt(60);
+        return new String(LocalDate.now().minusDays(back).toString().toCharArray());
+    }
+
+    private String pick(String[] values) {
+        return new String(values[random.nextInt(values.length)].toCharArray());
+    }
+
+    private static String stockStatus(int quantity) {
+        return quantity == 0 ? "Out of Stock" : quantity < 20 ? "Low Stock" : "In Stock";
+    }
+
+    // The figures counted from scratch, comparing strings
+    private Map<Stat, Long> recount() {
+        Map<Stat, Long> expected = new EnumMap<>(Stat.class);
+        String month = TODAY.substring(0, 8);
+        long today = 0, active = 0, inStock = 0, revenue = 0, due = 0, occupied = 0;
+        for (int row = 0; row < appointments.getRowCount(); row++) {
+            if ("Scheduled".equals(appointments.getValueAt(row, 6)) && TODAY.equals(appointments.getValueAt(row, 1))) {
+                today++;
+            }
+        }
+        for (int row = 0; row < doctors.getRowCount(); row++) {
+            if ("Active".equals(doctors.getValueAt(row, 7))) {
+                active++;
+            }
+        }
+        for (int row = 0; row < inventory.size(); row++) {
+            if ("In Stock".equals(inventory.getStatus(row))) {
+                inStock++;
+            }
+        }
+        for (int row = 0; row < billing.getRowCount(); row++) {
+            String status = billing.getValueAt(row, 5).toString();
+            long pesewas = Math.round(Double.parseDouble(
+                    billing.getValueAt(row, 4).toString().replace("₵", "").replace(",", "")) * 100);
+            boolean thisMonth = billing.getValueAt(row, 3).toString().startsWith(month);
+            if (status.equals("Paid") && thisMonth) {
+                revenue += pesewas;
+            } else if (status.equals("Partially Paid")) {
+                revenue += thisMonth ? pesewas / 2 : 0;
+                due++;
+            } else if (!status.equals("Paid")) {
+                due++;
+            }
+        }
+        for (int row = 0; row < beds.getRowCount(); row++) {
+            if ("Occupied".equals(beds.getValueAt(row, 7))) {
+                occupied++;
+            }
+        }
+        expected.put(Stat.PATIENTS, (long) patients.size());
+        expected.put(Stat.APPOINTMENTS_TODAY, today);
+        expected.put(Stat.ACTIVE_DOCTORS, active);
+        expected.put(Stat.DRUGS_IN_STOCK, inStock);
+        expected.put(Stat.REVENUE_THIS_MONTH, revenue);
+        expected.put(Stat.OCCUPIED_BEDS, occupied);
+        expected.put(Stat.VITALS_MONITORED, (long) vitals.getRowCount());
+        expected.put(Stat.INVOICES_DUE, due);
+        return expected;
+    }
+}
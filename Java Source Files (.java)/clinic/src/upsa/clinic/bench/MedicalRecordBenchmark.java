@@ -0,0 +1,87 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.MedicalRecord;
+import upsa.clinic.data.MedicalRecordStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a few thousand medical records, then steps through them the way a
+ * nurse moves down the patient table, pausing briefly on each, first
+ * without and then with prefetching of the neighbouring rows. Reports the
+ * time to open each record and the cache counters.
+ *
+ * java upsa.clinic.bench.MedicalRecordBenchmark
+ */
+public class MedicalRecordBenchmark {
+
+    private static final int RECORDS = 5_000;
+    private static final int STEPS = 1_000;
+    private static final long PAUSE_MILLIS = 3;
+    private static final String[] ALLERGIES = {"Penicillin", "Sulfa drugs", "Peanuts", "Latex", "Aspirin"};
+    private static final String[] CONDITIONS = {"Asthma", "Diabetes", "Hypertension", "Sickle cell", "Migraine"};
+    private static final String[] MEDICATIONS = {"Salbutamol inhaler", "Metformin 500mg", "Amlodipine 5mg", "Folic acid"};
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("medical-records");
+        Random random = new Random(5);
+        MedicalRecordStore writer = new MedicalRecordStore(directory, MedicalRecordStore.DEFAULT_CACHE_BYTES);
+        for (int i = 0; i < RECORDS; i++) {
+            writer.save(record("PAT-" + (1001 + i), random));
+        }
+
+        run("no prefetch", directory, false);
+        run("prefetch +/-2", directory, true);
+    }
+
+    private static void run(String label, Path directory, boolean prefetch) throws Exception {
+        MedicalRecordStore store = new MedicalRecordStore(directory, MedicalRecordStore.DEFAULT_CACHE_BYTES);
+        long[] samples = new long[STEPS];
+        int start = label.length() * 997 % (RECORDS - STEPS);
+        for (int step = 0; step < STEPS; step++) {
+            int row = start + step;
+            long begin = System.nanoTime();
+            store.load("PAT-" + (1001 + row));
+            samples[step] = System.nanoTime() - begin;
+            if (prefetch) {
+                List<String> around = new ArrayList<>();
+                for (int neighbour = row - 2; neighbour <= row + 2; neighbour++) {
+                    around.add("PAT-" + (1001 + neighbour));
+                }
+                store.prefetch(around);
+            }
+            Thread.sleep(PAUSE_MILLIS);
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-14s open p50 %.3f ms, p99 %.3f ms%n  %s%n", label,
+                samples[STEPS / 2] / 1e6, samples[STEPS * 99 / 100] / 1e6, store.describeStats());
+    }
+
+    private static MedicalRecord record(String patientId, Random random) {
+        MedicalRecord record = new MedicalRecord(patientId,
+                pick(ALLERGIES, random.nextInt(3), random),
+                pick(CONDITIONS, random.nextInt(3), random),
+                pick(MEDICATIONS, random.nextInt(4), random),
+                Collections.<MedicalRecord.Visit>emptyList());
+        LocalDate date = LocalDate.of(2022, 1, 10);
+        for (int visit = 5 + random.nextInt(25); visit > 0; visit--) {
+            date = date.plusDays(1 + random.nextInt(40));
+            record = record.withVisit(date, "BP " + (100 + random.nextInt(40)) + "/" + (60 + random.nextInt(30))
+                    + " mmHg, pulse " + (60 + random.nextInt(40)) + ". Reviewed symptoms, advised rest and fluids.");
+        }
+        return record;
+    }
+
+    private static List<String> pick(String[] values, int count, Random random) {
+        List<String> shuffled = new ArrayList<>(Arrays.asList(values));
+        Collections.shuffle(shuffled, random);
+        return shuffled.subList(0, count);
+    }
+}
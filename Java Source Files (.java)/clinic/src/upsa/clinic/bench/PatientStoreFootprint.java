@@ -0,0 +1,98 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.PatientStore;
+
+import javax.swing.table.DefaultTableModel;
+import java.lang.ref.Reference;
+import java.util.function.Supplier;
+
+/**
+ * Compares the heap used by the old DefaultTableModel patient table with the
+ * columnar PatientStore at 10k, 100k and 1M rows.
+ *
+ * Run with a large heap, e.g. java -Xmx4g upsa.clinic.bench.PatientStoreFootprint
+ */
+public class PatientStoreFootprint {
+
+    private static final String[] PROGRAMS = {
+            "BSc Information Technology", "BSc Business Administration", "BSc Accounting",
+            "BSc Nursing", "BSc Public Health", "Diploma in Management"
+    };
+    private static final String[] LEVELS = {"100", "200", "300", "400", "Graduate"};
+    private static final String[] GENDERS = {"Male", "Female", "Other"};
+    private static final String[] BLOOD_GROUPS = {"A+", "A-", "B+", "B-", "AB+", "AB-", "O+", "O-"};
+    private static final String[] GENOTYPES = {"AA", "AS", "SS", "AC"};
+    private static final String[] SICKLING = {"Negative", "Positive"};
+    private static final String[] STATUSES = {"Active", "Inactive", "Discharged"};
+    private static final String[] CONDITIONS = {"None", "Diabetes", "Hypertension", "Asthma", "Migraine"};
+
+    public static void main(String[] args) {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+
+        System.out.printf("%-10s %18s %18s %10s%n", "Rows", "DefaultTableModel", "PatientStore", "Ratio");
+        for (int size : sizes) {
+            long tableBytes = measure(() -> fillTableModel(size));
+            long storeBytes = measure(() -> fillStore(size));
+            System.out.printf("%-10d %15.1f MB %15.1f MB %9.1fx%n",
+                    size, tableBytes / 1048576.0, storeBytes / 1048576.0, (double) tableBytes / storeBytes);
+        }
+    }
+
+    // Builds the same synthetic row the registration dialog would produce
+    static Object[] syntheticRow(int i) {
+        return new Object[]{
+                "PAT-" + (1001 + i),
+                "Student " + i,
+                String.format("UPSA%07d", i),
+                PROGRAMS[i % PROGRAMS.length],
+                LEVELS[i % LEVELS.length],
+                GENDERS[i % GENDERS.length],
+                String.format("%d-%02d-%02d", 1990 + i % 15, 1 + i % 12, 1 + i % 28),
+                18 + i % 15,
+                BLOOD_GROUPS[i % BLOOD_GROUPS.length],
+                GENOTYPES[i % GENOTYPES.length],
+                SICKLING[i % SICKLING.length],
+                String.format("024-%03d-%04d", i / 10000 % 1000, i % 10000),
+                CONDITIONS[i % CONDITIONS.length],
+                STATUSES[i % STATUSES.length]
+        };
+    }
+
+    private static Object fillTableModel(int size) {
+        DefaultTableModel model = new DefaultTableModel(PatientStore.COLUMNS, 0);
+        for (int i = 0; i < size; i++) {
+            model.addRow(syntheticRow(i));
+        }
+        return model;
+    }
+
+    private static Object fillStore(int size) {
+        PatientStore store = new PatientStore();
+        for (int i = 0; i < size; i++) {
+            store.add(syntheticRow(i));
+        }
+        return store;
+    }
+
+    private static long measure(Supplier<Object> builder) {
+        long before = usedHeap();
+        Object retained = builder.get();
+        long after = usedHeap();
+        // Keep the structure reachable until after the second measurement
+        Reference.reachabilityFence(retained);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
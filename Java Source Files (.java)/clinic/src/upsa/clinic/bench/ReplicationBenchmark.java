@@ -0,0 +1,222 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.ClinicFiles;
+import upsa.clinic.data.Journal;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.PatientTableModel;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.ReplicaClient;
+import upsa.clinic.data.ReplicationServer;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableRowSorter;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A primary desk and two replicas, each in its own JVM, on loopback. The
+ * primary starts with 20k patients and 2k appointments, which the replicas
+ * copy when they connect; it then makes 5,000 edits, one every millisecond:
+ * patients updated, added and removed and appointments added, changed and
+ * cancelled. Reports the copy time, the time from a batch being synced on
+ * the primary to it being applied on a replica, how the edits were batched
+ * and the bytes sent per entry, then checks every replica holds the same
+ * rows as the primary and its sorted patient table shows all of them.
+ *
+ * java upsa.clinic.bench.ReplicationBenchmark
+ */
+public class ReplicationBenchmark {
+
+    private static final int PATIENTS = 20_000;
+    private static final int APPOINTMENTS = 2_000;
+    private static final int EDITS = 5_000;
+    private static final int REPLICAS = 2;
+    private static final String[] APPOINTMENT_COLUMNS = {
+            "ID", "Date", "Time", "Patient", "Doctor", "Department", "Status", "Notes"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1 && args[0].equals("--replica")) {
+            replica(Integer.parseInt(args[1]));
+            return;
+        }
+        System.setProperty(ClinicFiles.HOME_PROPERTY, Files.createTempDirectory("clinic-primary").toString());
+        PatientStore patients = new PatientStore();
+        DefaultTableModel appointments = new DefaultTableModel(APPOINTMENT_COLUMNS, 0);
+        open(patients, appointments);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < PATIENTS; i++) {
+            rows.add(PatientStoreFootprint.syntheticRow(i));
+        }
+        patients.addAll(rows);
+        SwingUtilities.invokeAndWait(() -> {
+            for (int i = 0; i < APPOINTMENTS; i++) {
+                appointments.addRow(appointment(i));
+            }
+        });
+        Journal journal = Journal.shared();
+        journal.sync();
+
+        ReplicationServer server = ReplicationServer.start(journal, 0);
+        List<Process> children = new ArrayList<>();
+        long copying = System.nanoTime();
+        for (int i = 0; i < REPLICAS; i++) {
+            children.add(startReplica(server.getPort()));
+        }
+        if (!server.awaitReplicas(REPLICAS, journal.position(), 120_000)) {
+            throw new IllegalStateException("Replicas did not copy the tables: " + server.describeStats());
+        }
+        System.out.printf("Copied %,d patients and %,d appointments to %d replicas in %.2f s%n", PATIENTS,
+                APPOINTMENTS, REPLICAS, (System.nanoTime() - copying) / 1e9);
+
+        long sentBefore = server.getBytesSent();
+        long editing = System.nanoTime();
+        Random random = new Random(17);
+        for (int i = 0; i < EDITS; i++) {
+            int kind = i % 4;
+            if (kind == 1 && i % 8 == 1) {
+                patients.add(PatientStoreFootprint.syntheticRow(PATIENTS + i));
+            } else if (kind == 1 && i % 8 == 5) {
+                patients.remove(patients.slotAt(random.nextInt(patients.size())));
+            } else if (kind < 2) {
+                int slot = patients.slotAt(random.nextInt(patients.size()));
+                Object[] row = PatientStoreFootprint.syntheticRow(random.nextInt(PATIENTS));
+                row[PatientStore.COL_ID] = patients.get(slot, PatientStore.COL_ID);
+                patients.set(slot, row);
+            } else {
+                int next = APPOINTMENTS + i;
+                int at = random.nextInt(APPOINTMENTS);
+                SwingUtilities.invokeAndWait(() -> {
+                    if (kind == 2) {
+                        appointments.addRow(appointment(next));
+                    } else {
+                        appointments.setValueAt("Cancelled", at, 6);
+                        appointments.removeRow(appointments.getRowCount() - 1);
+                    }
+                });
+            }
+            Thread.sleep(1);
+        }
+        long position = journal.position();
+        if (!server.awaitReplicas(REPLICAS, position, 60_000)) {
+            throw new IllegalStateException("Replicas fell behind: " + server.describeStats());
+        }
+        double seconds = (System.nanoTime() - editing) / 1e9;
+        System.out.printf("%,d edits in %.1f s, all applied on every replica; sync to applied avg %.2f ms, max %.2f ms%n",
+                EDITS, seconds, server.getAverageApplyMillis(), server.getMaxApplyMillis());
+        System.out.printf("%,d entries shipped in %,d batches (%.1f per batch), %.0f bytes per entry on the wire%n",
+                server.getEntries(), server.getBatches(), (double) server.getEntries() / Math.max(1, server.getBatches()),
+                (double) (server.getBytesSent() - sentBefore) / Math.max(1, server.getEntries()));
+
+        String expected = digest(patients, appointments);
+        for (Process child : children) {
+            PrintWriter command = new PrintWriter(child.getOutputStream(), true);
+            command.println(position);
+            BufferedReader output = new BufferedReader(new InputStreamReader(child.getInputStream(),
+                    StandardCharsets.UTF_8));
+            String digest = output.readLine();
+            command.close();
+            child.waitFor();
+            System.out.println(expected.equals(digest) ? "Replica matches the primary: " + digest
+                    : "Replica DIFFERS: " + digest + ", primary " + expected);
+        }
+        server.close();
+    }
+
+    private static void open(PatientStore patients, DefaultTableModel appointments) throws Exception {
+        Persistence.open("patients", patients);
+        SwingUtilities.invokeAndWait(() -> Persistence.open("appointments", appointments));
+    }
+
+    private static Object[] appointment(int i) {
+        return new Object[]{i + 1, "2025-05-" + (10 + i % 20), String.format("%02d:%02d", 8 + i % 9, i % 4 * 15),
+                "Patient " + i, "Dr. Kwame Asante", "General", "Scheduled", "Routine checkup"};
+    }
+
+    private static Process startReplica(int port) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Djava.awt.headless=true");
+        command.add("-Djava.io.tmpdir=" + System.getProperty("java.io.tmpdir"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ReplicationBenchmark.class.getName());
+        command.add("--replica");
+        command.add(String.valueOf(port));
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    // Runs in each child JVM: follows the primary, then prints its digest once it has applied up to a position
+    private static void replica(int port) throws Exception {
+        Path home = Files.createTempDirectory("clinic-replica");
+        System.setProperty(ClinicFiles.HOME_PROPERTY, home.toString());
+        PatientStore patients = new PatientStore();
+        DefaultTableModel appointments = new DefaultTableModel(APPOINTMENT_COLUMNS, 0);
+        open(patients, appointments);
+        // Shown the way the patients panel shows them, so shipped edits must reach the table and its sorter
+        JTable[] table = new JTable[1];
+        SwingUtilities.invokeAndWait(() -> {
+            PatientTableModel model = new PatientTableModel(patients);
+            table[0] = new JTable(model);
+            TableRowSorter<PatientTableModel> sorter = new TableRowSorter<>(model);
+            sorter.setSortsOnUpdates(true);
+            sorter.setSortKeys(List.of(new RowSorter.SortKey(PatientStore.COL_NAME, SortOrder.ASCENDING)));
+            table[0].setRowSorter(sorter);
+        });
+        ReplicaClient client = new ReplicaClient("localhost", port);
+        client.start();
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        long position = Long.parseLong(commands.readLine().trim());
+        while (client.getApplied() < position) {
+            Thread.sleep(10);
+        }
+        String[] digest = new String[1];
+        SwingUtilities.invokeAndWait(() -> {
+            checkTable(table[0], patients);
+            digest[0] = digest(patients, appointments);
+        });
+        System.out.println(digest[0]);
+        System.out.flush();
+        client.close();
+    }
+
+    private static void checkTable(JTable table, PatientStore patients) {
+        if (table.getRowCount() != patients.size()) {
+            throw new IllegalStateException("Patient table shows " + table.getRowCount() + " of " + patients.size() + " rows");
+        }
+        for (int row = 0; row < table.getRowCount(); row++) {
+            for (int column = 0; column < table.getColumnCount(); column++) {
+                table.getValueAt(row, column);
+            }
+        }
+    }
+
+    private static String digest(PatientStore patients, DefaultTableModel appointments) {
+        CRC32 crc = new CRC32();
+        for (int row = 0; row < patients.size(); row++) {
+            int slot = patients.slotAt(row);
+            for (int column = 0; column < PatientStore.COLUMNS.length; column++) {
+                crc.update(String.valueOf(patients.get(slot, column)).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        long patientCrc = crc.getValue();
+        crc.reset();
+        for (int row = 0; row < appointments.getRowCount(); row++) {
+            for (int column = 0; column < appointments.getColumnCount(); column++) {
+                crc.update(String.valueOf(appointments.getValueAt(row, column)).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return String.format("%,d patients %08x, %,d appointments %08x", patients.size(), patientCrc,
+                appointments.getRowCount(), crc.getValue());
+    }
+}
@@ -0,0 +1,196 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.BackupEngine;
+import upsa.clinic.data.BackupManifest;
+import upsa.clinic.data.BackupStore;
+import upsa.clinic.data.ClinicRestore;
+import upsa.clinic.data.InventoryFile;
+import upsa.clinic.data.Journal;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.RestoreEngine;
+import upsa.clinic.data.TableSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Restores a generated year of clinic data from a backup: 50k patients,
+ * 100k appointments and bills, 150k sets of vitals, 20k medical records,
+ * 1,500 drugs and a day of journal, per year asked for. Times rebuilding
+ * everything into an empty directory with one reader and with several,
+ * checks every restored file against the original, then times restoring
+ * only the pharmacy and reading the patients back from the restored
+ * snapshot and journal. Finally flips one byte in a pack and checks that
+ * the restore refuses it.
+ *
+ * java upsa.clinic.bench.RestoreBenchmark [years]
+ */
+public class RestoreBenchmark {
+
+    private static final int PATIENTS = 50_000;
+    private static final int APPOINTMENTS = 100_000;
+    private static final int BILLS = 100_000;
+    private static final int VITALS = 150_000;
+    private static final int RECORD_FILES = 20_000;
+    private static final int DRUGS = 1_500;
+    private static final int TAIL_ENTRIES = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int years = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        Path home = Files.createTempDirectory("clinic-year");
+        Path storeDirectory = Files.createTempDirectory("clinic-store");
+
+        long started = System.nanoTime();
+        generate(home, years);
+        System.out.printf("Generated %d year(s) of data in %.1f s%n", years, (System.nanoTime() - started) / 1e9);
+        BackupEngine.Result backup = new BackupEngine(home, storeDirectory,
+                Runtime.getRuntime().availableProcessors(), Long.MAX_VALUE).backup(null);
+        System.out.printf("Backed up %,.1f MB in %,d files into %,.1f MB in %.1f s%n",
+                backup.getTotalBytes() / 1048576.0, backup.getFiles(), backup.getStoredBytes() / 1048576.0,
+                backup.getElapsedMillis() / 1000.0);
+        BackupManifest manifest = BackupManifest.read(backup.getManifest());
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[]{1, Math.max(2, processors), Math.max(4, processors * 2)}) {
+            Path target = Files.createTempDirectory("clinic-restored");
+            RestoreEngine engine = new RestoreEngine(BackupStore.open(storeDirectory), threads);
+            RestoreEngine.Result result = engine.restore(manifest, ClinicRestore.filesOf(ClinicRestore.EVERYTHING),
+                    target, null);
+            report("everything, " + threads + " reader(s)", result);
+            verify(home, target, manifest);
+        }
+
+        Path target = Files.createTempDirectory("clinic-restored");
+        RestoreEngine engine = new RestoreEngine(BackupStore.open(storeDirectory), processors);
+        report("pharmacy only", engine.restore(manifest, ClinicRestore.filesOf(ClinicRestore.PHARMACY), target, null));
+        report("patients only", engine.restore(manifest, ClinicRestore.filesOf("patients"), target, null));
+        long reading = System.nanoTime();
+        List<Object[]> patients = Persistence.readSaved(target, "patients");
+        System.out.printf("%-30s %,d rows from snapshot and journal in %.2f s%n", "read back patients",
+                patients.size(), (System.nanoTime() - reading) / 1e9);
+
+        corruptOneChunk(storeDirectory);
+        try {
+            new RestoreEngine(BackupStore.open(storeDirectory), processors)
+                    .restore(manifest, ClinicRestore.filesOf(ClinicRestore.EVERYTHING),
+                            Files.createTempDirectory("clinic-restored"), null);
+            System.out.println("Damaged pack was NOT detected");
+        } catch (IOException e) {
+            System.out.println("Damaged pack refused: " + e.getMessage());
+        }
+    }
+
+    private static void report(String label, RestoreEngine.Result result) {
+        System.out.printf("%-30s %,7.1f MB in %,6d files, %,7d chunks in %5.2f s (%,.0f MB/s)%n", label,
+                result.getTotalBytes() / 1048576.0, result.getFiles(), result.getChunks(),
+                result.getElapsedMillis() / 1000.0,
+                result.getTotalBytes() / 1048576.0 / Math.max(0.001, result.getElapsedMillis() / 1000.0));
+    }
+
+    private static void verify(Path home, Path target, BackupManifest manifest) throws IOException {
+        for (BackupManifest.FileEntry file : manifest.getFiles()) {
+            if (!Arrays.equals(Files.readAllBytes(home.resolve(file.getPath())),
+                    Files.readAllBytes(target.resolve(file.getPath())))) {
+                throw new IllegalStateException(file.getPath() + " differs after the restore");
+            }
+        }
+    }
+
+    // Flips a byte in the middle of the largest pack
+    private static void corruptOneChunk(Path store) throws IOException {
+        List<Path> packs;
+        try (Stream<Path> files = Files.list(store.resolve("packs"))) {
+            packs = files.filter(file -> file.toString().endsWith(".pack")).collect(Collectors.toList());
+        }
+        Path largest = packs.get(0);
+        for (Path pack : packs) {
+            if (Files.size(pack) > Files.size(largest)) {
+                largest = pack;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(largest, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long at = channel.size() / 2;
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, at);
+            one.put(0, (byte) ~one.get(0)).rewind();
+            channel.write(one, at);
+        }
+    }
+
+    private static void generate(Path home, int years) throws IOException {
+        Path snapshots = home.resolve("snapshots");
+        Files.createDirectories(snapshots);
+        write(snapshots.resolve("patients.snap"), PatientStore.COLUMNS.length, PATIENTS * years, i -> {
+            Object[] row = PatientStoreFootprint.syntheticRow(i);
+            row[PatientStore.COL_AGE] = null;
+            return row;
+        });
+        write(snapshots.resolve("appointments.snap"), 8, APPOINTMENTS * years, i -> new Object[]{
+                i + 1, LocalDate.of(2025, 1, 1).plusDays(i % 365).toString(), String.format("%02d:%02d", 8 + i % 9, i % 4 * 15),
+                "Patient " + i, "Dr. Kwame Asante", "General", i % 7 == 0 ? "Cancelled" : "Completed", "Routine checkup"});
+        write(snapshots.resolve("billing.snap"), 8, BILLS * years, i -> new Object[]{
+                "INV-" + (1001 + i), "Patient " + i, "Consultation", LocalDate.of(2025, 1, 1).plusDays(i % 365).toString(),
+                String.format("₵%d.00", 50 + i % 400), i % 5 == 0 ? "Unpaid" : "Paid", "2025-12-31", "NHIS"});
+        write(snapshots.resolve("vitals.snap"), 12, VITALS * years, i -> new Object[]{
+                "PAT-" + (1001 + i % (PATIENTS * years)), "Patient " + i, String.format("36.%d", i % 10),
+                (110 + i % 30) + "/" + (70 + i % 20), String.valueOf(60 + i % 40), (95 + i % 5) + "%",
+                String.valueOf(12 + i % 8), String.format("%d.%d", 50 + i % 40, i % 10), String.valueOf(150 + i % 40),
+                String.format("2%d.%d", i % 9, i % 10), LocalDate.of(2025, 1, 1).plusDays(i % 365).toString(), "Normal"});
+        write(snapshots.resolve("doctors.snap"), 9, 60, i -> new Object[]{
+                "DOC-" + (1001 + i), "Dr. Doctor " + i, "General Practice", "Medicine", "024-111-2222",
+                "doctor" + i + "@upsaclinic.com", "Mon-Fri 8AM-5PM", "Active", "5+ years"});
+        write(snapshots.resolve("beds.snap"), 9, 120, i -> new Object[]{
+                "B-" + (101 + i), "General Ward", "", "", "", "", "", "Available", ""});
+
+        // The day's changes since the snapshots
+        Random random = new Random(years);
+        try (Journal journal = new Journal(home.resolve("journal"), Integer.MAX_VALUE)) {
+            for (int i = 0; i < TAIL_ENTRIES; i++) {
+                journal.append(Journal.Entry.update("patients", random.nextInt(PATIENTS * years),
+                        PatientStore.COL_STATUS, new Object[]{"Inactive"}));
+            }
+        }
+
+        Path records = home.resolve("records");
+        for (int i = 0; i < RECORD_FILES * years; i++) {
+            String id = "PAT-" + (1001 + i);
+            Path file = records.resolve(id.substring(id.length() - 2)).resolve(id + ".txt");
+            Files.createDirectories(file.getParent());
+            StringBuilder text = new StringBuilder("allergy\tPenicillin\ncondition\tAsthma\n");
+            for (int visit = 0; visit < 1 + i % 6; visit++) {
+                text.append("visit\t2025-0").append(1 + visit).append("-1").append(i % 10)
+                        .append("\tMalaria, treated with artemether-lumefantrine; review in two weeks\n");
+            }
+            Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (InventoryFile inventory = InventoryFile.open(home.resolve("pharmacy").resolve("inventory.dat"))) {
+            for (int i = 0; i < DRUGS; i++) {
+                inventory.add("DRG-" + (1001 + i), "Drug " + i, "Antibiotic", 10 + i % 500, 150 + i % 5000,
+                        LocalDate.of(2027, 1, 1).plusDays(i % 700), "Ernest Chemists", "In Stock");
+            }
+        }
+    }
+
+    private static void write(Path file, int columns, int rows, IntFunction<Object[]> row) throws IOException {
+        try (TableSnapshot.Writer writer = TableSnapshot.create(file, 0, columns, rows)) {
+            for (int i = 0; i < rows; i++) {
+                writer.row(row.apply(i));
+            }
+            writer.commit();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.components.SearchPipeline;
+import upsa.clinic.components.TableSearchIndex;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.TrigramIndex;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.util.function.Supplier;
+
+/**
+ * Types queries into a search field at roughly typing speed and reports the
+ * keystroke-to-results latency of the search pipeline at 500k rows, both for
+ * the trigram-indexed patient store and for a plain DefaultTableModel scan.
+ *
+ * java -Xmx2g -Djava.awt.headless=true upsa.clinic.bench.SearchLatencyBenchmark
+ */
+public class SearchLatencyBenchmark {
+
+    private static final int ROWS = 500_000;
+    private static final String[] QUERIES = {"student 4999", "upsa00123", "024-012", "diabetes", "stud"};
+    private static final int KEYSTROKE_INTERVAL_MS = 80;
+
+    public static void main(String[] args) throws Exception {
+        PatientStore store = new PatientStore();
+        for (int i = 0; i < ROWS; i++) {
+            store.add(PatientStoreFootprint.syntheticRow(i));
+        }
+        TrigramIndex index = new TrigramIndex(store);
+
+        DefaultTableModel model = new DefaultTableModel(PatientStore.COLUMNS, 0);
+        for (int i = 0; i < ROWS; i++) {
+            model.addRow(PatientStoreFootprint.syntheticRow(i));
+        }
+
+        JTextField patientField = new JTextField();
+        SearchPipeline<int[]> patientPipeline = createOnEdt(() -> new SearchPipeline<>(patientField,
+                query -> query.isEmpty() ? null : index.search(query), result -> { }));
+        type(patientField);
+        report("PatientStore + TrigramIndex", patientPipeline);
+
+        JTextField tableField = new JTextField();
+        TableSearchIndex tableIndex = createOnEdt(() -> new TableSearchIndex(model));
+        SearchPipeline<TableSearchIndex.Result> tablePipeline = createOnEdt(() -> new SearchPipeline<>(tableField,
+                tableIndex::match, result -> { }));
+        type(tableField);
+        report("DefaultTableModel + TableSearchIndex", tablePipeline);
+
+        System.exit(0);
+    }
+
+    private static void type(JTextField field) throws Exception {
+        for (String query : QUERIES) {
+            SwingUtilities.invokeAndWait(() -> field.setText(""));
+            for (int length = 1; length <= query.length(); length++) {
+                String text = query.substring(0, length);
+                SwingUtilities.invokeAndWait(() -> field.setText(text));
+                Thread.sleep(KEYSTROKE_INTERVAL_MS);
+            }
+            // Let the final query settle before the next one
+            Thread.sleep(500);
+        }
+    }
+
+    private static void report(String name, SearchPipeline<?> pipeline) {
+        System.out.printf("%-38s p50 %4d ms  p99 %4d ms  (%d published, %d cancelled)%n", name,
+                pipeline.getLatencyPercentileMillis(0.50), pipeline.getLatencyPercentileMillis(0.99),
+                pipeline.getSampleCount(), pipeline.getCancelledCount());
+    }
+
+    private static <T> T createOnEdt(Supplier<T> factory) throws Exception {
+        Object[] holder = new Object[1];
+        SwingUtilities.invokeAndWait(() -> holder[0] = factory.get());
+        @SuppressWarnings("unchecked")
+        T value = (T) holder[0];
+        return value;
+    }
+}
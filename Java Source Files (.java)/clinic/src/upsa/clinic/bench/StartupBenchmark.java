@@ -0,0 +1,208 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.DashboardView;
+import upsa.clinic.data.ClinicFiles;
+import upsa.clinic.data.Journal;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.TableSnapshot;
+import upsa.clinic.panels.AppointmentPanel;
+import upsa.clinic.panels.BedManagementPanel;
+import upsa.clinic.panels.BillingPanel;
+import upsa.clinic.panels.DashboardPanel;
+import upsa.clinic.panels.DoctorsPanel;
+import upsa.clinic.panels.MessagesPanel;
+import upsa.clinic.panels.PatientVitalsPanel;
+import upsa.clinic.panels.PatientsPanel;
+import upsa.clinic.panels.PharmacyPanel;
+import upsa.clinic.panels.SettingsPanel;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Time from main() to the first paint of the dashboard with 100k and 1M
+ * saved records, restored either by replaying a journal of every insert or
+ * from table snapshots plus a short journal tail. Each run is a fresh JVM
+ * on a generated data home. Patients make up 70% of the records, the five
+ * other journaled tables 6% each.
+ *
+ * Without a display the dashboard window cannot open, so the run instead
+ * times building every panel the dashboard holds, which is where restoring
+ * happens.
+ *
+ * java -Xmx3g upsa.clinic.bench.StartupBenchmark
+ */
+public class StartupBenchmark {
+
+    private static final int[] TOTALS = {100_000, 1_000_000};
+    private static final int TAIL_ENTRIES = 10_000;
+
+    private static final String[] TABLES = {"appointments", "beds", "billing", "doctors", "vitals"};
+    private static final Object[][] TEMPLATES = {
+            {1, "2025-05-12", "09:00", "Ama Mensah", "Dr. Kwame Asante", "General", "Scheduled", "Routine checkup"},
+            {"B-101", "General Ward", "PAT-1001", "Ama Mensah", "2025-05-10", "Pneumonia", "Dr. Kwesi Mensah", "Occupied", "Medium"},
+            {"INV-1001", "Ama Mensah", "Consultation", "2025-05-12", "₵420.00", "Unpaid", "2025-06-12", "NHIS"},
+            {"DOC-1001", "Dr. Ama Mensah", "General Surgery", "Surgery", "024-111-2222", "amensah@upsaclinic.com",
+                    "Mon-Fri 8AM-5PM", "Active", "15+ years"},
+            {"PAT-1001", "Ama Mensah", "36.8", "120/80", "72", "98%", "16", "65.5", "165", "24.1", "2025-05-12", "Normal"}
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--launch")) {
+            launch();
+            return;
+        }
+        for (int total : TOTALS) {
+            for (boolean snapshots : new boolean[]{false, true}) {
+                Path home = Files.createTempDirectory("clinic-startup");
+                long generated = generate(home, total, snapshots);
+                String result = runChild(home);
+                System.out.printf("%,9d records, %-17s (%,d MB on disk): %s%n", total,
+                        snapshots ? "snapshot + tail" : "journal replay", generated / (1024 * 1024), result);
+            }
+        }
+    }
+
+    private static long generate(Path home, int total, boolean snapshots) throws Exception {
+        int patients = total * 70 / 100;
+        int perTable = (total - patients) / TABLES.length;
+        Path journalDirectory = home.resolve("journal");
+        System.setProperty(ClinicFiles.HOME_PROPERTY, home.toString());
+        try (Journal journal = new Journal(journalDirectory, Integer.MAX_VALUE)) {
+            if (snapshots) {
+                write(Persistence.snapshotFile("patients"), PatientStore.COLUMNS.length, patients, StartupBenchmark::patient);
+                for (int t = 0; t < TABLES.length; t++) {
+                    int table = t;
+                    write(Persistence.snapshotFile(TABLES[t]), TEMPLATES[t].length, perTable, i -> row(table, i));
+                }
+                // Edits since the snapshots, spread over all tables
+                Random random = new Random(12);
+                for (int i = 0; i < TAIL_ENTRIES; i++) {
+                    int t = random.nextInt(TABLES.length + 1);
+                    if (t == TABLES.length) {
+                        journal.append(Journal.Entry.update("patients", random.nextInt(patients), PatientStore.COL_STATUS,
+                                new Object[]{"Inactive"}));
+                    } else {
+                        journal.append(Journal.Entry.update(TABLES[t], random.nextInt(perTable), TEMPLATES[t].length - 1,
+                                new Object[]{TEMPLATES[t][TEMPLATES[t].length - 1]}));
+                    }
+                }
+            } else {
+                for (int i = 0; i < patients; i++) {
+                    journal.append(Journal.Entry.insert("patients", i, new Object[][]{patient(i)}));
+                }
+                for (int t = 0; t < TABLES.length; t++) {
+                    for (int i = 0; i < perTable; i++) {
+                        journal.append(Journal.Entry.insert(TABLES[t], i, new Object[][]{row(t, i)}));
+                    }
+                }
+            }
+        }
+        long[] bytes = {0};
+        try (java.util.stream.Stream<Path> files = Files.walk(home)) {
+            files.filter(Files::isRegularFile).forEach(file -> bytes[0] += file.toFile().length());
+        }
+        return bytes[0];
+    }
+
+    private static void write(Path file, int columns, int rows, java.util.function.IntFunction<Object[]> row) throws Exception {
+        try (TableSnapshot.Writer writer = TableSnapshot.create(file, 0, columns, rows)) {
+            for (int i = 0; i < rows; i++) {
+                writer.row(row.apply(i));
+            }
+            writer.commit();
+        }
+    }
+
+    private static Object[] patient(int i) {
+        Object[] row = PatientStoreFootprint.syntheticRow(i);
+        row[PatientStore.COL_AGE] = null;
+        return row;
+    }
+
+    private static Object[] row(int table, int i) {
+        Object[] row = TEMPLATES[table].clone();
+        if (row[0] instanceof Integer) {
+            row[0] = i + 1;
+        } else {
+            String id = (String) row[0];
+            row[0] = id.substring(0, id.indexOf('-') + 1) + (1001 + i);
+        }
+        return row;
+    }
+
+    private static String runChild(Path home) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + Runtime.getRuntime().maxMemory() / (1024 * 1024) + "m");
+        command.add("-D" + ClinicFiles.HOME_PROPERTY + "=" + home);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(StartupBenchmark.class.getName());
+        command.add("--launch");
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String last = "no output";
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                last = line;
+            }
+        }
+        process.waitFor();
+        return last;
+    }
+
+    // Runs in the child JVM, in place of Main.main
+    private static void launch() throws Exception {
+        long start = System.nanoTime();
+        CountDownLatch painted = new CountDownLatch(1);
+        boolean headless = GraphicsEnvironment.isHeadless();
+        SwingUtilities.invokeLater(() -> {
+            if (headless) {
+                // The panels DashboardView.initializePanels builds
+                new DashboardPanel();
+                new PatientsPanel();
+                new DoctorsPanel();
+                new AppointmentPanel();
+                new BillingPanel();
+                new PharmacyPanel();
+                new MessagesPanel();
+                new SettingsPanel();
+                new PatientVitalsPanel();
+                new BedManagementPanel();
+                painted.countDown();
+                return;
+            }
+            DashboardView dashboard = new DashboardView("Admin");
+            JComponent probe = new JComponent() {
+                @Override
+                protected void paintComponent(Graphics g) {
+                    painted.countDown();
+                }
+            };
+            dashboard.setGlassPane(probe);
+            probe.setVisible(true);
+            dashboard.setVisible(true);
+        });
+        painted.await();
+        long mainMillis = (System.nanoTime() - start) / 1_000_000;
+        long jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heap = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        System.out.printf("%s %,d ms from main (%,d ms from JVM start), %,d MB heap%n",
+                headless ? "panels built in" : "first paint after", mainMillis, jvmMillis, heap);
+        System.exit(0);
+    }
+}
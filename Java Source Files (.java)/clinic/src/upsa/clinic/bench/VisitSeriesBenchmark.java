@@ -0,0 +1,106 @@
+package upsa.clinic.bench;
+
+import upsa.clinic.data.VisitSeries;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Cost of the points for the visits chart, 200 and 500 pixels wide, at every zoom
+ * from the last week to the last five years, with 1, 5 and 20 years of
+ * history: read from the day, week and month totals and thinned to the
+ * width, against counting the range from the appointment dates each time.
+ * The series' cost follows the width, the count's the history.
+ * Also checks thinned days keep the busiest day.
+ *
+ * java upsa.clinic.bench.VisitSeriesBenchmark
+ */
+public class VisitSeriesBenchmark {
+
+    private static final int[] WIDTHS = {200, 500};
+    private static final int VISITS_PER_DAY = 40;
+    private static final int[] RANGES = {7, 30, 90, 365, 5 * 365 + 1};
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        System.out.printf("%-8s %-6s %-8s %-7s %8s %16s %16s%n", "History", "Width", "Range", "Rollup", "Points",
+                "Series (us)", "Scan rows (us)");
+        for (int years : new int[]{1, 5, 20}) {
+            run(years);
+        }
+    }
+
+    private static void run(int years) {
+        Random random = new Random(years);
+        LocalDate today = LocalDate.now();
+        int historyDays = years * 365;
+        // One epoch day per visit, as the appointments table would hold them
+        long[] visitDays = new long[historyDays * VISITS_PER_DAY];
+        VisitSeries series = new VisitSeries();
+        int visits = 0;
+        for (int back = historyDays - 1; back >= 0; back--) {
+            LocalDate day = today.minusDays(back);
+            // Busier on weekdays, a slow rise over the years and the odd outbreak
+            int count = random.nextInt(VISITS_PER_DAY / 2) + (day.getDayOfWeek().getValue() <= 5 ? VISITS_PER_DAY / 2 : 5);
+            if (random.nextInt(200) == 0) {
+                count += VISITS_PER_DAY;
+            }
+            for (int i = 0; i < count && visits < visitDays.length; i++) {
+                visitDays[visits++] = day.toEpochDay();
+                series.add(day.toEpochDay(), 1);
+            }
+        }
+
+        for (int width : WIDTHS) {
+            for (int range : RANGES) {
+                measure(series, visitDays, visits, years, width, range);
+            }
+        }
+    }
+
+    private static void measure(VisitSeries series, long[] visitDays, int visits, int years, int width, int range) {
+        LocalDate today = LocalDate.now();
+        LocalDate from = today.minusDays(range - 1);
+        VisitSeries.Points points = null;
+        long sink = 0;
+        // Warm up
+        for (int i = 0; i < ROUNDS * 5; i++) {
+            points = series.points(from, today, width);
+            sink += scan(visitDays, visits, from.toEpochDay(), today.toEpochDay());
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            points = series.points(from, today, width);
+        }
+        double seriesMicros = (System.nanoTime() - started) / 1e3 / ROUNDS;
+        started = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += scan(visitDays, visits, from.toEpochDay(), today.toEpochDay());
+        }
+        double scanMicros = (System.nanoTime() - started) / 1e3 / ROUNDS;
+
+        if (points.getRollup() == VisitSeries.Rollup.DAY) {
+            int busiest = 0;
+            for (long day = from.toEpochDay(); day <= today.toEpochDay(); day++) {
+                busiest = Math.max(busiest, series.getCount(LocalDate.ofEpochDay(day)));
+            }
+            if (points.getMaxCount() != busiest) {
+                throw new IllegalStateException("Busiest day lost: " + points.getMaxCount() + " of " + busiest);
+            }
+        }
+        System.out.printf("%-8s %-6d %-8s %-7s %8d %16.1f %16.1f%s%n", years + " y", width, range + " d",
+                points.getRollup(), points.size(), seriesMicros, scanMicros, sink == 42 ? " " : "");
+    }
+
+    // Visits per day of a range, counted from every visit the way a query over the rows would
+    private static long scan(long[] visitDays, int visits, long from, long to) {
+        int[] perDay = new int[(int) (to - from + 1)];
+        for (int i = 0; i < visits; i++) {
+            long day = visitDays[i];
+            if (day >= from && day <= to) {
+                perDay[(int) (day - from)]++;
+            }
+        }
+        return perDay[perDay.length - 1];
+    }
+}
@@ -0,0 +1,203 @@
+package upsa.clinic.components;
+
+import upsa.clinic.Colors;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Full-size backgrounds of the login window and the dashboard, drawn once
+ * per size into an image and copied from then on, so moving a window over
+ * them or repainting a field on top costs one image copy rather than a
+ * gradient fill of the whole surface.
+ *
+ * Images are kept by style, which fixes the palette from {@link Colors},
+ * and by size in device pixels. Only the last {@link #SIZES_PER_STYLE}
+ * sizes of a style are kept, so resizing a window does not pile up images
+ * of sizes it went through. Used on the EDT only.
+ */
+public final class BackgroundCache {
+
+    public enum Style {
+        // Diagonal purple-to-blue gradient behind the login card
+        LOGIN_GRADIENT(Transparency.OPAQUE),
+        // Translucent rounded card holding the login form
+        LOGIN_CARD(Transparency.TRANSLUCENT),
+        // Light background with the medical symbol every 50 px
+        DASHBOARD_PATTERN(Transparency.OPAQUE);
+
+        private final int transparency;
+
+        Style(int transparency) {
+            this.transparency = transparency;
+        }
+    }
+
+    // Sizes kept per style, e.g. two dashboard windows of different sizes
+    public static final int SIZES_PER_STYLE = 2;
+
+    private static final BackgroundCache SHARED = new BackgroundCache();
+    private static final int PATTERN_SPACING = 50;
+    private static final int CARD_ARC = 25;
+
+    // Least recently painted first
+    private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long renders;
+    private long evictions;
+
+    public static BackgroundCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Paints a style over the whole of a component, drawing it first if it
+     * is not cached at the component's size.
+     */
+    public void paint(Graphics g, JComponent component, Style style) {
+        int width = component.getWidth();
+        int height = component.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        // Device pixels per component pixel, above 1 on HiDPI screens
+        AffineTransform transform = ((Graphics2D) g).getTransform();
+        double scale = Math.max(1, transform.getScaleX());
+        int imageWidth = (int) Math.ceil(width * scale);
+        int imageHeight = (int) Math.ceil(height * scale);
+        Key key = new Key(style, imageWidth, imageHeight);
+        BufferedImage image = images.get(key);
+        if (image == null) {
+            image = render(component, style, imageWidth, imageHeight, scale);
+            images.put(key, image);
+            evictOtherSizes(style);
+        }
+        if (scale == 1) {
+            g.drawImage(image, 0, 0, null);
+        } else {
+            g.drawImage(image, 0, 0, width, height, 0, 0, imageWidth, imageHeight, null);
+        }
+    }
+
+    // Images drawn so far, for diagnostics
+    public long getRenders() {
+        return renders;
+    }
+
+    // Images dropped for newer sizes of their style
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    public void clear() {
+        for (BufferedImage image : images.values()) {
+            image.flush();
+        }
+        images.clear();
+    }
+
+    private void evictOtherSizes(Style style) {
+        int kept = 0;
+        for (Key key : images.keySet()) {
+            if (key.style == style) {
+                kept++;
+            }
+        }
+        Iterator<Map.Entry<Key, BufferedImage>> entries = images.entrySet().iterator();
+        while (kept > SIZES_PER_STYLE && entries.hasNext()) {
+            Map.Entry<Key, BufferedImage> entry = entries.next();
+            if (entry.getKey().style == style) {
+                entry.getValue().flush();
+                entries.remove();
+                kept--;
+                evictions++;
+            }
+        }
+    }
+
+    private BufferedImage render(JComponent component, Style style, int imageWidth, int imageHeight, double scale) {
+        GraphicsConfiguration configuration = component.getGraphicsConfiguration();
+        BufferedImage image = configuration != null
+                ? configuration.createCompatibleImage(imageWidth, imageHeight, style.transparency)
+                : new BufferedImage(imageWidth, imageHeight, style.transparency == Transparency.OPAQUE
+                        ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.scale(scale, scale);
+            g2d.setFont(component.getFont());
+            int width = component.getWidth();
+            int height = component.getHeight();
+            switch (style) {
+                case LOGIN_GRADIENT: paintLoginGradient(g2d, width, height); break;
+                case LOGIN_CARD: paintLoginCard(g2d, width, height); break;
+                case DASHBOARD_PATTERN: paintDashboardPattern(g2d, width, height); break;
+            }
+        } finally {
+            g2d.dispose();
+        }
+        renders++;
+        return image;
+    }
+
+    private static void paintLoginGradient(Graphics2D g2d, int width, int height) {
+        g2d.setPaint(new GradientPaint(0, 0, Colors.LOGIN_GRADIENT_START, width, height, Colors.LOGIN_GRADIENT_END));
+        g2d.fillRect(0, 0, width, height);
+    }
+
+    private static void paintLoginCard(Graphics2D g2d, int width, int height) {
+        g2d.setColor(Colors.CARD);
+        g2d.fillRoundRect(0, 0, width, height, CARD_ARC, CARD_ARC);
+
+        // Add subtle shadow
+        g2d.setColor(Colors.CARD_SHADOW);
+        g2d.drawRoundRect(0, 0, width - 1, height - 1, CARD_ARC, CARD_ARC);
+    }
+
+    private static void paintDashboardPattern(Graphics2D g2d, int width, int height) {
+        g2d.setColor(Colors.BACKGROUND);
+        g2d.fillRect(0, 0, width, height);
+
+        // Draw subtle medical pattern in background
+        g2d.setColor(Colors.BG1);
+        for (int i = 0; i < width; i += PATTERN_SPACING) {
+            for (int j = 0; j < height; j += PATTERN_SPACING) {
+                g2d.drawString("⚕", i, j);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final Style style;
+        private final int width;
+        private final int height;
+
+        Key(Style style, int width, int height) {
+            this.style = style;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return style == key.style && width == key.width && height == key.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return (style.ordinal() * 31 + width) * 31 + height;
+        }
+    }
+}
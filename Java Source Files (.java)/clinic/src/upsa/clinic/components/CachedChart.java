@@ -0,0 +1,126 @@
+package upsa.clinic.components;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+/**
+ * A chart drawn once into an image and copied to the screen from then on.
+ * The image is drawn again only when the chart's data version, its size or
+ * the screen scale changes, so resizing siblings, hovering and repaints
+ * around it cost one image copy.
+ *
+ * Subclasses draw in drawChart and bump the version returned by
+ * dataVersion whenever what they draw changes.
+ */
+public abstract class CachedChart extends JPanel {
+
+    // Images grow in steps, so dragging a window wider does not allocate one per pixel
+    private static final int IMAGE_STEP = 64;
+
+    private BufferedImage cache;
+    // Part of the image the chart was drawn in, in device pixels
+    private int cachedWidth;
+    private int cachedHeight;
+    private long cachedVersion;
+    private double cachedScale;
+    private int redraws;
+
+    protected CachedChart() {
+        setBackground(Color.WHITE);
+    }
+
+    // Draws the whole chart on a cleared background, in component coordinates
+    protected abstract void drawChart(Graphics2D g2d, int width, int height);
+
+    // Changes whenever drawChart would draw something else
+    protected long dataVersion() {
+        return 0;
+    }
+
+    // Draws the chart again on the next paint, e.g. after a look-and-feel change
+    public void invalidateChart() {
+        if (cache != null) {
+            cache.flush();
+            cache = null;
+        }
+        repaint();
+    }
+
+    // Times the image was drawn, for diagnostics
+    public int getRedraws() {
+        return redraws;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        // Device pixels per component pixel, above 1 on HiDPI screens
+        AffineTransform transform = ((Graphics2D) g).getTransform();
+        double scale = Math.max(1, transform.getScaleX());
+        int imageWidth = (int) Math.ceil(width * scale);
+        int imageHeight = (int) Math.ceil(height * scale);
+        long version = dataVersion();
+        if (cache == null || cachedWidth != imageWidth || cachedHeight != imageHeight
+                || cachedVersion != version || cachedScale != scale) {
+            redraw(imageWidth, imageHeight, scale, version);
+        }
+        // The image covers the whole chart, background included
+        if (scale == 1) {
+            g.drawImage(cache, 0, 0, width, height, 0, 0, width, height, null);
+        } else {
+            g.drawImage(cache, 0, 0, width, height, 0, 0, imageWidth, imageHeight, null);
+        }
+    }
+
+    private void redraw(int imageWidth, int imageHeight, double scale, long version) {
+        if (cache == null || cache.getWidth() < imageWidth || cache.getHeight() < imageHeight) {
+            if (cache != null) {
+                cache.flush();
+            }
+            int allocatedWidth = (imageWidth + IMAGE_STEP - 1) / IMAGE_STEP * IMAGE_STEP;
+            int allocatedHeight = (imageHeight + IMAGE_STEP - 1) / IMAGE_STEP * IMAGE_STEP;
+            GraphicsConfiguration configuration = getGraphicsConfiguration();
+            cache = configuration != null
+                    ? configuration.createCompatibleImage(allocatedWidth, allocatedHeight, Transparency.OPAQUE)
+                    : new BufferedImage(allocatedWidth, allocatedHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g2d = cache.createGraphics();
+        try {
+            g2d.setColor(getBackground());
+            g2d.fillRect(0, 0, imageWidth, imageHeight);
+            // Text as the screen would draw it, e.g. subpixel antialiasing
+            Object desktopHints = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+            if (desktopHints instanceof Map) {
+                g2d.addRenderingHints((Map<?, ?>) desktopHints);
+            }
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.clipRect(0, 0, imageWidth, imageHeight);
+            g2d.scale(scale, scale);
+            drawChart(g2d, getWidth(), getHeight());
+        } finally {
+            g2d.dispose();
+        }
+        cachedWidth = imageWidth;
+        cachedHeight = imageHeight;
+        cachedVersion = version;
+        cachedScale = scale;
+        redraws++;
+    }
+
+    // The image is only kept while the chart is showing
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        if (cache != null) {
+            cache.flush();
+            cache = null;
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package upsa.clinic.components;
 
 import upsa.clinic.Colors;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.EventBus;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Modern HeaderBar with search, notifications, user info, and logout
@@ -17,6 +23,14 @@ public class HeaderBar extends JPanel {
     private JButton notificationButton;
     private int notificationCount = 0;
 
+    // Events from the panels worth a notification; they only update the bell, without a popup each
+    private static final Set<ClinicEvent.Type> NOTIFIED = EnumSet.of(ClinicEvent.Type.STOCK_LOW,
+            ClinicEvent.Type.PATIENTS_IMPORTED, ClinicEvent.Type.APPOINTMENT_CANCELLED,
+            ClinicEvent.Type.BED_ASSIGNED, ClinicEvent.Type.INVOICE_PAID);
+    private static final int KEPT_NOTIFICATIONS = 20;
+    private final Deque<String> notifications = new ArrayDeque<>();
+    private EventBus.Subscription events;
+
     public HeaderBar(Runnable onLogout) {
         initializeUI(onLogout);
     }
@@ -246,6 +260,36 @@ public class HeaderBar extends JPanel {
         showNotificationToast("New notification: " + message);
     }
 
+    private void onEvent(ClinicEvent event, boolean endOfBatch) {
+        if (NOTIFIED.contains(event.getType())) {
+            notificationCount++;
+            if (notifications.size() == KEPT_NOTIFICATIONS) {
+                notifications.removeLast();
+            }
+            notifications.addFirst(event.describe());
+        }
+        if (endOfBatch) {
+            updateNotificationButton();
+        }
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (events == null) {
+            events = EventBus.shared().subscribeOnEdt("header", this::onEvent);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        if (events != null) {
+            events.close();
+            events = null;
+        }
+    }
+
     private void updateNotificationButton() {
         if (notificationButton != null) {
             notificationButton.setText("🔔");
@@ -262,13 +306,21 @@ public class HeaderBar extends JPanel {
 
     private void showNotifications() {
         if (notificationCount > 0) {
+            StringBuilder message = new StringBuilder("You have " + notificationCount + " new notifications");
+            if (!notifications.isEmpty()) {
+                message.append(":\n");
+                for (String notification : notifications) {
+                    message.append("\n• ").append(notification);
+                }
+            }
             JOptionPane.showMessageDialog(this,
-                    "You have " + notificationCount + " new notifications",
+                    message.toString(),
                     "Notifications",
                     JOptionPane.INFORMATION_MESSAGE);
 
             // Reset notification count (in real app, you'd mark them as read)
             notificationCount = 0;
+            notifications.clear();
             updateNotificationButton();
         } else {
             JOptionPane.showMessageDialog(this,
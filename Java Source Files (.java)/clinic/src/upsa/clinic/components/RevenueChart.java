@@ -0,0 +1,57 @@
+package upsa.clinic.components;
+
+import upsa.clinic.Colors;
+
+import java.awt.*;
+
+/**
+ * Bar chart of revenue per month on the dashboard.
+ */
+public class RevenueChart extends CachedChart {
+
+    private static final String[] MONTHS = {"J", "F", "M", "A", "M", "J", "J", "A", "S", "O", "N", "D"};
+    private static final Font VALUE_FONT = new Font("Segoe UI", Font.PLAIN, 9);
+    private static final Font LABEL_FONT = new Font("Segoe UI", Font.PLAIN, 10);
+    private static final int PADDING = 40;
+
+    private final double[] revenue = {12000, 14000, 13000, 16000, 15500, 16968, 18000, 17500, 19000, 18500, 20000, 19500};
+    private final double maxRevenue = 25000;
+    // Bar captions, made once rather than on every draw
+    private final String[] captions = new String[revenue.length];
+
+    public RevenueChart() {
+        setPreferredSize(new Dimension(400, 250));
+        for (int i = 0; i < revenue.length; i++) {
+            captions[i] = "₵" + (int) (revenue[i] / 1000) + "K";
+        }
+    }
+
+    @Override
+    protected void drawChart(Graphics2D g2d, int width, int height) {
+        // Draw bars
+        int barCount = revenue.length;
+        int barWidth = (width - 2 * PADDING) / barCount;
+
+        g2d.setFont(VALUE_FONT);
+        for (int i = 0; i < barCount; i++) {
+            int barHeight = (int) ((height - 2 * PADDING) * revenue[i] / maxRevenue);
+            int x = PADDING + i * barWidth + barWidth / 4;
+            int y = height - PADDING - barHeight;
+
+            g2d.setColor(Colors.CHART_COLORS[i % Colors.CHART_COLORS.length]);
+            g2d.fillRect(x, y, barWidth / 2, barHeight);
+
+            // Draw value on top
+            g2d.setColor(Colors.TEXT_PRIMARY);
+            g2d.drawString(captions[i], x - 5, y - 5);
+        }
+
+        // Draw labels
+        g2d.setColor(Colors.TEXT_SECONDARY);
+        g2d.setFont(LABEL_FONT);
+        for (int i = 0; i < barCount; i++) {
+            int x = PADDING + i * barWidth + barWidth / 4;
+            g2d.drawString(MONTHS[i], x + 5, height - PADDING + 15);
+        }
+    }
+}
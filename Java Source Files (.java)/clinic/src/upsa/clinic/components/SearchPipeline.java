@@ -0,0 +1,185 @@
+package upsa.clinic.components;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Search-as-you-type plumbing shared by the searchable panels.
+ *
+ * Keystrokes in the search field are coalesced by a short debounce timer.
+ * The matcher then runs on a background worker, any query still running when
+ * a newer one arrives is cancelled, and only the result of the latest query
+ * is handed to the publisher on the EDT. Latency from the last keystroke to
+ * the published result is recorded for every completed search.
+ */
+public class SearchPipeline<R> {
+
+    public static final int DEFAULT_DELAY_MS = 120;
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "search-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final JTextField field;
+    private final Function<String, R> matcher;
+    private final Consumer<R> publisher;
+    private final Timer debounceTimer;
+    private final LatencyRecorder latency = new LatencyRecorder(1024);
+
+    // Only touched on the EDT
+    private long generation = 0;
+    private long lastKeystrokeNanos = 0;
+    private Future<?> running;
+    private int cancelledCount = 0;
+
+    /**
+     * @param matcher   runs off the EDT; receives the trimmed query text and must
+     *                  not touch Swing components
+     * @param publisher runs on the EDT with the matcher's result
+     */
+    public SearchPipeline(JTextField field, Function<String, R> matcher, Consumer<R> publisher) {
+        this(field, DEFAULT_DELAY_MS, matcher, publisher);
+    }
+
+    public SearchPipeline(JTextField field, int delayMillis, Function<String, R> matcher, Consumer<R> publisher) {
+        this.field = field;
+        this.matcher = matcher;
+        this.publisher = publisher;
+
+        debounceTimer = new Timer(delayMillis, e -> submit());
+        debounceTimer.setRepeats(false);
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                keystroke();
+            }
+            public void removeUpdate(DocumentEvent e) {
+                keystroke();
+            }
+            public void changedUpdate(DocumentEvent e) {
+                // Attribute changes do not alter the query
+            }
+        });
+    }
+
+    // Runs the current query immediately, e.g. from a search button
+    public void searchNow() {
+        lastKeystrokeNanos = System.nanoTime();
+        debounceTimer.stop();
+        submit();
+    }
+
+    /**
+     * Throws CancellationException if the calling search has been superseded.
+     * Long-running matchers should call this from their inner loops.
+     */
+    public static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+    }
+
+    public long getLatencyPercentileMillis(double percentile) {
+        return latency.percentileNanos(percentile) / 1_000_000;
+    }
+
+    public int getSampleCount() {
+        return latency.count();
+    }
+
+    public int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    public String describeLatency() {
+        if (latency.count() == 0) {
+            return "No searches yet";
+        }
+        return String.format("Search latency p50 %d ms, p99 %d ms (%d searches, %d cancelled)",
+                getLatencyPercentileMillis(0.50), getLatencyPercentileMillis(0.99),
+                latency.count(), cancelledCount);
+    }
+
+    private void keystroke() {
+        lastKeystrokeNanos = System.nanoTime();
+        debounceTimer.restart();
+    }
+
+    private void submit() {
+        final long ticket = ++generation;
+        final long startedNanos = lastKeystrokeNanos;
+        final String query = field.getText().trim();
+
+        if (running != null && !running.isDone()) {
+            running.cancel(true);
+            cancelledCount++;
+        }
+
+        running = WORKERS.submit(() -> {
+            R result;
+            try {
+                result = matcher.apply(query);
+            } catch (CancellationException e) {
+                return;
+            } catch (RuntimeException e) {
+                // The future is never read, so it would swallow the failure
+                System.err.println("Search for \"" + query + "\" failed: " + e);
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                // A newer query has been submitted since; drop this result
+                if (ticket != generation) {
+                    return;
+                }
+                publisher.accept(result);
+                latency.record(System.nanoTime() - startedNanos);
+            });
+        });
+    }
+
+    /**
+     * Fixed-size ring of the most recent latency samples.
+     */
+    static class LatencyRecorder {
+        private final long[] samples;
+        private int next = 0;
+        private int count = 0;
+
+        LatencyRecorder(int capacity) {
+            samples = new long[capacity];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized long percentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+}
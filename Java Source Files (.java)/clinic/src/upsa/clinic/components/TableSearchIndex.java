@@ -0,0 +1,159 @@
+package upsa.clinic.components;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableModel;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * Lower-cased text of every row of a table model, kept current through
+ * model events so that a {@link SearchPipeline} worker can match queries
+ * without touching the Swing model off the EDT.
+ */
+public class TableSearchIndex implements TableModelListener {
+
+    // Separates cells so a query never matches across two columns
+    private static final char CELL_SEPARATOR = '\u0001';
+
+    private final TableModel model;
+    private volatile String[] rows;
+    private volatile int version = 0;
+
+    public TableSearchIndex(TableModel model) {
+        this.model = model;
+        rebuild();
+        model.addTableModelListener(this);
+    }
+
+    /**
+     * Matching rows for a query, or null for an empty query. Runs on the
+     * search worker.
+     */
+    public Result match(String query) {
+        if (query.isEmpty()) {
+            return null;
+        }
+        String needle = query.toLowerCase(Locale.ROOT);
+        // Version first: rows published meanwhile are newer, so the result is checked again rather than trusted
+        int version = this.version;
+        String[] snapshot = rows;
+
+        BitSet matches = new BitSet(snapshot.length);
+        for (int row = 0; row < snapshot.length; row++) {
+            if ((row & 1023) == 0) {
+                SearchPipeline.checkCancelled();
+            }
+            if (snapshot[row].contains(needle)) {
+                matches.set(row);
+            }
+        }
+        return new Result(needle, matches, version);
+    }
+
+    /**
+     * Row filter for a published result. Once the model has changed since the
+     * match ran, rows are checked directly against the current text instead.
+     */
+    public RowFilter<TableModel, Integer> rowFilter(Result result) {
+        return new RowFilter<TableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends TableModel, ? extends Integer> entry) {
+                int row = entry.getIdentifier();
+                if (result.version == version) {
+                    return result.matches.get(row);
+                }
+                return rows[row].contains(result.query);
+            }
+        };
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+
+        if (first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE) {
+            rebuild();
+            return;
+        }
+
+        switch (e.getType()) {
+            case TableModelEvent.INSERT: {
+                String[] current = rows;
+                int count = last - first + 1;
+                String[] updated = new String[current.length + count];
+                System.arraycopy(current, 0, updated, 0, first);
+                System.arraycopy(current, first, updated, last + 1, current.length - first);
+                for (int row = first; row <= last; row++) {
+                    updated[row] = rowText(row);
+                }
+                publish(updated);
+                break;
+            }
+            case TableModelEvent.DELETE: {
+                String[] current = rows;
+                int count = last - first + 1;
+                String[] updated = new String[current.length - count];
+                System.arraycopy(current, 0, updated, 0, first);
+                System.arraycopy(current, last + 1, updated, first, current.length - last - 1);
+                publish(updated);
+                break;
+            }
+            default: {
+                // Copied, as a worker may be matching against the current array
+                String[] updated = rows.clone();
+                for (int row = first; row <= last && row < updated.length; row++) {
+                    updated[row] = rowText(row);
+                }
+                publish(updated);
+                break;
+            }
+        }
+    }
+
+    private void rebuild() {
+        String[] updated = new String[model.getRowCount()];
+        for (int row = 0; row < updated.length; row++) {
+            updated[row] = rowText(row);
+        }
+        publish(updated);
+    }
+
+    private void publish(String[] updated) {
+        rows = updated;
+        version++;
+    }
+
+    private String rowText(int row) {
+        StringBuilder text = new StringBuilder();
+        for (int column = 0; column < model.getColumnCount(); column++) {
+            Object value = model.getValueAt(row, column);
+            if (value != null) {
+                text.append(value.toString().toLowerCase(Locale.ROOT));
+            }
+            text.append(CELL_SEPARATOR);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Rows that matched a query at a given model version.
+     */
+    public static class Result {
+        private final String query;
+        private final BitSet matches;
+        private final int version;
+
+        Result(String query, BitSet matches, int version) {
+            this.query = query;
+            this.matches = matches;
+            this.version = version;
+        }
+
+        public int count() {
+            return matches.cardinality();
+        }
+    }
+}
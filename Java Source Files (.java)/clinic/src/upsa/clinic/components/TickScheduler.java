@@ -0,0 +1,219 @@
+package upsa.clinic.components;
+
+import javax.swing.*;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The one timer behind the periodic work of the panels, e.g. the
+ * dashboard's clock and the pharmacy's poll of the shared inventory.
+ *
+ * A task belongs to a component and is paused while that component is not
+ * showing, e.g. its card is behind another in the CardLayout, so hidden
+ * panels cost no wakeups at all. A tick missed meanwhile runs as soon as
+ * the panel is shown again, so what it shows is never stale.
+ *
+ * Ticks are aligned to multiples of their period, and every task due
+ * within {@link #SLACK_MILLIS} of a wakeup runs in it, so a 100 ms and a
+ * 60 s task wake the EDT once when both fall due.
+ *
+ * Scheduling, cancelling and the tasks themselves run on the EDT.
+ */
+public final class TickScheduler {
+
+    // A task this close to being due runs with the tick already happening
+    public static final int SLACK_MILLIS = 10;
+
+    private static final TickScheduler SHARED = new TickScheduler();
+
+    private final List<Task> tasks = new ArrayList<>();
+    private final Timer timer = new Timer(0, e -> tick());
+    private long wakeups;
+    private long runs;
+
+    /**
+     * Periodic work registered with the scheduler. Cancel it when its
+     * owner is done with it, normally in removeNotify.
+     */
+    public final class Task {
+        private final JComponent owner;
+        private final String name;
+        private final int periodMillis;
+        private final Runnable action;
+        // Keep running while the owner is in a window but hidden
+        private final boolean whileHidden;
+        private final HierarchyListener hierarchyListener = this::hierarchyChanged;
+        private boolean active;
+        private boolean cancelled;
+        private long due;
+        private long runs;
+        private long busyNanos;
+
+        private Task(JComponent owner, String name, int periodMillis, Runnable action, boolean whileHidden) {
+            this.owner = owner;
+            this.name = name;
+            this.periodMillis = periodMillis;
+            this.action = action;
+            this.whileHidden = whileHidden;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPeriodMillis() {
+            return periodMillis;
+        }
+
+        // Running, rather than paused while its owner is hidden
+        public boolean isActive() {
+            return active;
+        }
+
+        public long getRuns() {
+            return runs;
+        }
+
+        // Time spent on the EDT running it
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                active = false;
+                owner.removeHierarchyListener(hierarchyListener);
+                tasks.remove(this);
+                reschedule();
+            }
+        }
+
+        private void hierarchyChanged(HierarchyEvent e) {
+            if ((e.getChangeFlags() & (HierarchyEvent.SHOWING_CHANGED | HierarchyEvent.DISPLAYABILITY_CHANGED)) != 0) {
+                updateActive();
+                reschedule();
+            }
+        }
+
+        // A tick that fell due while paused is still due, so it runs as soon as the task is active again
+        private void updateActive() {
+            active = !cancelled && (whileHidden ? owner.isDisplayable() : owner.isShowing());
+        }
+
+        private void run(long now) {
+            long started = System.nanoTime();
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                System.err.println("Tick task " + name + " failed: " + e);
+            }
+            busyNanos += System.nanoTime() - started;
+            runs++;
+            // The next multiple of the period, so tasks with related periods fall due together
+            due = Math.max(due + periodMillis, (Math.floorDiv(now + SLACK_MILLIS, periodMillis) + 1) * periodMillis);
+        }
+    }
+
+    private TickScheduler() {
+        timer.setRepeats(false);
+    }
+
+    public static TickScheduler shared() {
+        return SHARED;
+    }
+
+    // Runs action every periodMillis while owner is showing
+    public Task schedule(JComponent owner, String name, int periodMillis, Runnable action) {
+        return add(new Task(owner, name, periodMillis, action, false));
+    }
+
+    // Runs action every periodMillis while owner is in a window, shown or not, e.g. to keep data current
+    public Task scheduleWhileHidden(JComponent owner, String name, int periodMillis, Runnable action) {
+        return add(new Task(owner, name, periodMillis, action, true));
+    }
+
+    private Task add(Task task) {
+        if (task.periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + task.periodMillis);
+        }
+        tasks.add(task);
+        task.owner.addHierarchyListener(task.hierarchyListener);
+        // First tick on the period's grid rather than a period from now, to line up with the other tasks
+        task.due = (Math.floorDiv(now(), task.periodMillis) + 1) * task.periodMillis;
+        task.updateActive();
+        reschedule();
+        return task;
+    }
+
+    // Tasks registered, active or paused
+    public List<Task> getTasks() {
+        return new ArrayList<>(tasks);
+    }
+
+    // Times the EDT was woken for tasks
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    // Task runs, at least one per wakeup
+    public long getRuns() {
+        return runs;
+    }
+
+    public String describeStats() {
+        int active = 0;
+        long busyNanos = 0;
+        StringBuilder paused = new StringBuilder();
+        for (Task task : tasks) {
+            busyNanos += task.busyNanos;
+            if (task.active) {
+                active++;
+            } else {
+                paused.append(paused.length() == 0 ? "" : ", ").append(task.name);
+            }
+        }
+        return String.format("UI ticks: %d of %d tasks active%s, %,d runs in %,d wakeups, %.1f ms on the EDT",
+                active, tasks.size(), paused.length() == 0 ? "" : " (paused: " + paused + ")",
+                runs, wakeups, busyNanos / 1e6);
+    }
+
+    private void tick() {
+        long now = now();
+        int ran = 0;
+        // Tasks may cancel or schedule others while running
+        for (Task task : getTasks()) {
+            if (task.active && task.due <= now + SLACK_MILLIS) {
+                task.run(now);
+                ran++;
+            }
+        }
+        if (ran > 0) {
+            wakeups++;
+            runs += ran;
+        }
+        reschedule();
+    }
+
+    // One timer, set for the earliest active task; stopped while every task is paused
+    private void reschedule() {
+        long next = Long.MAX_VALUE;
+        for (Task task : tasks) {
+            if (task.active) {
+                next = Math.min(next, task.due);
+            }
+        }
+        if (next == Long.MAX_VALUE) {
+            timer.stop();
+            return;
+        }
+        timer.setInitialDelay((int) Math.max(0, Math.min(Integer.MAX_VALUE, next - now())));
+        timer.restart();
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
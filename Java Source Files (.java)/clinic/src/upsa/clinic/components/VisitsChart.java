@@ -0,0 +1,164 @@
+package upsa.clinic.components;
+
+import upsa.clinic.Colors;
+import upsa.clinic.data.VisitSeries;
+
+import java.awt.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Line chart of patient visits on the dashboard, from the last week to the
+ * last five years. Whatever the range, at most one point per pixel of width
+ * is read from the series, so drawing costs the same for a week as for
+ * years of history.
+ */
+public class VisitsChart extends CachedChart {
+
+    public enum Range {
+        WEEK("Last 7 days", 7),
+        MONTH("Last 30 days", 30),
+        QUARTER("Last 90 days", 90),
+        YEAR("Last year", 365),
+        FIVE_YEARS("Last 5 years", 5 * 365 + 1);
+
+        private final String label;
+        private final int days;
+
+        Range(String label, int days) {
+            this.label = label;
+            this.days = days;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final Font LABEL_FONT = new Font("Segoe UI", Font.PLAIN, 10);
+    private static final Font EMPTY_FONT = new Font("Segoe UI", Font.PLAIN, 12);
+    private static final Stroke LINE_STROKE = new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    private static final int PADDING = 40;
+    private static final int DATE_LABELS = 5;
+    private static final int[] NICE_FACTORS = {1, 2, 5};
+    // Points are marked with dots only while they are this far apart or more
+    private static final int DOT_SPACING = 12;
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("d MMM");
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("MMM yyyy");
+
+    private final VisitSeries series;
+    private Range range = Range.MONTH;
+    private int rangeChanges;
+    // Reused from one drawing to the next
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+
+    public VisitsChart(VisitSeries series) {
+        this.series = series;
+        setPreferredSize(new Dimension(400, 250));
+    }
+
+    public Range getRange() {
+        return range;
+    }
+
+    public void setRange(Range range) {
+        if (range != this.range) {
+            this.range = range;
+            rangeChanges++;
+            repaint();
+        }
+    }
+
+    // Drawn again when visits change, the range changes or the day moves on
+    @Override
+    protected long dataVersion() {
+        return series.getVersion() + rangeChanges + LocalDate.now().toEpochDay();
+    }
+
+    @Override
+    protected void drawChart(Graphics2D g2d, int width, int height) {
+        int plotWidth = width - 2 * PADDING;
+        int plotHeight = height - 2 * PADDING;
+        if (plotWidth <= 0 || plotHeight <= 0) {
+            return;
+        }
+
+        // Draw grid
+        g2d.setColor(Colors.BORDER_LIGHT);
+        for (int i = 1; i <= 4; i++) {
+            int y = PADDING + plotHeight * i / 5;
+            g2d.drawLine(PADDING, y, width - PADDING, y);
+        }
+
+        LocalDate to = LocalDate.now();
+        LocalDate from = to.minusDays(range.getDays() - 1);
+        VisitSeries.Points points = series.points(from, to, plotWidth);
+        int pointCount = points.size();
+        int maxVisits = niceMax(points.getMaxCount());
+        long firstDay = from.toEpochDay();
+        long days = Math.max(1, to.toEpochDay() - firstDay);
+
+        if (points.getMaxCount() == 0) {
+            g2d.setColor(Colors.TEXT_SECONDARY);
+            g2d.setFont(EMPTY_FONT);
+            String empty = "No visits recorded yet";
+            g2d.drawString(empty, (width - g2d.getFontMetrics().stringWidth(empty)) / 2, height / 2);
+        } else {
+            if (xs.length < pointCount) {
+                xs = new int[pointCount];
+                ys = new int[pointCount];
+            }
+            for (int i = 0; i < pointCount; i++) {
+                // Weeks and months may start before the range; keep them at its edge
+                long day = Math.max(firstDay, points.getStartDay(i));
+                xs[i] = PADDING + (int) (plotWidth * (day - firstDay) / days);
+                ys[i] = height - PADDING - plotHeight * points.getCount(i) / maxVisits;
+            }
+
+            // Draw line
+            g2d.setColor(Colors.PRIMARY);
+            g2d.setStroke(LINE_STROKE);
+            g2d.drawPolyline(xs, ys, pointCount);
+
+            // Draw points
+            if (pointCount == 1 || plotWidth / pointCount >= DOT_SPACING) {
+                g2d.setColor(Colors.ACCENT);
+                for (int i = 0; i < pointCount; i++) {
+                    g2d.fillOval(xs[i] - 4, ys[i] - 4, 8, 8);
+                }
+            }
+        }
+
+        // Draw labels
+        g2d.setColor(Colors.TEXT_SECONDARY);
+        g2d.setFont(LABEL_FONT);
+        FontMetrics metrics = g2d.getFontMetrics();
+        DateTimeFormatter format = range.getDays() > 366 ? MONTH : DAY;
+        for (int i = 0; i < DATE_LABELS; i++) {
+            String label = LocalDate.ofEpochDay(firstDay + days * i / (DATE_LABELS - 1)).format(format);
+            int x = PADDING + plotWidth * i / (DATE_LABELS - 1) - metrics.stringWidth(label) / 2;
+            g2d.drawString(label, x, height - PADDING + 15);
+        }
+        String top = String.valueOf(maxVisits);
+        g2d.drawString(top, PADDING - 6 - metrics.stringWidth(top), PADDING + metrics.getAscent() / 2);
+    }
+
+    // 1, 2 or 5 times a power of ten, at or above the most visits shown
+    private static int niceMax(int max) {
+        int step = 1;
+        while (true) {
+            for (int factor : NICE_FACTORS) {
+                if (step * factor >= max) {
+                    return Math.max(step * factor, 5);
+                }
+            }
+            step *= 10;
+        }
+    }
+}
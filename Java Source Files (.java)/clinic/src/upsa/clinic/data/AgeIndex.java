@@ -0,0 +1,163 @@
+package upsa.clinic.data;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Patients grouped into age bands, one {@link SlotBitmap} per band, so that
+ * age counts and filters need no pass over every date of birth.
+ *
+ * Bands are computed as of a fixed day. When the day changes,
+ * {@link #advanceTo(LocalDate)} moves only the patients whose birthday
+ * carried them over a band boundary; they are found through an index of
+ * slots by date of birth, since everyone who turns 18 today was born on the
+ * same day 18 years ago. Patients without a recorded DOB are in no band.
+ */
+public class AgeIndex implements PatientStore.Listener {
+
+    public static final String[] BANDS = {"Under 18", "18–21", "22–25", "26+"};
+
+    // First age of every band but the first
+    private static final int[] BOUNDARIES = {18, 22, 26};
+
+    private final PatientStore store;
+    private final SlotBitmap[] bands = new SlotBitmap[BANDS.length];
+
+    // Epoch day of birth -> slots born that day, ascending
+    private final TreeMap<Integer, IntList> byBirthDay = new TreeMap<>();
+
+    private LocalDate asOf;
+
+    public AgeIndex(PatientStore store) {
+        this.store = store;
+        this.asOf = store.today();
+        for (int band = 0; band < bands.length; band++) {
+            bands[band] = new SlotBitmap();
+        }
+        for (int row = 0; row < store.size(); row++) {
+            slotAdded(store.slotAt(row));
+        }
+        store.addListener(this);
+    }
+
+    @Override
+    public void slotAdded(int slot) {
+        int birthDay = store.birthDay(slot);
+        if (birthDay == PatientStore.NO_BIRTH_DAY) {
+            return;
+        }
+        byBirthDay.computeIfAbsent(birthDay, day -> new IntList()).addSorted(slot);
+        bands[band(birthDay, asOf)].add(slot);
+    }
+
+    @Override
+    public void slotRemoved(int slot) {
+        int birthDay = store.birthDay(slot);
+        if (birthDay == PatientStore.NO_BIRTH_DAY) {
+            return;
+        }
+        IntList slots = byBirthDay.get(birthDay);
+        slots.removeSorted(slot);
+        if (slots.isEmpty()) {
+            byBirthDay.remove(birthDay);
+        }
+        bands[band(birthDay, asOf)].remove(slot);
+    }
+
+    /**
+     * Moves the bands on to the given day and returns how many patients
+     * changed band. Only birthdays in the days since the last call are
+     * visited, unless more than a year has passed or the clock went back,
+     * in which case every patient is placed again.
+     */
+    public int advanceTo(LocalDate today) {
+        store.writeLock().lock();
+        try {
+            if (today.equals(asOf)) {
+                return 0;
+            }
+            if (today.isBefore(asOf) || today.isAfter(asOf.plusYears(1))) {
+                return rebuild(today);
+            }
+            int moved = 0;
+            for (int boundary : BOUNDARIES) {
+                // Born in (from, to]: turned this age after asOf, on or before today
+                int from = (int) asOf.minusYears(boundary).toEpochDay();
+                int to = (int) today.minusYears(boundary).toEpochDay();
+                for (Map.Entry<Integer, IntList> born : byBirthDay.subMap(from, false, to, true).entrySet()) {
+                    int oldBand = band(born.getKey(), asOf);
+                    int newBand = band(born.getKey(), today);
+                    IntList slots = born.getValue();
+                    for (int i = 0; i < slots.size(); i++) {
+                        bands[oldBand].remove(slots.get(i));
+                        bands[newBand].add(slots.get(i));
+                    }
+                    moved += slots.size();
+                }
+            }
+            asOf = today;
+            return moved;
+        } finally {
+            store.writeLock().unlock();
+        }
+    }
+
+    // Day the bands currently describe
+    public LocalDate asOf() {
+        store.readLock().lock();
+        try {
+            return asOf;
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    public int count(int band) {
+        store.readLock().lock();
+        try {
+            return bands[band].cardinality();
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    // Patients in the band, as a new bitmap the caller may keep
+    public SlotBitmap select(int band) {
+        store.readLock().lock();
+        try {
+            return bands[band].copy();
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    public static int bandOf(int age) {
+        int band = 0;
+        while (band < BOUNDARIES.length && age >= BOUNDARIES[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    private int rebuild(LocalDate today) {
+        for (SlotBitmap band : bands) {
+            band.clear();
+        }
+        int placed = 0;
+        for (Map.Entry<Integer, IntList> born : byBirthDay.entrySet()) {
+            SlotBitmap band = bands[band(born.getKey(), today)];
+            IntList slots = born.getValue();
+            for (int i = 0; i < slots.size(); i++) {
+                band.add(slots.get(i));
+            }
+            placed += slots.size();
+        }
+        asOf = today;
+        return placed;
+    }
+
+    private static int band(int birthDay, LocalDate date) {
+        return bandOf(PatientStore.ageOn(birthDay, date));
+    }
+}
@@ -0,0 +1,358 @@
+package upsa.clinic.data;
+
+import javax.swing.SwingUtilities;
+import java.awt.AWTEvent;
+import java.awt.Toolkit;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Backs up the data home on a schedule, each time from a freshly frozen
+ * {@link BackupView}, so every backup is a consistent copy taken while the
+ * desk goes on working.
+ *
+ * A run is due once the interval has passed since the latest backup. While
+ * someone is typing or clicking, or the EDT is slow to answer, a due run
+ * waits, for up to {@link #MAX_DEFERRAL}; once started it pauses between
+ * reads while the UI is busy, and it is throttled and runs on low-priority
+ * threads throughout. Every run, scheduled or started by hand, is appended
+ * to auto-backup.log in the store with its duration, the bytes it wrote
+ * and how long it held locks.
+ */
+public class AutoBackup {
+
+    public static final String INTERVAL_PROPERTY = "upsa.clinic.backupMinutes";
+    public static final Duration DEFAULT_INTERVAL = Duration.ofDays(1);
+    public static final Duration MAX_DEFERRAL = Duration.ofHours(2);
+
+    private static final long CHECK_SECONDS = 60;
+    private static final Duration RETRY_AFTER = Duration.ofMinutes(15);
+    // A click or key press this recent means the desk is in use
+    private static final long QUIET_MILLIS = 30_000;
+    // A no-op posted to the EDT that waits longer than this means the UI is busy
+    private static final long BUSY_LAG_MILLIS = 50;
+    private static final long PAUSE_MILLIS = 250;
+    // Pausing for the UI never stretches one run by more than this
+    private static final long MAX_PAUSE_MILLIS = 10 * 60_000;
+    private static final int HISTORY = 20;
+
+    private final Path store;
+    private final int threads;
+    private volatile Duration interval;
+    private volatile boolean enabled = false;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile BackupEngine current;
+    private volatile long lastInput = 0;
+
+    // Touched by the scheduler thread only
+    private Instant lastBackup;
+    private boolean lastBackupKnown = false;
+    private Instant deferredSince;
+    private Instant retryAt;
+
+    private final Deque<Run> history = new ArrayDeque<>();
+    private ScheduledExecutorService scheduler;
+
+    private static AutoBackup clinic;
+
+    public AutoBackup(Path store, Duration interval) {
+        this.store = store;
+        this.interval = interval;
+        this.threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Backs up into the clinic's backup store, once a day unless set
+     * otherwise with -Dupsa.clinic.backupMinutes=... There is one for the
+     * whole process, so each login's settings share its schedule, its
+     * thread and its input listener rather than starting their own.
+     */
+    public static synchronized AutoBackup forClinic() {
+        if (clinic != null) {
+            return clinic;
+        }
+        Duration interval = DEFAULT_INTERVAL;
+        String configured = System.getProperty(INTERVAL_PROPERTY);
+        if (configured != null && !configured.trim().isEmpty()) {
+            try {
+                interval = Duration.ofMinutes(Math.max(1, Long.parseLong(configured.trim())));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring " + INTERVAL_PROPERTY + "=" + configured + ", backing up daily");
+            }
+        }
+        clinic = new AutoBackup(BackupEngine.store(), interval);
+        return clinic;
+    }
+
+    // Starts the schedule on first use; disabling only stops runs that are not yet under way
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled && scheduler == null) {
+            Toolkit.getDefaultToolkit().addAWTEventListener(e -> {
+                if (e.getID() == MouseEvent.MOUSE_PRESSED || e.getID() == KeyEvent.KEY_PRESSED) {
+                    lastInput = System.currentTimeMillis();
+                }
+            }, AWTEvent.MOUSE_EVENT_MASK | AWTEvent.KEY_EVENT_MASK);
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "auto-backup");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::check, CHECK_SECONDS, CHECK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    // Stops the backup under way, if any; see BackupEngine.cancel
+    public void cancel() {
+        BackupEngine engine = current;
+        if (engine != null) {
+            engine.cancel();
+        }
+    }
+
+    /**
+     * Backs up now on the calling thread, which must not be the EDT, without
+     * pausing for the UI. Fails if a backup is already running.
+     */
+    public Run backupNow(BackupEngine.Progress progress) throws IOException {
+        return run(false, progress, Duration.ZERO);
+    }
+
+    // Latest runs, oldest first
+    public synchronized List<Run> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    public String describeStats() {
+        List<Run> runs = getHistory();
+        if (runs.isEmpty()) {
+            return "No backups this session";
+        }
+        double maxLock = 0;
+        for (Run run : runs) {
+            maxLock = Math.max(maxLock, run.getLockMillis());
+        }
+        return "Last backup: " + runs.get(runs.size() - 1) + String.format(" | Longest lock hold: %.1f ms", maxLock);
+    }
+
+    // Runs on the scheduler thread every minute
+    private void check() {
+        try {
+            if (!enabled || running.get()) {
+                return;
+            }
+            Instant now = Instant.now();
+            if (!lastBackupKnown) {
+                Path latest = BackupStore.open(store).latestBackup();
+                lastBackup = latest == null ? null : BackupStore.createdAt(latest);
+                lastBackupKnown = true;
+            }
+            if ((lastBackup != null && now.isBefore(lastBackup.plus(interval)))
+                    || (retryAt != null && now.isBefore(retryAt))) {
+                return;
+            }
+            if (uiBusy()) {
+                if (deferredSince == null) {
+                    deferredSince = now;
+                }
+                if (Duration.between(deferredSince, now).compareTo(MAX_DEFERRAL) < 0) {
+                    return;
+                }
+            }
+            Duration deferred = deferredSince == null ? Duration.ZERO : Duration.between(deferredSince, now);
+            deferredSince = null;
+            Run run = run(true, null, deferred);
+            if (run.getResult().getManifest() == null) {
+                retryAt = now.plus(RETRY_AFTER);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Automatic backup failed, trying again in " + RETRY_AFTER.toMinutes() + " minutes: " + e);
+            retryAt = Instant.now().plus(RETRY_AFTER);
+        }
+    }
+
+    private Run run(boolean automatic, BackupEngine.Progress progress, Duration deferred) throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IOException("A backup is already running");
+        }
+        Instant started = Instant.now();
+        long startNanos = System.nanoTime();
+        try (BackupView view = BackupView.freeze()) {
+            long frozenNanos = System.nanoTime();
+            BackupEngine engine = new BackupEngine(view.getDirectory(), store, threads,
+                    BackupEngine.DEFAULT_BYTES_PER_SECOND);
+            current = engine;
+            long[] paused = {0};
+            BackupEngine.Result result = engine.backup((scanned, total, stored, deduplicated) -> {
+                if (automatic) {
+                    paused[0] += pauseWhileBusy(MAX_PAUSE_MILLIS - paused[0]);
+                }
+                if (progress != null) {
+                    progress.update(scanned, total, stored, deduplicated);
+                }
+            });
+            Run run = new Run(started, automatic, result, view.getLockMillis(),
+                    (frozenNanos - startNanos) / 1_000_000, deferred.toMillis(), paused[0],
+                    (System.nanoTime() - startNanos) / 1_000_000);
+            if (result.getManifest() != null) {
+                lastBackup = started;
+                lastBackupKnown = true;
+                retryAt = null;
+            }
+            record(run);
+            return run;
+        } finally {
+            current = null;
+            running.set(false);
+        }
+    }
+
+    // Sleeps while the UI is busy, for at most the budget; returns the milliseconds paused
+    private long pauseWhileBusy(long budget) {
+        long paused = 0;
+        while (paused < budget && uiBusy()) {
+            try {
+                Thread.sleep(PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            paused += PAUSE_MILLIS;
+        }
+        return paused;
+    }
+
+    // True if someone clicked or typed lately, or the EDT is slow to run a no-op
+    boolean uiBusy() {
+        if (System.currentTimeMillis() - lastInput < QUIET_MILLIS) {
+            return true;
+        }
+        CountDownLatch answered = new CountDownLatch(1);
+        SwingUtilities.invokeLater(answered::countDown);
+        try {
+            return !answered.await(BUSY_LAG_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void record(Run run) {
+        synchronized (this) {
+            history.addLast(run);
+            if (history.size() > HISTORY) {
+                history.removeFirst();
+            }
+        }
+        String line = run.getStarted() + " " + run + System.lineSeparator();
+        try {
+            Files.write(store.resolve("auto-backup.log"), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Cannot log backup run: " + e);
+        }
+    }
+
+    public static class Run {
+        private final Instant started;
+        private final boolean automatic;
+        private final BackupEngine.Result result;
+        private final double lockMillis;
+        private final long freezeMillis;
+        private final long deferredMillis;
+        private final long pausedMillis;
+        private final long elapsedMillis;
+
+        Run(Instant started, boolean automatic, BackupEngine.Result result, double lockMillis, long freezeMillis,
+            long deferredMillis, long pausedMillis, long elapsedMillis) {
+            this.started = started;
+            this.automatic = automatic;
+            this.result = result;
+            this.lockMillis = lockMillis;
+            this.freezeMillis = freezeMillis;
+            this.deferredMillis = deferredMillis;
+            this.pausedMillis = pausedMillis;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public Instant getStarted() {
+            return started;
+        }
+
+        public boolean isAutomatic() {
+            return automatic;
+        }
+
+        public BackupEngine.Result getResult() {
+            return result;
+        }
+
+        // Time spent holding any lock, all of it while freezing the view
+        public double getLockMillis() {
+            return lockMillis;
+        }
+
+        // Time to freeze the view, linking and copying files included
+        public long getFreezeMillis() {
+            return freezeMillis;
+        }
+
+        // How long a due run waited for the UI to go quiet before starting
+        public long getDeferredMillis() {
+            return deferredMillis;
+        }
+
+        // How long the run paused for the UI once started
+        public long getPausedMillis() {
+            return pausedMillis;
+        }
+
+        // From freezing the view to the manifest being written
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s in %.1f s (freeze %d ms, deferred %d s, paused %.1f s): "
+                            + "%.1f MB in %d files, wrote %.1f MB; locks held %.1f ms",
+                    automatic ? "automatic" : "manual", result.isCancelled() ? "cancelled" : "backup",
+                    elapsedMillis / 1000.0, freezeMillis, deferredMillis / 1000, pausedMillis / 1000.0,
+                    result.getTotalBytes() / 1048576.0, result.getFiles(), result.getStoredBytes() / 1048576.0,
+                    lockMillis);
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package upsa.clinic.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Incremental, deduplicating backup of a directory, normally a frozen
+ * {@link BackupView} of the data home.
+ *
+ * Files are cut into content-defined chunks: a rolling hash over the bytes
+ * picks the cut points, so an edit or an append only changes the chunks
+ * around it and the rest line up with the previous backup again. Each
+ * chunk is stored once, gzip-compressed, in the {@link BackupStore}'s packs
+ * under its SHA-256; a backup is a {@link BackupManifest} listing every
+ * file's chunks. Files whose size and modification time match the latest
+ * backup are not read at all, so a nightly backup costs about what changed
+ * that day.
+ *
+ * Hashing and compression run on a small pool of low-priority threads
+ * while the calling thread reads ahead. Reads and writes share one token
+ * bucket, so a backup never takes more disk bandwidth than it is given.
+ */
+public class BackupEngine {
+
+    public static final String STORE_PROPERTY = "upsa.clinic.backups";
+    public static final long DEFAULT_BYTES_PER_SECOND = 32L * 1024 * 1024;
+
+    // Chunk sizes; cuts are only looked for between MIN and MAX, aiming at AVERAGE
+    static final int MIN_CHUNK = 4 * 1024;
+    static final int AVERAGE_CHUNK = 16 * 1024;
+    static final int MAX_CHUNK = 64 * 1024;
+
+    // Cut-point masks over the top bits of the rolling hash: harder to hit below the average, easier above it
+    private static final long MASK_SMALL = -1L << (64 - 16);
+    private static final long MASK_LARGE = -1L << (64 - 12);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: cut points must land in the same places in every backup
+        Random random = new Random(0x636C696E6963L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // Reports progress after about this many bytes
+    private static final long PROGRESS_BYTES = 4L * 1024 * 1024;
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every Java platform has SHA-256", e);
+        }
+    });
+
+    /**
+     * Called on the backing-up thread every few megabytes. Bytes stored are
+     * after compression; bytes deduplicated were already in the store.
+     */
+    public interface Progress {
+        void update(long bytesScanned, long totalBytes, long bytesStored, long bytesDeduplicated);
+    }
+
+    private final Path source;
+    private final Path storeDirectory;
+    private final int threads;
+    private final RateLimiter limiter;
+    private volatile boolean cancelled = false;
+
+    // Long.MAX_VALUE bytes per second for no throttling
+    public BackupEngine(Path source, Path store, int threads, long bytesPerSecond) {
+        this.source = source.toAbsolutePath().normalize();
+        this.storeDirectory = store.toAbsolutePath().normalize();
+        this.threads = threads;
+        this.limiter = new RateLimiter(bytesPerSecond);
+    }
+
+    /**
+     * The clinic's backup store: backups/ in the data home unless pointed
+     * elsewhere, e.g. an external drive, with -Dupsa.clinic.backups=...
+     */
+    public static Path store() {
+        String configured = System.getProperty(STORE_PROPERTY);
+        if (configured != null && !configured.trim().isEmpty()) {
+            return Paths.get(configured.trim());
+        }
+        return ClinicFiles.home().resolve("backups");
+    }
+
+    // Stops after the chunk in progress; chunks stored so far are kept for the next backup
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public Result backup(Progress progress) throws IOException {
+        long started = System.nanoTime();
+        Instant created = Instant.now();
+        BackupStore store = BackupStore.open(storeDirectory);
+        Map<String, BackupManifest.FileEntry> previous = latestFiles(store);
+        // Chunks this backup has already taken on, so each is written once however often it turns up
+        Set<String> claimed = ConcurrentHashMap.newKeySet();
+        BackupStore.PackWriter packs = store.newPackWriter(created);
+
+        List<Path> files = listFiles();
+        long totalBytes = 0;
+        for (Path file : files) {
+            totalBytes += file.toFile().length();
+        }
+
+        Result result = new Result();
+        result.totalBytes = totalBytes;
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "backup");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        // Bounds the chunks read ahead of the workers, and so the memory a backup takes
+        Semaphore inFlight = new Semaphore(threads * 4);
+        try {
+            List<PendingFile> pending = new ArrayList<>();
+            long reported = 0;
+            for (Path file : files) {
+                if (cancelled) {
+                    break;
+                }
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue; // Removed since the listing, e.g. a trimmed journal segment
+                }
+                String path = relativePath(file);
+                long modified = attributes.lastModifiedTime().toMillis();
+                BackupManifest.FileEntry before = previous.get(path);
+                if (before != null && before.getSize() == attributes.size() && before.getModified() == modified
+                        && allStored(before, store)) {
+                    pending.add(new PendingFile(before));
+                    result.unchangedFiles++;
+                    result.scannedBytes += before.getSize();
+                    result.deduplicatedBytes.addAndGet(before.getSize());
+                } else {
+                    PendingFile chunked = new PendingFile(path, modified);
+                    pending.add(chunked);
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        Chunker chunker = new Chunker(channel);
+                        byte[] chunk;
+                        while (!cancelled && (chunk = chunker.next()) != null) {
+                            inFlight.acquire();
+                            chunked.add(pool.submit(storeChunk(chunk, store, claimed, packs, inFlight, result)),
+                                    chunk.length);
+                            result.scannedBytes += chunk.length;
+                            if (progress != null && result.scannedBytes - reported >= PROGRESS_BYTES) {
+                                reported = result.scannedBytes;
+                                progress.update(result.scannedBytes, totalBytes, result.storedBytes.get(),
+                                        result.deduplicatedBytes.get());
+                            }
+                        }
+                    } catch (NoSuchFileException e) {
+                        pending.remove(chunked);
+                        continue;
+                    }
+                }
+                result.files++;
+            }
+
+            List<BackupManifest.FileEntry> entries = new ArrayList<>(pending.size());
+            for (PendingFile file : pending) {
+                entries.add(file.finish());
+            }
+            // Chunks stored before a cancel are kept for the next backup
+            packs.finish();
+            if (cancelled) {
+                result.cancelled = true;
+            } else {
+                result.manifest = store.manifestFile(created);
+                new BackupManifest(created, entries).write(result.manifest);
+            }
+            if (progress != null) {
+                progress.update(result.scannedBytes, totalBytes, result.storedBytes.get(), result.deduplicatedBytes.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancelled = true;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Cannot store a chunk", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            packs.abandon();
+        }
+        result.elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        return result;
+    }
+
+    /**
+     * Length of the next chunk of data[from, to). Only looks at the bytes
+     * themselves, so the same content is cut the same way wherever it sits
+     * in a file.
+     */
+    static int cut(byte[] data, int from, int to) {
+        int length = to - from;
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int max = Math.min(length, MAX_CHUNK);
+        int normal = Math.min(max, AVERAGE_CHUNK);
+        long hash = 0;
+        int i = MIN_CHUNK;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[from + i] & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i++) {
+            hash = (hash << 1) + GEAR[data[from + i] & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+
+    static String sha256(byte[] data) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return BackupStore.hex(digest.digest(data));
+    }
+
+    // Runs on a pool thread; returns the chunk's hash for the manifest
+    private Callable<String> storeChunk(byte[] chunk, BackupStore store, Set<String> claimed,
+                                        BackupStore.PackWriter packs, Semaphore inFlight, Result result) {
+        return () -> {
+            try {
+                String hash = sha256(chunk);
+                if (store.contains(hash) || !claimed.add(hash)) {
+                    result.deduplicatedBytes.addAndGet(chunk.length);
+                    return hash;
+                }
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(chunk.length / 2);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(chunk);
+                }
+                byte[] bytes = compressed.toByteArray();
+                limiter.acquire(bytes.length);
+                packs.add(hash, chunk.length, bytes);
+                result.storedBytes.addAndGet(bytes.length);
+                result.newChunks.incrementAndGet();
+                return hash;
+            } finally {
+                inFlight.release();
+            }
+        };
+    }
+
+    // Files of the latest backup by path; a damaged manifest just means everything is read again
+    private static Map<String, BackupManifest.FileEntry> latestFiles(BackupStore store) throws IOException {
+        Map<String, BackupManifest.FileEntry> files = new HashMap<>();
+        Path latest = store.latestBackup();
+        if (latest == null) {
+            return files;
+        }
+        try {
+            for (BackupManifest.FileEntry file : BackupManifest.read(latest).getFiles()) {
+                files.put(file.getPath(), file);
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring the previous backup " + latest.getFileName() + ": " + e.getMessage());
+        }
+        return files;
+    }
+
+    // Regular files under the source in path order, leaving out the store, frozen views and half-written files
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> !file.startsWith(storeDirectory))
+                    .filter(file -> !file.startsWith(source.resolve(BackupView.DIRECTORY)))
+                    .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private String relativePath(Path file) {
+        StringBuilder path = new StringBuilder();
+        for (Path name : source.relativize(file)) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(name);
+        }
+        return path.toString();
+    }
+
+    private static boolean allStored(BackupManifest.FileEntry file, BackupStore store) {
+        for (int i = 0; i < file.getChunkCount(); i++) {
+            if (!store.contains(file.getChunkHash(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Cuts a file into chunks, reading ahead in large blocks through the rate limiter
+    private final class Chunker {
+        private final FileChannel channel;
+        private final byte[] buffer = new byte[MAX_CHUNK * 4];
+        private int start = 0;
+        private int end = 0;
+        private boolean eof = false;
+
+        Chunker(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // The next chunk, or null at the end of the file
+        byte[] next() throws IOException, InterruptedException {
+            if (end - start < MAX_CHUNK && !eof) {
+                fill();
+            }
+            if (start == end) {
+                return null;
+            }
+            int length = cut(buffer, start, end);
+            byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+            start += length;
+            return chunk;
+        }
+
+        private void fill() throws IOException, InterruptedException {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            while (end < buffer.length && !eof) {
+                int read = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end));
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    limiter.acquire(read);
+                    end += read;
+                }
+            }
+        }
+    }
+
+    // A file's chunks as they are handed to the pool, resolved once all are stored
+    private static final class PendingFile {
+        private final BackupManifest.FileEntry unchanged;
+        private final String path;
+        private final long modified;
+        private final List<Future<String>> hashes = new ArrayList<>();
+        private final IntList lengths = new IntList();
+        private long size = 0;
+
+        PendingFile(BackupManifest.FileEntry unchanged) {
+            this.unchanged = unchanged;
+            this.path = null;
+            this.modified = 0;
+        }
+
+        PendingFile(String path, long modified) {
+            this.unchanged = null;
+            this.path = path;
+            this.modified = modified;
+        }
+
+        void add(Future<String> hash, int length) {
+            hashes.add(hash);
+            lengths.add(length);
+            size += length;
+        }
+
+        BackupManifest.FileEntry finish() throws InterruptedException, ExecutionException {
+            if (unchanged != null) {
+                return unchanged;
+            }
+            // Size as read, which a file still being appended to may have passed by now
+            BackupManifest.FileEntry entry = new BackupManifest.FileEntry(path, size, modified);
+            for (int i = 0; i < hashes.size(); i++) {
+                entry.addChunk(hashes.get(i).get(), lengths.get(i));
+            }
+            return entry;
+        }
+    }
+
+    public static class Result {
+        private Path manifest;
+        private boolean cancelled;
+        private int files;
+        private int unchangedFiles;
+        private long totalBytes;
+        private long scannedBytes;
+        private final AtomicLong newChunks = new AtomicLong();
+        private final AtomicLong storedBytes = new AtomicLong();
+        private final AtomicLong deduplicatedBytes = new AtomicLong();
+        private long elapsedMillis;
+
+        // The new backup's manifest, or null if it was cancelled
+        public Path getManifest() {
+            return manifest;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        // Files skipped because they had not changed since the previous backup
+        public int getUnchangedFiles() {
+            return unchangedFiles;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getNewChunks() {
+            return newChunks.get();
+        }
+
+        // Written to the store, after compression
+        public long getStoredBytes() {
+            return storedBytes.get();
+        }
+
+        // Not written because the store already held them, unchanged files included
+        public long getDeduplicatedBytes() {
+            return deduplicatedBytes.get();
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+}
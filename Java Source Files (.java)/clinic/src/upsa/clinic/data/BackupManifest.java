@@ -0,0 +1,168 @@
+package upsa.clinic.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One backup: every file it holds, by path relative to the data home, with
+ * the chunks that make it up in order. Stored as a text file in the backup
+ * store's manifests directory, e.g.
+ *
+ * <pre>
+ * upsa-clinic-backup 1
+ * created 2026-10-17T21:41:00Z
+ * file 131072 1760737260000 snapshots/pharmacy.snap
+ * 3f2a...e9 16384
+ * ...
+ * end 57
+ * </pre>
+ *
+ * A chunk line is the SHA-256 of the chunk's bytes and its length.
+ */
+public class BackupManifest {
+
+    private static final String MAGIC = "upsa-clinic-backup 1";
+
+    private final Instant created;
+    private final List<FileEntry> files;
+
+    public BackupManifest(Instant created, List<FileEntry> files) {
+        this.created = created;
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public List<FileEntry> getFiles() {
+        return files;
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (FileEntry file : files) {
+            total += file.getSize();
+        }
+        return total;
+    }
+
+    public static BackupManifest read(Path manifest) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            if (!MAGIC.equals(in.readLine())) {
+                throw new IOException(manifest.getFileName() + " is not a backup manifest");
+            }
+            String line = in.readLine();
+            if (line == null || !line.startsWith("created ")) {
+                throw new IOException(manifest.getFileName() + " has no creation time");
+            }
+            Instant created = Instant.parse(line.substring("created ".length()));
+            List<FileEntry> files = new ArrayList<>();
+            FileEntry current = null;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("file ")) {
+                    String[] parts = line.split(" ", 4);
+                    current = new FileEntry(parts[3], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    files.add(current);
+                } else if (line.startsWith("end ")) {
+                    if (Integer.parseInt(line.substring("end ".length())) != files.size()) {
+                        throw new IOException(manifest.getFileName() + " lists the wrong number of files");
+                    }
+                    return new BackupManifest(created, files);
+                } else if (current != null) {
+                    int space = line.indexOf(' ');
+                    current.addChunk(line.substring(0, space), Integer.parseInt(line.substring(space + 1)));
+                } else {
+                    throw new IOException(manifest.getFileName() + " has a chunk outside any file");
+                }
+            }
+            throw new IOException(manifest.getFileName() + " is cut short");
+        } catch (RuntimeException e) {
+            throw new IOException(manifest.getFileName() + " is damaged: " + e, e);
+        }
+    }
+
+    // Synced and moved into place whole, so a manifest on disk is always complete
+    public void write(Path manifest) throws IOException {
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+            out.write(MAGIC + "\n");
+            out.write("created " + created + "\n");
+            for (FileEntry file : files) {
+                out.write("file " + file.getSize() + " " + file.getModified() + " " + file.getPath() + "\n");
+                for (int i = 0; i < file.getChunkCount(); i++) {
+                    out.write(file.getChunkHash(i) + " " + file.getChunkLength(i) + "\n");
+                }
+            }
+            out.write("end " + files.size() + "\n");
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A file in a backup. The path uses '/' whatever the platform, so a
+     * backup can be restored on another machine.
+     */
+    public static class FileEntry {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final List<String> hashes = new ArrayList<>();
+        private final IntList lengths = new IntList();
+
+        public FileEntry(String path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        // Last modified time in epoch milliseconds when the file was backed up
+        public long getModified() {
+            return modified;
+        }
+
+        public int getChunkCount() {
+            return hashes.size();
+        }
+
+        public String getChunkHash(int index) {
+            return hashes.get(index);
+        }
+
+        public int getChunkLength(int index) {
+            return lengths.get(index);
+        }
+
+        void addChunk(String hash, int length) {
+            hashes.add(hash);
+            lengths.add(length);
+        }
+    }
+}
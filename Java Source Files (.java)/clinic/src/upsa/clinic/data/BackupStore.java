@@ -0,0 +1,254 @@
+package upsa.clinic.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A backup store on disk. manifests/ holds one {@link BackupManifest} per
+ * backup and packs/ the chunks they refer to.
+ *
+ * Chunks are appended, compressed, to pack files of about
+ * {@link #PACK_BYTES}, so a backup creates and syncs a few large files
+ * rather than one per chunk. A finished pack gets an .idx file listing each
+ * chunk's SHA-256, offset and lengths; a pack without one was cut short and
+ * is ignored, and its chunks are simply written again by the next backup.
+ */
+public class BackupStore {
+
+    public static final long PACK_BYTES = 16L * 1024 * 1024;
+
+    private static final int INDEX_MAGIC = 0x434C5049; // "CLPI"
+    private static final DateTimeFormatter FILE_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    private final Path directory;
+    private final Map<String, Location> chunks = new ConcurrentHashMap<>();
+
+    private BackupStore(Path directory) {
+        this.directory = directory;
+    }
+
+    // Creates the store if needed and reads the index of every finished pack
+    public static BackupStore open(Path directory) throws IOException {
+        BackupStore store = new BackupStore(directory);
+        Files.createDirectories(directory.resolve("manifests"));
+        Files.createDirectories(directory.resolve("packs"));
+        try (Stream<Path> files = Files.list(directory.resolve("packs"))) {
+            for (Path index : files.filter(file -> file.getFileName().toString().endsWith(".idx"))
+                    .collect(Collectors.toList())) {
+                store.readIndex(index);
+            }
+        }
+        return store;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public boolean contains(String hash) {
+        return chunks.containsKey(hash);
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    // Manifests in the store, oldest first
+    public List<Path> listBackups() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("manifests"))) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".manifest"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // The newest manifest, or null if the store holds no backup yet
+    public Path latestBackup() throws IOException {
+        List<Path> backups = listBackups();
+        return backups.isEmpty() ? null : backups.get(backups.size() - 1);
+    }
+
+    // When a backup was taken, from its manifest's name
+    public static Instant createdAt(Path manifest) {
+        String name = manifest.getFileName().toString();
+        return FILE_TIME.parse(name.substring(0, name.length() - ".manifest".length()), Instant::from);
+    }
+
+    Path manifestFile(Instant created) {
+        return directory.resolve("manifests").resolve(FILE_TIME.format(created) + ".manifest");
+    }
+
+    Location locate(String hash) {
+        return chunks.get(hash);
+    }
+
+    PackWriter newPackWriter(Instant created) {
+        return new PackWriter(FILE_TIME.format(created));
+    }
+
+    private void readIndex(Path index) throws IOException {
+        String name = index.getFileName().toString();
+        Path pack = index.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(index))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException(name + " is not a pack index");
+            }
+            int count = in.readInt();
+            byte[] hash = new byte[32];
+            for (int i = 0; i < count; i++) {
+                in.readFully(hash);
+                long offset = in.readLong();
+                int storedLength = in.readInt();
+                int length = in.readInt();
+                chunks.putIfAbsent(hex(hash), new Location(pack, offset, storedLength, length));
+            }
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] unhex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    // Where a chunk is stored: its compressed bytes at offset in pack
+    static final class Location {
+        final Path pack;
+        final long offset;
+        final int storedLength;
+        final int length;
+
+        Location(Path pack, long offset, int storedLength, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Appends chunks to packs for one backup. Safe to share between worker
+     * threads; chunks become part of the store once their pack is finished.
+     */
+    final class PackWriter {
+        private final String prefix;
+        private int packNumber = 0;
+        private Path pack;
+        private FileChannel channel;
+        private long size;
+        private final List<String> hashes = new ArrayList<>();
+        private final List<Location> locations = new ArrayList<>();
+
+        PackWriter(String prefix) {
+            this.prefix = prefix;
+        }
+
+        synchronized void add(String hash, int length, byte[] stored) throws IOException {
+            if (channel == null) {
+                openPack();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(stored);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            hashes.add(hash);
+            locations.add(new Location(pack, size, stored.length, length));
+            size += stored.length;
+            if (size >= PACK_BYTES) {
+                finish();
+            }
+        }
+
+        // Syncs the current pack and writes its index; the writer can go on with a new pack afterwards
+        synchronized void finish() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            channel.force(false);
+            channel.close();
+            channel = null;
+
+            Path index = pack.resolveSibling(pack.getFileName().toString().replace(".pack", ".idx"));
+            Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+            try (FileChannel indexChannel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(indexChannel)));
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(hashes.size());
+                for (int i = 0; i < hashes.size(); i++) {
+                    Location location = locations.get(i);
+                    out.write(unhex(hashes.get(i)));
+                    out.writeLong(location.offset);
+                    out.writeInt(location.storedLength);
+                    out.writeInt(location.length);
+                }
+                out.flush();
+                indexChannel.force(false);
+            }
+            Files.move(temp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (int i = 0; i < hashes.size(); i++) {
+                chunks.putIfAbsent(hashes.get(i), locations.get(i));
+            }
+            hashes.clear();
+            locations.clear();
+        }
+
+        // Leaves an unfinished pack without an index, so it is ignored
+        synchronized void abandon() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Nothing refers to the pack
+                }
+                channel = null;
+            }
+            hashes.clear();
+            locations.clear();
+        }
+
+        private void openPack() throws IOException {
+            // Another desk backing up into the same store at the same moment takes the next number
+            while (true) {
+                pack = directory.resolve("packs").resolve(prefix + "-" + packNumber++ + ".pack");
+                try {
+                    channel = FileChannel.open(pack, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    size = 0;
+                    return;
+                } catch (FileAlreadyExistsException e) {
+                    // Try the next number
+                }
+            }
+        }
+    }
+}
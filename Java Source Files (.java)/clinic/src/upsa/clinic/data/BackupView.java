@@ -0,0 +1,170 @@
+package upsa.clinic.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A frozen copy of the data home for a backup to read while the clinic
+ * keeps working: every table as of one moment, taken without stopping any
+ * edit.
+ *
+ * Snapshots and medical records are only ever replaced, never rewritten,
+ * so a hard link keeps the version that was there when the view was
+ * frozen however often they are saved afterwards. The journal is only
+ * appended to and every prefix of it is a consistent state of all tables
+ * at once, so its segments are linked as well. The pharmacy inventory,
+ * which is updated in place, is copied under its file lock, and the small
+ * ID sequence files are copied. On a file system without hard links every
+ * file is copied instead.
+ *
+ * Two locks are taken, and their hold time is recorded: Persistence's,
+ * which only holds off the snapshot writer, while snapshots and segments
+ * are linked, and the inventory's file lock while it is copied.
+ */
+public final class BackupView implements Closeable {
+
+    // Under the data home, so hard links stay on one file system
+    public static final String DIRECTORY = "backup-view";
+
+    // Views left behind by a crash are removed once this old
+    private static final Duration STALE = Duration.ofDays(1);
+
+    private final Path directory;
+    private boolean linksUnsupported = false;
+    private int linkedFiles;
+    private int copiedFiles;
+    private long lockNanos;
+
+    private BackupView(Path directory) {
+        this.directory = directory;
+    }
+
+    public static BackupView freeze() throws IOException {
+        Path home = ClinicFiles.home();
+        Path views = Files.createDirectories(home.resolve(DIRECTORY));
+        removeStale(views);
+        BackupView view = new BackupView(Files.createTempDirectory(views, "view"));
+        try {
+            long locked = System.nanoTime();
+            Persistence.addSavedFiles(home, view);
+            view.lockNanos += System.nanoTime() - locked;
+
+            view.addTree(home.resolve("records"), "records");
+            view.copyTree(home.resolve("ids"), "ids");
+            Path inventory = home.resolve("pharmacy").resolve("inventory.dat");
+            if (Files.exists(inventory)) {
+                try (InventoryFile file = InventoryFile.open(inventory)) {
+                    locked = System.nanoTime();
+                    file.copyTo(view.directory.resolve("pharmacy").resolve("inventory.dat"));
+                    view.lockNanos += System.nanoTime() - locked;
+                }
+                view.copiedFiles++;
+            }
+            return view;
+        } catch (IOException | RuntimeException e) {
+            view.close();
+            throw e;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getLinkedFiles() {
+        return linkedFiles;
+    }
+
+    public int getCopiedFiles() {
+        return copiedFiles;
+    }
+
+    // Total time spent holding a lock while freezing
+    public double getLockMillis() {
+        return lockNanos / 1e6;
+    }
+
+    // Removes the view; the data home is not touched
+    @Override
+    public void close() {
+        deleteTree(directory);
+    }
+
+    // Links every file under the source into the view, leaving out half-written ones
+    void addTree(Path source, String name) throws IOException {
+        for (Path file : listFiles(source)) {
+            Path target = directory.resolve(name).resolve(source.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            if (!linksUnsupported) {
+                try {
+                    Files.createLink(target, file);
+                    linkedFiles++;
+                    continue;
+                } catch (NoSuchFileException e) {
+                    continue; // Removed since the listing
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    linksUnsupported = true;
+                }
+            }
+            copy(file, target);
+        }
+    }
+
+    private void copyTree(Path source, String name) throws IOException {
+        for (Path file : listFiles(source)) {
+            Path target = directory.resolve(name).resolve(source.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            copy(file, target);
+        }
+    }
+
+    private void copy(Path file, Path target) throws IOException {
+        try {
+            Files.copy(file, target);
+            copiedFiles++;
+        } catch (NoSuchFileException e) {
+            // Removed since the listing
+        }
+    }
+
+    private static List<Path> listFiles(Path source) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.walk(source)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void removeStale(Path views) throws IOException {
+        FileTime cutoff = FileTime.from(Instant.now().minus(STALE));
+        try (Stream<Path> existing = Files.list(views)) {
+            for (Path view : existing.collect(Collectors.toList())) {
+                if (Files.getLastModifiedTime(view).compareTo(cutoff) < 0) {
+                    deleteTree(view);
+                }
+            }
+        }
+    }
+
+    private static void deleteTree(Path directory) {
+        try {
+            ClinicFiles.deleteTree(directory);
+        } catch (IOException e) {
+            System.err.println("Cannot remove backup view " + directory + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package upsa.clinic.data;
+
+/**
+ * Something done at this desk that other parts of the app may want to know
+ * about, e.g. a drug dispensed or an invoice paid: its type, the ID of what
+ * it happened to, a short description for people and an amount whose
+ * meaning depends on the type.
+ *
+ * Events are the reused slots of an {@link EventBus} ring. A subscriber is
+ * handed its own copy for the length of the callback and must not keep it.
+ */
+public final class ClinicEvent {
+
+    public enum Type {
+        PATIENT_REGISTERED,
+        PATIENT_UPDATED,
+        PATIENT_REMOVED,
+        // Amount: patients imported
+        PATIENTS_IMPORTED,
+        APPOINTMENT_BOOKED,
+        APPOINTMENT_CHANGED,
+        APPOINTMENT_COMPLETED,
+        APPOINTMENT_CANCELLED,
+        DOCTOR_ADDED,
+        DOCTOR_UPDATED,
+        DRUG_ADDED,
+        DRUG_UPDATED,
+        DRUG_REMOVED,
+        // Amount: units
+        DRUG_DISPENSED,
+        DRUG_RESTOCKED,
+        // Amount: units left
+        STOCK_LOW,
+        BED_ASSIGNED,
+        BED_TRANSFERRED,
+        BED_RELEASED,
+        // Amount: pesewas
+        INVOICE_CREATED,
+        INVOICE_PAID,
+        INVOICE_REMOVED,
+        VITALS_RECORDED,
+        VITALS_UPDATED
+    }
+
+    // -1 while the publisher is writing the slot
+    volatile long sequence = -1;
+    private Type type;
+    private String subject;
+    private String detail;
+    private long amount;
+    private long time;
+
+    ClinicEvent() {
+    }
+
+    void fill(Type type, String subject, String detail, long amount, long time) {
+        this.type = type;
+        this.subject = subject;
+        this.detail = detail;
+        this.amount = amount;
+        this.time = time;
+    }
+
+    void copy(ClinicEvent from, long sequence) {
+        fill(from.type, from.subject, from.detail, from.amount, from.time);
+        this.sequence = sequence;
+    }
+
+    // Position on the bus, counting from 0 for the first event published
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // ID of the patient, drug, bed... the event is about
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    // When it was published, in epoch milliseconds
+    public long getTime() {
+        return time;
+    }
+
+    // One line for people, e.g. in notifications
+    public String describe() {
+        switch (type) {
+            case PATIENT_REGISTERED: return "Registered " + detail;
+            case PATIENT_UPDATED: return "Updated the details of " + detail;
+            case PATIENT_REMOVED: return "Removed patient " + detail;
+            case PATIENTS_IMPORTED: return String.format("Imported %,d patients from %s", amount, subject);
+            case APPOINTMENT_BOOKED: return "Booked appointment " + subject + " for " + detail;
+            case APPOINTMENT_CHANGED: return "Changed appointment " + subject + " for " + detail;
+            case APPOINTMENT_COMPLETED: return "Completed appointment " + subject + " for " + detail;
+            case APPOINTMENT_CANCELLED: return "Cancelled appointment " + subject + " for " + detail;
+            case DOCTOR_ADDED: return "Added " + detail;
+            case DOCTOR_UPDATED: return "Updated " + detail;
+            case DRUG_ADDED: return "Added " + detail + " to the pharmacy";
+            case DRUG_UPDATED: return "Updated " + detail;
+            case DRUG_REMOVED: return "Removed " + detail + " from the pharmacy";
+            case DRUG_DISPENSED: return "Dispensed " + amount + " × " + detail;
+            case DRUG_RESTOCKED: return "Restocked " + amount + " × " + detail;
+            case STOCK_LOW: return "Low stock: " + detail + ", " + amount + " left";
+            case BED_ASSIGNED: return "Assigned bed " + subject + " to " + detail;
+            case BED_TRANSFERRED: return "Moved " + detail + " to bed " + subject;
+            case BED_RELEASED: return "Discharged " + detail + " from bed " + subject;
+            case INVOICE_CREATED: return "Invoiced " + detail + " " + InventoryTableModel.formatCedis(amount);
+            case INVOICE_PAID: return detail + " paid " + InventoryTableModel.formatCedis(amount) + " on " + subject;
+            case INVOICE_REMOVED: return "Deleted invoice " + subject;
+            case VITALS_RECORDED: return "Recorded vitals for " + detail;
+            case VITALS_UPDATED: return "Updated vitals for " + detail;
+            default: return toString();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + subject + (detail == null || detail.isEmpty() ? "" : " (" + detail + ")")
+                + (amount == 0 ? "" : " " + amount);
+    }
+}
@@ -0,0 +1,47 @@
+package upsa.clinic.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Location of the clinic's data files. Defaults to ~/.upsa-clinic and can be
+ * pointed elsewhere, e.g. a shared drive used by several desks, with
+ * -Dupsa.clinic.home=...
+ */
+public final class ClinicFiles {
+
+    public static final String HOME_PROPERTY = "upsa.clinic.home";
+
+    private ClinicFiles() {
+    }
+
+    public static Path home() {
+        String configured = System.getProperty(HOME_PROPERTY);
+        if (configured != null && !configured.trim().isEmpty()) {
+            return Paths.get(configured.trim());
+        }
+        return Paths.get(System.getProperty("user.home"), ".upsa-clinic");
+    }
+
+    // A subdirectory of the data home, created if it does not exist yet
+    public static Path directory(String name) throws IOException {
+        return Files.createDirectories(home().resolve(name));
+    }
+
+    // Deletes a directory and everything under it, e.g. a staging copy; a missing one is fine
+    static void deleteTree(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
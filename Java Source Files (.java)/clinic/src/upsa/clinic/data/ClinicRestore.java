@@ -0,0 +1,206 @@
+package upsa.clinic.data;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Restores the clinic's data, or one part of it, from a backup while the
+ * application runs.
+ *
+ * The part's files are first rebuilt in a staging directory by a
+ * {@link RestoreEngine}, then applied to the live data: a saved table's
+ * rows replace those of the open table through {@link Persistence#replace},
+ * so the change is journaled like any edit; pharmacy stock replaces the
+ * inventory file's in one locked write, which other desks pick up on their
+ * next poll; medical records replace the files under records/, keeping
+ * any written since the backup. Nothing outside the part is touched. ID
+ * sequences are never restored, so IDs handed out since the backup are
+ * not handed out again.
+ */
+public final class ClinicRestore {
+
+    public static final String EVERYTHING = "everything";
+    public static final String PHARMACY = "pharmacy";
+    public static final String RECORDS = "records";
+
+    // Tables saved through Persistence
+    public static final List<String> TABLES = Arrays.asList(
+            "patients", "appointments", "doctors", "beds", "billing", "vitals");
+
+    // Every part that can be restored on its own
+    public static final List<String> PARTS;
+
+    static {
+        List<String> parts = new ArrayList<>(TABLES);
+        parts.add(PHARMACY);
+        parts.add(RECORDS);
+        PARTS = parts;
+    }
+
+    /**
+     * Told on the EDT once a part is restored, or on a replica once a table
+     * is replaced wholesale from the primary desk. For a table, this happens in
+     * the same EDT turn as the rows are replaced, so a view over the table
+     * can catch up before it next paints.
+     */
+    public interface Listener {
+        void restored(String part);
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private ClinicRestore() {
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Paths of a backup, relative to the data home, that make up the part
+    public static Predicate<String> filesOf(String part) {
+        if (EVERYTHING.equals(part)) {
+            return path -> PARTS.stream().anyMatch(each -> filesOf(each).test(path));
+        } else if (PHARMACY.equals(part)) {
+            return path -> path.equals("pharmacy/inventory.dat");
+        } else if (RECORDS.equals(part)) {
+            return path -> path.startsWith("records/");
+        } else if (TABLES.contains(part)) {
+            return path -> path.equals("snapshots/" + part + ".snap") || path.startsWith("journal/");
+        }
+        throw new IllegalArgumentException("No such part of the clinic's data: " + part);
+    }
+
+    /**
+     * Restores the part from the backup. A part the backup does not hold is
+     * an error, except when restoring everything, where it is left as it is.
+     * If the restore is cancelled while files are being rebuilt, nothing is
+     * applied; once applying has started it runs to the end.
+     */
+    public static RestoreEngine.Result restore(RestoreEngine engine, BackupManifest manifest, String part,
+                                               RestoreEngine.Progress progress) throws IOException {
+        Path staging = Files.createTempDirectory("clinic-restore");
+        try {
+            RestoreEngine.Result result = engine.restore(manifest, filesOf(part), staging, progress);
+            if (result.isCancelled()) {
+                return result;
+            }
+            for (String each : EVERYTHING.equals(part) ? PARTS : Arrays.asList(part)) {
+                if (apply(each, staging)) {
+                    // Tables told the listeners as their rows were replaced
+                    if (!TABLES.contains(each)) {
+                        SwingUtilities.invokeLater(() -> tell(each));
+                    }
+                } else if (!EVERYTHING.equals(part)) {
+                    throw new IOException("The backup of " + manifest.getCreated() + " holds no " + part);
+                }
+            }
+            return result;
+        } finally {
+            deleteTree(staging);
+        }
+    }
+
+    // Applies one restored part from the staging directory; false if the backup did not hold it
+    private static boolean apply(String part, Path staging) throws IOException {
+        if (PHARMACY.equals(part)) {
+            Path file = staging.resolve("pharmacy").resolve("inventory.dat");
+            if (!Files.exists(file)) {
+                return false;
+            }
+            try (InventoryFile restored = InventoryFile.open(file);
+                 InventoryFile live = InventoryFile.open(ClinicFiles.home().resolve("pharmacy").resolve("inventory.dat"))) {
+                live.replaceAll(restored);
+            }
+            return true;
+        } else if (RECORDS.equals(part)) {
+            return copyRecords(staging.resolve("records"), ClinicFiles.home().resolve("records"));
+        }
+        List<Object[]> rows = Persistence.readSaved(staging, part);
+        if (rows == null) {
+            return false;
+        }
+        onEdt(part, () -> {
+            Persistence.replace(part, rows);
+            tell(part);
+        });
+        return true;
+    }
+
+    // Also used when a replica takes a table over wholesale from the primary desk
+    static void tell(String part) {
+        for (Listener listener : listeners) {
+            listener.restored(part);
+        }
+    }
+
+    private interface EdtTask {
+        void run() throws IOException;
+    }
+
+    private static void onEdt(String part, EdtTask task) throws IOException {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+            return;
+        }
+        IOException[] failure = {null};
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while restoring " + part, e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Cannot restore " + part, e.getCause());
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    // Each file is replaced in one step, like a save, so an open record never sees half a file
+    private static boolean copyRecords(Path from, Path to) throws IOException {
+        if (!Files.isDirectory(from)) {
+            return false;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(from)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Path target = to.resolve(from.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return true;
+    }
+
+    private static void deleteTree(Path directory) {
+        try {
+            ClinicFiles.deleteTree(directory);
+        } catch (IOException e) {
+            System.err.println("Cannot remove restore staging " + directory + ": " + e);
+        }
+    }
+}
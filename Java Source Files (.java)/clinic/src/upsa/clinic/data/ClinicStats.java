@@ -0,0 +1,261 @@
+package upsa.clinic.data;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.table.TableModel;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The figures on the dashboard, kept up to date as the tables change
+ * instead of counted when asked. Each panel hands over its table once it
+ * is open; from then on every change adjusts the figures it touches (see
+ * {@link RowAggregate}). Listeners are told on the EDT, at most every
+ * {@link #REFRESH_MILLIS} however fast the tables change.
+ *
+ * Appointments that were not cancelled are also counted per day as the
+ * clinic's visits, see {@link #getVisits()}.
+ *
+ * Which rows count knows the tables' columns, like {@link HttpQueryService}.
+ */
+public final class ClinicStats {
+
+    public enum Stat {
+        PATIENTS,
+        // Scheduled for today
+        APPOINTMENTS_TODAY,
+        ACTIVE_DOCTORS,
+        // Of all drugs, see rows()
+        DRUGS_IN_STOCK,
+        // Pesewas paid on invoices dated this month, half for partly paid ones
+        REVENUE_THIS_MONTH,
+        OCCUPIED_BEDS,
+        VITALS_MONITORED,
+        // Unpaid, pending or partly paid
+        INVOICES_DUE
+    }
+
+    public static final int REFRESH_MILLIS = 250;
+
+    // An appointment's share in the visits aggregate is its day plus this, so that 0 stays "no visit"
+    private static final long VISIT_DAY = 1L << 32;
+
+    private static final ClinicStats SHARED = new ClinicStats();
+
+    private final Map<Stat, RowAggregate> aggregates = new EnumMap<>(Stat.class);
+    private PatientStore patients;
+    private final VisitSeries visits = new VisitSeries();
+    private RowAggregate visitRows;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final Timer refresh = new Timer(REFRESH_MILLIS, e -> notifyListeners());
+    // ISO dates the day-bound figures were counted for
+    private String today;
+    private String thisMonth;
+
+    public ClinicStats() {
+        refresh.setRepeats(false);
+        setDate(LocalDate.now());
+    }
+
+    public static ClinicStats shared() {
+        return SHARED;
+    }
+
+    public void watchPatients(PatientStore store) {
+        patients = store;
+        store.addListener(new PatientStore.Listener() {
+            @Override
+            public void slotAdded(int slot) {
+                changed();
+            }
+
+            @Override
+            public void slotRemoved(int slot) {
+                changed();
+            }
+        });
+        changed();
+    }
+
+    // Columns as in AppointmentPanel: date 1, status 6
+    public void watchAppointments(EncodedTableModel model) {
+        StringDictionary statuses = model.dictionary(6);
+        int scheduled = statuses.encode("Scheduled");
+        watch(Stat.APPOINTMENTS_TODAY, model,
+                row -> model.code(row, 6) == scheduled && today.equals(model.getValueAt(row, 1)) ? 1 : 0);
+
+        int cancelled = statuses.encode("Cancelled");
+        if (visitRows != null) {
+            visitRows.close();
+            visits.clear();
+        }
+        visitRows = new RowAggregate(model,
+                row -> model.code(row, 6) == cancelled ? 0 : visitDay(model.getValueAt(row, 1)),
+                this::changed,
+                (before, after) -> {
+                    if (before != 0) {
+                        visits.add(before - VISIT_DAY, -1);
+                    }
+                    if (after != 0) {
+                        visits.add(after - VISIT_DAY, 1);
+                    }
+                });
+    }
+
+    // Visits per day, from the appointments that were not cancelled; read on the EDT
+    public VisitSeries getVisits() {
+        return visits;
+    }
+
+    // A row's share in the visits aggregate; 0 if the cell is not a date
+    private static long visitDay(Object date) {
+        if (date == null) {
+            return 0;
+        }
+        try {
+            return LocalDate.parse(date.toString()).toEpochDay() + VISIT_DAY;
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    // Columns as in DoctorsPanel: status 7
+    public void watchDoctors(EncodedTableModel model) {
+        int active = model.dictionary(7).encode("Active");
+        watch(Stat.ACTIVE_DOCTORS, model, row -> model.code(row, 7) == active ? 1 : 0);
+    }
+
+    public void watchPharmacy(InventoryTableModel model) {
+        InventoryFile inventory = model.getInventory();
+        watch(Stat.DRUGS_IN_STOCK, model, row -> "In Stock".equals(inventory.getStatus(row)) ? 1 : 0);
+    }
+
+    // Columns as in BillingPanel: date 3, amount 4, status 5
+    public void watchBilling(EncodedTableModel model) {
+        StringDictionary statuses = model.dictionary(5);
+        int paid = statuses.encode("Paid");
+        int unpaid = statuses.encode("Unpaid");
+        int pending = statuses.encode("Pending");
+        int partlyPaid = statuses.encode("Partially Paid");
+        watch(Stat.REVENUE_THIS_MONTH, model, row -> {
+            int status = model.code(row, 5);
+            if (status != paid && status != partlyPaid) {
+                return 0;
+            }
+            Object date = model.getValueAt(row, 3);
+            if (date == null || !date.toString().startsWith(thisMonth)) {
+                return 0;
+            }
+            long pesewas = pesewas(model.getValueAt(row, 4));
+            return status == paid ? pesewas : pesewas / 2;
+        });
+        watch(Stat.INVOICES_DUE, model, row -> {
+            int status = model.code(row, 5);
+            return status == unpaid || status == pending || status == partlyPaid ? 1 : 0;
+        });
+    }
+
+    // Columns as in BedManagementPanel: status 7
+    public void watchBeds(EncodedTableModel model) {
+        int occupied = model.dictionary(7).encode("Occupied");
+        watch(Stat.OCCUPIED_BEDS, model, row -> model.code(row, 7) == occupied ? 1 : 0);
+    }
+
+    // Every patient with a row of vitals
+    public void watchVitals(TableModel model) {
+        watch(Stat.VITALS_MONITORED, model, row -> 1);
+    }
+
+    private void watch(Stat stat, TableModel model, RowAggregate.RowValue value) {
+        RowAggregate previous = aggregates.put(stat, new RowAggregate(model, value, this::changed));
+        if (previous != null) {
+            previous.close();
+        }
+        changed();
+    }
+
+    // The figure, or -1 while its table is not open
+    public long get(Stat stat) {
+        if (stat == Stat.PATIENTS) {
+            return patients == null ? -1 : patients.size();
+        }
+        RowAggregate aggregate = aggregates.get(stat);
+        return aggregate == null ? -1 : aggregate.total();
+    }
+
+    // Rows the figure was counted over, e.g. all drugs for DRUGS_IN_STOCK; -1 while not open
+    public int rows(Stat stat) {
+        if (stat == Stat.PATIENTS) {
+            return patients == null ? -1 : patients.size();
+        }
+        RowAggregate aggregate = aggregates.get(stat);
+        return aggregate == null ? -1 : aggregate.rows();
+    }
+
+    /**
+     * Counts the day-bound figures again if the date moved on since they
+     * were counted. Called on the EDT, e.g. by the dashboard's clock.
+     */
+    public void checkDate() {
+        LocalDate now = LocalDate.now();
+        if (!now.toString().equals(today)) {
+            setDate(now);
+            for (RowAggregate aggregate : aggregates.values()) {
+                aggregate.recount();
+            }
+            changed();
+        }
+    }
+
+    private void setDate(LocalDate date) {
+        today = date.toString();
+        thisMonth = today.substring(0, 8);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    // A burst of changes costs one refresh, started by the first of them
+    private void changed() {
+        if (pending.compareAndSet(false, true)) {
+            if (SwingUtilities.isEventDispatchThread()) {
+                refresh.start();
+            } else {
+                SwingUtilities.invokeLater(refresh::start);
+            }
+        }
+    }
+
+    private void notifyListeners() {
+        pending.set(false);
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listeners) {
+            listener.stateChanged(event);
+        }
+    }
+
+    // "₵1,500.00" as 150000; 0 if it is not an amount
+    public static long pesewas(Object cell) {
+        if (cell == null) {
+            return 0;
+        }
+        try {
+            return Math.round(Double.parseDouble(cell.toString().replace("₵", "").replace(",", "")) * 100);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
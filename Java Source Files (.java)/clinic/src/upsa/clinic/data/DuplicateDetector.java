@@ -0,0 +1,544 @@
+package upsa.clinic.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Finds patients who are probably registered twice.
+ *
+ * Index No is matched exactly. Names go through locality-sensitive hashing:
+ * a MinHash signature of the normalized name's trigrams is split into
+ * bands, half of which are bucketed together with the date of birth and
+ * half with the phone digits. Patients sharing a bucket have similar names
+ * and the same DOB or phone; they are then scored on name edit distance,
+ * DOB and phone, and only close matches are reported. Keying the name bands
+ * by DOB or phone keeps the many unrelated patients who share a common name
+ * out of each other's buckets.
+ *
+ * The bucket index is kept current as a store listener, so a new
+ * registration can be checked before it is saved, and every insert,
+ * including bulk imports, is checked as it happens. Edits of existing
+ * patients are re-indexed but never flagged. {@link #findAll()}
+ * recomputes everything for a whole-registry pass across all cores.
+ */
+public class DuplicateDetector implements PatientStore.Listener {
+
+    public static final int NAME_BANDS = 4;
+    public static final int ROWS_PER_BAND = 2;
+    public static final double THRESHOLD = 0.72;
+
+    // Flagged matches kept for the UI between drains
+    public static final int MAX_FLAGGED = 1_000;
+
+    // The DOB and phone buckets use separate MinHash rows, so they miss independently
+    private static final int HASHES = 2 * NAME_BANDS * ROWS_PER_BAND;
+
+    // Bucket keys per patient: name bands with DOB, name bands with phone, then Index No
+    private static final int EXACT_BAND = 2 * NAME_BANDS;
+    private static final int KEYS = EXACT_BAND + 1;
+
+    // Bucket members looked at per band; huge buckets say little about any one patient
+    private static final int MAX_BUCKET_SCAN = 64;
+
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final PatientStore store;
+
+    // Per key kind: bucket key -> most recently added slot, then a chain through next[band][slot]
+    private final IntIntMap[] heads = new IntIntMap[KEYS];
+    private final int[][] next = new int[KEYS][];
+
+    private final List<Match> flagged = new ArrayList<>();
+    private int flaggedTotal = 0;
+
+    public DuplicateDetector(PatientStore store) {
+        this.store = store;
+        for (int band = 0; band < KEYS; band++) {
+            heads[band] = new IntIntMap();
+            next[band] = new int[64];
+        }
+        for (int row = 0; row < store.size(); row++) {
+            index(store.slotAt(row), record(store.slotAt(row)));
+        }
+        store.addListener(this);
+    }
+
+    @Override
+    public void slotAdded(int slot) {
+        Record record = record(slot);
+        // An edit only moves the patient's buckets; flagging is for new registrations and imports
+        List<Match> matches = store.isReplacing(slot) ? Collections.emptyList() : candidates(record, slot);
+        if (!matches.isEmpty()) {
+            synchronized (flagged) {
+                flaggedTotal += matches.size();
+                for (Match match : matches) {
+                    if (flagged.size() < MAX_FLAGGED) {
+                        flagged.add(match);
+                    }
+                }
+            }
+        }
+        index(slot, record);
+    }
+
+    @Override
+    public void slotRemoved(int slot) {
+        int[] keys = bucketKeys(record(slot));
+        for (int band = 0; band < KEYS; band++) {
+            if (keys[band] != 0) {
+                unlink(band, keys[band], slot);
+            }
+        }
+    }
+
+    /**
+     * Likely duplicates of a patient who is about to be registered, given in
+     * table column order, best match first. Safe to call off the EDT.
+     */
+    public List<Match> check(Object[] row) {
+        Record record = new Record(text(row[PatientStore.COL_INDEX_NO]), text(row[PatientStore.COL_NAME]),
+                text(row[PatientStore.COL_DOB]), text(row[PatientStore.COL_PHONE]));
+        store.readLock().lock();
+        try {
+            List<Match> matches = candidates(record, -1);
+            matches.sort(Comparator.comparingDouble(Match::getScore).reversed());
+            return matches;
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    // Matches flagged on insert since the last drain, including those beyond MAX_FLAGGED
+    public int flaggedCount() {
+        synchronized (flagged) {
+            return flaggedTotal;
+        }
+    }
+
+    // Matches flagged on insert since the last call, e.g. during a bulk import; at most MAX_FLAGGED
+    public List<Match> drainFlagged() {
+        synchronized (flagged) {
+            List<Match> drained = new ArrayList<>(flagged);
+            flagged.clear();
+            flaggedTotal = 0;
+            return drained;
+        }
+    }
+
+    /**
+     * Whole-registry pass. Signatures are computed, bucketed and verified in
+     * parallel on the common fork-join pool while the store is read-locked.
+     */
+    public List<Match> findAll() {
+        store.readLock().lock();
+        try {
+            int n = store.size();
+            int[] slots = new int[n];
+            for (int row = 0; row < n; row++) {
+                slots[row] = store.slotAt(row);
+            }
+
+            Record[] records = new Record[n];
+            int[][] keys = new int[KEYS][n];
+            IntStream.range(0, n).parallel().forEach(i -> {
+                records[i] = record(slots[i]);
+                int[] recordKeys = bucketKeys(records[i]);
+                for (int band = 0; band < KEYS; band++) {
+                    keys[band][i] = recordKeys[band];
+                }
+            });
+
+            // Candidate pairs (i << 32 | j) from every band, deduplicated
+            long[] pairs = IntStream.range(0, KEYS).parallel()
+                    .mapToObj(band -> bandPairs(keys[band]))
+                    .flatMapToLong(Arrays::stream)
+                    .toArray();
+            Arrays.parallelSort(pairs);
+            int distinct = 0;
+            for (int i = 0; i < pairs.length; i++) {
+                if (distinct == 0 || pairs[distinct - 1] != pairs[i]) {
+                    pairs[distinct++] = pairs[i];
+                }
+            }
+
+            List<Match> matches = Arrays.stream(pairs, 0, distinct).parallel()
+                    .mapToObj(pair -> {
+                        int i = (int) (pair >>> 32);
+                        int j = (int) pair;
+                        return verify(records[i], records[j], slots[i], slots[j]);
+                    })
+                    .filter(match -> match != null)
+                    .collect(Collectors.toList());
+            matches.sort(Comparator.comparingDouble(Match::getScore).reversed());
+            return matches;
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    private List<Match> candidates(Record record, int self) {
+        List<Match> matches = Collections.emptyList();
+        int[] keys = bucketKeys(record);
+        int[] seen = new int[KEYS * MAX_BUCKET_SCAN];
+        int seenCount = 0;
+        for (int band = 0; band < KEYS; band++) {
+            if (keys[band] == 0) {
+                continue;
+            }
+            int scanned = 0;
+            for (int slot = heads[band].get(keys[band]); slot >= 0 && scanned < MAX_BUCKET_SCAN;
+                 slot = next[band][slot], scanned++) {
+                if (slot == self || contains(seen, seenCount, slot)) {
+                    continue;
+                }
+                seen[seenCount++] = slot;
+                Match match = verify(record, record(slot), self, slot);
+                if (match != null) {
+                    if (matches.isEmpty()) {
+                        matches = new ArrayList<>();
+                    }
+                    matches.add(match);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void index(int slot, Record record) {
+        int[] keys = bucketKeys(record);
+        for (int band = 0; band < KEYS; band++) {
+            if (keys[band] == 0) {
+                continue;
+            }
+            if (slot >= next[band].length) {
+                next[band] = Arrays.copyOf(next[band], Math.max(slot + 1, next[band].length * 2));
+            }
+            next[band][slot] = heads[band].get(keys[band]);
+            heads[band].put(keys[band], slot);
+        }
+    }
+
+    private void unlink(int band, int key, int slot) {
+        int head = heads[band].get(key);
+        if (head == slot) {
+            int rest = next[band][slot];
+            if (rest < 0) {
+                heads[band].remove(key);
+            } else {
+                heads[band].put(key, rest);
+            }
+            return;
+        }
+        for (int previous = head; previous >= 0; previous = next[band][previous]) {
+            if (next[band][previous] == slot) {
+                next[band][previous] = next[band][slot];
+                return;
+            }
+        }
+    }
+
+    private Record record(int slot) {
+        return new Record(store.getString(slot, PatientStore.COL_INDEX_NO), store.getString(slot, PatientStore.COL_NAME),
+                store.getString(slot, PatientStore.COL_DOB), store.getString(slot, PatientStore.COL_PHONE));
+    }
+
+    /**
+     * Scores a candidate pair. The same Index No is always a duplicate;
+     * otherwise the names must be close and the weighted score of name
+     * similarity, DOB and phone must reach {@link #THRESHOLD}.
+     */
+    static Match verify(Record a, Record b, int slotA, int slotB) {
+        if (!a.indexNo.isEmpty() && a.indexNo.equals(b.indexNo)) {
+            return new Match(slotA, slotB, 1.0, "Same Index No");
+        }
+        int longest = Math.max(a.name.length(), b.name.length());
+        if (longest == 0) {
+            return null;
+        }
+        int[] previous = new int[b.name.length() + 1];
+        int[] current = new int[b.name.length() + 1];
+        double nameSimilarity = 1.0 - (double) FuzzyNameIndex.distance(a.name, b.name, previous, current) / longest;
+        boolean sameDob = !a.dob.isEmpty() && a.dob.equals(b.dob);
+        boolean samePhone = !a.phone.isEmpty() && a.phone.equals(b.phone);
+
+        // A name alone never reaches the threshold; with one of DOB or phone it must be within about one edit in eight
+        double score = 0.6 * nameSimilarity + (sameDob ? 0.2 : 0) + (samePhone ? 0.2 : 0);
+        if (nameSimilarity < 0.6 || score < THRESHOLD) {
+            return null;
+        }
+        String reason = (nameSimilarity == 1.0 ? "Same name" : "Similar name")
+                + (sameDob && samePhone ? ", DOB and phone" : sameDob ? " and DOB" : samePhone ? " and phone" : "");
+        return new Match(slotA, slotB, score, reason);
+    }
+
+    // Bucket keys for a patient, indexed as described at KEYS; 0 means no key
+    static int[] bucketKeys(Record record) {
+        int[] keys = new int[KEYS];
+        if (!record.indexNo.isEmpty()) {
+            keys[EXACT_BAND] = nonZero(record.indexNo.hashCode());
+        }
+        if (record.name.isEmpty() || (record.dob.isEmpty() && record.phone.isEmpty())) {
+            return keys;
+        }
+
+        long[] signature = record.nameSignature();
+        long dob = Record.hash('d', record.dob, 0, record.dob.length());
+        long phone = Record.hash('p', record.phone, 0, record.phone.length());
+        for (int band = 0; band < 2 * NAME_BANDS; band++) {
+            long field = band < NAME_BANDS ? dob : phone;
+            if ((band < NAME_BANDS ? record.dob : record.phone).isEmpty()) {
+                continue;
+            }
+            long key = band;
+            for (int row = 0; row < ROWS_PER_BAND; row++) {
+                key = mix(key * 31 + signature[band * ROWS_PER_BAND + row]);
+            }
+            keys[band] = fold(mix(key ^ field));
+        }
+        return keys;
+    }
+
+    /**
+     * Pairs of records sharing a key in one band. Sorting (key, index)
+     * values puts each bucket in one run; very large runs only pair each
+     * record with its next MAX_BUCKET_SCAN neighbours.
+     */
+    private static long[] bandPairs(int[] keys) {
+        long[] sorted = new long[keys.length];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                sorted[count++] = ((long) keys[i] << 32) | i;
+            }
+        }
+        Arrays.sort(sorted, 0, count);
+
+        long[] pairs = new long[16];
+        int pairCount = 0;
+        for (int start = 0; start < count; ) {
+            int end = start + 1;
+            while (end < count && (sorted[end] >>> 32) == (sorted[start] >>> 32)) {
+                end++;
+            }
+            for (int i = start; i < end; i++) {
+                for (int j = i + 1; j < end && j <= i + MAX_BUCKET_SCAN; j++) {
+                    if (pairCount == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, pairCount * 2);
+                    }
+                    pairs[pairCount++] = ((sorted[i] & 0xFFFFFFFFL) << 32) | (sorted[j] & 0xFFFFFFFFL);
+                }
+            }
+            start = end;
+        }
+        return Arrays.copyOf(pairs, pairCount);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int fold(long key) {
+        return nonZero((int) (key ^ (key >>> 32)));
+    }
+
+    private static int nonZero(int key) {
+        return key == 0 ? 1 : key;
+    }
+
+    // Finalizer of MurmurHash3; spreads every input bit across the result
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static String text(Object value) {
+        return value == null ? "" : value.toString().trim();
+    }
+
+    /**
+     * A patient's identifying fields, normalized for comparison: the name as
+     * lower-case words in sorted order, so that swapped first and last names
+     * still match, and the phone as digits only.
+     */
+    static class Record {
+        final String indexNo;
+        final String name;
+        final String dob;
+        final String phone;
+
+        Record(String indexNo, String name, String dob, String phone) {
+            this.indexNo = indexNo.toUpperCase(Locale.ROOT);
+            String[] words = FuzzyNameIndex.tokens(name);
+            Arrays.sort(words);
+            this.name = String.join(" ", words);
+            this.dob = dob;
+            StringBuilder digits = new StringBuilder(phone.length());
+            for (int i = 0; i < phone.length(); i++) {
+                if (Character.isDigit(phone.charAt(i))) {
+                    digits.append(phone.charAt(i));
+                }
+            }
+            this.phone = digits.toString();
+        }
+
+        // MinHash of the name's trigrams, padded so word starts and ends count
+        long[] nameSignature() {
+            String padded = " " + name + " ";
+            long[] signature = new long[HASHES];
+            Arrays.fill(signature, Long.MAX_VALUE);
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                long trigram = hash('n', padded, i, i + 3);
+                for (int h = 0; h < HASHES; h++) {
+                    long value = mix(trigram ^ SEEDS[h]);
+                    if (value < signature[h]) {
+                        signature[h] = value;
+                    }
+                }
+            }
+            return signature;
+        }
+
+        // FNV-1a over kind and value[from, to), then mixed
+        static long hash(char kind, String value, int from, int to) {
+            long hash = (0xCBF29CE484222325L ^ kind) * 0x100000001B3L;
+            for (int i = from; i < to; i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+            }
+            return mix(hash);
+        }
+    }
+
+    /**
+     * A likely duplicate pair. For a registration check, the first slot is
+     * -1 (the patient not yet saved) and the second the existing patient.
+     */
+    public static class Match {
+        private final int slot;
+        private final int otherSlot;
+        private final double score;
+        private final String reason;
+
+        Match(int slot, int otherSlot, double score, String reason) {
+            this.slot = slot;
+            this.otherSlot = otherSlot;
+            this.score = score;
+            this.reason = reason;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public int getOtherSlot() {
+            return otherSlot;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Open-addressing int to int map with linear probing; missing keys read
+     * as -1. Key 0 is reserved for empty cells.
+     */
+    static class IntIntMap {
+        private int[] keys = new int[64];
+        private int[] values = new int[64];
+        private int size = 0;
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = spread(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = spread(key) & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int i = spread(key) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // Shift later cells of the probe run back so lookups never stop early
+            int gap = i;
+            for (int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                int home = spread(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = 0;
+            size--;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int spread(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package upsa.clinic.data;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.DefaultTableModel;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * A DefaultTableModel whose categorical columns, e.g. ward, department or
+ * status, are also kept as int codes of shared {@link StringDictionary}s.
+ *
+ * Cells of those columns hold the dictionary's own String, so every row
+ * saying "General Ward" shares one instance however it arrived: typed in,
+ * restored from a snapshot or shipped by a primary desk. Counting and
+ * matching on those columns compares codes instead of strings, and each
+ * column keeps a count of its rows per code, so {@link #count} reads one
+ * number instead of scanning the rows.
+ *
+ * The codes follow every change through fireTableChanged, before any
+ * listener hears of it, so they are also right after Persistence changes
+ * the rows directly. A cell that is not a String, or is null, has code -1.
+ */
+public class EncodedTableModel extends DefaultTableModel {
+
+    // By column; null for columns that are not encoded
+    private StringDictionary[] dictionaries = new StringDictionary[0];
+    private int[][] codes = new int[0][];
+    // By column, then code: rows holding that code
+    private int[][] tallies = new int[0][];
+    // Rows the codes cover, normally all of them
+    private int encodedRows;
+
+    public EncodedTableModel(Object[] columnNames, int rowCount) {
+        super(columnNames, rowCount);
+    }
+
+    /**
+     * Keeps a column as codes of the dictionary. Rows already in the model
+     * are encoded straight away.
+     */
+    public EncodedTableModel encode(int column, StringDictionary dictionary) {
+        if (column >= dictionaries.length) {
+            dictionaries = Arrays.copyOf(dictionaries, column + 1);
+            codes = Arrays.copyOf(codes, column + 1);
+            tallies = Arrays.copyOf(tallies, column + 1);
+        }
+        dictionaries[column] = dictionary;
+        codes[column] = new int[Math.max(16, getRowCount())];
+        Arrays.fill(codes[column], -1);
+        tallies[column] = new int[Math.max(8, dictionary.size())];
+        encodeRows(0, getRowCount() - 1, column);
+        return this;
+    }
+
+    public StringDictionary dictionary(int column) {
+        return column < dictionaries.length ? dictionaries[column] : null;
+    }
+
+    // Code of a cell in an encoded column
+    public int code(int row, int column) {
+        return codes[column][row];
+    }
+
+    // Rows whose encoded column holds the value
+    public int count(int column, String value) {
+        int code = dictionaries[column].lookup(value);
+        int[] columnTallies = tallies[column];
+        return code < 0 || code >= columnTallies.length ? 0 : columnTallies[code];
+    }
+
+    @Override
+    public void fireTableChanged(TableModelEvent e) {
+        // Also called by the constructor, before the fields are set
+        if (dictionaries != null && dictionaries.length > 0) {
+            follow(e);
+        }
+        super.fireTableChanged(e);
+    }
+
+    private void follow(TableModelEvent e) {
+        int first = e.getFirstRow();
+        int last = Math.min(e.getLastRow(), getRowCount() - 1);
+        if (first == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE) {
+            // Structure or every row changed
+            reset();
+            encodeRows(0, getRowCount() - 1, TableModelEvent.ALL_COLUMNS);
+        } else if (e.getType() == TableModelEvent.INSERT) {
+            insert(first, e.getLastRow() - first + 1);
+            encodeRows(first, last, TableModelEvent.ALL_COLUMNS);
+        } else if (e.getType() == TableModelEvent.DELETE) {
+            delete(first, e.getLastRow() - first + 1);
+        } else {
+            encodeRows(first, last, e.getColumn());
+        }
+        if (encodedRows != getRowCount()) {
+            // Rows changed without a matching event; start over rather than drift
+            reset();
+            encodeRows(0, getRowCount() - 1, TableModelEvent.ALL_COLUMNS);
+        }
+    }
+
+    private void reset() {
+        for (int column = 0; column < codes.length; column++) {
+            if (codes[column] != null) {
+                Arrays.fill(codes[column], 0, encodedRows, -1);
+                Arrays.fill(tallies[column], 0);
+            }
+        }
+        encodedRows = 0;
+        insert(0, getRowCount());
+    }
+
+    // Opens a gap of count rows at row in every code column, holding no code yet
+    private void insert(int row, int count) {
+        for (int column = 0; column < codes.length; column++) {
+            int[] columnCodes = codes[column];
+            if (columnCodes == null) {
+                continue;
+            }
+            if (encodedRows + count > columnCodes.length) {
+                columnCodes = Arrays.copyOf(columnCodes, Math.max(encodedRows + count, columnCodes.length * 2));
+                codes[column] = columnCodes;
+            }
+            System.arraycopy(columnCodes, row, columnCodes, row + count, encodedRows - row);
+            Arrays.fill(columnCodes, row, row + count, -1);
+        }
+        encodedRows += count;
+    }
+
+    private void delete(int row, int count) {
+        for (int column = 0; column < codes.length; column++) {
+            int[] columnCodes = codes[column];
+            if (columnCodes == null) {
+                continue;
+            }
+            for (int i = row; i < row + count; i++) {
+                tally(column, columnCodes[i], -1);
+            }
+            System.arraycopy(columnCodes, row + count, columnCodes, row, encodedRows - row - count);
+        }
+        encodedRows -= count;
+    }
+
+    private void tally(int column, int code, int change) {
+        if (code < 0) {
+            return;
+        }
+        if (code >= tallies[column].length) {
+            tallies[column] = Arrays.copyOf(tallies[column], Math.max(code + 1, tallies[column].length * 2));
+        }
+        tallies[column][code] += change;
+    }
+
+    // Encodes the rows of one column, or of every encoded column for ALL_COLUMNS
+    @SuppressWarnings("unchecked")
+    private void encodeRows(int first, int last, int onlyColumn) {
+        Vector<Vector<Object>> rows = (Vector<Vector<Object>>) (Vector<?>) dataVector;
+        for (int column = 0; column < dictionaries.length; column++) {
+            StringDictionary dictionary = dictionaries[column];
+            if (dictionary == null || (onlyColumn != TableModelEvent.ALL_COLUMNS && onlyColumn != column)) {
+                continue;
+            }
+            for (int row = first; row <= last; row++) {
+                Vector<Object> cells = rows.get(row);
+                Object value = column < cells.size() ? cells.get(column) : null;
+                int code = -1;
+                if (value instanceof String) {
+                    code = dictionary.encode((String) value);
+                    String shared = dictionary.decode(code);
+                    if (value != shared) {
+                        // Same text; no event needed
+                        cells.set(column, shared);
+                    }
+                }
+                tally(column, codes[column][row], -1);
+                tally(column, code, 1);
+                codes[column][row] = code;
+            }
+        }
+    }
+}
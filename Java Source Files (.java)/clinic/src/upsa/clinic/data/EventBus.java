@@ -0,0 +1,255 @@
+package upsa.clinic.data;
+
+import javax.swing.SwingUtilities;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Carries {@link ClinicEvent}s from the panel where something happened to
+ * whoever else wants to know: the dashboard, the header's notifications,
+ * the activity log.
+ *
+ * Events are written into a fixed ring of reused slots, so publishing
+ * allocates nothing and never waits for a subscriber. Each subscriber reads
+ * the ring at its own pace on its own thread, the EDT or one of its own,
+ * and gets everything published since its last turn as one batch. A
+ * subscriber that falls a whole ring behind is told how many events it
+ * missed instead, and is expected to recount from the tables.
+ */
+public final class EventBus {
+
+    /**
+     * Receives events in the order they were published, on the thread it
+     * was subscribed on.
+     */
+    public interface Subscriber {
+        // The event is only valid during the call; endOfBatch marks the last one of this turn
+        void onEvent(ClinicEvent event, boolean endOfBatch);
+
+        // Events were overwritten before this subscriber got to them; whatever they would have updated is stale
+        default void missed(long count) {
+        }
+    }
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    // Events delivered per turn, so an EDT subscriber catching up does not hold the EDT for long
+    private static final int MAX_BATCH = 1024;
+
+    private static final EventBus SHARED = new EventBus(DEFAULT_CAPACITY);
+
+    private final ClinicEvent[] ring;
+    private final int mask;
+    // Replaced, never changed, so publishing can walk it without a lock or an iterator
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    // Last sequence published; claimed under this bus's lock
+    private volatile long cursor = -1;
+    private volatile long missed;
+
+    // The bus the panels of this app publish on
+    public static EventBus shared() {
+        return SHARED;
+    }
+
+    // Holds capacity events, a power of two, for subscribers that fall behind
+    public EventBus(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        ring = new ClinicEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new ClinicEvent();
+        }
+        mask = capacity - 1;
+    }
+
+    public void publish(ClinicEvent.Type type, String subject, String detail, long amount) {
+        long time = System.currentTimeMillis();
+        synchronized (this) {
+            long sequence = cursor + 1;
+            ClinicEvent slot = ring[(int) sequence & mask];
+            // A reader copying this slot sees the change of sequence and drops its copy
+            slot.sequence = -1;
+            VarHandle.storeStoreFence();
+            slot.fill(type, subject, detail, amount, time);
+            slot.sequence = sequence;
+            cursor = sequence;
+        }
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            current[i].signal();
+        }
+    }
+
+    // Delivers on the EDT, for subscribers that update components
+    public Subscription subscribeOnEdt(String name, Subscriber subscriber) {
+        return add(new Subscription(name, subscriber, SwingUtilities::invokeLater, null));
+    }
+
+    // Delivers on a daemon thread of the subscriber's own, for work like writing files
+    public Subscription subscribe(String name, Subscriber subscriber) {
+        ExecutorService thread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread delivery = new Thread(runnable, "events-" + name);
+            delivery.setDaemon(true);
+            delivery.setPriority(Thread.MIN_PRIORITY);
+            return delivery;
+        });
+        return add(new Subscription(name, subscriber, thread, thread));
+    }
+
+    public long getPublished() {
+        return cursor + 1;
+    }
+
+    public String describeStats() {
+        Subscription[] current = subscriptions;
+        long lost = missed;
+        for (Subscription subscription : current) {
+            lost += subscription.missed;
+        }
+        return String.format("Events: %,d published, %d subscribers, %,d missed by slow ones", cursor + 1,
+                current.length, lost);
+    }
+
+    private synchronized Subscription add(Subscription subscription) {
+        Subscription[] grown = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        grown[grown.length - 1] = subscription;
+        subscriptions = grown;
+        return subscription;
+    }
+
+    // False if it was already removed
+    private synchronized boolean remove(Subscription subscription) {
+        int at = Arrays.asList(subscriptions).indexOf(subscription);
+        if (at < 0) {
+            return false;
+        }
+        Subscription[] shrunk = new Subscription[subscriptions.length - 1];
+        System.arraycopy(subscriptions, 0, shrunk, 0, at);
+        System.arraycopy(subscriptions, at + 1, shrunk, at, shrunk.length - at);
+        subscriptions = shrunk;
+        missed += subscription.missed;
+        return true;
+    }
+
+    /**
+     * One subscriber's place on the ring. Close it when the subscriber goes
+     * away, e.g. in removeNotify of a component.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final String name;
+        private final Subscriber subscriber;
+        private final Executor executor;
+        private final ExecutorService ownThread;
+        // The copy handed to the subscriber, so a publisher may reuse the slot meanwhile
+        private final ClinicEvent event = new ClinicEvent();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable drain = this::drain;
+        private volatile boolean closed;
+
+        // Delivery thread only, besides the statistics
+        private long position;
+        private volatile long delivered;
+        private volatile long batches;
+        private volatile long missed;
+
+        private Subscription(String name, Subscriber subscriber, Executor executor, ExecutorService ownThread) {
+            this.name = name;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.ownThread = ownThread;
+            // Only what is published from now on
+            position = cursor;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getMissed() {
+            return missed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            remove(this);
+            if (ownThread != null) {
+                ownThread.shutdown();
+            }
+        }
+
+        private void signal() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                executor.execute(drain);
+            }
+        }
+
+        private void drain() {
+            // Cleared first: anything published from here on schedules another turn
+            scheduled.set(false);
+            if (closed) {
+                return;
+            }
+            long start = position;
+            long end = Math.min(cursor, start + MAX_BATCH);
+            if (end == start) {
+                return;
+            }
+            for (long sequence = start + 1; sequence <= end; sequence++) {
+                if (!read(sequence)) {
+                    delivered += sequence - 1 - start;
+                    skip(sequence);
+                    return;
+                }
+                try {
+                    subscriber.onEvent(event, sequence == end);
+                } catch (RuntimeException e) {
+                    System.err.println("Event subscriber " + name + " failed on " + event + ": " + e);
+                }
+                position = sequence;
+            }
+            delivered += end - start;
+            batches++;
+            if (cursor > end) {
+                signal();
+            }
+        }
+
+        // Copies the slot for a sequence into event, false if it has been overwritten
+        private boolean read(long sequence) {
+            ClinicEvent slot = ring[(int) sequence & mask];
+            if (slot.sequence != sequence) {
+                return false;
+            }
+            event.copy(slot, sequence);
+            VarHandle.loadLoadFence();
+            return slot.sequence == sequence;
+        }
+
+        // Gives up on events from a sequence that was overwritten up to the newest one
+        private void skip(long from) {
+            long newest = cursor;
+            long count = newest - from + 1;
+            position = newest;
+            missed += count;
+            try {
+                subscriber.missed(count);
+            } catch (RuntimeException e) {
+                System.err.println("Event subscriber " + name + " failed to catch up: " + e);
+            }
+            batches++;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package upsa.clinic.data;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Keeps a record of what was done at this desk: every event on the shared
+ * {@link EventBus}, one tab-separated line each, in activity.log in the
+ * data home. Written from the bus's background delivery, one append per
+ * batch. At 4 MB the log is moved to activity.log.1 and started afresh.
+ */
+public final class EventLog implements EventBus.Subscriber {
+
+    private static final long MAX_BYTES = 4L << 20;
+
+    private static EventBus.Subscription subscription;
+
+    private final Path file;
+    private final StringBuilder pending = new StringBuilder();
+
+    private EventLog(Path file) {
+        this.file = file;
+    }
+
+    // Starts logging the shared bus, once
+    public static synchronized void start() {
+        if (subscription == null) {
+            subscription = EventBus.shared().subscribe("activity-log",
+                    new EventLog(ClinicFiles.home().resolve("activity.log")));
+        }
+    }
+
+    @Override
+    public void onEvent(ClinicEvent event, boolean endOfBatch) {
+        pending.append(Instant.ofEpochMilli(event.getTime())).append('\t')
+                .append(event.getType()).append('\t')
+                .append(clean(event.getSubject())).append('\t')
+                .append(clean(event.getDetail())).append('\t')
+                .append(event.getAmount()).append('\n');
+        if (endOfBatch) {
+            write();
+        }
+    }
+
+    @Override
+    public void missed(long count) {
+        pending.append("# ").append(count).append(" events not logged, the log fell behind\n");
+        write();
+    }
+
+    private void write() {
+        try {
+            Files.createDirectories(file.getParent());
+            if (Files.exists(file) && Files.size(file) > MAX_BYTES) {
+                Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.write(file, pending.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Cannot write " + file + ": " + e);
+        } finally {
+            pending.setLength(0);
+        }
+    }
+
+    // Tabs and line breaks would split the line
+    private static String clean(String text) {
+        return text == null ? "" : text.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
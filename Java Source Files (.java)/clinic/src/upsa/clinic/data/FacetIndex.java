@@ -0,0 +1,146 @@
+package upsa.clinic.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One {@link SlotBitmap} per value of each categorical patient column, so
+ * that facet counts are bitmap cardinalities and combined filters such as
+ * "Level 300 AND Genotype AS AND Active" are bitmap intersections rather
+ * than scans over every row.
+ *
+ * Bitmaps are indexed by the store's dictionary codes and kept current as a
+ * store listener, like {@link TrigramIndex}.
+ */
+public class FacetIndex implements PatientStore.Listener {
+
+    public static final int[] FACETED_COLUMNS = {
+            PatientStore.COL_PROGRAM, PatientStore.COL_LEVEL, PatientStore.COL_GENDER,
+            PatientStore.COL_BLOOD_GROUP, PatientStore.COL_GENOTYPE, PatientStore.COL_SICKLING,
+            PatientStore.COL_STATUS
+    };
+
+    private final PatientStore store;
+
+    // Per column number, the bitmap of each dictionary code; empty for columns not faceted
+    private final List<List<SlotBitmap>> bitmaps = new ArrayList<>();
+
+    public FacetIndex(PatientStore store) {
+        this.store = store;
+        for (int column = 0; column < PatientStore.COLUMNS.length; column++) {
+            bitmaps.add(new ArrayList<>());
+        }
+        for (int row = 0; row < store.size(); row++) {
+            slotAdded(store.slotAt(row));
+        }
+        store.addListener(this);
+    }
+
+    @Override
+    public void slotAdded(int slot) {
+        for (int column : FACETED_COLUMNS) {
+            List<SlotBitmap> values = bitmaps.get(column);
+            int code = store.code(slot, column);
+            while (values.size() <= code) {
+                values.add(new SlotBitmap());
+            }
+            values.get(code).add(slot);
+        }
+    }
+
+    @Override
+    public void slotRemoved(int slot) {
+        for (int column : FACETED_COLUMNS) {
+            bitmaps.get(column).get(store.code(slot, column)).remove(slot);
+        }
+    }
+
+    public static boolean isFaceted(int column) {
+        for (int faceted : FACETED_COLUMNS) {
+            if (faceted == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Number of live patients with the value; a bitmap cardinality, not a scan
+    public int count(int column, String value) {
+        store.readLock().lock();
+        try {
+            SlotBitmap bitmap = bitmap(column, value);
+            return bitmap == null ? 0 : bitmap.cardinality();
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    // Every value seen in the column so far, in dictionary order
+    public List<String> values(int column) {
+        store.readLock().lock();
+        try {
+            StringDictionary dictionary = store.dictionary(column);
+            List<String> values = new ArrayList<>(dictionary.size());
+            for (int code = 0; code < dictionary.size(); code++) {
+                values.add(dictionary.decode(code));
+            }
+            return values;
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    /**
+     * Patients matching every column = value pair, as a new bitmap the caller
+     * may keep. An empty selection matches every patient.
+     */
+    public SlotBitmap select(Map<Integer, String> selection) {
+        store.readLock().lock();
+        try {
+            if (selection.isEmpty()) {
+                SlotBitmap all = new SlotBitmap();
+                for (int row = 0; row < store.size(); row++) {
+                    all.add(store.slotAt(row));
+                }
+                return all;
+            }
+            SlotBitmap[] terms = new SlotBitmap[selection.size()];
+            int count = 0;
+            for (Map.Entry<Integer, String> term : selection.entrySet()) {
+                SlotBitmap bitmap = bitmap(term.getKey(), term.getValue());
+                if (bitmap == null) {
+                    return new SlotBitmap();
+                }
+                terms[count++] = bitmap;
+            }
+            return SlotBitmap.and(terms);
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    // Per-value counts within a selection, e.g. genotypes among Level 300 students
+    public int[] countWithin(SlotBitmap selection, int column) {
+        store.readLock().lock();
+        try {
+            List<SlotBitmap> values = bitmaps.get(column);
+            int[] counts = new int[store.dictionary(column).size()];
+            for (int code = 0; code < values.size() && code < counts.length; code++) {
+                counts[code] = values.get(code).and(selection).cardinality();
+            }
+            return counts;
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    private SlotBitmap bitmap(int column, String value) {
+        if (!isFaceted(column)) {
+            throw new IllegalArgumentException("Column " + PatientStore.COLUMNS[column] + " is not faceted");
+        }
+        int code = store.dictionary(column).lookup(value);
+        List<SlotBitmap> values = bitmaps.get(column);
+        return code < 0 || code >= values.size() ? null : values.get(code);
+    }
+}
@@ -0,0 +1,298 @@
+package upsa.clinic.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typo-tolerant index over the Full Name column. Each name is split into
+ * word tokens; every distinct token is kept in a BK-tree for edit-distance
+ * lookups and bucketed by its {@link PhoneticKey}, so "Mensa" finds "Mensah"
+ * and "Serwah" finds "Serwaa". There is one BK-tree per first letter, which
+ * keeps lookups small; misspelt first letters ("Filip") are still found
+ * through the phonetic buckets.
+ *
+ * Candidates are ranked by the summed cost of their best word matches: twice
+ * the edit distance, one less when the words also sound alike. A query word
+ * that a patient does not match at all costs {@link #MISSING_TOKEN_COST}.
+ *
+ * Like {@link TrigramIndex}, the index listens to the store and stays current
+ * on every add, edit and delete.
+ */
+public class FuzzyNameIndex implements PatientStore.Listener {
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MISSING_TOKEN_COST = 6;
+
+    // Cost of a word that only sounds like the query word
+    private static final int SOUND_ALIKE_COST = 4;
+
+    // Longer queries are cut short; no registered name has more words
+    private static final int MAX_QUERY_WORDS = 8;
+
+    private final PatientStore store;
+    private final Map<String, IntList> postings = new HashMap<>();
+    private final Map<String, List<String>> phonetic = new HashMap<>();
+    private final Map<Character, BkTree> trees = new HashMap<>();
+
+    public FuzzyNameIndex(PatientStore store) {
+        this.store = store;
+        for (int row = 0; row < store.size(); row++) {
+            slotAdded(store.slotAt(row));
+        }
+        store.addListener(this);
+    }
+
+    @Override
+    public void slotAdded(int slot) {
+        for (String token : tokens(store.getString(slot, PatientStore.COL_NAME))) {
+            IntList slots = postings.get(token);
+            if (slots == null) {
+                // First sighting of this word; tokens are never taken out of the tree
+                slots = new IntList(2);
+                postings.put(token, slots);
+                trees.computeIfAbsent(token.charAt(0), key -> new BkTree()).add(token);
+                phonetic.computeIfAbsent(PhoneticKey.of(token), key -> new ArrayList<>(2)).add(token);
+            }
+            slots.addSorted(slot);
+        }
+    }
+
+    @Override
+    public void slotRemoved(int slot) {
+        for (String token : tokens(store.getString(slot, PatientStore.COL_NAME))) {
+            IntList slots = postings.get(token);
+            if (slots != null) {
+                slots.removeSorted(slot);
+            }
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} slots whose names resemble the query, best
+     * match first. Safe to call off the EDT.
+     */
+    public int[] search(String query, int limit) {
+        String[] words = tokens(query);
+        if (words.length == 0 || limit <= 0) {
+            return new int[0];
+        }
+
+        if (words.length > MAX_QUERY_WORDS) {
+            words = Arrays.copyOf(words, MAX_QUERY_WORDS);
+        }
+
+        store.readLock().lock();
+        try {
+            // Each query word credits a patient once, for its closest name word
+            short[] gain = new short[store.slotCount()];
+            byte[] creditedBy = new byte[gain.length];
+            IntList touched = new IntList();
+            for (int w = 0; w < words.length; w++) {
+                byte word = (byte) (w + 1);
+                for (Map.Entry<String, Integer> candidate : candidates(words[w])) {
+                    IntList slots = postings.get(candidate.getKey());
+                    int credit = MISSING_TOKEN_COST - candidate.getValue();
+                    for (int i = 0; i < slots.size(); i++) {
+                        int slot = slots.get(i);
+                        if (creditedBy[slot] != word) {
+                            if (creditedBy[slot] == 0) {
+                                touched.add(slot);
+                            }
+                            creditedBy[slot] = word;
+                            gain[slot] += credit;
+                        }
+                    }
+                }
+            }
+            return best(touched, gain, words.length * MISSING_TOKEN_COST, limit);
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    // True if the query looks like a name rather than an ID, index or phone number
+    public static boolean isNameQuery(String query) {
+        boolean letters = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isDigit(c)) {
+                return false;
+            }
+            letters |= Character.isLetter(c);
+        }
+        return letters;
+    }
+
+    public int tokenCount() {
+        return postings.size();
+    }
+
+    // Name words close to one query word, cheapest first
+    private List<Map.Entry<String, Integer>> candidates(String word) {
+        Map<String, Integer> candidates = new HashMap<>();
+        int maxDistance = word.length() <= 4 ? 1 : 2;
+        BkTree tree = trees.get(word.charAt(0));
+        if (tree != null) {
+            tree.search(word, maxDistance, candidates);
+        }
+
+        String key = PhoneticKey.of(word);
+        for (Map.Entry<String, Integer> candidate : candidates.entrySet()) {
+            int d = candidate.getValue();
+            boolean alike = d > 0 && key.equals(PhoneticKey.of(candidate.getKey()));
+            candidate.setValue(alike ? 2 * d - 1 : 2 * d);
+        }
+        List<String> soundAlike = phonetic.get(key);
+        if (soundAlike != null) {
+            for (String token : soundAlike) {
+                candidates.putIfAbsent(token, SOUND_ALIKE_COST);
+            }
+        }
+
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(candidates.entrySet());
+        sorted.sort(Map.Entry.comparingByValue());
+        return sorted;
+    }
+
+    // Lowest-cost slots first; costs are small, so a counting pass ranks them in linear time
+    private static int[] best(IntList touched, short[] gain, int worstCost, int limit) {
+        int[] perCost = new int[worstCost + 2];
+        for (int i = 0; i < touched.size(); i++) {
+            perCost[worstCost - gain[touched.get(i)] + 1]++;
+        }
+        for (int cost = 1; cost < perCost.length; cost++) {
+            perCost[cost] += perCost[cost - 1];
+        }
+        int[] ranked = new int[touched.size()];
+        for (int i = 0; i < touched.size(); i++) {
+            int slot = touched.get(i);
+            ranked[perCost[worstCost - gain[slot]]++] = slot;
+        }
+        return Arrays.copyOf(ranked, Math.min(limit, ranked.length));
+    }
+
+    static String[] tokens(String name) {
+        if (name == null) {
+            return new String[0];
+        }
+        List<String> tokens = new ArrayList<>(3);
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= name.length(); i++) {
+            char c = i < name.length() ? name.charAt(i) : ' ';
+            if (Character.isLetter(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Levenshtein distance between two short words.
+     */
+    static int distance(String a, String b, int[] previous, int[] current) {
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitute = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Burkhard-Keller tree over the distinct name tokens. Children are filed
+     * under their distance to the parent, so the triangle inequality rules out
+     * every subtree outside [d - k, d + k] during a search.
+     */
+    static class BkTree {
+        private Node root;
+        private int longest = 0;
+
+        void add(String word) {
+            longest = Math.max(longest, word.length());
+            if (root == null) {
+                root = new Node(word);
+                return;
+            }
+            int[] previous = new int[longest + 1];
+            int[] current = new int[longest + 1];
+            Node node = root;
+            while (true) {
+                int d = distance(word, node.word, previous, current);
+                if (d == 0) {
+                    return;
+                }
+                Node child = node.child(d);
+                if (child == null) {
+                    node.setChild(d, new Node(word));
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        // Collects every word within maxDistance of the query, with its distance
+        void search(String query, int maxDistance, Map<String, Integer> found) {
+            if (root == null) {
+                return;
+            }
+            int width = Math.max(longest, query.length()) + 1;
+            int[] previous = new int[width];
+            int[] current = new int[width];
+            List<Node> pending = new ArrayList<>();
+            pending.add(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.remove(pending.size() - 1);
+                int d = distance(query, node.word, previous, current);
+                if (d <= maxDistance) {
+                    found.put(node.word, d);
+                }
+                Node[] children = node.children;
+                if (children == null) {
+                    continue;
+                }
+                int low = Math.max(1, d - maxDistance);
+                int high = Math.min(children.length - 1, d + maxDistance);
+                for (int k = low; k <= high; k++) {
+                    if (children[k] != null) {
+                        pending.add(children[k]);
+                    }
+                }
+            }
+        }
+
+        private static class Node {
+            final String word;
+            Node[] children;
+
+            Node(String word) {
+                this.word = word;
+            }
+
+            Node child(int distance) {
+                return children != null && distance < children.length ? children[distance] : null;
+            }
+
+            void setChild(int distance, Node child) {
+                if (children == null || distance >= children.length) {
+                    children = children == null ? new Node[distance + 1] : Arrays.copyOf(children, distance + 1);
+                }
+                children[distance] = child;
+            }
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package upsa.clinic.data;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only JSON over HTTP for kiosks and the student portal:
+ * /appointments, /beds and /pharmacy, each optionally filtered by exact
+ * field values, e.g. /beds?status=Available or /appointments?date=2025-05-12.
+ * Started with -Dupsa.clinic.http.port=PORT.
+ *
+ * Only what a kiosk needs is served: appointment slots without the patient
+ * or notes, and beds without who is in them or why.
+ *
+ * A response body is serialized once per change of its table, straight to
+ * UTF-8 bytes, and the same bytes are then sent to every request until the
+ * table changes again, so a request for unchanged data allocates nothing
+ * for the body. Each body has an ETag built from the table's change count;
+ * a client that sends it back in If-None-Match gets a bodiless 304.
+ *
+ * Requests are handled on virtual threads where the JDK has them, and on a
+ * small pool of daemon threads otherwise.
+ */
+public class HttpQueryService implements Closeable {
+
+    public static final String PORT_PROPERTY = "upsa.clinic.http.port";
+
+    // Filtered bodies kept per resource, least recently used dropped first
+    private static final int CACHED_QUERIES = 32;
+    private static final int POOL_THREADS = 8;
+
+    private static HttpQueryService configured;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final boolean virtualThreads;
+    private final Map<String, Resource> resources = new HashMap<>();
+    // ETags from an earlier run, whose change counts started again from 0, never match
+    private final String run = Long.toString(System.currentTimeMillis(), 36);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong serialized = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Serves the open appointments and beds tables and the pharmacy stock of
+     * the inventory on the port, 0 for any free one.
+     */
+    public HttpQueryService(int port, InventoryFile inventory) throws IOException {
+        addResource(new TableResource("/appointments", "appointments", new int[]{0, 1, 2, 4, 5, 6},
+                "id", "date", "time", "doctor", "department", "status"));
+        addResource(new TableResource("/beds", "beds", new int[]{0, 1, 7}, "bed", "ward", "status"));
+        addResource(new PharmacyResource(inventory));
+
+        ExecutorService virtual = virtualThreadPerTask();
+        virtualThreads = virtual != null;
+        handlers = virtualThreads ? virtual : Executors.newFixedThreadPool(POOL_THREADS, new DaemonThreads());
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Starts the service on the port the system property names, once the
+     * tables are open. Does nothing when the property is not set or when
+     * already started.
+     */
+    public static synchronized void startConfigured() {
+        String port = System.getProperty(PORT_PROPERTY);
+        if (configured != null || port == null || port.trim().isEmpty()) {
+            return;
+        }
+        try {
+            configured = new HttpQueryService(Integer.parseInt(port.trim()), InventoryFile.open());
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Cannot serve clinic data on port " + port + ": " + e);
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    // Bodies serialized, i.e. requests that found their table changed since the last one
+    public long getSerialized() {
+        return serialized.get();
+    }
+
+    public String describeStats() {
+        return String.format("HTTP on port %d (%s): %,d requests, %,d not modified, %,d bodies serialized, %,d failed",
+                getPort(), virtualThreads ? "virtual threads" : POOL_THREADS + " threads", requests.get(),
+                notModified.get(), serialized.get(), failed.get());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    private void addResource(Resource resource) {
+        resources.put(resource.path, resource);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String method = exchange.getRequestMethod();
+            Resource resource = resources.get(exchange.getRequestURI().getPath());
+            if (resource == null) {
+                send(exchange, 404, null);
+                return;
+            }
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(exchange, 405, null);
+                return;
+            }
+            Body body = resource.body(exchange.getRequestURI().getRawQuery());
+            if (body == null) {
+                send(exchange, 503, null);
+                return;
+            }
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", body.etag);
+            headers.set("Cache-Control", "no-cache");
+            if (body.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                send(exchange, 304, null);
+                return;
+            }
+            headers.set("Content-Type", "application/json; charset=utf-8");
+            headers.set("Access-Control-Allow-Origin", "*");
+            send(exchange, 200, method.equals("HEAD") ? null : body.json);
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, null);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.err.println("Cannot answer " + exchange.getRequestURI() + ": " + e);
+            send(exchange, 500, null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body == null ? -1 : body.length);
+        if (body != null) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() on Java 21 and later, else null
+    private static ExecutorService virtualThreadPerTask() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static final class DaemonThreads implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "http-query-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    // A serialized response and the change count it is as of
+    private static final class Body {
+        final byte[] json;
+        final String etag;
+        final long changes;
+
+        Body(byte[] json, String etag, long changes) {
+            this.json = json;
+            this.etag = etag;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * One path's rows, as JSON objects with the given keys. Bodies are kept
+     * until the source changes; when it has, one request serializes afresh
+     * while the others for the same body wait for it.
+     */
+    private abstract class Resource {
+        final String path;
+        final String[] keys;
+        private final Json json = new Json();
+        private volatile Body whole;
+        private final Map<String, Body> filtered = new LinkedHashMap<String, Body>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Body> eldest) {
+                return size() > CACHED_QUERIES;
+            }
+        };
+
+        Resource(String path, String... keys) {
+            this.path = path;
+            this.keys = keys;
+        }
+
+        // Change count of the source, or -1 while it is not available
+        abstract long changes() throws IOException;
+
+        // The rows, as of at least the change count just read, in key order
+        abstract Object[][] rows() throws IOException;
+
+        // Null while the source is not available
+        Body body(String query) throws IOException {
+            long changes = changes();
+            if (changes < 0) {
+                return null;
+            }
+            Body body = cached(query);
+            if (body != null && body.changes == changes) {
+                return body;
+            }
+            synchronized (this) {
+                body = cached(query);
+                if (body == null || body.changes != changes) {
+                    body = serialize(query, changes);
+                    if (query == null) {
+                        whole = body;
+                    } else {
+                        synchronized (filtered) {
+                            filtered.put(query, body);
+                        }
+                    }
+                }
+                return body;
+            }
+        }
+
+        private Body cached(String query) {
+            if (query == null) {
+                return whole;
+            }
+            synchronized (filtered) {
+                return filtered.get(query);
+            }
+        }
+
+        // Called with this resource locked, which guards the JSON buffer
+        private Body serialize(String query, long changes) throws IOException {
+            String[] wanted = filter(query);
+            Object[][] rows = rows();
+            json.reset();
+            json.raw('[');
+            boolean first = true;
+            for (Object[] row : rows) {
+                if (!matches(row, wanted)) {
+                    continue;
+                }
+                if (!first) {
+                    json.raw(',');
+                }
+                first = false;
+                json.raw('{');
+                for (int key = 0; key < keys.length; key++) {
+                    if (key > 0) {
+                        json.raw(',');
+                    }
+                    json.string(keys[key]);
+                    json.raw(':');
+                    json.value(row[key]);
+                }
+                json.raw('}');
+            }
+            json.raw(']');
+            serialized.incrementAndGet();
+            return new Body(json.toBytes(), "\"" + path.substring(1) + "-" + run + "-" + changes + "\"", changes);
+        }
+
+        // The wanted value for each key, null for any; unknown keys are a bad request
+        private String[] filter(String query) {
+            String[] wanted = new String[keys.length];
+            if (query == null || query.isEmpty()) {
+                return wanted;
+            }
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+                int index = Arrays.asList(keys).indexOf(key);
+                if (index < 0 || equals < 0) {
+                    throw new IllegalArgumentException("No field " + key + " in " + path);
+                }
+                wanted[index] = URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+            return wanted;
+        }
+
+        private boolean matches(Object[] row, String[] wanted) {
+            for (int key = 0; key < wanted.length; key++) {
+                if (wanted[key] != null && !wanted[key].equalsIgnoreCase(String.valueOf(row[key]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Some columns of a table saved through Persistence
+    private final class TableResource extends Resource {
+        private final String table;
+        private final int[] columns;
+
+        TableResource(String path, String table, int[] columns, String... keys) {
+            super(path, keys);
+            this.table = table;
+            this.columns = columns;
+        }
+
+        @Override
+        long changes() {
+            return Persistence.changeCount(table);
+        }
+
+        @Override
+        Object[][] rows() throws IOException {
+            Object[][] copy = Persistence.copyRows(table);
+            if (copy == null) {
+                throw new IOException(table + " is not open");
+            }
+            Object[][] rows = new Object[copy.length][];
+            for (int row = 0; row < copy.length; row++) {
+                rows[row] = new Object[columns.length];
+                for (int column = 0; column < columns.length; column++) {
+                    rows[row][column] = columns[column] < copy[row].length ? copy[row][columns[column]] : null;
+                }
+            }
+            return rows;
+        }
+    }
+
+    // Pharmacy stock, read from the service's own handle on the inventory file
+    private final class PharmacyResource extends Resource {
+        private final InventoryFile inventory;
+
+        PharmacyResource(InventoryFile inventory) {
+            super("/pharmacy", "id", "name", "category", "quantity", "unitPrice", "expiry", "status");
+            this.inventory = inventory;
+        }
+
+        @Override
+        long changes() {
+            // One header read when no desk has changed anything
+            inventory.poll();
+            return inventory.getChanges();
+        }
+
+        @Override
+        Object[][] rows() {
+            synchronized (inventory) {
+                Object[][] rows = new Object[inventory.size()][];
+                for (int row = 0; row < rows.length; row++) {
+                    LocalDate expiry = inventory.getExpiry(row);
+                    rows[row] = new Object[]{inventory.getId(row), inventory.getName(row), inventory.getCategory(row),
+                            inventory.getQuantity(row), new Cedis(inventory.getUnitPrice(row)),
+                            expiry == null ? null : expiry.toString(), inventory.getStatus(row)};
+                }
+                return rows;
+            }
+        }
+    }
+
+    // An amount in pesewas, written as a JSON number of cedis
+    private static final class Cedis {
+        final long pesewas;
+
+        Cedis(long pesewas) {
+            this.pesewas = pesewas;
+        }
+    }
+
+    /**
+     * Builds JSON as UTF-8 straight into one growing byte array, kept for
+     * the next body, without a String per value on the way.
+     */
+    static final class Json {
+        private byte[] bytes = new byte[64 * 1024];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        void raw(char c) {
+            ensure(1);
+            bytes[size++] = (byte) c;
+        }
+
+        void value(Object value) {
+            if (value == null) {
+                ascii("null");
+            } else if (value instanceof Integer || value instanceof Long) {
+                number(((Number) value).longValue());
+            } else if (value instanceof Cedis) {
+                Cedis amount = (Cedis) value;
+                if (amount.pesewas < 0) {
+                    raw('-');
+                }
+                number(Math.abs(amount.pesewas / 100));
+                raw('.');
+                long cents = Math.abs(amount.pesewas % 100);
+                raw((char) ('0' + cents / 10));
+                raw((char) ('0' + cents % 10));
+            } else if (value instanceof Number || value instanceof Boolean) {
+                ascii(value.toString());
+            } else {
+                string(value.toString());
+            }
+        }
+
+        void number(long value) {
+            if (value == Long.MIN_VALUE) {
+                ascii(Long.toString(value));
+                return;
+            }
+            ensure(20);
+            if (value < 0) {
+                bytes[size++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            for (int at = size + digits - 1; at >= size; at--) {
+                bytes[at] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            size += digits;
+        }
+
+        void string(String value) {
+            // At most 6 bytes per char, for a \\u escape
+            ensure(2 + 6 * value.length());
+            bytes[size++] = '"';
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    bytes[size++] = '\\';
+                    bytes[size++] = (byte) c;
+                } else if (c < 0x20) {
+                    bytes[size++] = '\\';
+                    bytes[size++] = 'u';
+                    bytes[size++] = '0';
+                    bytes[size++] = '0';
+                    bytes[size++] = (byte) Character.forDigit(c >> 4, 16);
+                    bytes[size++] = (byte) Character.forDigit(c & 0xF, 16);
+                } else if (c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[size++] = (byte) (0xC0 | c >> 6);
+                    bytes[size++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int point = Character.toCodePoint(c, value.charAt(++i));
+                    bytes[size++] = (byte) (0xF0 | point >> 18);
+                    bytes[size++] = (byte) (0x80 | point >> 12 & 0x3F);
+                    bytes[size++] = (byte) (0x80 | point >> 6 & 0x3F);
+                    bytes[size++] = (byte) (0x80 | point & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    // A lone surrogate is not valid UTF-8
+                    bytes[size++] = '?';
+                } else {
+                    bytes[size++] = (byte) (0xE0 | c >> 12);
+                    bytes[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    bytes[size++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            bytes[size++] = '"';
+        }
+
+        private void ascii(String text) {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                bytes[size++] = (byte) text.charAt(i);
+            }
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package upsa.clinic.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent, collision-free record ID sequence.
+ *
+ * The next unleased ID (the high-water mark) lives in ids/&lt;name&gt;.seq in
+ * the data home. A terminal leases a block of IDs by advancing the mark
+ * under an exclusive file lock, so desks sharing a data directory never get
+ * overlapping blocks. Inside a block, threads take IDs with a single atomic
+ * increment and no locking. IDs left over in a block when the application
+ * exits are skipped, never reused.
+ */
+public class IdSequence {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private static final Map<String, IdSequence> SEQUENCES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final long firstId;
+    private final int blockSize;
+    private final Path file;
+    private volatile Block block = new Block(0, 0);
+
+    /**
+     * The shared sequence for a record type, e.g. "patient". A sequence that
+     * has never been used starts at firstId.
+     */
+    public static IdSequence forName(String name, long firstId) {
+        return SEQUENCES.computeIfAbsent(name,
+                key -> new IdSequence(key, firstId, DEFAULT_BLOCK_SIZE, ClinicFiles.home().resolve("ids")));
+    }
+
+    public IdSequence(String name, long firstId, int blockSize, Path directory) {
+        this.name = name;
+        this.firstId = firstId;
+        this.blockSize = blockSize;
+        this.file = directory.resolve(name + ".seq");
+    }
+
+    // Lock-free within the current block; leases a new block when it runs out
+    public long next() {
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return id;
+            }
+            renew(current);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private synchronized void renew(Block exhausted) {
+        // Another thread may have renewed the block while this one waited
+        if (block != exhausted) {
+            return;
+        }
+        try {
+            long start = lease(blockSize);
+            block = new Block(start, start + blockSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot lease IDs for " + name, e);
+        }
+    }
+
+    // Advances the persisted high-water mark by count and returns the mark before the advance
+    private long lease(int count) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Held until the new mark is on disk, so desks sharing the file never lease the same IDs
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+                long mark = firstId;
+                if (channel.read(buffer, 0) == Long.BYTES) {
+                    buffer.flip();
+                    mark = Math.max(buffer.getLong(), firstId);
+                }
+
+                buffer.clear();
+                buffer.putLong(mark + count).flip();
+                while (buffer.hasRemaining()) {
+                    // Buffer position doubles as the file offset, since the mark starts at 0
+                    channel.write(buffer, buffer.position());
+                }
+                // The lease only counts once the new mark is on disk
+                channel.force(false);
+                return mark;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * IDs [next, end) of a leased block.
+     */
+    private static class Block {
+        final AtomicLong next;
+        final long end;
+
+        Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package upsa.clinic.data;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used for posting lists and slot sets.
+ */
+public class IntList {
+
+    private int[] values;
+    private int size = 0;
+
+    public IntList() {
+        this(8);
+    }
+
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    // Inserts into a list kept in ascending order; duplicates are ignored
+    public void addSorted(int value) {
+        if (size == 0 || values[size - 1] < value) {
+            add(value);
+            return;
+        }
+        int position = Arrays.binarySearch(values, 0, size, value);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, position, values, position + 1, size - position);
+        values[position] = value;
+        size++;
+    }
+
+    // Removes a value from a list kept in ascending order
+    public boolean removeSorted(int value) {
+        int position = Arrays.binarySearch(values, 0, size, value);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(values, position + 1, values, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    public boolean containsSorted(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    // Index of a value in a list kept in ascending order, or -1
+    public int indexOfSorted(int value) {
+        int position = Arrays.binarySearch(values, 0, size, value);
+        return position < 0 ? -1 : position;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
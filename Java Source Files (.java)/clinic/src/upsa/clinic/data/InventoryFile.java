@@ -0,0 +1,626 @@
+package upsa.clinic.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntFunction;
+
+/**
+ * Pharmacy stock kept as fixed-width records in a memory-mapped file, so a
+ * dispense or restock rewrites a few bytes of one record instead of the
+ * whole inventory.
+ *
+ * Quantity, unit price (in pesewas) and expiry sit at fixed offsets and are
+ * read straight from the mapping; names and other text are decoded once
+ * and cached. Drug IDs map to record numbers through an in-memory index.
+ * Records are only appended; a removed drug's record is marked dead and
+ * stays in the file. Each write is synced before returning.
+ *
+ * Several desks on one machine may open the same file. Every write takes
+ * a file lock and stamps the record with a change counter kept in the file
+ * header, so {@link #poll()} finds what the others changed by checking one
+ * counter, and only then the records.
+ */
+public class InventoryFile implements Closeable {
+
+    public static final String[] COLUMNS = {
+            "ID", "Drug Name", "Category", "Quantity", "Unit Price", "Total Value", "Expiry Date", "Supplier", "Status"
+    };
+
+    /**
+     * Told of each change as it is applied, with the inventory locked, so
+     * the row and every getter already reflect it. Changes made through
+     * other handles arrive on whichever thread writes or polls next.
+     */
+    public interface Listener {
+        void rowInserted(int row);
+
+        void rowUpdated(int row);
+
+        void rowRemoved(int row);
+    }
+
+    private static final int MAGIC = 0x434C4956; // "CLIV"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    // A power of two, so records never straddle a page and an update touches one page
+    private static final int RECORD_BYTES = 256;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int NO_EXPIRY = Integer.MIN_VALUE;
+
+    // Header offsets
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_RECORD_BYTES = 8;
+    private static final int H_RECORDS = 12;
+    private static final int H_CHANGES = 16;
+    // Records below this number were replaced wholesale and are dead whatever their own flag says
+    private static final int H_RETIRED = 24;
+
+    // Record offsets and text widths in bytes of UTF-8
+    private static final int R_LIVE = 0;
+    private static final int R_QUANTITY = 4;
+    private static final int R_UNIT_PRICE = 8;
+    private static final int R_EXPIRY = 16;
+    private static final int R_CHANGE = 24;
+    private static final int[] TEXT_OFFSETS = {32, 56, 136, 168, 216};
+    private static final int[] TEXT_WIDTHS = {24, 80, 32, 48, 24};
+    private static final int ID = 0, NAME = 1, CATEGORY = 2, SUPPLIER = 3, STATUS = 4;
+
+    // Kinds of row event
+    private static final int INSERTED = 1, UPDATED = 0, REMOVED = -1;
+
+    private final FileChannel channel;
+    private final boolean created;
+    private ByteBuffer buffer;
+    private int capacity;
+
+    // Records this instance has loaded, and the header change count it has seen
+    private int records;
+    private long seenChanges;
+    private String[][] texts = new String[0][];
+
+    // Live record numbers in ascending order; a row index is a position in this list
+    private final IntList rows = new IntList();
+    private final Map<String, Integer> byId = new HashMap<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Why open() fell back to this in-memory inventory, or null
+    private IOException openFailure;
+
+    private InventoryFile(FileChannel channel, ByteBuffer buffer, boolean created) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.created = created;
+        this.capacity = (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+        if (created) {
+            buffer.putInt(H_MAGIC, MAGIC).putInt(H_VERSION, VERSION).putInt(H_RECORD_BYTES, RECORD_BYTES);
+            force();
+        } else if (buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_RECORD_BYTES) != RECORD_BYTES) {
+            throw new IOException("Not a pharmacy inventory file");
+        }
+        poll();
+    }
+
+    /**
+     * The clinic's inventory, pharmacy/inventory.dat in the data home. If the
+     * file cannot be opened the inventory is kept in memory only, so the
+     * pharmacy still works for the session, and {@link #getOpenFailure()}
+     * says why so the user can be told.
+     */
+    public static InventoryFile open() {
+        Path file = ClinicFiles.home().resolve("pharmacy").resolve("inventory.dat");
+        try {
+            return open(file);
+        } catch (IOException e) {
+            System.err.println("Cannot open " + file + ", pharmacy changes will not be saved: " + e);
+            InventoryFile memory = inMemory();
+            memory.openFailure = e;
+            return memory;
+        }
+    }
+
+    public static InventoryFile open(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            boolean created = channel.size() == 0;
+            long size = Math.max(channel.size(), HEADER_BYTES + (long) INITIAL_CAPACITY * RECORD_BYTES);
+            return new InventoryFile(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), created);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // An inventory that lives in a heap buffer and is gone when the application exits
+    public static InventoryFile inMemory() {
+        try {
+            return new InventoryFile(null, ByteBuffer.allocate(HEADER_BYTES + INITIAL_CAPACITY * RECORD_BYTES), true);
+        } catch (IOException e) {
+            // Nothing to read or sync in memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // True if this open created the file, i.e. on the first run
+    public boolean isNew() {
+        return created;
+    }
+
+    public boolean isPersistent() {
+        return channel != null;
+    }
+
+    // Why the clinic's inventory file could not be opened, if open() fell back to memory; otherwise null
+    public IOException getOpenFailure() {
+        return openFailure;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // The file's change counter as of this handle's last write or poll; every write through any handle moves it on
+    public synchronized long getChanges() {
+        return seenChanges;
+    }
+
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    // Row of the drug, or -1
+    public synchronized int rowOf(String drugId) {
+        Integer record = byId.get(drugId);
+        return record == null ? -1 : rows.indexOfSorted(record);
+    }
+
+    public synchronized String getId(int row) {
+        return texts[record(row)][ID];
+    }
+
+    public synchronized String getName(int row) {
+        return texts[record(row)][NAME];
+    }
+
+    public synchronized String getCategory(int row) {
+        return texts[record(row)][CATEGORY];
+    }
+
+    public synchronized String getSupplier(int row) {
+        return texts[record(row)][SUPPLIER];
+    }
+
+    public synchronized String getStatus(int row) {
+        return texts[record(row)][STATUS];
+    }
+
+    public synchronized int getQuantity(int row) {
+        return buffer.getInt(offset(record(row)) + R_QUANTITY);
+    }
+
+    // Unit price in pesewas
+    public synchronized long getUnitPrice(int row) {
+        return buffer.getLong(offset(record(row)) + R_UNIT_PRICE);
+    }
+
+    // Expiry date, or null if none was recorded
+    public synchronized LocalDate getExpiry(int row) {
+        int day = buffer.getInt(offset(record(row)) + R_EXPIRY);
+        return day == NO_EXPIRY ? null : LocalDate.ofEpochDay(day);
+    }
+
+    /**
+     * Appends a drug. Text longer than its field is cut short; the ID must
+     * be unique.
+     */
+    public synchronized void add(String id, String name, String category, int quantity, long unitPrice,
+                                 LocalDate expiry, String supplier, String status) {
+        FileLock lock = lock();
+        try {
+            collectChanges();
+            if (byId.containsKey(id)) {
+                throw new IllegalArgumentException("Drug " + id + " is already in the inventory");
+            }
+            int record = records;
+            if (record == capacity) {
+                grow(capacity * 2);
+            }
+            int at = offset(record);
+            writeText(at, ID, id);
+            writeRecord(at, name, category, quantity, unitPrice, expiry, supplier, status);
+            buffer.put(at + R_LIVE, (byte) 1);
+            stamp(at);
+            // Counted last, so a crash mid-write leaves the record unused
+            buffer.putInt(H_RECORDS, record + 1);
+            force();
+            records = record + 1;
+            load(record);
+            fire(INSERTED, rows.size() - 1);
+        } finally {
+            release(lock);
+        }
+    }
+
+    // Replaces everything but the ID
+    public synchronized void update(int row, String name, String category, int quantity, long unitPrice,
+                                    LocalDate expiry, String supplier, String status) {
+        int record = record(row);
+        FileLock lock = lock();
+        try {
+            collectChanges();
+            int at = offset(liveRecord(record));
+            writeRecord(at, name, category, quantity, unitPrice, expiry, supplier, status);
+            stamp(at);
+            force();
+            texts[record] = readTexts(at);
+            fire(UPDATED, rows.indexOfSorted(record));
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Adds to the quantity on hand, or takes away for a negative change, and
+     * sets the stock status that goes with the new quantity. The quantity is
+     * read under the file lock, so desks dispensing the same drug at once
+     * both count. Returns the new quantity, or -1 without changing anything
+     * if there is not enough stock.
+     */
+    public synchronized int addStock(int row, int change, IntFunction<String> statusFor) {
+        int record = record(row);
+        FileLock lock = lock();
+        try {
+            collectChanges();
+            int at = offset(liveRecord(record));
+            int quantity = buffer.getInt(at + R_QUANTITY) + change;
+            if (quantity < 0) {
+                return -1;
+            }
+            buffer.putInt(at + R_QUANTITY, quantity);
+            writeText(at, STATUS, statusFor.apply(quantity));
+            stamp(at);
+            force();
+            texts[record][STATUS] = readText(at, STATUS);
+            fire(UPDATED, rows.indexOfSorted(record));
+            return quantity;
+        } finally {
+            release(lock);
+        }
+    }
+
+    public synchronized void remove(int row) {
+        int record = record(row);
+        FileLock lock = lock();
+        try {
+            collectChanges();
+            // Otherwise another desk removed it already and listeners have heard
+            if (texts[record] != null) {
+                int at = offset(record);
+                buffer.put(at + R_LIVE, (byte) 0);
+                stamp(at);
+                force();
+                int removed = rows.indexOfSorted(record);
+                unload(record);
+                fire(REMOVED, removed);
+            }
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Replaces every drug with those of another inventory, e.g. one restored
+     * from a backup, under one file lock. The new records are appended and
+     * synced first, then one header write counts them and retires every
+     * record before them, and only then are the old records marked dead one
+     * by one. A crash before the header write leaves the old stock, one
+     * after it the new. Listeners hear each removal, then each insertion.
+     */
+    public synchronized void replaceAll(InventoryFile source) {
+        List<byte[]> copies = source.copyRecords();
+        FileLock lock = lock();
+        try {
+            collectChanges();
+            int first = records;
+            if (first + copies.size() > capacity) {
+                grow(Math.max(capacity * 2, first + copies.size()));
+            }
+            for (int i = 0; i < copies.size(); i++) {
+                int at = offset(first + i);
+                ByteBuffer record = buffer.duplicate();
+                record.position(at);
+                record.put(copies.get(i));
+                stamp(at);
+            }
+            force();
+
+            // The header fields share one sector, so they reach the disk together
+            buffer.putInt(H_RECORDS, first + copies.size());
+            buffer.putInt(H_RETIRED, first);
+            force();
+
+            for (int row = rows.size() - 1; row >= 0; row--) {
+                int record = rows.get(row);
+                int at = offset(record);
+                buffer.put(at + R_LIVE, (byte) 0);
+                stamp(at);
+                unload(record);
+                fire(REMOVED, row);
+            }
+            force();
+            records = first + copies.size();
+            for (int record = first; record < records; record++) {
+                load(record);
+                fire(INSERTED, rows.size() - 1);
+            }
+        } finally {
+            release(lock);
+        }
+    }
+
+    // Copies the file as it stands, under the file lock so no desk changes it meanwhile
+    public synchronized void copyTo(Path target) throws IOException {
+        FileLock lock = lock();
+        try {
+            collectChanges();
+            ByteBuffer used = buffer.duplicate();
+            used.position(0);
+            used.limit(offset(records));
+            Files.createDirectories(target.getParent());
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (used.hasRemaining()) {
+                    out.write(used);
+                }
+            }
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Picks up drugs added, changed or removed through other handles on the
+     * same file since the last call, notifying listeners row by row. Costs
+     * one read of the header when nothing changed. Returns how many rows
+     * changed.
+     */
+    public synchronized int poll() {
+        return collectChanges();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // Brings this handle up to date with the file, notifying listeners; returns how many rows changed
+    private int collectChanges() {
+        long changes = buffer.getLong(H_CHANGES);
+        int total = buffer.getInt(H_RECORDS);
+        if (changes == seenChanges && total == records) {
+            return 0;
+        }
+        if (total > capacity) {
+            grow(total);
+        }
+        int changed = 0;
+        // Another desk replaced the inventory; its old records go before their replacements arrive
+        int retired = buffer.getInt(H_RETIRED);
+        while (!rows.isEmpty() && rows.get(0) < retired) {
+            changed++;
+            unload(rows.get(0));
+            fire(REMOVED, 0);
+        }
+        for (int record = 0; record < records; record++) {
+            int at = offset(record);
+            if (texts[record] == null || buffer.getLong(at + R_CHANGE) <= seenChanges) {
+                continue;
+            }
+            changed++;
+            if (buffer.get(at + R_LIVE) == 0) {
+                int row = rows.indexOfSorted(record);
+                unload(record);
+                fire(REMOVED, row);
+            } else {
+                texts[record] = readTexts(at);
+                fire(UPDATED, rows.indexOfSorted(record));
+            }
+        }
+        for (int record = records; record < total; record++) {
+            ensureTexts(record + 1);
+            if (record >= retired && buffer.get(offset(record) + R_LIVE) != 0) {
+                changed++;
+                load(record);
+                fire(INSERTED, rows.size() - 1);
+            }
+        }
+        records = total;
+        seenChanges = changes;
+        return changed;
+    }
+
+    // The bytes of every live record, in row order
+    private synchronized List<byte[]> copyRecords() {
+        collectChanges();
+        List<byte[]> copies = new ArrayList<>(rows.size());
+        for (int row = 0; row < rows.size(); row++) {
+            byte[] copy = new byte[RECORD_BYTES];
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset(rows.get(row)));
+            record.get(copy);
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private void fire(int kind, int row) {
+        for (Listener listener : listeners) {
+            if (kind == INSERTED) {
+                listener.rowInserted(row);
+            } else if (kind == REMOVED) {
+                listener.rowRemoved(row);
+            } else {
+                listener.rowUpdated(row);
+            }
+        }
+    }
+
+    private int liveRecord(int record) {
+        if (texts[record] == null) {
+            throw new IllegalStateException("The drug was removed at another desk");
+        }
+        return record;
+    }
+
+    private void load(int record) {
+        ensureTexts(record + 1);
+        texts[record] = readTexts(offset(record));
+        rows.addSorted(record);
+        byId.put(texts[record][ID], record);
+    }
+
+    private void unload(int record) {
+        rows.removeSorted(record);
+        byId.remove(texts[record][ID]);
+        texts[record] = null;
+    }
+
+    private void ensureTexts(int count) {
+        if (texts.length < count) {
+            texts = Arrays.copyOf(texts, Math.max(count, texts.length * 2));
+        }
+    }
+
+    private void writeRecord(int at, String name, String category, int quantity, long unitPrice, LocalDate expiry,
+                             String supplier, String status) {
+        buffer.putInt(at + R_QUANTITY, quantity);
+        buffer.putLong(at + R_UNIT_PRICE, unitPrice);
+        buffer.putInt(at + R_EXPIRY, expiry == null ? NO_EXPIRY : (int) expiry.toEpochDay());
+        writeText(at, NAME, name);
+        writeText(at, CATEGORY, category);
+        writeText(at, SUPPLIER, supplier);
+        writeText(at, STATUS, status);
+    }
+
+    // Bumps the file's change counter and stamps the record with it; the caller is up to date
+    private void stamp(int at) {
+        long change = buffer.getLong(H_CHANGES) + 1;
+        buffer.putLong(at + R_CHANGE, change);
+        buffer.putLong(H_CHANGES, change);
+        seenChanges = change;
+    }
+
+    private void writeText(int at, int field, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        int width = TEXT_WIDTHS[field];
+        int length = Math.min(bytes.length, width);
+        // Never cut a multi-byte character in half
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        int start = at + TEXT_OFFSETS[field];
+        for (int i = 0; i < width; i++) {
+            buffer.put(start + i, i < length ? bytes[i] : 0);
+        }
+    }
+
+    private String[] readTexts(int at) {
+        String[] values = new String[TEXT_OFFSETS.length];
+        for (int field = 0; field < values.length; field++) {
+            values[field] = readText(at, field);
+        }
+        return values;
+    }
+
+    private String readText(int at, int field) {
+        int start = at + TEXT_OFFSETS[field];
+        int length = 0;
+        while (length < TEXT_WIDTHS[field] && buffer.get(start + length) != 0) {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void grow(int minimum) {
+        int newCapacity = Math.max(minimum, capacity);
+        if (channel == null) {
+            ByteBuffer bigger = ByteBuffer.allocate(HEADER_BYTES + newCapacity * RECORD_BYTES);
+            bigger.put(buffer.duplicate().clear());
+            buffer = bigger;
+        } else {
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) newCapacity * RECORD_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot grow the pharmacy inventory", e);
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    private FileLock lock() {
+        if (channel == null) {
+            return null;
+        }
+        try {
+            return channel.lock();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot lock the pharmacy inventory", e);
+        }
+    }
+
+    private static void release(FileLock lock) {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // Closing the channel releases it anyway
+            }
+        }
+    }
+
+    private void force() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    private int record(int row) {
+        if (row < 0 || row >= rows.size()) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows.size());
+        }
+        return rows.get(row);
+    }
+
+    private static int offset(int record) {
+        return HEADER_BYTES + record * RECORD_BYTES;
+    }
+}
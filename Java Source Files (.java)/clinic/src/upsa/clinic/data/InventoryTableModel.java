@@ -0,0 +1,106 @@
+package upsa.clinic.data;
+
+import javax.swing.table.AbstractTableModel;
+import java.time.LocalDate;
+
+/**
+ * Read-only table model that presents an {@link InventoryFile} to a JTable,
+ * reading each cell from the file's mapping. Prices are shown in cedis and
+ * the total value is worked out from quantity and unit price on the fly.
+ */
+public class InventoryTableModel extends AbstractTableModel implements InventoryFile.Listener {
+
+    public static final int COL_ID = 0;
+    public static final int COL_NAME = 1;
+    public static final int COL_CATEGORY = 2;
+    public static final int COL_QUANTITY = 3;
+    public static final int COL_UNIT_PRICE = 4;
+    public static final int COL_TOTAL_VALUE = 5;
+    public static final int COL_EXPIRY = 6;
+    public static final int COL_SUPPLIER = 7;
+    public static final int COL_STATUS = 8;
+
+    private final InventoryFile inventory;
+
+    public InventoryTableModel(InventoryFile inventory) {
+        this.inventory = inventory;
+        inventory.addListener(this);
+    }
+
+    public InventoryFile getInventory() {
+        return inventory;
+    }
+
+    // Pesewas as the table shows them, e.g. ₵12.50
+    public static String formatCedis(long pesewas) {
+        return String.format("₵%.2f", pesewas / 100.0);
+    }
+
+    @Override
+    public int getRowCount() {
+        return inventory.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return InventoryFile.COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return InventoryFile.COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == COL_QUANTITY ? Integer.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // Make table read-only
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case COL_ID:
+                return inventory.getId(row);
+            case COL_NAME:
+                return inventory.getName(row);
+            case COL_CATEGORY:
+                return inventory.getCategory(row);
+            case COL_QUANTITY:
+                return inventory.getQuantity(row);
+            case COL_UNIT_PRICE:
+                return formatCedis(inventory.getUnitPrice(row));
+            case COL_TOTAL_VALUE:
+                return formatCedis(inventory.getQuantity(row) * inventory.getUnitPrice(row));
+            case COL_EXPIRY:
+                LocalDate expiry = inventory.getExpiry(row);
+                return expiry == null ? "" : expiry.toString();
+            case COL_SUPPLIER:
+                return inventory.getSupplier(row);
+            case COL_STATUS:
+                return inventory.getStatus(row);
+            default:
+                throw new IndexOutOfBoundsException("Column " + column);
+        }
+    }
+
+    // The pharmacy changes and polls the inventory on the EDT only
+    @Override
+    public void rowInserted(int row) {
+        fireTableRowsInserted(row, row);
+    }
+
+    @Override
+    public void rowUpdated(int row) {
+        fireTableRowsUpdated(row, row);
+    }
+
+    @Override
+    public void rowRemoved(int row) {
+        fireTableRowsDeleted(row, row);
+    }
+}
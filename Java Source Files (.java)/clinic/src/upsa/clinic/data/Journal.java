@@ -0,0 +1,817 @@
+package upsa.clinic.data;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.TableModel;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of table changes, so a crash or power cut loses at
+ * most the changes still waiting for their sync.
+ *
+ * Every change is a compact binary entry against a named table, in terms
+ * of model row indices: rows inserted at a row, one row or cell updated,
+ * a range of rows deleted, or the table reset to a full set of rows.
+ * Replaying a table's entries in order rebuilds it.
+ *
+ * Appending only encodes the entry and queues it; it never waits for the
+ * disk. One writer thread takes everything queued, writes it in one go and
+ * syncs once, so a burst of changes costs a single fsync (group commit).
+ * The returned future completes when the entry is durable.
+ *
+ * Entries are addressed by position: the number of bytes journaled up to
+ * the end of the entry, counted from the very first entry. The journal is
+ * split into segment files named by the position they start at, so that
+ * once snapshots cover a segment, {@link #deleteSegmentsBefore} can drop
+ * it. On disk each entry is its payload length, a CRC-32 of the payload and
+ * the payload. A torn tail left by a crash is cut off when the journal is
+ * opened.
+ *
+ * A {@link Follower} hears of every batch as it becomes durable, which is
+ * how changes are shipped to other desks.
+ */
+public class Journal implements Closeable {
+
+    public static final byte INSERT = 1;
+    public static final byte UPDATE = 2;
+    public static final byte DELETE = 3;
+    public static final byte RESET = 4;
+
+    // Column of an UPDATE that replaces whole rows
+    public static final int ALL_COLUMNS = -1;
+
+    private static final int MAX_ENTRY_BYTES = 64 * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static volatile Journal shared;
+
+    private final Path directory;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private final List<Consumer<IOException>> failureListeners = new CopyOnWriteArrayList<>();
+
+    // Position after the last entry appended; guarded by this, so queue order is position order
+    private long position;
+
+    // Writer thread only: the open segment, where it starts and the position written up to
+    private FileChannel channel;
+    private long segmentStart;
+    private long written;
+
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    // The clinic's journal, journal/ in the data home
+    public static Journal shared() {
+        if (shared == null) {
+            synchronized (Journal.class) {
+                if (shared == null) {
+                    shared = new Journal(ClinicFiles.home().resolve("journal"), Integer.MAX_VALUE);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Opens the journal in the directory, cutting off a torn tail of the last
+     * segment. If that fails, the journal refuses every append with the error.
+     *
+     * @param maxBatch most entries per sync; 1 syncs every entry on its own
+     */
+    public Journal(Path directory, int maxBatch) {
+        this.directory = directory;
+        this.maxBatch = maxBatch;
+        try {
+            List<Long> starts = segmentStarts(directory);
+            if (!starts.isEmpty()) {
+                segmentStart = starts.get(starts.size() - 1);
+                Path last = segment(directory, segmentStart);
+                long valid = scan(last, 0, entry -> {
+                });
+                try (FileChannel file = FileChannel.open(last, StandardOpenOption.WRITE)) {
+                    if (file.size() > valid) {
+                        file.truncate(valid);
+                        file.force(false);
+                    }
+                }
+                position = segmentStart + valid;
+                written = position;
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public CompletableFuture<Void> append(Entry entry) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        if (closed) {
+            durable.completeExceptionally(new IOException("Journal " + directory + " is closed"));
+        } else if (failure != null) {
+            durable.completeExceptionally(failure);
+        } else {
+            byte[] encoded = entry.encode();
+            synchronized (this) {
+                position += encoded.length;
+                queue.add(new Pending(encoded, false, durable));
+            }
+        }
+        return durable;
+    }
+
+    // Position after everything appended so far, durable or not
+    public synchronized long position() {
+        return position;
+    }
+
+    /**
+     * Tells the follower of every batch synced from now on. Returns the
+     * position after the last entry appended before it started following:
+     * it hears of every entry after that position, though the first batch
+     * it hears of may also hold some before it.
+     */
+    public synchronized long follow(Follower follower) {
+        followers.add(follower);
+        return position;
+    }
+
+    public void unfollow(Follower follower) {
+        followers.remove(follower);
+    }
+
+    /**
+     * Tells the listener, once, of the write error that stops the journal,
+     * on the thread that hit it; at once if the journal has already stopped.
+     * From then on every append fails, so edits are no longer saved.
+     */
+    public void addFailureListener(Consumer<IOException> listener) {
+        IOException stopped;
+        synchronized (failureListeners) {
+            failureListeners.add(listener);
+            stopped = failure;
+        }
+        if (stopped != null) {
+            listener.accept(stopped);
+        }
+    }
+
+    public void removeFailureListener(Consumer<IOException> listener) {
+        failureListeners.remove(listener);
+    }
+
+    /**
+     * Journals every row inserted, updated or deleted in a Swing table model
+     * from now on, and a full RESET when its structure is replaced, e.g. by
+     * setDataVector. A fireTableDataChanged is taken as a refresh and
+     * journals nothing, so whoever swaps in new rows that way journals them
+     * with {@link #reset(String, TableModel)}.
+     */
+    public void bind(String table, TableModel model) {
+        model.addTableModelListener(e -> {
+            if (isRefresh(e)) {
+                return;
+            }
+            if (e.getFirstRow() == TableModelEvent.HEADER_ROW) {
+                reset(table, model);
+            } else if (e.getType() == TableModelEvent.INSERT) {
+                append(Entry.insert(table, e.getFirstRow(), rows(model, e.getFirstRow(), e.getLastRow())));
+            } else if (e.getType() == TableModelEvent.DELETE) {
+                append(Entry.delete(table, e.getFirstRow(), e.getLastRow()));
+            } else if (e.getColumn() == TableModelEvent.ALL_COLUMNS) {
+                for (int row = e.getFirstRow(); row <= e.getLastRow(); row++) {
+                    append(Entry.update(table, row, ALL_COLUMNS, rows(model, row, row)[0]));
+                }
+            } else {
+                for (int row = e.getFirstRow(); row <= e.getLastRow(); row++) {
+                    append(Entry.update(table, row, e.getColumn(), new Object[]{model.getValueAt(row, e.getColumn())}));
+                }
+            }
+        });
+    }
+
+    // Every row may have changed, but no row was added, removed or edited through the model
+    static boolean isRefresh(TableModelEvent e) {
+        return e.getFirstRow() != TableModelEvent.HEADER_ROW && e.getLastRow() == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Journals every change to the patient registry from now on, in table row
+     * order. Age is derived, so it is journaled as null. Returns the listener
+     * added to the store, so journaling can be paused by removing it.
+     */
+    public PatientStore.Listener bind(String table, PatientStore store) {
+        PatientStore.Listener listener = new PatientStore.Listener() {
+            @Override
+            public void slotAdded(int slot) {
+                Object[] values = patientRow(store, slot);
+                int row = store.rowOf(slot);
+                if (store.isReplacing(slot)) {
+                    append(Entry.update(table, row, ALL_COLUMNS, values));
+                } else {
+                    append(Entry.insert(table, row, new Object[][]{values}));
+                }
+            }
+
+            @Override
+            public void slotRemoved(int slot) {
+                // An update is journaled once, when the new values are added
+                if (!store.isReplacing(slot)) {
+                    int row = store.rowOf(slot);
+                    append(Entry.delete(table, row, row));
+                }
+            }
+        };
+        store.addListener(listener);
+        return listener;
+    }
+
+    // Journals the model's current rows as a RESET, e.g. for a table journaled for the first time
+    public CompletableFuture<Void> reset(String table, TableModel model) {
+        return append(Entry.reset(table, rows(model, 0, model.getRowCount() - 1)));
+    }
+
+    public CompletableFuture<Void> reset(String table, PatientStore store) {
+        store.readLock().lock();
+        try {
+            Object[][] rows = new Object[store.size()][];
+            for (int row = 0; row < rows.length; row++) {
+                rows[row] = patientRow(store, store.slotAt(row));
+            }
+            return append(Entry.reset(table, rows));
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    // Blocks until everything appended so far is durable
+    public void sync() throws IOException {
+        if (!closed) {
+            await(enqueueMarker(false));
+        }
+    }
+
+    /**
+     * Starts a new segment for the entries appended after this call, so that
+     * the current one can be deleted once snapshots cover it. Returns once
+     * the old segment is synced and closed.
+     */
+    public void rotate() throws IOException {
+        if (!closed) {
+            await(enqueueMarker(true));
+        }
+    }
+
+    /**
+     * Deletes the segments holding only entries that end at or before the
+     * position. The segment being written is always kept. Returns how many
+     * were deleted.
+     */
+    public int deleteSegmentsBefore(long position) throws IOException {
+        List<Long> starts = segmentStarts(directory);
+        int deleted = 0;
+        for (int i = 0; i + 1 < starts.size() && starts.get(i + 1) <= position; i++) {
+            Files.deleteIfExists(segment(directory, starts.get(i)));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    // Appends nothing more, syncs what is queued and closes the file
+    @Override
+    public void close() throws IOException {
+        sync();
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // The write error that stopped the journal, or null
+    public IOException getFailure() {
+        return failure;
+    }
+
+    public long getEntries() {
+        return entries.get();
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public double getAverageBatch() {
+        long count = commits.get();
+        return count == 0 ? 0 : (double) entries.get() / count;
+    }
+
+    public double getAverageCommitMillis() {
+        long count = commits.get();
+        return count == 0 ? 0 : commitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos.get() / 1e6;
+    }
+
+    public String describeStats() {
+        if (failure != null) {
+            return "Journal stopped: " + failure.getMessage();
+        }
+        return String.format("Journal: %,d entries in %,d syncs (%.1f per sync), sync avg %.2f ms, max %.2f ms, %,d KB",
+                entries.get(), commits.get(), getAverageBatch(), getAverageCommitMillis(), getMaxCommitMillis(),
+                bytes.get() / 1024);
+    }
+
+    /**
+     * Reads, in order, every entry in the directory that ends after the given
+     * position, which must be 0 or the position of an entry. A torn or corrupt
+     * entry ends the read without an error. Reading from 0 starts at the
+     * oldest segment left; reading from a later position fails if the segment
+     * holding it has been deleted. Returns the position after the last entry
+     * read.
+     */
+    public static long read(Path directory, long from, Consumer<Entry> consumer) throws IOException {
+        List<Long> starts = segmentStarts(directory);
+        long end = from;
+        for (int i = 0; i < starts.size(); i++) {
+            long start = starts.get(i);
+            if (i + 1 < starts.size() && starts.get(i + 1) <= from) {
+                continue;
+            }
+            if (start > end) {
+                if (end > 0) {
+                    throw new IOException("Journal " + directory + " has no segment holding position " + end);
+                }
+                end = start;
+            }
+            Path file = segment(directory, start);
+            long valid = scan(file, end - start, entry -> {
+                entry.position += start;
+                consumer.accept(entry);
+            });
+            end = start + valid;
+            if (valid < Files.size(file)) {
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Decodes whole entries framed as in a segment file, such as a batch a
+     * follower was told of, the first starting at the given position. Unlike
+     * reading a segment, a torn entry or a checksum that does not match is
+     * an error.
+     */
+    public static List<Entry> decode(byte[] framed, int offset, int length, long start) throws IOException {
+        List<Entry> decoded = new ArrayList<>();
+        ByteBuffer in = ByteBuffer.wrap(framed, offset, length);
+        CRC32 crc = new CRC32();
+        Values.Reader values = new Values.Reader();
+        long position = start;
+        while (in.hasRemaining()) {
+            if (in.remaining() < 8) {
+                throw new IOException("Torn journal entry at position " + position);
+            }
+            int size = in.getInt();
+            long checksum = in.getInt() & 0xFFFFFFFFL;
+            if (size < 0 || size > in.remaining()) {
+                throw new IOException("Torn journal entry at position " + position);
+            }
+            ByteBuffer payload = in.slice();
+            payload.limit(size);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Journal entry at position " + position + " fails its checksum");
+            }
+            in.position(in.position() + size);
+            position += 8 + size;
+            Entry entry = Entry.decode(payload, values);
+            entry.position = position;
+            decoded.add(entry);
+        }
+        return decoded;
+    }
+
+    // Reads entries of one segment from the offset and returns the length of its valid part
+    private static long scan(Path file, long offset, Consumer<Entry> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            channel.position(offset);
+            ByteBuffer header = ByteBuffer.allocate(8);
+            CRC32 crc = new CRC32();
+            Values.Reader values = new Values.Reader();
+            long valid = offset;
+            while (true) {
+                header.clear();
+                if (!readFully(channel, header)) {
+                    return valid;
+                }
+                header.flip();
+                int length = header.getInt();
+                long checksum = header.getInt() & 0xFFFFFFFFL;
+                if (length < 0 || length > MAX_ENTRY_BYTES || valid + 8 + length > size) {
+                    return valid;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!readFully(channel, payload)) {
+                    return valid;
+                }
+                payload.flip();
+                crc.reset();
+                crc.update(payload.duplicate());
+                if (crc.getValue() != checksum) {
+                    return valid;
+                }
+                valid += 8 + length;
+                Entry entry = Entry.decode(payload, values);
+                entry.position = valid;
+                consumer.accept(entry);
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Long> segmentStarts(Path directory) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return starts;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    starts.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        starts.sort(null);
+        return starts;
+    }
+
+    private static Path segment(Path directory, long start) {
+        return directory.resolve(String.format("%020d%s", start, SEGMENT_SUFFIX));
+    }
+
+    private CompletableFuture<Void> enqueueMarker(boolean rotate) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (this) {
+            queue.add(new Pending(new byte[0], rotate, done));
+        }
+        return done;
+    }
+
+    private static void await(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.join();
+        } catch (RuntimeException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                if (closed && queue.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            // A rotation ends its batch, so nothing queued after it lands in the old segment
+            int from = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).rotate) {
+                    commit(batch.subList(from, i + 1), true);
+                    from = i + 1;
+                }
+            }
+            if (from < batch.size()) {
+                commit(batch.subList(from, batch.size()), false);
+            }
+            batch.clear();
+        }
+        closeSegment();
+    }
+
+    private void commit(List<Pending> batch, boolean rotate) {
+        if (failure != null) {
+            for (Pending pending : batch) {
+                pending.durable.completeExceptionally(failure);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        int size = 0;
+        int appended = 0;
+        byte[] synced = null;
+        for (Pending pending : batch) {
+            size += pending.bytes.length;
+            // Empty ones are sync() or rotate() waiting for what is ahead of them
+            appended += pending.bytes.length > 0 ? 1 : 0;
+        }
+        try {
+            if (size > 0) {
+                if (channel == null) {
+                    Files.createDirectories(directory);
+                    channel = FileChannel.open(segment(directory, segmentStart), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                for (Pending pending : batch) {
+                    buffer.put(pending.bytes);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                written += size;
+                bytes.addAndGet(size);
+                synced = buffer.array();
+            }
+            if (rotate && written > segmentStart) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                segmentStart = written;
+            }
+        } catch (IOException e) {
+            fail(e);
+            for (Pending pending : batch) {
+                pending.durable.completeExceptionally(e);
+            }
+            return;
+        }
+        if (size > 0) {
+            long elapsed = System.nanoTime() - start;
+            commits.incrementAndGet();
+            entries.addAndGet(appended);
+            commitNanos.addAndGet(elapsed);
+            maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+        }
+        for (Pending pending : batch) {
+            pending.durable.complete(null);
+        }
+        if (synced != null) {
+            for (Follower follower : followers) {
+                follower.synced(written - size, synced);
+            }
+        }
+    }
+
+    // The first error stops the journal for good; later ones only add to what is already lost
+    private void fail(IOException e) {
+        List<Consumer<IOException>> listeners;
+        synchronized (failureListeners) {
+            if (failure != null) {
+                return;
+            }
+            failure = e;
+            // Listeners added from now on are told when they are added
+            listeners = new ArrayList<>(failureListeners);
+        }
+        System.err.println("Journal " + directory + " stopped, changes are no longer saved: " + e);
+        for (Consumer<IOException> listener : listeners) {
+            listener.accept(e);
+        }
+    }
+
+    private void closeSegment() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        channel = null;
+    }
+
+    static Object[][] rows(TableModel model, int first, int last) {
+        Object[][] rows = new Object[Math.max(0, last - first + 1)][];
+        for (int row = first; row <= last; row++) {
+            Object[] values = new Object[model.getColumnCount()];
+            for (int column = 0; column < values.length; column++) {
+                values[column] = model.getValueAt(row, column);
+            }
+            rows[row - first] = values;
+        }
+        return rows;
+    }
+
+    static Object[] patientRow(PatientStore store, int slot) {
+        Object[] values = new Object[PatientStore.COLUMNS.length];
+        for (int column = 0; column < values.length; column++) {
+            values[column] = column == PatientStore.COL_AGE ? null : store.get(slot, column);
+        }
+        return values;
+    }
+
+    /**
+     * Hears of each batch of entries once it is synced, on the journal's
+     * writer thread, so it must return quickly and never block. The bytes
+     * are whole entries exactly as written to the segment, the first
+     * starting at the given position, and must not be modified.
+     */
+    public interface Follower {
+        void synced(long start, byte[] entries);
+    }
+
+    private static class Pending {
+        final byte[] bytes;
+        final boolean rotate;
+        final CompletableFuture<Void> durable;
+
+        Pending(byte[] bytes, boolean rotate, CompletableFuture<Void> durable) {
+            this.bytes = bytes;
+            this.rotate = rotate;
+            this.durable = durable;
+        }
+    }
+
+    /**
+     * One journaled change. Values are kept as written: null, String,
+     * Integer, Long, Double or Boolean; anything else is journaled as its
+     * toString().
+     */
+    public static class Entry {
+        private final String table;
+        private final byte op;
+        private final int row;
+        private final int lastRow;
+        private final int column;
+        private final Object[][] rows;
+        private long position;
+
+        private Entry(String table, byte op, int row, int lastRow, int column, Object[][] rows) {
+            this.table = table;
+            this.op = op;
+            this.row = row;
+            this.lastRow = lastRow;
+            this.column = column;
+            this.rows = rows;
+        }
+
+        public static Entry insert(String table, int row, Object[][] rows) {
+            return new Entry(table, INSERT, row, row + rows.length - 1, ALL_COLUMNS, rows);
+        }
+
+        // Whole row when column is ALL_COLUMNS, otherwise values holds the one cell
+        public static Entry update(String table, int row, int column, Object[] values) {
+            return new Entry(table, UPDATE, row, row, column, new Object[][]{values});
+        }
+
+        public static Entry delete(String table, int firstRow, int lastRow) {
+            return new Entry(table, DELETE, firstRow, lastRow, ALL_COLUMNS, new Object[0][]);
+        }
+
+        public static Entry reset(String table, Object[][] rows) {
+            return new Entry(table, RESET, 0, rows.length - 1, ALL_COLUMNS, rows);
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public byte getOp() {
+            return op;
+        }
+
+        // First row affected
+        public int getRow() {
+            return row;
+        }
+
+        public int getLastRow() {
+            return lastRow;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public Object[][] getRows() {
+            return rows;
+        }
+
+        // Journal position just after this entry; only known for entries read back
+        public long getPosition() {
+            return position;
+        }
+
+        // For an entry made up rather than read back, e.g. a table copied as of a position
+        void setPosition(long position) {
+            this.position = position;
+        }
+
+        byte[] encode() {
+            try {
+                ByteArrayOutputStream framed = new ByteArrayOutputStream(64);
+                DataOutputStream out = new DataOutputStream(framed);
+                // Room for the length and checksum, filled in below
+                out.writeLong(0);
+                out.writeUTF(table);
+                out.writeByte(op);
+                out.writeInt(row);
+                out.writeInt(lastRow);
+                out.writeShort(column);
+                out.writeInt(rows.length);
+                for (Object[] values : rows) {
+                    out.writeShort(values.length);
+                    for (Object value : values) {
+                        Values.write(out, value);
+                    }
+                }
+                out.flush();
+                byte[] bytes = framed.toByteArray();
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 8, bytes.length - 8);
+                ByteBuffer.wrap(bytes).putInt(bytes.length - 8).putInt((int) crc.getValue());
+                return bytes;
+            } catch (IOException e) {
+                // Writing to a byte array does not fail
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        static Entry decode(ByteBuffer in, Values.Reader values) throws IOException {
+            try {
+                byte[] name = new byte[in.getShort() & 0xFFFF];
+                in.get(name);
+                // Table names are plain ASCII, where modified UTF-8 and UTF-8 agree
+                String table = new String(name, StandardCharsets.UTF_8);
+                byte op = in.get();
+                int row = in.getInt();
+                int lastRow = in.getInt();
+                int column = in.getShort();
+                Object[][] rows = new Object[in.getInt()][];
+                for (int r = 0; r < rows.length; r++) {
+                    rows[r] = new Object[in.getShort()];
+                    for (int c = 0; c < rows[r].length; c++) {
+                        rows[r][c] = values.read(in);
+                    }
+                }
+                return new Entry(table, op, row, lastRow, column, rows);
+            } catch (RuntimeException e) {
+                // The checksum matched, so this is a newer format rather than damage
+                throw new IOException("Unreadable journal entry", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package upsa.clinic.data;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A patient's medical history: allergies, chronic conditions, current
+ * medications and dated visit notes, newest note last. Instances are
+ * immutable, so the cache can hand the same one to several threads;
+ * {@link #withVisit} returns an updated copy.
+ */
+public class MedicalRecord {
+
+    private final String patientId;
+    private final List<String> allergies;
+    private final List<String> conditions;
+    private final List<String> medications;
+    private final List<Visit> visits;
+
+    public MedicalRecord(String patientId, List<String> allergies, List<String> conditions,
+                         List<String> medications, List<Visit> visits) {
+        this.patientId = patientId;
+        this.allergies = Collections.unmodifiableList(new ArrayList<>(allergies));
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(conditions));
+        this.medications = Collections.unmodifiableList(new ArrayList<>(medications));
+        this.visits = Collections.unmodifiableList(new ArrayList<>(visits));
+    }
+
+    // Record of a patient with nothing on file yet
+    public static MedicalRecord empty(String patientId) {
+        return new MedicalRecord(patientId, Collections.<String>emptyList(), Collections.<String>emptyList(),
+                Collections.<String>emptyList(), Collections.<Visit>emptyList());
+    }
+
+    public MedicalRecord withVisit(LocalDate date, String note) {
+        List<Visit> updated = new ArrayList<>(visits);
+        updated.add(new Visit(date, note));
+        return new MedicalRecord(patientId, allergies, conditions, medications, updated);
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public List<String> getAllergies() {
+        return allergies;
+    }
+
+    public List<String> getConditions() {
+        return conditions;
+    }
+
+    public List<String> getMedications() {
+        return medications;
+    }
+
+    public List<Visit> getVisits() {
+        return visits;
+    }
+
+    public boolean isEmpty() {
+        return allergies.isEmpty() && conditions.isEmpty() && medications.isEmpty() && visits.isEmpty();
+    }
+
+    // Rough heap footprint, used to bound the record cache by size rather than count
+    long estimatedBytes() {
+        long bytes = 64 + 2L * patientId.length();
+        for (List<String> list : List.of(allergies, conditions, medications)) {
+            for (String value : list) {
+                bytes += 48 + 2L * value.length();
+            }
+        }
+        for (Visit visit : visits) {
+            bytes += 80 + 2L * visit.getNote().length();
+        }
+        return bytes;
+    }
+
+    public static class Visit {
+        private final LocalDate date;
+        private final String note;
+
+        public Visit(LocalDate date, String note) {
+            this.date = date;
+            this.note = note;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public String getNote() {
+            return note;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package upsa.clinic.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Disk-backed medical records, one small text file per patient under
+ * records/ in the data home, read only when a record is opened.
+ *
+ * Loaded records are kept in an LRU cache bounded by their estimated size.
+ * {@link #prefetch} queues loads on a background thread, e.g. for the rows
+ * either side of the table selection, so stepping through the table finds
+ * the next record already cached. A record being prefetched when it is
+ * opened is waited for rather than read twice.
+ *
+ * Files are spread over 100 subdirectories by the last two characters of
+ * the patient ID and replaced atomically on save. Each line holds one
+ * entry: "allergy", "condition" or "medication" and a value, or "visit", a
+ * date and a note, separated by tabs.
+ */
+public class MedicalRecordStore {
+
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+    private static final Pattern PATIENT_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final int PREFETCH_QUEUE = 64;
+
+    private final Path directory;
+    private final long maxCacheBytes;
+
+    // Access-ordered, so iteration starts at the least recently used record
+    private final LinkedHashMap<String, MedicalRecord> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private final Map<String, CompletableFuture<MedicalRecord>> loading = new ConcurrentHashMap<>();
+
+    // One loader thread; when it falls behind, the oldest queued prefetch is dropped
+    private final ThreadPoolExecutor prefetcher = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(PREFETCH_QUEUE), runnable -> {
+                Thread thread = new Thread(runnable, "record-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong maxLoadNanos = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    public MedicalRecordStore(Path directory, long maxCacheBytes) {
+        this.directory = directory;
+        this.maxCacheBytes = maxCacheBytes;
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    // Records under the data home with the default cache size
+    public static MedicalRecordStore open() {
+        return new MedicalRecordStore(ClinicFiles.home().resolve("records"), DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * The patient's record, from the cache or from disk. A patient with no
+     * file yet gets an empty record. Blocks while the file is read, so the
+     * EDT should only call this when {@link #cached} has the record.
+     */
+    public MedicalRecord load(String patientId) throws IOException {
+        MedicalRecord record = cached(patientId);
+        if (record != null) {
+            hits.incrementAndGet();
+            return record;
+        }
+        misses.incrementAndGet();
+        try {
+            return loadShared(patientId).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading record of " + patientId, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Cannot load record of " + patientId, cause);
+        }
+    }
+
+    // The record if it is cached, else null; never touches the disk
+    public MedicalRecord cached(String patientId) {
+        synchronized (cache) {
+            return cache.get(patientId);
+        }
+    }
+
+    // Queues background loads of records that are not cached yet
+    public void prefetch(Collection<String> patientIds) {
+        for (String patientId : patientIds) {
+            if (cached(patientId) == null && !loading.containsKey(patientId)) {
+                prefetcher.execute(() -> {
+                    if (cached(patientId) == null) {
+                        prefetched.incrementAndGet();
+                        loadShared(patientId);
+                    }
+                });
+            }
+        }
+    }
+
+    // Writes the record to disk, replacing the old file in one step, and caches it
+    public void save(MedicalRecord record) throws IOException {
+        Path file = file(record.getPatientId());
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            write(writer, "allergy", record.getAllergies());
+            write(writer, "condition", record.getConditions());
+            write(writer, "medication", record.getMedications());
+            for (MedicalRecord.Visit visit : record.getVisits()) {
+                writer.write("visit\t" + visit.getDate() + "\t" + escape(visit.getNote()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        put(record);
+    }
+
+    // Forgets every cached record, e.g. after a restore replaced the files
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Files actually read, whether for an open or a prefetch
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    public double getAverageLoadMillis() {
+        long count = loads.get();
+        return count == 0 ? 0 : loadNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxLoadMillis() {
+        return maxLoadNanos.get() / 1e6;
+    }
+
+    public String describeStats() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        if (total == 0) {
+            return "No records opened yet";
+        }
+        int cachedCount;
+        long bytes;
+        synchronized (cache) {
+            cachedCount = cache.size();
+            bytes = cachedBytes;
+        }
+        return String.format("Records: %d%% cache hits (%d of %d opens), load avg %.2f ms, max %.2f ms, %d cached (%d KB)",
+                100 * hitCount / total, hitCount, total, getAverageLoadMillis(), getMaxLoadMillis(),
+                cachedCount, bytes / 1024);
+    }
+
+    private CompletableFuture<MedicalRecord> loadShared(String patientId) {
+        CompletableFuture<MedicalRecord> created = new CompletableFuture<>();
+        CompletableFuture<MedicalRecord> existing = loading.putIfAbsent(patientId, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            // Re-check: the load may have finished between the caller's cache miss and now
+            MedicalRecord record = cached(patientId);
+            if (record == null) {
+                record = read(patientId);
+                put(record);
+            }
+            created.complete(record);
+        } catch (IOException e) {
+            created.completeExceptionally(new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+        } finally {
+            loading.remove(patientId);
+        }
+        return created;
+    }
+
+    private MedicalRecord read(String patientId) throws IOException {
+        long start = System.nanoTime();
+        List<String> allergies = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        List<String> medications = new ArrayList<>();
+        List<MedicalRecord.Visit> visits = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file(patientId), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 2) {
+                    continue;
+                }
+                switch (fields[0]) {
+                    case "allergy":
+                        allergies.add(unescape(fields[1]));
+                        break;
+                    case "condition":
+                        conditions.add(unescape(fields[1]));
+                        break;
+                    case "medication":
+                        medications.add(unescape(fields[1]));
+                        break;
+                    case "visit":
+                        try {
+                            visits.add(new MedicalRecord.Visit(LocalDate.parse(fields[1]),
+                                    fields.length > 2 ? unescape(fields[2]) : ""));
+                        } catch (DateTimeParseException e) {
+                            throw new IOException("Bad visit date in record of " + patientId + ": " + fields[1], e);
+                        }
+                        break;
+                    default:
+                        // Written by a newer version; keep what this one understands
+                        break;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return MedicalRecord.empty(patientId);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            loads.incrementAndGet();
+            loadNanos.addAndGet(elapsed);
+            maxLoadNanos.accumulateAndGet(elapsed, Math::max);
+        }
+        return new MedicalRecord(patientId, allergies, conditions, medications, visits);
+    }
+
+    private void put(MedicalRecord record) {
+        synchronized (cache) {
+            MedicalRecord previous = cache.put(record.getPatientId(), record);
+            if (previous != null) {
+                cachedBytes -= previous.estimatedBytes();
+            }
+            cachedBytes += record.estimatedBytes();
+            Iterator<MedicalRecord> eldest = cache.values().iterator();
+            while (cachedBytes > maxCacheBytes && cache.size() > 1) {
+                cachedBytes -= eldest.next().estimatedBytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    private Path file(String patientId) {
+        if (!PATIENT_ID.matcher(patientId).matches()) {
+            throw new IllegalArgumentException("Not a patient ID: " + patientId);
+        }
+        String shard = patientId.length() < 2 ? patientId : patientId.substring(patientId.length() - 2);
+        return directory.resolve(shard).resolve(patientId + ".rec");
+    }
+
+    private static void write(BufferedWriter writer, String kind, List<String> values) throws IOException {
+        for (String value : values) {
+            writer.write(kind + "\t" + escape(value));
+            writer.newLine();
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder text = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                text.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+            } else {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
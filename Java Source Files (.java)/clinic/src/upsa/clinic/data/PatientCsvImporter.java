@@ -0,0 +1,487 @@
+package upsa.clinic.data;
+
+import javax.swing.SwingUtilities;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming CSV import of patient records.
+ *
+ * A reader thread cuts the file into chunks of lines and hands them to a
+ * pool of parser threads, which split the fields and validate Date of Birth,
+ * Index No and Blood Group in parallel. The calling thread puts the parsed
+ * chunks back in file order and passes them to the sink in large batches.
+ * All queues are bounded, and the reader waits while {@link
+ * #CHUNKS_AHEAD_PER_THREAD} chunks per parser are still to be put back in
+ * order, so a slow chunk never lets later ones pile up. Memory use depends
+ * on the chunk size and thread count, not on the size of the file.
+ *
+ * The first line must be a header naming the columns, e.g. "Full Name,Index
+ * No,Program,Level,Gender,DOB,Blood Group,Genotype,Sickling,Phone,Condition,
+ * Status". Patient IDs are always drawn from the patient {@link IdSequence},
+ * in file order, so an ID column is ignored; Age is derived from the date of
+ * birth. Quoted fields may contain commas and doubled quotes but not line
+ * breaks.
+ */
+public class PatientCsvImporter {
+
+    public static final int CHUNK_LINES = 1_000;
+    public static final int BATCH_ROWS = 5_000;
+    public static final int MAX_REPORTED_ERRORS = 100;
+    // Chunks per parser thread that may be read before the oldest is put back in order
+    public static final int CHUNKS_AHEAD_PER_THREAD = 4;
+
+    private static final Pattern INDEX_NO = Pattern.compile("[A-Z]{3,5}\\d{7}");
+    private static final Set<String> BLOOD_GROUPS = new HashSet<>(Arrays.asList(
+            "A+", "A-", "B+", "B-", "AB+", "AB-", "O+", "O-"));
+
+    // Marks the end of the input on the chunk queue
+    private static final Chunk END = new Chunk(-1, 0, new String[0], 0);
+
+    /**
+     * Called on the importing thread after every batch.
+     */
+    public interface Progress {
+        void update(long bytesRead, long totalBytes, int imported, int rejected);
+    }
+
+    private final Consumer<List<Object[]>> sink;
+    private final IdSequence patientIds;
+    private final int threads;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param sink receives batches of rows in table column order, e.g.
+     *             PatientTableModel.addRows on the EDT
+     */
+    public PatientCsvImporter(Consumer<List<Object[]>> sink, IdSequence patientIds) {
+        this(sink, patientIds, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public PatientCsvImporter(Consumer<List<Object[]>> sink, IdSequence patientIds, int threads) {
+        this.sink = sink;
+        this.patientIds = patientIds;
+        this.threads = threads;
+    }
+
+    // Stops the import after the batch in progress; rows already passed to the sink stay
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public Result importFile(Path file, Progress progress) throws IOException {
+        long totalBytes = Files.size(file);
+        AtomicLong bytesRead = new AtomicLong();
+        BlockingQueue<Chunk> lines = new ArrayBlockingQueue<>(threads * 2);
+        BlockingQueue<Chunk> parsed = new ArrayBlockingQueue<>(threads * 2);
+        // One permit per chunk read and not yet put back in order
+        Semaphore ahead = new Semaphore(threads * CHUNKS_AHEAD_PER_THREAD);
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1, runnable -> {
+            Thread thread = new Thread(runnable, "csv-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Result result = new Result();
+        try (InputStream in = new CountingInputStream(Files.newInputStream(file), bytesRead);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return result;
+            }
+            int[] columnOf = mapHeader(splitLine(stripBom(header)));
+
+            Future<Integer> producer = pool.submit(() -> readChunks(reader, lines, ahead));
+            for (int i = 0; i < threads; i++) {
+                pool.submit(() -> parseChunks(lines, parsed, columnOf));
+            }
+
+            // Reassemble chunks in file order and flush them in large batches
+            Map<Integer, Chunk> early = new HashMap<>();
+            List<Object[]> batch = new ArrayList<>(BATCH_ROWS);
+            int nextChunk = 0;
+            int chunkCount = -1;
+            while (!cancelled && (chunkCount < 0 || nextChunk < chunkCount)) {
+                if (chunkCount < 0 && producer.isDone()) {
+                    chunkCount = producer.get();
+                    continue;
+                }
+                Chunk chunk = early.remove(nextChunk);
+                if (chunk == null) {
+                    chunk = parsed.poll(50, TimeUnit.MILLISECONDS);
+                    if (chunk != null && chunk.sequence != nextChunk) {
+                        early.put(chunk.sequence, chunk);
+                        chunk = null;
+                    }
+                    if (chunk == null) {
+                        continue;
+                    }
+                }
+                nextChunk++;
+                ahead.release();
+
+                result.addErrors(chunk.errors);
+                for (Object[] row : chunk.rows) {
+                    row[PatientStore.COL_ID] = "PAT-" + patientIds.next();
+                    batch.add(row);
+                    if (batch.size() == BATCH_ROWS) {
+                        flush(batch, result, progress, bytesRead.get(), totalBytes);
+                    }
+                }
+            }
+            if (!cancelled) {
+                flush(batch, result, progress, totalBytes, totalBytes);
+            }
+            result.cancelled = cancelled;
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancelled = true;
+            return result;
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot read " + file.getFileName(), e.getCause());
+        } finally {
+            // Interrupts the reader and parsers if the import stopped early
+            pool.shutdownNow();
+        }
+    }
+
+    private void flush(List<Object[]> batch, Result result, Progress progress, long bytesRead, long totalBytes) {
+        if (!batch.isEmpty()) {
+            sink.accept(new ArrayList<>(batch));
+            result.imported += batch.size();
+            batch.clear();
+        }
+        if (progress != null) {
+            progress.update(bytesRead, totalBytes, result.imported, result.rejected);
+        }
+    }
+
+    // Runs on the reader thread; returns the number of chunks queued
+    private int readChunks(BufferedReader reader, BlockingQueue<Chunk> lines, Semaphore ahead)
+            throws IOException, InterruptedException {
+        int sequence = 0;
+        int lineNumber = 2;
+        String[] chunk = new String[CHUNK_LINES];
+        int count = 0;
+        String line;
+        while (!cancelled && (line = reader.readLine()) != null) {
+            chunk[count++] = line;
+            if (count == CHUNK_LINES) {
+                ahead.acquire();
+                lines.put(new Chunk(sequence++, lineNumber, chunk, count));
+                lineNumber += count;
+                chunk = new String[CHUNK_LINES];
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            ahead.acquire();
+            lines.put(new Chunk(sequence++, lineNumber, chunk, count));
+        }
+        // One end marker per parser thread
+        for (int i = 0; i < threads; i++) {
+            lines.put(END);
+        }
+        return sequence;
+    }
+
+    // Runs on a parser thread until the end marker arrives
+    private Void parseChunks(BlockingQueue<Chunk> lines, BlockingQueue<Chunk> parsed, int[] columnOf)
+            throws InterruptedException {
+        LocalDate today = LocalDate.now();
+        while (!cancelled) {
+            Chunk chunk = lines.take();
+            if (chunk == END) {
+                break;
+            }
+            for (int i = 0; i < chunk.count; i++) {
+                String line = chunk.lines[i];
+                chunk.lines[i] = null;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    chunk.rows.add(toRow(splitLine(line), columnOf, today));
+                } catch (RuntimeException e) {
+                    chunk.errors.add("Line " + (chunk.firstLine + i) + ": " + e.getMessage());
+                }
+            }
+            parsed.put(chunk);
+        }
+        return null;
+    }
+
+    private Object[] toRow(List<String> fields, int[] columnOf, LocalDate today) {
+        Object[] row = new Object[PatientStore.COLUMNS.length];
+        for (int column = 0; column < row.length; column++) {
+            int field = columnOf[column];
+            row[column] = field >= 0 && field < fields.size() ? fields.get(field).trim() : "";
+        }
+
+        if (row[PatientStore.COL_NAME].toString().isEmpty()) {
+            throw new IllegalArgumentException("Full Name is missing");
+        }
+
+        String indexNo = row[PatientStore.COL_INDEX_NO].toString().toUpperCase(Locale.ROOT);
+        if (!INDEX_NO.matcher(indexNo).matches()) {
+            throw new IllegalArgumentException("Index No \"" + indexNo + "\" is not like UPSA2023001");
+        }
+        row[PatientStore.COL_INDEX_NO] = indexNo;
+
+        String bloodGroup = row[PatientStore.COL_BLOOD_GROUP].toString().toUpperCase(Locale.ROOT);
+        if (!BLOOD_GROUPS.contains(bloodGroup)) {
+            throw new IllegalArgumentException("Blood Group \"" + bloodGroup + "\" is not one of " + BLOOD_GROUPS);
+        }
+        row[PatientStore.COL_BLOOD_GROUP] = bloodGroup;
+
+        LocalDate birthDate;
+        try {
+            birthDate = LocalDate.parse(row[PatientStore.COL_DOB].toString());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("DOB \"" + row[PatientStore.COL_DOB] + "\" is not YYYY-MM-DD");
+        }
+        if (birthDate.isAfter(today) || birthDate.getYear() < 1900) {
+            throw new IllegalArgumentException("DOB " + birthDate + " is out of range");
+        }
+        row[PatientStore.COL_DOB] = birthDate.toString();
+
+        if (row[PatientStore.COL_STATUS].toString().isEmpty()) {
+            row[PatientStore.COL_STATUS] = "Active";
+        }
+        return row;
+    }
+
+    // Table column number to CSV field position, or -1 for columns the file lacks
+    static int[] mapHeader(List<String> header) {
+        Map<String, Integer> fields = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            fields.put(key(header.get(i)), i);
+        }
+        // Common alternative spellings
+        fields.putIfAbsent("name", -1);
+        fields.putIfAbsent("fullname", fields.get("name"));
+        fields.putIfAbsent("dateofbirth", -1);
+        fields.putIfAbsent("dob", fields.get("dateofbirth"));
+        fields.putIfAbsent("medicalcondition", -1);
+        fields.putIfAbsent("condition", fields.get("medicalcondition"));
+
+        int[] columnOf = new int[PatientStore.COLUMNS.length];
+        for (int column = 0; column < columnOf.length; column++) {
+            Integer field = fields.get(key(PatientStore.COLUMNS[column]));
+            columnOf[column] = field == null || column == PatientStore.COL_ID ? -1 : field;
+        }
+        for (int required : new int[]{PatientStore.COL_NAME, PatientStore.COL_INDEX_NO,
+                PatientStore.COL_DOB, PatientStore.COL_BLOOD_GROUP}) {
+            if (columnOf[required] < 0) {
+                throw new IllegalArgumentException("The header has no " + PatientStore.COLUMNS[required] + " column");
+            }
+        }
+        return columnOf;
+    }
+
+    static List<String> splitLine(String line) {
+        List<String> fields = new ArrayList<>(PatientStore.COLUMNS.length);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String key(String name) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        return key.toString();
+    }
+
+    private static String stripBom(String line) {
+        return line.startsWith("\uFEFF") ? line.substring(1) : line;
+    }
+
+    /**
+     * Outcome of an import: rows added, rows rejected and the first few
+     * rejection reasons.
+     */
+    /**
+     * Sink that adds batches on the EDT without making the importing thread
+     * wait for each one. Batches that arrive while the EDT is busy are joined
+     * and added with a single call, so a busy table sees fewer, larger
+     * inserts. The importing thread only waits once {@link #MAX_QUEUED_ROWS}
+     * rows are queued, which keeps a slow EDT from letting rows pile up.
+     * Must not be fed from the EDT.
+     */
+    public static class EdtSink implements Consumer<List<Object[]>> {
+        public static final int MAX_QUEUED_ROWS = 4 * BATCH_ROWS;
+
+        private final Consumer<List<Object[]>> target;
+        // Guarded by this
+        private List<Object[]> queued = new ArrayList<>();
+        private boolean scheduled;
+
+        public EdtSink(Consumer<List<Object[]>> target) {
+            this.target = target;
+        }
+
+        @Override
+        public synchronized void accept(List<Object[]> batch) {
+            try {
+                while (queued.size() >= MAX_QUEUED_ROWS) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                // The import stops at its next wait; this batch is still added
+                Thread.currentThread().interrupt();
+            }
+            queued.addAll(batch);
+            if (!scheduled) {
+                scheduled = true;
+                SwingUtilities.invokeLater(this::deliver);
+            }
+        }
+
+        private void deliver() {
+            List<Object[]> rows;
+            synchronized (this) {
+                rows = queued;
+                queued = new ArrayList<>();
+                scheduled = false;
+                notifyAll();
+            }
+            target.accept(rows);
+        }
+    }
+
+    public static class Result {
+        private int imported;
+        private int rejected;
+        private boolean cancelled;
+        private final List<String> errors = new ArrayList<>();
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        void addErrors(List<String> chunkErrors) {
+            rejected += chunkErrors.size();
+            for (String error : chunkErrors) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * A run of consecutive input lines and, once parsed, their rows.
+     */
+    private static class Chunk {
+        final int sequence;
+        final int firstLine;
+        final String[] lines;
+        final int count;
+        final List<Object[]> rows;
+        final List<String> errors = new ArrayList<>();
+
+        Chunk(int sequence, int firstLine, String[] lines, int count) {
+            this.sequence = sequence;
+            this.firstLine = firstLine;
+            this.lines = lines;
+            this.count = count;
+            this.rows = new ArrayList<>(count);
+        }
+    }
+
+    /**
+     * Counts the bytes pulled from the file, for progress reporting.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
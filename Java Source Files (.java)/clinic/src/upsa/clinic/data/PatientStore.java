@@ -0,0 +1,450 @@
+package upsa.clinic.data;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Column-oriented patient registry. Free-text columns are packed into UTF-8
+ * byte arenas, DOB is an int array of epoch days and every categorical column
+ * is stored as short dictionary codes, so a row costs a few dozen bytes
+ * instead of a boxed Object[] of Strings inside a Vector.
+ *
+ * Age is never stored: it is worked out from the DOB and the store's clock
+ * whenever it is read, so it cannot go stale.
+ *
+ * Each patient lives in a slot that never changes for the lifetime of the
+ * store; deleted slots are simply marked dead. Rows (the order shown in the
+ * table) map to slots through an ascending slot list.
+ *
+ * Mutations happen on the EDT under the write lock. Background readers such
+ * as search workers must hold {@link #readLock()} while they read.
+ */
+public class PatientStore {
+
+    public static final String[] COLUMNS = {
+            "ID", "Full Name", "Index No", "Program", "Level", "Gender", "DOB", "Age",
+            "Blood Group", "Genotype", "Sickling", "Phone", "Condition", "Status"
+    };
+
+    public static final int COL_ID = 0;
+    public static final int COL_NAME = 1;
+    public static final int COL_INDEX_NO = 2;
+    public static final int COL_PROGRAM = 3;
+    public static final int COL_LEVEL = 4;
+    public static final int COL_GENDER = 5;
+    public static final int COL_DOB = 6;
+    public static final int COL_AGE = 7;
+    public static final int COL_BLOOD_GROUP = 8;
+    public static final int COL_GENOTYPE = 9;
+    public static final int COL_SICKLING = 10;
+    public static final int COL_PHONE = 11;
+    public static final int COL_CONDITION = 12;
+    public static final int COL_STATUS = 13;
+
+    // Epoch day of a patient whose date of birth is not recorded
+    public static final int NO_BIRTH_DAY = Integer.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Notified of every change so secondary indexes can stay in step with the
+     * store. An update is reported as a removal of the old values followed by
+     * an addition of the new ones, so slotRemoved can still read the old row.
+     */
+    public interface Listener {
+        void slotAdded(int slot);
+
+        void slotRemoved(int slot);
+
+        // Once a change is complete and the store consistent again, e.g. to refresh a view in one go
+        default void changed() {
+        }
+    }
+
+    private final List<Listener> listeners = new ArrayList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Clock clock;
+
+    // Dictionaries for the categorical columns, indexed by column number; shared with every store
+    private final StringDictionary[] dictionaries = new StringDictionary[COLUMNS.length];
+
+    // Free-text columns, indexed by column number
+    private final TextColumn[] texts = new TextColumn[COLUMNS.length];
+
+    // Primitive columns
+    private int[] birthDays = new int[INITIAL_CAPACITY];
+    private short[][] codes = new short[COLUMNS.length][];
+
+    // Slot whose values set() is replacing while its listeners run, else -1
+    private int replacing = -1;
+
+    private boolean[] live = new boolean[INITIAL_CAPACITY];
+    private int slotCount = 0;
+
+    // Ascending list of live slots; position in this list is the row index
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int rowCount = 0;
+
+    public PatientStore() {
+        this(Clock.systemDefaultZone());
+    }
+
+    // The clock decides what "today" is when ages are read
+    public PatientStore(Clock clock) {
+        this.clock = clock;
+        dictionaries[COL_PROGRAM] = StringDictionary.shared("program",
+                "BSc Information Technology", "BSc Business Administration", "BSc Accounting",
+                "BSc Nursing", "BSc Public Health", "Diploma in Management");
+        dictionaries[COL_LEVEL] = StringDictionary.shared("level", "100", "200", "300", "400", "Graduate");
+        dictionaries[COL_GENDER] = StringDictionary.shared("gender", "Male", "Female", "Other");
+        dictionaries[COL_BLOOD_GROUP] = StringDictionary.shared("blood group", "A+", "A-", "B+", "B-", "AB+", "AB-", "O+", "O-");
+        dictionaries[COL_GENOTYPE] = StringDictionary.shared("genotype", "AA", "AS", "SS", "AC");
+        dictionaries[COL_SICKLING] = StringDictionary.shared("sickling", "Negative", "Positive");
+        dictionaries[COL_STATUS] = StringDictionary.shared("patient status", "Active", "Inactive", "Discharged");
+
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (dictionaries[column] != null) {
+                codes[column] = new short[INITIAL_CAPACITY];
+            } else if (column != COL_DOB && column != COL_AGE) {
+                texts[column] = new TextColumn(INITIAL_CAPACITY);
+            }
+        }
+    }
+
+    public static boolean isCategorical(int column) {
+        switch (column) {
+            case COL_PROGRAM:
+            case COL_LEVEL:
+            case COL_GENDER:
+            case COL_BLOOD_GROUP:
+            case COL_GENOTYPE:
+            case COL_SICKLING:
+            case COL_STATUS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Appends a patient given in table column order and returns its slot
+    public int add(Object[] row) {
+        lock.writeLock().lock();
+        try {
+            return insert(row);
+        } finally {
+            lock.writeLock().unlock();
+            changed();
+        }
+    }
+
+    // Appends a batch of patients under a single write lock
+    public void addAll(List<Object[]> batch) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(slotCount + batch.size());
+            for (Object[] row : batch) {
+                insert(row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+            changed();
+        }
+    }
+
+    private int insert(Object[] row) {
+        short[] rowCodes = encode(row);
+        int birthDay = birthDay(row);
+        ensureCapacity(slotCount + 1);
+        int slot = slotCount++;
+        live[slot] = true;
+        write(slot, row, birthDay, rowCodes);
+
+        if (rowCount == rows.length) {
+            rows = Arrays.copyOf(rows, rowCount * 2);
+        }
+        rows[rowCount++] = slot;
+
+        for (Listener listener : listeners) {
+            listener.slotAdded(slot);
+        }
+        return slot;
+    }
+
+    // Replaces every column of a live slot
+    public void set(int slot, Object[] row) {
+        lock.writeLock().lock();
+        try {
+            checkLive(slot);
+            // Anything wrong with the row is found before the indexes let go of the slot
+            short[] rowCodes = encode(row);
+            int birthDay = birthDay(row);
+            replacing = slot;
+            for (Listener listener : listeners) {
+                listener.slotRemoved(slot);
+            }
+            try {
+                write(slot, row, birthDay, rowCodes);
+            } finally {
+                // Indexes take the slot back whatever it now holds, so they never lose a live patient
+                for (Listener listener : listeners) {
+                    listener.slotAdded(slot);
+                }
+            }
+        } finally {
+            replacing = -1;
+            lock.writeLock().unlock();
+            changed();
+        }
+    }
+
+    public void remove(int slot) {
+        lock.writeLock().lock();
+        try {
+            checkLive(slot);
+            for (Listener listener : listeners) {
+                listener.slotRemoved(slot);
+            }
+            int row = rowOf(slot);
+            System.arraycopy(rows, row + 1, rows, row, rowCount - row - 1);
+            rowCount--;
+
+            release(slot);
+        } finally {
+            lock.writeLock().unlock();
+            changed();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            // Last row first, so listeners see each removal as the tail of the table
+            while (rowCount > 0) {
+                int slot = rows[rowCount - 1];
+                for (Listener listener : listeners) {
+                    listener.slotRemoved(slot);
+                }
+                release(slot);
+                rowCount--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+            changed();
+        }
+    }
+
+    // Shared lock for readers running off the EDT
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * Exclusive lock for secondary indexes that change outside listener
+     * callbacks, e.g. age buckets moving on at midnight.
+     */
+    public Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    // Outside the lock, so listeners may hand the change to views that read the store
+    private void changed() {
+        for (Listener listener : listeners) {
+            listener.changed();
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public int size() {
+        return rowCount;
+    }
+
+    // Number of slots ever allocated, live or dead
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /**
+     * True while listeners are told about an update of the slot, as opposed
+     * to a genuine insert or removal.
+     */
+    public boolean isReplacing(int slot) {
+        return slot == replacing;
+    }
+
+    public boolean isLive(int slot) {
+        return slot >= 0 && slot < slotCount && live[slot];
+    }
+
+    public int slotAt(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+        return rows[row];
+    }
+
+    // Row index of a live slot, or -1 if the slot is dead
+    public int rowOf(int slot) {
+        int row = Arrays.binarySearch(rows, 0, rowCount, slot);
+        return row < 0 ? -1 : row;
+    }
+
+    public Object get(int slot, int column) {
+        if (column == COL_DOB) {
+            return birthDays[slot] == NO_BIRTH_DAY ? "" : LocalDate.ofEpochDay(birthDays[slot]).toString();
+        }
+        if (column == COL_AGE) {
+            return birthDays[slot] == NO_BIRTH_DAY ? null : ageOn(birthDays[slot], today());
+        }
+        if (texts[column] != null) {
+            return texts[column].get(slot);
+        }
+        return dictionaries[column].decode(codes[column][slot]);
+    }
+
+    public String getString(int slot, int column) {
+        Object value = get(slot, column);
+        return value == null ? "" : value.toString();
+    }
+
+    // Age today in whole years, or -1 if the DOB is not recorded
+    public int age(int slot) {
+        return birthDays[slot] == NO_BIRTH_DAY ? -1 : ageOn(birthDays[slot], today());
+    }
+
+    // Epoch day of the DOB, or NO_BIRTH_DAY
+    public int birthDay(int slot) {
+        return birthDays[slot];
+    }
+
+    /**
+     * Completed years between a DOB, as an epoch day, and the given date.
+     * Someone born on 29 February turns a year older on 1 March in common
+     * years.
+     */
+    public static int ageOn(int birthDay, LocalDate date) {
+        LocalDate birth = LocalDate.ofEpochDay(birthDay);
+        int age = date.getYear() - birth.getYear();
+        if (date.getMonthValue() < birth.getMonthValue()
+                || (date.getMonthValue() == birth.getMonthValue() && date.getDayOfMonth() < birth.getDayOfMonth())) {
+            age--;
+        }
+        return age;
+    }
+
+    public int code(int slot, int column) {
+        return codes[column][slot];
+    }
+
+    public StringDictionary dictionary(int column) {
+        return dictionaries[column];
+    }
+
+    // Counts live rows whose categorical column holds the given value
+    public int count(int column, String value) {
+        int code = dictionaries[column].lookup(value);
+        if (code < 0) {
+            return 0;
+        }
+        short[] columnCodes = codes[column];
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (columnCodes[rows[row]] == code) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Parsed before anything is written, so a bad DOB leaves the slot untouched
+    private static int birthDay(Object[] row) {
+        Object dob = row[COL_DOB];
+        if (dob instanceof LocalDate) {
+            return (int) ((LocalDate) dob).toEpochDay();
+        }
+        String text = text(dob);
+        return text.isEmpty() ? NO_BIRTH_DAY : (int) LocalDate.parse(text).toEpochDay();
+    }
+
+    // Dictionary codes of the row's categorical columns, checked before anything is written
+    private short[] encode(Object[] row) {
+        if (row.length < COLUMNS.length) {
+            throw new IllegalArgumentException("Expected " + COLUMNS.length + " columns, got " + row.length);
+        }
+        short[] rowCodes = new short[COLUMNS.length];
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (codes[column] != null) {
+                int code = dictionaries[column].encode(text(row[column]));
+                if (code > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Too many distinct values in column " + COLUMNS[column]);
+                }
+                rowCodes[column] = (short) code;
+            }
+        }
+        return rowCodes;
+    }
+
+    // The Age column is derived, so whatever the row holds there is ignored
+    private void write(int slot, Object[] row, int birthDay, short[] rowCodes) {
+        birthDays[slot] = birthDay;
+
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (texts[column] != null) {
+                texts[column].set(slot, text(row[column]));
+            } else if (codes[column] != null) {
+                codes[column][slot] = rowCodes[column];
+            }
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= live.length) {
+            return;
+        }
+        int capacity = Math.max(needed, live.length * 2);
+        birthDays = Arrays.copyOf(birthDays, capacity);
+        live = Arrays.copyOf(live, capacity);
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (codes[column] != null) {
+                codes[column] = Arrays.copyOf(codes[column], capacity);
+            } else if (texts[column] != null) {
+                texts[column].ensureCapacity(capacity);
+            }
+        }
+    }
+
+    // Marks a slot dead and frees its free-text bytes for compaction
+    private void release(int slot) {
+        live[slot] = false;
+        for (TextColumn text : texts) {
+            if (text != null) {
+                text.clear(slot);
+            }
+        }
+    }
+
+    private void checkLive(int slot) {
+        if (!isLive(slot)) {
+            throw new IllegalArgumentException("No patient in slot " + slot);
+        }
+    }
+
+    private static String text(Object value) {
+        return value == null ? "" : value.toString().trim();
+    }
+}
@@ -0,0 +1,228 @@
+package upsa.clinic.data;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+
+/**
+ * Read-only table model that presents a {@link PatientStore} to a JTable
+ * without copying any rows. A filter can restrict the visible rows to a set
+ * of slots, e.g. the result of a {@link TrigramIndex} search or the ranked
+ * candidates of a {@link FuzzyNameIndex} lookup.
+ *
+ * The model listens to the store, so changes made to it directly, e.g. a
+ * journal replayed or entries shipped from the primary desk, reach the
+ * table as well. Each change to the store fires one event.
+ */
+public class PatientTableModel extends AbstractTableModel implements PatientStore.Listener {
+
+    private final PatientStore store;
+
+    // Visible slots in display order, or null to show every patient
+    private int[] filter;
+    private int filterSize;
+
+    // Rows touched by the store change under way, fired once it is complete; -1 if none
+    private int insertedFirst = -1;
+    private int insertedLast = -1;
+    private int updatedFirst = -1;
+    private int updatedLast = -1;
+    private int deletedFirst = -1;
+    private int deletedLast = -1;
+    private boolean removing;
+    // Rows went that do not make one range, so the whole view is refreshed
+    private boolean deletedMany;
+
+    public PatientTableModel(PatientStore store) {
+        this.store = store;
+        store.addListener(this);
+    }
+
+    public PatientStore getStore() {
+        return store;
+    }
+
+    // Shows only the given slots, in order; slots deleted since the search are skipped
+    public void setFilter(int[] slots) {
+        int live = 0;
+        for (int slot : slots) {
+            if (store.isLive(slot)) {
+                slots[live++] = slot;
+            }
+        }
+        filter = slots;
+        filterSize = live;
+        fireTableDataChanged();
+    }
+
+    public void clearFilter() {
+        if (filter != null) {
+            filter = null;
+            fireTableDataChanged();
+        }
+    }
+
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return filter != null ? filterSize : store.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return PatientStore.COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return PatientStore.COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == PatientStore.COL_AGE ? Integer.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // Make table read-only
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return store.get(slotAt(row), column);
+    }
+
+    public int slotAt(int row) {
+        if (filter != null) {
+            if (row < 0 || row >= filterSize) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + filterSize);
+            }
+            return filter[row];
+        }
+        return store.slotAt(row);
+    }
+
+    // Row index of a slot in the current view, or -1 if it is not visible
+    public int rowOf(int slot) {
+        if (filter != null) {
+            // Ranked filters are not in slot order
+            for (int row = 0; row < filterSize; row++) {
+                if (filter[row] == slot) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+        return store.rowOf(slot);
+    }
+
+    // Adds a patient; while a filter is active it stays hidden until the next search
+    public void addRow(Object[] values) {
+        store.add(values);
+    }
+
+    // Adds a batch of patients with a single insert event
+    public void addRows(List<Object[]> batch) {
+        if (!batch.isEmpty()) {
+            store.addAll(batch);
+        }
+    }
+
+    // Replaces a whole row with a single change event
+    public void setRow(int row, Object[] values) {
+        store.set(slotAt(row), values);
+    }
+
+    public void removeRow(int row) {
+        store.remove(slotAt(row));
+    }
+
+    public void clear() {
+        store.clear();
+        clearFilter();
+    }
+
+    @Override
+    public void slotAdded(int slot) {
+        if (store.isReplacing(slot)) {
+            int row = rowOf(slot);
+            if (row >= 0) {
+                updatedFirst = updatedFirst < 0 ? row : Math.min(updatedFirst, row);
+                updatedLast = Math.max(updatedLast, row);
+            }
+        } else if (filter == null) {
+            // Patients are only ever added at the end
+            int row = store.size() - 1;
+            insertedFirst = insertedFirst < 0 ? row : insertedFirst;
+            insertedLast = row;
+        }
+    }
+
+    @Override
+    public void slotRemoved(int slot) {
+        // An update is reported when the new values are added
+        if (store.isReplacing(slot) || deletedMany) {
+            return;
+        }
+        if (filter != null && removing) {
+            // Ranked filters are searched row by row, so a batch is swept once it is complete
+            deletedMany = true;
+            return;
+        }
+        removing = true;
+        int row = rowOf(slot);
+        if (row < 0) {
+            return;
+        }
+        if (deletedFirst < 0) {
+            deletedFirst = row;
+            deletedLast = row;
+        } else if (row == deletedFirst - 1) {
+            // The store is cleared from the last row back
+            deletedFirst = row;
+        } else {
+            deletedMany = true;
+        }
+    }
+
+    @Override
+    public void changed() {
+        if (deletedMany) {
+            if (filter != null) {
+                sweepFilter();
+            }
+            fireTableDataChanged();
+        } else if (deletedFirst >= 0) {
+            if (filter != null) {
+                System.arraycopy(filter, deletedLast + 1, filter, deletedFirst, filterSize - deletedLast - 1);
+                filterSize -= deletedLast - deletedFirst + 1;
+            }
+            fireTableRowsDeleted(deletedFirst, deletedLast);
+        }
+        if (insertedFirst >= 0) {
+            fireTableRowsInserted(insertedFirst, insertedLast);
+        }
+        if (updatedFirst >= 0) {
+            fireTableRowsUpdated(updatedFirst, updatedLast);
+        }
+        insertedFirst = insertedLast = -1;
+        updatedFirst = updatedLast = -1;
+        deletedFirst = deletedLast = -1;
+        removing = false;
+        deletedMany = false;
+    }
+
+    // Drops slots no longer live from the filter, keeping its order
+    private void sweepFilter() {
+        int live = 0;
+        for (int row = 0; row < filterSize; row++) {
+            if (store.isLive(filter[row])) {
+                filter[live++] = filter[row];
+            }
+        }
+        filterSize = live;
+    }
+}
@@ -0,0 +1,707 @@
+package upsa.clinic.data;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.DefaultTableModel;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saved tables: each is restored at startup from its latest snapshot plus
+ * the journal entries after it, journaled from then on, and snapshotted
+ * again every few minutes if it changed.
+ *
+ * Once every table opened in this session has a snapshot, the journal is
+ * moved to a new segment and the segments all snapshots cover are deleted,
+ * so the journal only ever holds the last few minutes of changes and
+ * startup never replays a long log. Nothing is deleted while a table that
+ * could not be restored is left unopened, as its entries are still needed.
+ */
+public final class Persistence {
+
+    public static final long SNAPSHOT_MINUTES = 5;
+
+    // Rows handed to PatientStore.addAll at a time while restoring
+    private static final int RESTORE_BATCH = 10_000;
+
+    private static final Map<String, OpenTable> tables = new ConcurrentHashMap<>();
+    // Tables whose saved rows could not be read this session; their journal entries must be kept
+    private static final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService snapshotter;
+
+    private Persistence() {
+    }
+
+    /**
+     * Restores the model's rows and journals its changes from now on.
+     * Returns false when nothing was saved for the table yet, so the caller
+     * can fill it with starting data. If the saved rows cannot be read, the
+     * error is logged, the table is left empty and not journaled, so
+     * whatever is on disk stays as it is for the next start.
+     */
+    public static boolean open(String name, DefaultTableModel model) {
+        return open(new ModelTable(name, model));
+    }
+
+    // As for a table model; the store should have no rows and no listeners yet
+    public static boolean open(String name, PatientStore store) {
+        return open(new StoreTable(name, store));
+    }
+
+    /**
+     * Snapshots every table changed since its last snapshot, then drops the
+     * journal segments all snapshots cover, unless a table could not be
+     * restored this session. Runs on its own every
+     * {@link #SNAPSHOT_MINUTES}; must not be called on the EDT.
+     */
+    public static synchronized void snapshot() throws IOException {
+        Journal journal = Journal.shared();
+        IOException failed = null;
+        for (OpenTable table : tables.values()) {
+            if (!table.dirty) {
+                continue;
+            }
+            table.dirty = false;
+            try {
+                table.snapshotPosition = table.writeSnapshot(journal);
+            } catch (IOException e) {
+                table.dirty = true;
+                failed = e;
+            }
+        }
+        if (failed != null) {
+            throw failed;
+        }
+        if (!unreadable.isEmpty()) {
+            return;
+        }
+        long covered = Long.MAX_VALUE;
+        for (OpenTable table : tables.values()) {
+            covered = Math.min(covered, table.snapshotPosition);
+        }
+        if (covered > 0 && covered != Long.MAX_VALUE) {
+            journal.rotate();
+            journal.deleteSegmentsBefore(covered);
+        }
+    }
+
+    /**
+     * Adds the snapshots and journal segments to a view being frozen for a
+     * backup. Holds off the snapshot writer meanwhile, so no snapshot moves
+     * on and no segment a linked snapshot needs is deleted; the journal is
+     * synced in between, so the segments hold every entry up to at least
+     * each snapshot's position.
+     */
+    static synchronized void addSavedFiles(Path home, BackupView view) throws IOException {
+        view.addTree(home.resolve("snapshots"), "snapshots");
+        Journal.shared().sync();
+        view.addTree(home.resolve("journal"), "journal");
+    }
+
+    public static Path snapshotFile(String name) {
+        return snapshotFile(ClinicFiles.home(), name);
+    }
+
+    /**
+     * A table's rows as saved under another data home, e.g. one rebuilt from
+     * a backup: its snapshot plus the journal entries after it. Returns null
+     * if nothing was saved for the table there.
+     */
+    public static List<Object[]> readSaved(Path home, String name) throws IOException {
+        ListTable table = new ListTable(name);
+        return table.restore(snapshotFile(home, name), home.resolve("journal")) ? table.rows : null;
+    }
+
+    /**
+     * Replaces every row of a table opened this session, journaling the
+     * change like any edit. Must be called on the EDT, which owns the table
+     * models; rows are in the table's column order.
+     */
+    public static void replace(String name, List<Object[]> rows) throws IOException {
+        OpenTable table = tables.get(name);
+        if (table == null) {
+            throw new IOException(name + " is not open, so its rows cannot be replaced");
+        }
+        table.replace(rows);
+    }
+
+    /**
+     * Copies every open table for a desk replicating this one, each as a
+     * RESET entry whose position is the journal position its rows are as of,
+     * like a snapshot's. Must not be called on the EDT.
+     */
+    static List<Journal.Entry> copyTables(Journal journal) throws IOException {
+        List<Journal.Entry> copies = new ArrayList<>();
+        for (OpenTable table : tables.values()) {
+            long[] position = new long[1];
+            Journal.Entry copy = Journal.Entry.reset(table.name, table.copyRows(journal, position));
+            copy.setPosition(position[0]);
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Applies an entry shipped from the primary desk to the open table it
+     * names, telling the table's listeners as for an edit made here, so it
+     * is journaled here as well. Returns false for a table not open on this
+     * desk. Must be called on the EDT. An entry that does not fit the table,
+     * e.g. because it was edited here meanwhile, fails and changes nothing.
+     */
+    static boolean applyShipped(Journal.Entry entry) throws IOException {
+        OpenTable table = tables.get(entry.getTable());
+        if (table == null) {
+            return false;
+        }
+        if (entry.getOp() == Journal.RESET) {
+            table.replace(Arrays.asList(entry.getRows()));
+        } else {
+            table.apply(entry);
+            table.applied(entry);
+        }
+        return true;
+    }
+
+    // How many changes an open table has seen this session, or -1 if it is not open
+    public static long changeCount(String name) {
+        OpenTable table = tables.get(name);
+        return table == null ? -1 : table.changes;
+    }
+
+    /**
+     * A copy of an open table's rows for a reader off the EDT, or null if
+     * the table is not open. The copy holds at least the changes counted by
+     * {@link #changeCount} just before the call. Must not be called on the
+     * EDT.
+     */
+    public static Object[][] copyRows(String name) throws IOException {
+        OpenTable table = tables.get(name);
+        return table == null ? null : table.copyRows(Journal.shared(), new long[1]);
+    }
+
+    private static Path snapshotFile(Path home, String name) {
+        return home.resolve("snapshots").resolve(name + ".snap");
+    }
+
+    private static boolean open(OpenTable table) {
+        Journal journal = Journal.shared();
+        boolean restored;
+        try {
+            if (journal.getFailure() != null) {
+                throw journal.getFailure();
+            }
+            restored = table.restore(snapshotFile(table.name), journal.getDirectory());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Cannot restore " + table.name + ", changes will not be saved: " + e);
+            unreadable.add(table.name);
+            table.clear();
+            return false;
+        }
+        unreadable.remove(table.name);
+        table.bind(journal);
+        tables.put(table.name, table);
+        startSnapshots();
+        return restored;
+    }
+
+    private static synchronized void startSnapshots() {
+        if (snapshotter != null) {
+            return;
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot failed, the journal keeps every change meanwhile: " + e);
+            }
+        }, SNAPSHOT_MINUTES, SNAPSHOT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * One saved table as replayed from its snapshot and journal. Replay works
+     * on row indices exactly as the journal recorded them; the subclasses
+     * apply them to their own kind of rows.
+     */
+    private abstract static class Table {
+        final String name;
+        // Journal position of the latest snapshot, or -1 before the first one
+        volatile long snapshotPosition = -1;
+        // Journal entries replayed on top of the snapshot
+        long replayed;
+
+        Table(String name) {
+            this.name = name;
+        }
+
+        boolean restore(Path snapshot, Path journal) throws IOException {
+            long[] entries = {0};
+            snapshotPosition = TableSnapshot.read(snapshot, this::append);
+            IOException[] failure = {null};
+            Journal.read(journal, Math.max(0, snapshotPosition), entry -> {
+                if (failure[0] != null || !entry.getTable().equals(name)) {
+                    return;
+                }
+                try {
+                    apply(entry);
+                    entries[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            finish();
+            replayed = entries[0];
+            return snapshotPosition >= 0 || entries[0] > 0;
+        }
+
+        void apply(Journal.Entry entry) throws IOException {
+            switch (entry.getOp()) {
+                case Journal.RESET:
+                    clear();
+                    for (Object[] values : entry.getRows()) {
+                        append(values);
+                    }
+                    break;
+                case Journal.INSERT:
+                    insert(entry.getRow(), entry.getRows());
+                    break;
+                case Journal.UPDATE:
+                    update(entry.getRow(), entry.getColumn(), entry.getRows()[0]);
+                    break;
+                case Journal.DELETE:
+                    delete(entry.getRow(), entry.getLastRow());
+                    break;
+                default:
+                    throw new IOException("Unknown journal operation " + entry.getOp() + " for " + name);
+            }
+        }
+
+        abstract void append(Object[] values);
+
+        abstract void insert(int row, Object[][] rows) throws IOException;
+
+        // Whole row when column is Journal.ALL_COLUMNS, otherwise values holds the one cell
+        abstract void update(int row, int column, Object[] values) throws IOException;
+
+        abstract void delete(int first, int last) throws IOException;
+
+        abstract void clear();
+
+        // Called once restoring is done
+        abstract void finish();
+    }
+
+    // A table opened this session: journaled, snapshotted, and open to being replaced or copied for a replica
+    private abstract static class OpenTable extends Table {
+        volatile boolean dirty;
+        // Changes since the table was bound; only ever written by the one thread allowed to edit it at a time
+        volatile long changes;
+
+        OpenTable(String name) {
+            super(name);
+        }
+
+        @Override
+        boolean restore(Path snapshot, Path journal) throws IOException {
+            boolean restored = super.restore(snapshot, journal);
+            // Without a snapshot the first periodic run writes one, so the journal can be trimmed
+            dirty = snapshotPosition < 0 || replayed > 0;
+            return restored;
+        }
+
+        // Swaps in new rows once the table is bound, telling its listeners
+        abstract void replace(List<Object[]> rows);
+
+        // Tells the bound table's listeners of an entry just applied to it
+        abstract void applied(Journal.Entry entry);
+
+        // Copies the rows and stores the journal position they are as of
+        abstract Object[][] copyRows(Journal journal, long[] position) throws IOException;
+
+        abstract void bind(Journal journal);
+
+        // Writes a snapshot and returns the journal position it covers
+        abstract long writeSnapshot(Journal journal) throws IOException;
+    }
+
+    private static class ModelTable extends OpenTable {
+        private final DefaultTableModel model;
+        // Set once the table is bound
+        private Journal journal;
+
+        ModelTable(String name, DefaultTableModel model) {
+            super(name);
+            this.model = model;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Vector<Vector<Object>> data() {
+            return (Vector<Vector<Object>>) (Vector<?>) model.getDataVector();
+        }
+
+        private Vector<Object> toRow(Object[] values) {
+            // A column added since the rows were saved starts out empty
+            Vector<Object> row = new Vector<>(Arrays.asList(values));
+            row.setSize(model.getColumnCount());
+            return row;
+        }
+
+        @Override
+        void append(Object[] values) {
+            data().add(toRow(values));
+        }
+
+        @Override
+        void insert(int row, Object[][] rows) throws IOException {
+            checkRow(row, data().size());
+            List<Vector<Object>> inserted = new ArrayList<>(rows.length);
+            for (Object[] values : rows) {
+                inserted.add(toRow(values));
+            }
+            data().addAll(row, inserted);
+        }
+
+        @Override
+        void update(int row, int column, Object[] values) throws IOException {
+            checkRow(row, data().size() - 1);
+            if (column == Journal.ALL_COLUMNS) {
+                data().set(row, toRow(values));
+            } else if (column < model.getColumnCount()) {
+                data().get(row).set(column, values[0]);
+            }
+        }
+
+        @Override
+        void delete(int first, int last) throws IOException {
+            checkRow(last, data().size() - 1);
+            data().subList(first, last + 1).clear();
+        }
+
+        @Override
+        void clear() {
+            data().clear();
+        }
+
+        @Override
+        void replace(List<Object[]> rows) {
+            clear();
+            for (Object[] values : rows) {
+                append(values);
+            }
+            model.fireTableDataChanged();
+            // A refresh journals nothing, so the new rows are journaled here as one RESET
+            dirty = true;
+            changes++;
+            if (journal != null) {
+                journal.reset(name, model);
+            }
+        }
+
+        @Override
+        void finish() {
+            model.fireTableDataChanged();
+        }
+
+        @Override
+        void applied(Journal.Entry entry) {
+            switch (entry.getOp()) {
+                case Journal.INSERT:
+                    model.fireTableRowsInserted(entry.getRow(), entry.getLastRow());
+                    break;
+                case Journal.DELETE:
+                    model.fireTableRowsDeleted(entry.getRow(), entry.getLastRow());
+                    break;
+                default:
+                    if (entry.getColumn() == Journal.ALL_COLUMNS) {
+                        model.fireTableRowsUpdated(entry.getRow(), entry.getRow());
+                    } else if (entry.getColumn() < model.getColumnCount()) {
+                        model.fireTableCellUpdated(entry.getRow(), entry.getColumn());
+                    }
+            }
+        }
+
+        @Override
+        void bind(Journal journal) {
+            this.journal = journal;
+            journal.bind(name, model);
+            model.addTableModelListener(e -> {
+                if (!Journal.isRefresh(e)) {
+                    dirty = true;
+                    changes++;
+                }
+            });
+        }
+
+        @Override
+        Object[][] copyRows(Journal journal, long[] position) throws IOException {
+            // The model belongs to the EDT, which is also the only thread journaling it
+            Object[][][] rows = new Object[1][][];
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    rows[0] = Journal.rows(model, 0, model.getRowCount() - 1);
+                    position[0] = journal.position();
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while copying " + name, e);
+            } catch (InvocationTargetException e) {
+                throw new IOException("Cannot copy " + name, e.getCause());
+            }
+            return rows[0];
+        }
+
+        @Override
+        long writeSnapshot(Journal journal) throws IOException {
+            long[] position = new long[1];
+            Object[][] rows = copyRows(journal, position);
+            try (TableSnapshot.Writer writer = TableSnapshot.create(snapshotFile(name), position[0],
+                    model.getColumnCount(), rows.length)) {
+                for (Object[] values : rows) {
+                    writer.row(values);
+                }
+                writer.commit();
+            }
+            return position[0];
+        }
+
+        private void checkRow(int row, int max) throws IOException {
+            if (row < 0 || row > max) {
+                throw new IOException("Journal of " + name + " refers to row " + row + " of " + data().size());
+            }
+        }
+    }
+
+    private static class StoreTable extends OpenTable {
+        private final PatientStore store;
+        private final List<Object[]> pending = new ArrayList<>();
+        // Set once the table is bound
+        private Journal journal;
+        private PatientStore.Listener journaling;
+
+        StoreTable(String name, PatientStore store) {
+            super(name);
+            this.store = store;
+        }
+
+        @Override
+        void append(Object[] values) {
+            pending.add(values);
+            if (pending.size() == RESTORE_BATCH) {
+                flush();
+            }
+        }
+
+        @Override
+        void insert(int row, Object[][] rows) throws IOException {
+            // Patients are only ever added at the end
+            if (row != store.size() + pending.size()) {
+                throw new IOException("Journal of " + name + " inserts at row " + row + " of " + (store.size() + pending.size()));
+            }
+            for (Object[] values : rows) {
+                append(values);
+            }
+        }
+
+        @Override
+        void update(int row, int column, Object[] values) throws IOException {
+            flush();
+            int slot = slot(row);
+            if (column == Journal.ALL_COLUMNS) {
+                store.set(slot, values);
+            } else {
+                Object[] updated = Journal.patientRow(store, slot);
+                updated[column] = values[0];
+                store.set(slot, updated);
+            }
+        }
+
+        @Override
+        void delete(int first, int last) throws IOException {
+            flush();
+            for (int row = last; row >= first; row--) {
+                store.remove(slot(row));
+            }
+        }
+
+        @Override
+        void clear() {
+            pending.clear();
+            store.clear();
+        }
+
+        @Override
+        void replace(List<Object[]> rows) {
+            // One RESET instead of a DELETE and an INSERT per patient
+            store.removeListener(journaling);
+            try {
+                store.clear();
+                for (int from = 0; from < rows.size(); from += RESTORE_BATCH) {
+                    store.addAll(rows.subList(from, Math.min(rows.size(), from + RESTORE_BATCH)));
+                }
+            } finally {
+                store.addListener(journaling);
+                // Taken after journaling resumes, so it holds any edit made meanwhile
+                journal.reset(name, store);
+            }
+        }
+
+        @Override
+        void finish() {
+            flush();
+        }
+
+        @Override
+        void applied(Journal.Entry entry) {
+            // The store told its listeners itself; only inserts wait to be added
+            flush();
+        }
+
+        @Override
+        Object[][] copyRows(Journal journal, long[] position) {
+            // Patients are journaled under the write lock, so no entry for them can slip in meanwhile
+            store.readLock().lock();
+            try {
+                position[0] = journal.position();
+                Object[][] rows = new Object[store.size()][];
+                for (int row = 0; row < rows.length; row++) {
+                    rows[row] = Journal.patientRow(store, store.slotAt(row));
+                }
+                return rows;
+            } finally {
+                store.readLock().unlock();
+            }
+        }
+
+        @Override
+        void bind(Journal journal) {
+            this.journal = journal;
+            journaling = journal.bind(name, store);
+            store.addListener(new PatientStore.Listener() {
+                @Override
+                public void slotAdded(int slot) {
+                    dirty = true;
+                    changes++;
+                }
+
+                @Override
+                public void slotRemoved(int slot) {
+                    dirty = true;
+                    changes++;
+                }
+            });
+        }
+
+        @Override
+        long writeSnapshot(Journal journal) throws IOException {
+            TableSnapshot.Writer writer;
+            long position;
+            // Patients are journaled under the write lock, so no entry for them can slip in meanwhile
+            store.readLock().lock();
+            try {
+                position = journal.position();
+                writer = TableSnapshot.create(snapshotFile(name), position, PatientStore.COLUMNS.length, store.size());
+                try {
+                    for (int row = 0; row < store.size(); row++) {
+                        writer.row(Journal.patientRow(store, store.slotAt(row)));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    writer.close();
+                    throw e;
+                }
+            } finally {
+                store.readLock().unlock();
+            }
+            // The slow part, the sync, happens without holding up edits
+            try (TableSnapshot.Writer committing = writer) {
+                committing.commit();
+            }
+            return position;
+        }
+
+        private void flush() {
+            if (!pending.isEmpty()) {
+                store.addAll(pending);
+                pending.clear();
+            }
+        }
+
+        private int slot(int row) throws IOException {
+            if (row < 0 || row >= store.size()) {
+                throw new IOException("Journal of " + name + " refers to row " + row + " of " + store.size());
+            }
+            return store.slotAt(row);
+        }
+    }
+
+    // Rows read into a list, for a table saved under another data home; only ever replayed
+    private static class ListTable extends Table {
+        final List<Object[]> rows = new ArrayList<>();
+
+        ListTable(String name) {
+            super(name);
+        }
+
+        @Override
+        void append(Object[] values) {
+            rows.add(values);
+        }
+
+        @Override
+        void insert(int row, Object[][] inserted) throws IOException {
+            checkRow(row, rows.size());
+            rows.addAll(row, Arrays.asList(inserted));
+        }
+
+        @Override
+        void update(int row, int column, Object[] values) throws IOException {
+            checkRow(row, rows.size() - 1);
+            if (column == Journal.ALL_COLUMNS) {
+                rows.set(row, values);
+            } else {
+                Object[] updated = rows.get(row);
+                updated = Arrays.copyOf(updated, Math.max(updated.length, column + 1));
+                updated[column] = values[0];
+                rows.set(row, updated);
+            }
+        }
+
+        @Override
+        void delete(int first, int last) throws IOException {
+            checkRow(last, rows.size() - 1);
+            rows.subList(first, last + 1).clear();
+        }
+
+        @Override
+        void clear() {
+            rows.clear();
+        }
+
+        @Override
+        void finish() {
+        }
+
+        private void checkRow(int row, int max) throws IOException {
+            if (row < 0 || row > max) {
+                throw new IOException("Journal of " + name + " refers to row " + row + " of " + rows.size());
+            }
+        }
+    }
+}
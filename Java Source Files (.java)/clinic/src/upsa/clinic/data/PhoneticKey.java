@@ -0,0 +1,173 @@
+package upsa.clinic.data;
+
+/**
+ * Metaphone-style phonetic key for a single name token. Names that sound the
+ * same when read aloud at the front desk ("Serwaa"/"Serwah", "Mensah"/"Mensa",
+ * "Kwame"/"Kwamee", "Philip"/"Filip") share a key.
+ *
+ * This is a reduced rule set rather than full Double Metaphone: it covers the
+ * consonant clusters and silent letters that occur in Ghanaian and English
+ * names and yields one key per token.
+ */
+public final class PhoneticKey {
+
+    private PhoneticKey() {
+    }
+
+    public static String of(String token) {
+        String word = letters(token);
+        if (word.isEmpty()) {
+            return "";
+        }
+
+        // Silent initial letters
+        if (word.startsWith("KN") || word.startsWith("GN") || word.startsWith("PN") || word.startsWith("WR")) {
+            word = word.substring(1);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            char next = i + 1 < word.length() ? word.charAt(i + 1) : 0;
+            char previous = i > 0 ? word.charAt(i - 1) : 0;
+
+            // Doubled letters sound like one
+            if (c == previous && c != 'C') {
+                continue;
+            }
+
+            switch (c) {
+                case 'A': case 'E': case 'I': case 'O': case 'U':
+                    // Only a leading vowel is significant
+                    if (i == 0) {
+                        append(key, 'A');
+                    }
+                    break;
+                case 'B':
+                    // Silent in a trailing "MB"
+                    if (!(previous == 'M' && next == 0)) {
+                        append(key, 'B');
+                    }
+                    break;
+                case 'C':
+                    if (next == 'H') {
+                        append(key, 'X');
+                        i++;
+                    } else if (next == 'I' || next == 'E' || next == 'Y') {
+                        append(key, 'S');
+                    } else if (next == 'K') {
+                        append(key, 'K');
+                        i++;
+                    } else {
+                        append(key, 'K');
+                    }
+                    break;
+                case 'D':
+                    if (next == 'G' && i + 2 < word.length() && "EIY".indexOf(word.charAt(i + 2)) >= 0) {
+                        append(key, 'J');
+                        i++;
+                    } else {
+                        append(key, 'T');
+                    }
+                    break;
+                case 'G':
+                    if (next == 'H') {
+                        // "GH" is silent unless it starts the word
+                        if (i == 0) {
+                            append(key, 'K');
+                        }
+                        i++;
+                    } else if (next == 'N' && i + 2 == word.length()) {
+                        // Silent in a trailing "GN"
+                        break;
+                    } else if (next == 'I' || next == 'E' || next == 'Y') {
+                        append(key, 'J');
+                    } else {
+                        append(key, 'K');
+                    }
+                    break;
+                case 'H':
+                    // Only sounded before a vowel and not after one
+                    if (isVowel(next) && !isVowel(previous) && "CGPST".indexOf(previous) < 0) {
+                        append(key, 'H');
+                    }
+                    break;
+                case 'K':
+                    append(key, 'K');
+                    break;
+                case 'P':
+                    if (next == 'H') {
+                        append(key, 'F');
+                        i++;
+                    } else {
+                        append(key, 'P');
+                    }
+                    break;
+                case 'Q':
+                    append(key, 'K');
+                    break;
+                case 'S':
+                    if (next == 'H') {
+                        append(key, 'X');
+                        i++;
+                    } else if (next == 'C' && i + 2 < word.length() && word.charAt(i + 2) == 'H') {
+                        append(key, 'X');
+                        i += 2;
+                    } else {
+                        append(key, 'S');
+                    }
+                    break;
+                case 'T':
+                    if (next == 'H') {
+                        append(key, '0');
+                        i++;
+                    } else {
+                        append(key, 'T');
+                    }
+                    break;
+                case 'V':
+                    append(key, 'F');
+                    break;
+                case 'W':
+                case 'Y':
+                    // Semi-vowels only count before a vowel
+                    if (isVowel(next)) {
+                        append(key, c);
+                    }
+                    break;
+                case 'X':
+                    append(key, 'K');
+                    append(key, 'S');
+                    break;
+                case 'Z':
+                    append(key, 'S');
+                    break;
+                default:
+                    append(key, c);
+                    break;
+            }
+        }
+        return key.toString();
+    }
+
+    private static void append(StringBuilder key, char code) {
+        if (key.length() == 0 || key.charAt(key.length() - 1) != code) {
+            key.append(code);
+        }
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'A' || c == 'E' || c == 'I' || c == 'O' || c == 'U';
+    }
+
+    private static String letters(String token) {
+        StringBuilder letters = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            char c = Character.toUpperCase(token.charAt(i));
+            if (c >= 'A' && c <= 'Z') {
+                letters.append(c);
+            }
+        }
+        return letters.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package upsa.clinic.data;
+
+/**
+ * Token bucket over bytes. Callers take tokens for what they read or write
+ * and wait once the bucket is empty; up to one second's worth can go out in
+ * a burst after a quiet spell.
+ */
+final class RateLimiter {
+
+    private final double bytesPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    // Long.MAX_VALUE for no limit
+    RateLimiter(long bytesPerSecond) {
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.capacity = bytesPerSecond;
+        this.tokens = capacity;
+    }
+
+    boolean isUnlimited() {
+        return capacity == Long.MAX_VALUE;
+    }
+
+    // Waiting callers queue on the monitor, so a burst of workers is spread out rather than let through together
+    synchronized void acquire(long bytes) throws InterruptedException {
+        if (isUnlimited()) {
+            return;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilled) * bytesPerNano);
+        refilled = now;
+        tokens -= bytes;
+        if (tokens < 0) {
+            long waitNanos = (long) (-tokens / bytesPerNano);
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+}
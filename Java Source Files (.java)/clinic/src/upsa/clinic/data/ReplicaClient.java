@@ -0,0 +1,225 @@
+package upsa.clinic.data;
+
+import javax.swing.SwingUtilities;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A replica desk's side of {@link Replication}: follows the primary and
+ * applies each shipped batch to the tables open here, in one EDT turn per
+ * batch, then acknowledges it.
+ *
+ * Until it has a full copy of the primary's tables it asks for one; after
+ * that, a dropped connection resumes from the last change applied. A
+ * change that does not fit the table here gets a fresh copy instead. Apply
+ * is waited for before the next batch is read, so a replica whose EDT falls
+ * behind slows its connection rather than queueing without bound.
+ */
+public class ReplicaClient implements Closeable {
+
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final String host;
+    private final int port;
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    // Receiving thread only, besides the statistics
+    private long session = -1;
+    private volatile long applied = -1;
+    private volatile long primaryPosition = -1;
+    private volatile boolean connected;
+    // Position each table was copied as of; changes at or before it are already in the copy
+    private final Map<String, Long> copiedAt = new HashMap<>();
+
+    private volatile long batches;
+    private volatile long entries;
+    private volatile long copies;
+    private volatile long reconnects;
+
+    public ReplicaClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public void start() {
+        Thread receiver = new Thread(this::receiveLoop, "replica-of-" + host + ":" + port);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    // Primary journal position of the last change applied here, or -1 before the first copy
+    public long getApplied() {
+        return applied;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public String describeStats() {
+        long behind = Math.max(0, primaryPosition - applied);
+        return String.format("Replica of %s:%d: %s, %,d entries applied in %,d batches, %,d copies, "
+                        + "%,d reconnects, %,d KB behind",
+                host, port, connected ? "connected" : "disconnected", entries, batches, copies, reconnects,
+                behind / 1024);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void receiveLoop() {
+        long backoff = 500;
+        while (!closed) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(host, port), Replication.TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                connection.setSoTimeout(Replication.TIMEOUT_MILLIS);
+                backoff = 500;
+                follow(connection);
+            } catch (IOException e) {
+                if (!closed && connected) {
+                    System.err.println("Lost the primary at " + host + ":" + port + ", reconnecting: " + e.getMessage());
+                }
+            } finally {
+                connected = false;
+            }
+            if (closed) {
+                return;
+            }
+            reconnects++;
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+        }
+    }
+
+    private void follow(Socket connection) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 65536));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        out.writeInt(Replication.MAGIC);
+        out.writeShort(Replication.VERSION);
+        out.writeLong(session);
+        out.writeLong(applied);
+        out.flush();
+
+        if (in.readByte() != Replication.START) {
+            throw new IOException("The primary did not start the stream");
+        }
+        long primarySession = in.readLong();
+        long from = in.readLong();
+        boolean copying = in.readBoolean();
+        if (copying || primarySession != session) {
+            // Until the copy is complete, a reconnect asks for another
+            session = primarySession;
+            applied = -1;
+            copiedAt.clear();
+        }
+        connected = true;
+
+        while (!closed) {
+            byte type = in.readByte();
+            long sent = 0;
+            if (type == Replication.TABLE) {
+                long position = in.readLong();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                Journal.Entry copy = Journal.decode(bytes, 0, bytes.length, position - bytes.length).get(0);
+                copiedAt.put(copy.getTable(), position);
+                apply(Collections.singletonList(copy));
+                continue;
+            } else if (type == Replication.COPIED) {
+                applied = from;
+                copies++;
+            } else if (type == Replication.BATCH) {
+                sent = in.readLong();
+                List<Journal.Entry> fresh = new ArrayList<>();
+                long last = applied;
+                for (int chunks = in.readInt(); chunks > 0; chunks--) {
+                    long start = in.readLong();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    for (Journal.Entry entry : Journal.decode(bytes, 0, bytes.length, start)) {
+                        if (entry.getPosition() > applied
+                                && entry.getPosition() > copiedAt.getOrDefault(entry.getTable(), -1L)) {
+                            fresh.add(entry);
+                        }
+                        last = Math.max(last, entry.getPosition());
+                    }
+                }
+                apply(fresh);
+                applied = last;
+                entries += fresh.size();
+                batches++;
+            } else if (type == Replication.HEARTBEAT) {
+                in.readLong();
+                primaryPosition = in.readLong();
+            } else {
+                throw new IOException("Unknown frame " + type + " from the primary");
+            }
+            primaryPosition = Math.max(primaryPosition, applied);
+            out.writeLong(applied);
+            out.writeLong(sent);
+            out.flush();
+        }
+    }
+
+    // Applies the entries in one EDT turn
+    private void apply(List<Journal.Entry> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        IOException[] failure = {null};
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                for (Journal.Entry entry : changes) {
+                    try {
+                        if (Persistence.applyShipped(entry) && entry.getOp() == Journal.RESET) {
+                            ClinicRestore.tell(entry.getTable());
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        return;
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while applying changes from the primary", e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Cannot apply changes from the primary", e.getCause());
+        }
+        if (failure[0] != null) {
+            // This desk no longer matches the primary: start over from a copy
+            session = -1;
+            applied = -1;
+            throw new IOException("Out of step with the primary, copying again: " + failure[0].getMessage());
+        }
+    }
+}
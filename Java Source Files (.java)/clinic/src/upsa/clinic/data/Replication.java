@@ -0,0 +1,78 @@
+package upsa.clinic.data;
+
+import java.io.IOException;
+
+/**
+ * Keeps the saved tables of several desks in step: one desk is the primary
+ * and ships its journal over TCP to the others, the replicas, which apply
+ * each change to their own tables as it arrives.
+ *
+ * Started from system properties: -Dupsa.clinic.replicate.listen=PORT
+ * makes this desk the primary, -Dupsa.clinic.replicate.from=HOST:PORT a
+ * replica of the desk listening there. Edits should only be made on the
+ * primary; a replica edited locally is copied afresh from the primary as
+ * soon as a shipped change no longer fits.
+ */
+public final class Replication {
+
+    public static final String LISTEN_PROPERTY = "upsa.clinic.replicate.listen";
+    public static final String PRIMARY_PROPERTY = "upsa.clinic.replicate.from";
+
+    // Wire format shared by ReplicationServer and ReplicaClient
+    static final int MAGIC = 0x434C5250; // "CLRP"
+    static final short VERSION = 1;
+
+    // Primary to replica: START, then TABLE frames and COPIED when copying, then BATCH and HEARTBEAT frames
+    static final byte START = 1;
+    static final byte TABLE = 2;
+    static final byte COPIED = 3;
+    static final byte BATCH = 4;
+    static final byte HEARTBEAT = 5;
+
+    static final int HEARTBEAT_MILLIS = 1000;
+    // A connection silent this long is given up
+    static final int TIMEOUT_MILLIS = 10_000;
+
+    private static ReplicationServer server;
+    private static ReplicaClient replica;
+
+    private Replication() {
+    }
+
+    /**
+     * Starts shipping or following as the system properties say, once the
+     * tables are open. Does nothing when neither is set or when already
+     * started.
+     */
+    public static synchronized void startConfigured() {
+        String listen = System.getProperty(LISTEN_PROPERTY);
+        if (server == null && listen != null && !listen.trim().isEmpty()) {
+            try {
+                server = ReplicationServer.start(Journal.shared(), Integer.parseInt(listen.trim()));
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Cannot ship changes on port " + listen + ": " + e);
+            }
+        }
+        String primary = System.getProperty(PRIMARY_PROPERTY);
+        if (replica == null && primary != null && !primary.trim().isEmpty()) {
+            int colon = primary.lastIndexOf(':');
+            try {
+                replica = new ReplicaClient(primary.substring(0, colon).trim(),
+                        Integer.parseInt(primary.substring(colon + 1).trim()));
+                replica.start();
+            } catch (RuntimeException e) {
+                System.err.println("Cannot follow " + primary + ", expected HOST:PORT: " + e);
+            }
+        }
+    }
+
+    public static synchronized String describeStats() {
+        if (server == null && replica == null) {
+            return "Replication: off";
+        }
+        if (server == null) {
+            return replica.describeStats();
+        }
+        return replica == null ? server.describeStats() : server.describeStats() + " | " + replica.describeStats();
+    }
+}
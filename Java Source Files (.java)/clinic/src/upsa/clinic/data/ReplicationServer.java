@@ -0,0 +1,401 @@
+package upsa.clinic.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The primary desk's side of {@link Replication}: ships every journal
+ * batch, as soon as it is synced, to each connected replica.
+ *
+ * A replica seen for the first time, or one this server cannot resume, is
+ * first sent a copy of every open table, each as of its own journal
+ * position, then everything journaled after. A replica reconnecting is
+ * instead sent the entries it missed, read back from the journal's
+ * segments, as long as they have not been dropped after a snapshot.
+ *
+ * Batches are sent as the journal syncs them, several at once when the
+ * replica is slower than the journal, on one connection with Nagle's
+ * algorithm off. Each replica has at most {@link #MAX_QUEUED_BYTES} waiting
+ * to be sent; one that falls further behind is disconnected, so it never
+ * holds up the desk, and catches up from the segments when it reconnects.
+ * Replicas acknowledge each batch once applied, which gives the time from
+ * sync to applied on the replica.
+ */
+public class ReplicationServer implements Closeable {
+
+    public static final long MAX_QUEUED_BYTES = 8L * 1024 * 1024;
+
+    private final Journal journal;
+    private final ServerSocket server;
+    // Positions only mean something to the replicas of this run of the primary
+    private final long session = new Random().nextLong() & Long.MAX_VALUE;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong copies = new AtomicLong();
+    private final AtomicLong acks = new AtomicLong();
+    private final AtomicLong applyNanos = new AtomicLong();
+    private final AtomicLong maxApplyNanos = new AtomicLong();
+
+    private ReplicationServer(Journal journal, ServerSocket server) {
+        this.journal = journal;
+        this.server = server;
+    }
+
+    // Listens on the port, 0 for any free one
+    public static ReplicationServer start(Journal journal, int port) throws IOException {
+        ReplicationServer replication = new ReplicationServer(journal, new ServerSocket(port));
+        Thread acceptor = new Thread(replication::acceptLoop, "replication-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return replication;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getReplicaCount() {
+        int count = 0;
+        for (Session each : sessions) {
+            count += each.started ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Waits until at least the given number of replicas are connected and
+     * have applied everything up to the position. Returns false on timeout.
+     */
+    public boolean awaitReplicas(int replicas, long position, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (true) {
+                int caughtUp = 0;
+                for (Session each : sessions) {
+                    caughtUp += each.acked >= position ? 1 : 0;
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (caughtUp >= replicas) {
+                    return true;
+                } else if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+        }
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getEntries() {
+        return entries.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    // Average time from a batch being synced here to it being applied on a replica
+    public double getAverageApplyMillis() {
+        long count = acks.get();
+        return count == 0 ? 0 : applyNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxApplyMillis() {
+        return maxApplyNanos.get() / 1e6;
+    }
+
+    public String describeStats() {
+        long behind = 0;
+        long position = journal.position();
+        for (Session each : sessions) {
+            if (each.started) {
+                behind = Math.max(behind, position - each.acked);
+            }
+        }
+        long count = batches.get();
+        return String.format("Replication: primary on port %d, %d replica(s), %,d entries in %,d batches "
+                        + "(%.1f per batch), %,d copies, %,d KB sent, applied avg %.2f ms, max %.2f ms, "
+                        + "furthest behind %,d KB",
+                getPort(), getReplicaCount(), entries.get(), count, count == 0 ? 0 : (double) entries.get() / count,
+                copies.get(), bytesSent.get() / 1024, getAverageApplyMillis(), getMaxApplyMillis(), behind / 1024);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Session each : sessions) {
+            each.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(Replication.TIMEOUT_MILLIS);
+                Session replica = new Session(socket);
+                sessions.add(replica);
+                Thread sender = new Thread(replica::sendLoop, "replication-to-" + replica.name);
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Replication server stopped accepting: " + e);
+                }
+                return;
+            }
+        }
+    }
+
+    private synchronized void acknowledged() {
+        notifyAll();
+    }
+
+    // Synced journal bytes waiting to be sent, starting at a position
+    private static final class Chunk {
+        final long start;
+        final byte[] bytes;
+        final int offset;
+
+        Chunk(long start, byte[] bytes, int offset) {
+            this.start = start;
+            this.bytes = bytes;
+            this.offset = offset;
+        }
+    }
+
+    // One connected replica: the sending thread, plus one reading its acknowledgements
+    private final class Session implements Journal.Follower {
+        private final Socket socket;
+        private final String name;
+        private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+        private long queuedBytes;
+        private boolean overflowed;
+        private volatile boolean started;
+        private volatile long acked = -1;
+
+        Session(Socket socket) {
+            this.socket = socket;
+            InetAddress address = socket.getInetAddress();
+            this.name = address.getHostAddress() + ":" + socket.getPort();
+        }
+
+        @Override
+        public synchronized void synced(long start, byte[] bytes) {
+            if (overflowed) {
+                return;
+            }
+            if (queuedBytes + bytes.length > MAX_QUEUED_BYTES) {
+                // Dropped rather than waited for; the replica reconnects and reads the segments
+                overflowed = true;
+                queue.clear();
+                queuedBytes = 0;
+            } else {
+                queue.add(new Chunk(start, bytes, 0));
+                queuedBytes += bytes.length;
+            }
+            notifyAll();
+        }
+
+        void sendLoop() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+                if (in.readInt() != Replication.MAGIC || in.readShort() != Replication.VERSION) {
+                    throw new IOException("not a replica of this version");
+                }
+                long replicaSession = in.readLong();
+                long applied = in.readLong();
+
+                long from = journal.follow(this);
+                List<Chunk> missed = replicaSession == session && applied >= 0 ? missedSince(applied, from) : null;
+                out.writeByte(Replication.START);
+                out.writeLong(session);
+                out.writeLong(from);
+                out.writeBoolean(missed == null);
+                if (missed == null) {
+                    copyTables(out, from);
+                } else {
+                    sendBatch(out, missed, applied);
+                }
+                out.flush();
+                started = true;
+
+                Thread reader = new Thread(() -> readAcks(in), "replication-acks-" + name);
+                reader.setDaemon(true);
+                reader.start();
+                while (!closed) {
+                    List<Chunk> chunks = take();
+                    if (chunks.isEmpty()) {
+                        out.writeByte(Replication.HEARTBEAT);
+                        out.writeLong(System.nanoTime());
+                        out.writeLong(journal.position());
+                        bytesSent.addAndGet(17);
+                    } else {
+                        sendBatch(out, chunks, from);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Stopped shipping changes to replica " + name + ": " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Entries after the replica's position up to the one this session
+         * follows from, read back from the segments, or null if they are no
+         * longer all there.
+         */
+        private List<Chunk> missedSince(long applied, long from) {
+            List<Chunk> missed = new ArrayList<>();
+            try {
+                // Everything up to the follow position is on disk once this returns
+                journal.sync();
+                long end = Journal.read(journal.getDirectory(), applied, entry -> {
+                    if (entry.getPosition() > applied && entry.getPosition() <= from) {
+                        byte[] bytes = entry.encode();
+                        missed.add(new Chunk(entry.getPosition() - bytes.length, bytes, 0));
+                    }
+                });
+                return end >= from ? missed : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private void copyTables(DataOutputStream out, long from) throws IOException {
+            for (Journal.Entry copy : Persistence.copyTables(journal)) {
+                byte[] bytes = copy.encode();
+                out.writeByte(Replication.TABLE);
+                out.writeLong(copy.getPosition());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                bytesSent.addAndGet(13 + bytes.length);
+            }
+            out.writeByte(Replication.COPIED);
+            copies.incrementAndGet();
+        }
+
+        // Sends the chunks as one batch, leaving out whatever is at or before the position
+        private void sendBatch(DataOutputStream out, List<Chunk> chunks, long from) throws IOException {
+            List<Chunk> sent = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                Chunk after = skipTo(chunk, from);
+                if (after != null) {
+                    sent.add(after);
+                }
+            }
+            if (sent.isEmpty()) {
+                return;
+            }
+            out.writeByte(Replication.BATCH);
+            out.writeLong(System.nanoTime());
+            out.writeInt(sent.size());
+            long size = 13;
+            for (Chunk chunk : sent) {
+                int length = chunk.bytes.length - chunk.offset;
+                out.writeLong(chunk.start);
+                out.writeInt(length);
+                out.write(chunk.bytes, chunk.offset, length);
+                size += 12 + length;
+                entries.addAndGet(countEntries(chunk));
+            }
+            batches.incrementAndGet();
+            bytesSent.addAndGet(size);
+        }
+
+        private synchronized List<Chunk> take() throws IOException, InterruptedException {
+            if (queue.isEmpty() && !overflowed) {
+                wait(Replication.HEARTBEAT_MILLIS);
+            }
+            if (overflowed) {
+                throw new IOException("more than " + MAX_QUEUED_BYTES / (1024 * 1024) + " MB behind");
+            }
+            List<Chunk> chunks = new ArrayList<>(queue);
+            queue.clear();
+            queuedBytes = 0;
+            return chunks;
+        }
+
+        private void readAcks(DataInputStream in) {
+            try {
+                while (!closed) {
+                    acked = in.readLong();
+                    long sent = in.readLong();
+                    if (sent != 0) {
+                        long elapsed = System.nanoTime() - sent;
+                        acks.incrementAndGet();
+                        applyNanos.addAndGet(elapsed);
+                        maxApplyNanos.accumulateAndGet(elapsed, Math::max);
+                    }
+                    acknowledged();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            journal.unfollow(this);
+            if (sessions.remove(this)) {
+                acknowledged();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+
+    // The part of a chunk after the position, or null if it all comes before
+    private static Chunk skipTo(Chunk chunk, long position) {
+        ByteBuffer framed = ByteBuffer.wrap(chunk.bytes);
+        long start = chunk.start;
+        int offset = chunk.offset;
+        while (start < position && offset < chunk.bytes.length) {
+            int length = 8 + framed.getInt(offset);
+            offset += length;
+            start += length;
+        }
+        return offset >= chunk.bytes.length ? null : new Chunk(start, chunk.bytes, offset);
+    }
+
+    private static int countEntries(Chunk chunk) {
+        ByteBuffer framed = ByteBuffer.wrap(chunk.bytes);
+        int count = 0;
+        for (int offset = chunk.offset; offset < chunk.bytes.length; offset += 8 + framed.getInt(offset)) {
+            count++;
+        }
+        return count;
+    }
+}
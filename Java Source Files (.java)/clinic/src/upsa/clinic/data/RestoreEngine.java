@@ -0,0 +1,281 @@
+package upsa.clinic.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Rebuilds files from a backup in a {@link BackupStore}.
+ *
+ * Every file is created up front and a pool of threads fills them in, a
+ * span of consecutive chunks at a time: a worker reads each chunk from its
+ * pack with a positional read, inflates it, checks its length and SHA-256
+ * against the manifest and writes it at its offset in the file. A chunk
+ * that is missing or fails its check stops the restore with an error
+ * naming the file, so a damaged backup is never taken for a good one.
+ *
+ * Restored files are written but not synced: they are meant as a staging
+ * copy that the caller then applies, see {@link ClinicRestore}.
+ */
+public class RestoreEngine {
+
+    // Chunks of one file a worker restores in one go, so small files cost one task each
+    private static final long SPAN_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * Called on the restoring thread as spans of chunks are done, with the
+     * bytes restored so far out of those selected.
+     */
+    public interface Progress {
+        void update(long bytesRestored, long totalBytes);
+    }
+
+    private final BackupStore store;
+    private final int threads;
+    private volatile boolean cancelled = false;
+
+    public RestoreEngine(BackupStore store, int threads) {
+        this.store = store;
+        this.threads = threads;
+    }
+
+    // Restores from the clinic's backup store with a reader per processor
+    public static RestoreEngine forClinic() throws IOException {
+        return new RestoreEngine(BackupStore.open(BackupEngine.store()), Runtime.getRuntime().availableProcessors());
+    }
+
+    public BackupStore getStore() {
+        return store;
+    }
+
+    // Stops once the spans being restored are done; what was written so far is left as it is
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Restores the manifest's files whose paths the filter accepts under the
+     * target directory, replacing any already there.
+     */
+    public Result restore(BackupManifest manifest, Predicate<String> paths, Path target, Progress progress)
+            throws IOException {
+        long started = System.nanoTime();
+        Result result = new Result();
+        List<Span> spans = new ArrayList<>();
+        // The last span of each file, which knows the file and where it goes
+        List<Span> selected = new ArrayList<>();
+        Map<Path, FileChannel> packs = new HashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "restore");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Every chunk is located before anything is written
+            for (BackupManifest.FileEntry file : manifest.getFiles()) {
+                if (!paths.test(file.getPath())) {
+                    continue;
+                }
+                Path out = resolve(target, file.getPath());
+                Span span = new Span(file, out, 0, 0);
+                long offset = 0;
+                for (int i = 0; i < file.getChunkCount(); i++) {
+                    BackupStore.Location location = store.locate(file.getChunkHash(i));
+                    if (location == null || location.length != file.getChunkLength(i)) {
+                        throw new IOException("The backup store has lost chunk " + i + " of " + file.getPath());
+                    }
+                    if (!packs.containsKey(location.pack)) {
+                        packs.put(location.pack, FileChannel.open(location.pack, StandardOpenOption.READ));
+                    }
+                    if (offset - span.offset >= SPAN_BYTES) {
+                        spans.add(span);
+                        span = new Span(file, out, i, offset);
+                    }
+                    span.locations.add(location);
+                    offset += location.length;
+                    result.chunks++;
+                }
+                if (offset != file.getSize()) {
+                    throw new IOException("The backup lists chunks that do not add up to " + file.getPath());
+                }
+                spans.add(span);
+                selected.add(span);
+                result.files++;
+                result.totalBytes += file.getSize();
+            }
+
+            for (Span last : selected) {
+                Files.createDirectories(last.out.getParent());
+                try (FileChannel channel = FileChannel.open(last.out, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    // Sized up front, so the spans can be written in any order
+                    if (last.file.getSize() > 0) {
+                        channel.write(ByteBuffer.allocate(1), last.file.getSize() - 1);
+                    }
+                }
+            }
+
+            List<Future<Long>> done = new ArrayList<>(spans.size());
+            for (Span span : spans) {
+                done.add(pool.submit(restoreSpan(span, packs)));
+            }
+            for (Future<Long> span : done) {
+                result.restoredBytes += span.get();
+                if (progress != null) {
+                    progress.update(result.restoredBytes, result.totalBytes);
+                }
+                if (cancelled) {
+                    result.cancelled = true;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancelled = true;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Cannot restore a chunk", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            for (FileChannel pack : packs.values()) {
+                pack.close();
+            }
+        }
+        result.elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        return result;
+    }
+
+    // Runs on a pool thread; returns the bytes written
+    private Callable<Long> restoreSpan(Span span, Map<Path, FileChannel> packs) {
+        return () -> {
+            if (cancelled) {
+                return 0L;
+            }
+            long offset = span.offset;
+            try (FileChannel out = FileChannel.open(span.out, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < span.locations.size(); i++) {
+                    int chunk = span.firstChunk + i;
+                    byte[] data = readChunk(span.locations.get(i), packs, span.file.getPath(), chunk);
+                    if (!BackupEngine.sha256(data).equals(span.file.getChunkHash(chunk))) {
+                        throw new IOException("Chunk " + chunk + " of " + span.file.getPath()
+                                + " fails its checksum; the backup store is damaged");
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer, offset + buffer.position());
+                    }
+                    offset += data.length;
+                }
+            }
+            return offset - span.offset;
+        };
+    }
+
+    private static byte[] readChunk(BackupStore.Location location, Map<Path, FileChannel> packs, String path, int chunk)
+            throws IOException {
+        FileChannel pack = packs.get(location.pack);
+        ByteBuffer stored = ByteBuffer.allocate(location.storedLength);
+        while (stored.hasRemaining()) {
+            if (pack.read(stored, location.offset + stored.position()) < 0) {
+                throw new IOException("Chunk " + chunk + " of " + path + " runs past the end of "
+                        + location.pack.getFileName());
+            }
+        }
+        byte[] data = new byte[location.length];
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(stored.array()))) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != data.length || in.read() >= 0) {
+                throw new IOException("Chunk " + chunk + " of " + path + " has the wrong length");
+            }
+        } catch (ZipException e) {
+            throw new IOException("Chunk " + chunk + " of " + path + " cannot be inflated: " + e.getMessage(), e);
+        }
+        return data;
+    }
+
+    // Manifest paths use '/', whatever the platform
+    private static Path resolve(Path target, String path) throws IOException {
+        Path resolved = target;
+        for (String name : path.split("/")) {
+            resolved = resolved.resolve(name);
+        }
+        resolved = resolved.normalize();
+        if (!resolved.startsWith(target.normalize())) {
+            throw new IOException("The backup holds a path outside the data home: " + path);
+        }
+        return resolved;
+    }
+
+    // Consecutive chunks of one file, starting at a byte offset
+    private static final class Span {
+        final BackupManifest.FileEntry file;
+        final Path out;
+        final int firstChunk;
+        final long offset;
+        final List<BackupStore.Location> locations = new ArrayList<>();
+
+        Span(BackupManifest.FileEntry file, Path out, int firstChunk, long offset) {
+            this.file = file;
+            this.out = out;
+            this.firstChunk = firstChunk;
+            this.offset = offset;
+        }
+    }
+
+    public static class Result {
+        private boolean cancelled;
+        private int files;
+        private long chunks;
+        private long totalBytes;
+        private long restoredBytes;
+        private long elapsedMillis;
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public long getChunks() {
+            return chunks;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getRestoredBytes() {
+            return restoredBytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+}
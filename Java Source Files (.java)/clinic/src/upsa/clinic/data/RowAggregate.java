@@ -0,0 +1,129 @@
+package upsa.clinic.data;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableModel;
+import java.util.Arrays;
+
+/**
+ * A running total over the rows of a table model, e.g. how many beds are
+ * occupied or the revenue of this month. Each row's share is remembered, so
+ * a change only reads the rows its event names: added rows are added,
+ * removed rows taken off and updated rows swapped for their new share.
+ *
+ * Follows the model's events on the thread that fires them, the EDT for
+ * the tables of this app.
+ */
+public final class RowAggregate implements TableModelListener {
+
+    // A row's share of the total, read from the model
+    public interface RowValue {
+        long of(int row);
+    }
+
+    // Told of every share that changes, e.g. to count rows by day; 0 is no share
+    public interface ShareListener {
+        void shareChanged(long before, long after);
+    }
+
+    private final TableModel model;
+    private final RowValue value;
+    private final Runnable changed;
+    private final ShareListener shares;
+    private long[] values = new long[16];
+    private int rows;
+    private long total;
+    // A share changed while handling the current event
+    private boolean moved;
+
+    // Totals the rows already there and follows the model from now on; changed is run when a share moves
+    public RowAggregate(TableModel model, RowValue value, Runnable changed) {
+        this(model, value, changed, null);
+    }
+
+    public RowAggregate(TableModel model, RowValue value, Runnable changed, ShareListener shares) {
+        this.model = model;
+        this.value = value;
+        this.changed = changed;
+        this.shares = shares;
+        recount();
+        model.addTableModelListener(this);
+    }
+
+    public long total() {
+        return total;
+    }
+
+    // Rows covered, normally the model's row count
+    public int rows() {
+        return rows;
+    }
+
+    // Reads every row again, for when what a share means changed, e.g. at midnight
+    public void recount() {
+        delete(0, rows);
+        insert(0, model.getRowCount());
+    }
+
+    public void close() {
+        model.removeTableModelListener(this);
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        moved = false;
+        int rowsBefore = rows;
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        if (first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE) {
+            recount();
+        } else if (e.getType() == TableModelEvent.INSERT) {
+            insert(first, last - first + 1);
+        } else if (e.getType() == TableModelEvent.DELETE) {
+            delete(first, last - first + 1);
+        } else {
+            for (int row = first; row <= last && row < rows; row++) {
+                set(row, value.of(row));
+            }
+        }
+        if (rows != model.getRowCount()) {
+            // Rows changed without a matching event; start over rather than drift
+            recount();
+        }
+        if (moved || rows != rowsBefore) {
+            changed.run();
+        }
+    }
+
+    private void insert(int row, int count) {
+        if (rows + count > values.length) {
+            values = Arrays.copyOf(values, Math.max(rows + count, values.length * 2));
+        }
+        System.arraycopy(values, row, values, row + count, rows - row);
+        rows += count;
+        for (int i = row; i < row + count; i++) {
+            values[i] = 0;
+            set(i, value.of(i));
+        }
+    }
+
+    private void delete(int row, int count) {
+        for (int i = row; i < row + count; i++) {
+            set(i, 0);
+        }
+        System.arraycopy(values, row + count, values, row, rows - row - count);
+        rows -= count;
+    }
+
+    private void set(int row, long share) {
+        long before = values[row];
+        values[row] = share;
+        if (share != before) {
+            total += share - before;
+            moved = true;
+            if (shares != null) {
+                shares.shareChanged(before, share);
+            }
+        }
+    }
+}
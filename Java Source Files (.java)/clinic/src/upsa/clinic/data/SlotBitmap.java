@@ -0,0 +1,388 @@
+package upsa.clinic.data;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of patient slots in the style of a roaring bitmap. Slots
+ * are split by their high 16 bits into chunks of 65536; each chunk stores
+ * its low 16 bits either as a sorted array (sparse chunks, up to 4096
+ * entries) or as a 65536-bit bitmap (dense chunks). A value held by a few
+ * patients costs two bytes per patient, a value held by most of them one
+ * bit per slot.
+ */
+public class SlotBitmap {
+
+    // Chunks larger than this are stored as bitmaps
+    static final int ARRAY_LIMIT = 4096;
+
+    private char[] keys = new char[4];
+    private Chunk[] chunks = new Chunk[4];
+    private int chunkCount = 0;
+    private int cardinality = 0;
+
+    public boolean add(int slot) {
+        char key = (char) (slot >>> 16);
+        int index = find(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, key, new ArrayChunk());
+        }
+        Chunk chunk = chunks[index];
+        if (!chunk.add((char) slot)) {
+            return false;
+        }
+        if (chunk instanceof ArrayChunk && chunk.cardinality() > ARRAY_LIMIT) {
+            chunks[index] = ((ArrayChunk) chunk).toBitmap();
+        }
+        cardinality++;
+        return true;
+    }
+
+    public boolean remove(int slot) {
+        int index = find((char) (slot >>> 16));
+        if (index < 0 || !chunks[index].remove((char) slot)) {
+            return false;
+        }
+        Chunk chunk = chunks[index];
+        if (chunk.cardinality() == 0) {
+            removeChunk(index);
+        } else if (chunk instanceof BitmapChunk && chunk.cardinality() <= ARRAY_LIMIT / 2) {
+            // Convert back well below the limit so a chunk near it does not flip on every edit
+            chunks[index] = ((BitmapChunk) chunk).toArray();
+        }
+        cardinality--;
+        return true;
+    }
+
+    public boolean contains(int slot) {
+        int index = find((char) (slot >>> 16));
+        return index >= 0 && chunks[index].contains((char) slot);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(chunks, 0, chunkCount, null);
+        chunkCount = 0;
+        cardinality = 0;
+    }
+
+    // Slots in both bitmaps; only chunks present on both sides are visited
+    public SlotBitmap and(SlotBitmap other) {
+        SlotBitmap result = new SlotBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount && j < other.chunkCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality() > 0) {
+                    result.appendChunk(keys[i], chunk);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Intersection of several bitmaps, smallest first so the work shrinks quickly
+    public static SlotBitmap and(SlotBitmap... bitmaps) {
+        if (bitmaps.length == 0) {
+            return new SlotBitmap();
+        }
+        SlotBitmap[] sorted = bitmaps.clone();
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.cardinality, b.cardinality));
+        SlotBitmap result = sorted[0].copy();
+        for (int i = 1; i < sorted.length && !result.isEmpty(); i++) {
+            result = result.and(sorted[i]);
+        }
+        return result;
+    }
+
+    public SlotBitmap copy() {
+        SlotBitmap copy = new SlotBitmap();
+        copy.keys = Arrays.copyOf(keys, keys.length);
+        copy.chunks = new Chunk[chunks.length];
+        for (int i = 0; i < chunkCount; i++) {
+            copy.chunks[i] = chunks[i].copy();
+        }
+        copy.chunkCount = chunkCount;
+        copy.cardinality = cardinality;
+        return copy;
+    }
+
+    // Ascending slots
+    public int[] toArray() {
+        int[] slots = new int[cardinality];
+        int offset = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            offset = chunks[i].fill(slots, offset, keys[i] << 16);
+        }
+        return slots;
+    }
+
+    // Approximate heap footprint, for diagnostics
+    public long sizeInBytes() {
+        long bytes = 16 + keys.length * 2L + chunks.length * 4L;
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunks[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    private void insertChunk(int index, char key, Chunk chunk) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+        System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+        keys[index] = key;
+        chunks[index] = chunk;
+        chunkCount++;
+    }
+
+    private void appendChunk(char key, Chunk chunk) {
+        insertChunk(chunkCount, key, chunk);
+        cardinality += chunk.cardinality();
+    }
+
+    private void removeChunk(int index) {
+        System.arraycopy(keys, index + 1, keys, index, chunkCount - index - 1);
+        System.arraycopy(chunks, index + 1, chunks, index, chunkCount - index - 1);
+        chunks[--chunkCount] = null;
+    }
+
+    /**
+     * Low 16 bits of the slots in one 65536-slot chunk.
+     */
+    abstract static class Chunk {
+        abstract boolean add(char value);
+
+        abstract boolean remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Chunk and(Chunk other);
+
+        abstract Chunk copy();
+
+        // Writes high | value for every member in ascending order
+        abstract int fill(int[] out, int offset, int high);
+
+        abstract long sizeInBytes();
+    }
+
+    static final class ArrayChunk extends Chunk {
+        char[] values;
+        int size;
+
+        ArrayChunk() {
+            this(new char[4], 0);
+        }
+
+        ArrayChunk(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        boolean add(char value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(size * 2, 4));
+            }
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = value;
+            size++;
+            return true;
+        }
+
+        @Override
+        boolean remove(char value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            size--;
+            return true;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            char[] result = new char[size];
+            int count = 0;
+            if (other instanceof BitmapChunk) {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            } else {
+                ArrayChunk array = (ArrayChunk) other;
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return new ArrayChunk(result, count);
+        }
+
+        @Override
+        Chunk copy() {
+            return new ArrayChunk(Arrays.copyOf(values, Math.max(size, 1)), size);
+        }
+
+        @Override
+        int fill(int[] out, int offset, int high) {
+            for (int i = 0; i < size; i++) {
+                out[offset++] = high | values[i];
+            }
+            return offset;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 24 + values.length * 2L;
+        }
+
+        BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    static final class BitmapChunk extends Chunk {
+        final long[] words = new long[1024];
+        int cardinality;
+
+        @Override
+        boolean add(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            words[value >>> 6] = after;
+            if (before == after) {
+                return false;
+            }
+            cardinality++;
+            return true;
+        }
+
+        @Override
+        boolean remove(char value) {
+            long before = words[value >>> 6];
+            long after = before & ~(1L << value);
+            words[value >>> 6] = after;
+            if (before == after) {
+                return false;
+            }
+            cardinality--;
+            return true;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.and(this);
+            }
+            BitmapChunk bitmap = (BitmapChunk) other;
+            BitmapChunk result = new BitmapChunk();
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result.cardinality <= ARRAY_LIMIT ? result.toArray() : result;
+        }
+
+        @Override
+        Chunk copy() {
+            BitmapChunk copy = new BitmapChunk();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int fill(int[] out, int offset, int high) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    out[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 24 + words.length * 8L;
+        }
+
+        ArrayChunk toArray() {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayChunk(values, count);
+        }
+    }
+}
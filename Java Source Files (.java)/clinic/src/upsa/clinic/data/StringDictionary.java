@@ -0,0 +1,90 @@
+package upsa.clinic.data;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the distinct values of a categorical column to small int codes so
+ * that each row only stores the code instead of its own String reference.
+ *
+ * Safe to share between threads: encoding a new value takes a lock, while
+ * lookups and decoding never do. A code, once handed out, always decodes
+ * to the same String instance, so rows holding decoded values share it.
+ */
+public class StringDictionary {
+
+    // Dictionaries shared by every table with a column of the same kind, by name
+    private static final Map<String, StringDictionary> SHARED = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    // Replaced when it grows; an entry is written before its code is published in codes
+    private volatile String[] values = new String[8];
+    private volatile int size = 0;
+
+    public StringDictionary(String... initialValues) {
+        for (String value : initialValues) {
+            encode(value);
+        }
+    }
+
+    /**
+     * The dictionary every table shares for a kind of value, e.g. "ward" or
+     * "doctor", created with the given values on first use.
+     */
+    public static StringDictionary shared(String name, String... initialValues) {
+        StringDictionary dictionary = SHARED.computeIfAbsent(name, key -> new StringDictionary());
+        for (String value : initialValues) {
+            dictionary.encode(value);
+        }
+        return dictionary;
+    }
+
+    // Names and sizes of the shared dictionaries, for diagnostics
+    public static String describeShared() {
+        StringBuilder description = new StringBuilder();
+        SHARED.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(entry.getKey()).append(' ').append(entry.getValue().size());
+        });
+        return description.toString();
+    }
+
+    // Returns the code for the value, adding it to the dictionary if needed
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            String[] current = values;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = value;
+            values = current;
+            codes.put(value, size);
+            return size++;
+        }
+    }
+
+    // Returns the code for the value, or -1 if it has never been encoded
+    public int lookup(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    public String decode(int code) {
+        return values[code];
+    }
+
+    public int size() {
+        return size;
+    }
+}
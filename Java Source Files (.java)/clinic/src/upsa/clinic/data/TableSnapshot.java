@@ -0,0 +1,164 @@
+package upsa.clinic.data;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact copy of one table's rows as of a journal position, so startup
+ * reads one file instead of replaying the whole journal.
+ *
+ * The file holds a header (magic, version, journal position, column and
+ * row counts), the rows as tagged values in the journal's encoding, and a
+ * CRC-32 of everything before it. It is written to a temporary file, synced
+ * and then moved into place, so a crash leaves either the old snapshot or
+ * the new one. Reading maps the file and decodes straight from the mapping,
+ * with no copy through a stream buffer.
+ */
+public final class TableSnapshot {
+
+    private static final int MAGIC = 0x434C534E; // "CLSN"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+
+    private TableSnapshot() {
+    }
+
+    /**
+     * Starts writing a snapshot that will replace the file on
+     * {@link Writer#commit()}. The row count must be exact.
+     */
+    public static Writer create(Path file, long journalPosition, int columns, int rows) throws IOException {
+        return new Writer(file, journalPosition, columns, rows);
+    }
+
+    /**
+     * Passes every row of the snapshot to the consumer, in order, and returns
+     * the journal position it was taken at, or -1 if there is no snapshot.
+     * A damaged file is an error rather than an empty table, since the
+     * journal before its position may already be gone.
+     */
+    public static long read(Path file, Consumer<Object[]> rows) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 8) {
+                throw new IOException("Snapshot " + file + " is truncated");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " is too large to map");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer body = mapped.duplicate();
+            body.limit((int) size - 8);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if (crc.getValue() != mapped.getLong((int) size - 8)) {
+                throw new IOException("Snapshot " + file + " is damaged");
+            }
+
+            if (body.getInt() != MAGIC || body.getInt() != VERSION) {
+                throw new IOException(file + " is not a table snapshot this version can read");
+            }
+            long journalPosition = body.getLong();
+            int columns = body.getInt();
+            int rowCount = body.getInt();
+            Values.Reader values = new Values.Reader();
+            try {
+                for (int row = 0; row < rowCount; row++) {
+                    Object[] cells = new Object[columns];
+                    for (int column = 0; column < columns; column++) {
+                        cells[column] = values.read(body);
+                    }
+                    rows.accept(cells);
+                }
+            } catch (RuntimeException e) {
+                // The checksum matched, so a bug in the writer rather than damage
+                throw new IOException("Unreadable snapshot " + file, e);
+            }
+            return journalPosition;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A snapshot being written. Rows go to a temporary file; nothing replaces
+     * the current snapshot until {@link #commit()}, and closing without a
+     * commit discards the temporary file.
+     */
+    public static final class Writer implements Closeable {
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream out;
+        private final int columns;
+        private final int rows;
+        private int written;
+        private boolean committed;
+
+        private Writer(Path file, long journalPosition, int columns, int rows) throws IOException {
+            this.file = file;
+            this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.columns = columns;
+            this.rows = rows;
+            Files.createDirectories(file.getParent());
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            // Flushed, never closed: commit() still writes the checksum to the channel
+            out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalPosition);
+            out.writeInt(columns);
+            out.writeInt(rows);
+        }
+
+        public void row(Object[] values) throws IOException {
+            if (values.length != columns) {
+                throw new IllegalArgumentException("Row has " + values.length + " values, snapshot has " + columns + " columns");
+            }
+            for (Object value : values) {
+                Values.write(out, value);
+            }
+            written++;
+        }
+
+        // Syncs the rows to disk and moves them over the previous snapshot
+        public void commit() throws IOException {
+            if (written != rows) {
+                throw new IllegalStateException("Snapshot announced " + rows + " rows but got " + written);
+            }
+            out.flush();
+            ByteBuffer trailer = ByteBuffer.allocate(8).putLong(0, crc.getValue());
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+            channel.force(true);
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
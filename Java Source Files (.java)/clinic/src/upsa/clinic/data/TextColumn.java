@@ -0,0 +1,87 @@
+package upsa.clinic.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Free-text column that packs every value as UTF-8 into one shared byte
+ * array, addressed by an (offset, length) pair per slot. Overwritten values
+ * leave garbage behind, which is compacted away once it outweighs the live
+ * data.
+ */
+class TextColumn {
+
+    private byte[] data = new byte[1024];
+    private int used = 0;
+    private int garbage = 0;
+
+    private int[] offsets;
+    private int[] lengths;
+
+    TextColumn(int capacity) {
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        Arrays.fill(lengths, -1);
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > offsets.length) {
+            int oldCapacity = offsets.length;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            Arrays.fill(lengths, oldCapacity, capacity, -1);
+        }
+    }
+
+    void set(int slot, String value) {
+        clear(slot);
+        if (value == null) {
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (used + bytes.length > data.length) {
+            if (garbage > used / 2) {
+                compact();
+            }
+            if (used + bytes.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, used + bytes.length));
+            }
+        }
+        System.arraycopy(bytes, 0, data, used, bytes.length);
+        offsets[slot] = used;
+        lengths[slot] = bytes.length;
+        used += bytes.length;
+    }
+
+    void clear(int slot) {
+        if (lengths[slot] > 0) {
+            garbage += lengths[slot];
+        }
+        lengths[slot] = -1;
+    }
+
+    String get(int slot) {
+        int length = lengths[slot];
+        if (length < 0) {
+            return null;
+        }
+        return new String(data, offsets[slot], length, StandardCharsets.UTF_8);
+    }
+
+    // Rewrites the live values back to back, dropping overwritten bytes
+    private void compact() {
+        byte[] compacted = new byte[data.length];
+        int position = 0;
+        for (int slot = 0; slot < lengths.length; slot++) {
+            int length = lengths[slot];
+            if (length > 0) {
+                System.arraycopy(data, offsets[slot], compacted, position, length);
+                offsets[slot] = position;
+                position += length;
+            }
+        }
+        data = compacted;
+        used = position;
+        garbage = 0;
+    }
+}
@@ -0,0 +1,190 @@
+package upsa.clinic.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Inverted index from lower-cased character trigrams to the patient slots
+ * whose Full Name, Index No, Phone or Condition contain them. Substring
+ * queries intersect the posting lists of the query's trigrams and then
+ * verify the few surviving candidates, instead of scanning every row.
+ *
+ * The index registers itself as a store listener and is kept up to date on
+ * every add, edit and delete.
+ */
+public class TrigramIndex implements PatientStore.Listener {
+
+    public static final int[] INDEXED_COLUMNS = {
+            PatientStore.COL_NAME, PatientStore.COL_INDEX_NO,
+            PatientStore.COL_PHONE, PatientStore.COL_CONDITION
+    };
+
+    private final PatientStore store;
+    private final Map<Long, IntList> postings = new HashMap<>();
+
+    public TrigramIndex(PatientStore store) {
+        this.store = store;
+        for (int row = 0; row < store.size(); row++) {
+            slotAdded(store.slotAt(row));
+        }
+        store.addListener(this);
+    }
+
+    @Override
+    public void slotAdded(int slot) {
+        for (int column : INDEXED_COLUMNS) {
+            String value = normalize(store.getString(slot, column));
+            for (int i = 0; i + 3 <= value.length(); i++) {
+                postings.computeIfAbsent(trigram(value, i), key -> new IntList(4)).addSorted(slot);
+            }
+        }
+    }
+
+    @Override
+    public void slotRemoved(int slot) {
+        for (int column : INDEXED_COLUMNS) {
+            String value = normalize(store.getString(slot, column));
+            for (int i = 0; i + 3 <= value.length(); i++) {
+                Long key = trigram(value, i);
+                IntList list = postings.get(key);
+                if (list != null && list.removeSorted(slot) && list.isEmpty()) {
+                    postings.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ascending slots whose indexed columns contain the query,
+     * ignoring case. Queries shorter than three characters have no trigram
+     * and fall back to a scan of the indexed columns. Safe to call off the
+     * EDT.
+     */
+    public int[] search(String query) {
+        store.readLock().lock();
+        try {
+            return find(normalize(query));
+        } finally {
+            store.readLock().unlock();
+        }
+    }
+
+    private int[] find(String needle) {
+        if (needle.isEmpty()) {
+            return allSlots();
+        }
+        if (needle.length() < 3) {
+            return scan(needle);
+        }
+
+        // Collect the posting list of every distinct query trigram
+        int gramCount = needle.length() - 2;
+        IntList[] lists = new IntList[gramCount];
+        int distinct = 0;
+        for (int i = 0; i < gramCount; i++) {
+            IntList list = postings.get(trigram(needle, i));
+            if (list == null) {
+                return new int[0];
+            }
+            boolean seen = false;
+            for (int j = 0; j < distinct; j++) {
+                seen |= lists[j] == list;
+            }
+            if (!seen) {
+                lists[distinct++] = list;
+            }
+        }
+
+        // Intersect starting from the shortest list so candidates shrink fast
+        Arrays.sort(lists, 0, distinct, (a, b) -> Integer.compare(a.size(), b.size()));
+        int[] candidates = lists[0].toArray();
+        int count = candidates.length;
+        for (int i = 1; i < distinct && count > 0; i++) {
+            count = intersect(candidates, count, lists[i]);
+        }
+
+        // A single-trigram query is answered exactly by its posting list
+        if (needle.length() == 3) {
+            return Arrays.copyOf(candidates, count);
+        }
+
+        // Trigrams can match across positions or columns; confirm each candidate
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            if (matches(candidates[i], needle)) {
+                candidates[matches++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, matches);
+    }
+
+    public int trigramCount() {
+        return postings.size();
+    }
+
+    private int[] scan(String needle) {
+        IntList result = new IntList();
+        for (int row = 0; row < store.size(); row++) {
+            int slot = store.slotAt(row);
+            if (matches(slot, needle)) {
+                result.add(slot);
+            }
+        }
+        return result.toArray();
+    }
+
+    private int[] allSlots() {
+        int[] slots = new int[store.size()];
+        for (int row = 0; row < slots.length; row++) {
+            slots[row] = store.slotAt(row);
+        }
+        return slots;
+    }
+
+    private boolean matches(int slot, String needle) {
+        for (int column : INDEXED_COLUMNS) {
+            if (containsIgnoreCase(store.getString(slot, column), needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsIgnoreCase(String value, String needle) {
+        for (int start = 0; start + needle.length() <= value.length(); start++) {
+            if (value.regionMatches(true, start, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Keeps the candidates that also appear in the list; both are ascending
+    private static int intersect(int[] candidates, int count, IntList list) {
+        int kept = 0;
+        int j = 0;
+        int size = list.size();
+        for (int i = 0; i < count && j < size; i++) {
+            int slot = candidates[i];
+            while (j < size && list.get(j) < slot) {
+                j++;
+            }
+            if (j < size && list.get(j) == slot) {
+                candidates[kept++] = slot;
+            }
+        }
+        return kept;
+    }
+
+    private static long trigram(String value, int start) {
+        return ((long) value.charAt(start) << 32)
+                | ((long) value.charAt(start + 1) << 16)
+                | value.charAt(start + 2);
+    }
+
+    static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,83 @@
+package upsa.clinic.data;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of table cell values shared by the journal and table
+ * snapshots: a type tag followed by the value. Null, String, Integer, Long,
+ * Double and Boolean round-trip; anything else is written as its toString().
+ */
+final class Values {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+
+    private Values() {
+    }
+
+    static void write(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+    }
+
+    /**
+     * Decodes values from a buffer, reusing one byte array for text so a
+     * large snapshot does not allocate a temporary array per string.
+     */
+    static final class Reader {
+        private byte[] text = new byte[256];
+
+        Object read(ByteBuffer in) throws IOException {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case INT:
+                    return in.getInt();
+                case LONG:
+                    return in.getLong();
+                case DOUBLE:
+                    return in.getDouble();
+                case BOOLEAN:
+                    return in.get() != 0;
+                case STRING:
+                    int length = in.getInt();
+                    if (length < 0 || length > in.remaining()) {
+                        throw new IOException("Bad text length " + length);
+                    }
+                    if (text.length < length) {
+                        text = new byte[Math.max(length, text.length * 2)];
+                    }
+                    in.get(text, 0, length);
+                    return new String(text, 0, length, StandardCharsets.UTF_8);
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+    }
+}
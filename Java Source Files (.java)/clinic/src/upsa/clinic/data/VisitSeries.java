@@ -0,0 +1,264 @@
+package upsa.clinic.data;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Patient visits per day, with running totals per week and per month, so a
+ * chart of any stretch of time reads at most a few buckets per pixel: days
+ * for the last weeks, weeks or months for the last years. What is read is
+ * then thinned to the chart's width with Largest-Triangle-Three-Buckets,
+ * which keeps the peaks and dips a plain average would flatten.
+ *
+ * Counts are added and taken off one visit at a time as appointments
+ * change, never recounted from the rows. Used on the EDT only.
+ */
+public final class VisitSeries {
+
+    public enum Rollup {
+        DAY, WEEK, MONTH
+    }
+
+    // Buckets read per point drawn, at most, before a coarser rollup is used
+    private static final int OVERSAMPLING = 4;
+    // Dates are kept within this span around the day the series was made, the rest ignored, e.g. a mistyped year
+    private static final int MAX_SPAN_DAYS = 100 * 366;
+
+    private final Buckets days = new Buckets();
+    private final Buckets weeks = new Buckets();
+    private final Buckets months = new Buckets();
+    // Fixed for the series' life, so a date that was kept is always kept when taken off again
+    private final long anchor = LocalDate.now().toEpochDay();
+    private long version;
+    private long ignored;
+
+    /**
+     * Thinned visits between two dates: the start of each point's day, week
+     * or month in epoch days, and its visits.
+     */
+    public static final class Points {
+        private final Rollup rollup;
+        private final long[] starts;
+        private final int[] counts;
+
+        Points(Rollup rollup, long[] starts, int[] counts) {
+            this.rollup = rollup;
+            this.starts = starts;
+            this.counts = counts;
+        }
+
+        public Rollup getRollup() {
+            return rollup;
+        }
+
+        public int size() {
+            return starts.length;
+        }
+
+        public LocalDate getStart(int point) {
+            return LocalDate.ofEpochDay(starts[point]);
+        }
+
+        public long getStartDay(int point) {
+            return starts[point];
+        }
+
+        public int getCount(int point) {
+            return counts[point];
+        }
+
+        public int getMaxCount() {
+            int max = 0;
+            for (int count : counts) {
+                max = Math.max(max, count);
+            }
+            return max;
+        }
+    }
+
+    // Adds visits on a day, or takes them off for a negative count
+    public void add(LocalDate day, int count) {
+        add(day.toEpochDay(), count);
+    }
+
+    public void add(long epochDay, int count) {
+        if (Math.abs(epochDay - anchor) > MAX_SPAN_DAYS / 2) {
+            ignored += count;
+            return;
+        }
+        LocalDate day = LocalDate.ofEpochDay(epochDay);
+        days.add(epochDay, count);
+        weeks.add(weekOf(epochDay), count);
+        months.add(day.getYear() * 12L + day.getMonthValue() - 1, count);
+        version++;
+    }
+
+    public void clear() {
+        days.clear();
+        weeks.clear();
+        months.clear();
+        ignored = 0;
+        version++;
+    }
+
+    public int getCount(LocalDate day) {
+        return days.get(day.toEpochDay());
+    }
+
+    // Goes up with every change
+    public long getVersion() {
+        return version;
+    }
+
+    // Visits on dates too far from the rest to keep
+    public long getIgnored() {
+        return ignored;
+    }
+
+    /**
+     * Visits from one date to another, both included, as at most maxPoints
+     * points. Days are read if there are few enough of them, otherwise weeks
+     * or months; either way no more than a few buckets per point.
+     */
+    public Points points(LocalDate from, LocalDate to, int maxPoints) {
+        maxPoints = Math.max(3, maxPoints);
+        long firstDay = from.toEpochDay();
+        long lastDay = to.toEpochDay();
+        Rollup rollup;
+        long first;
+        long last;
+        if (lastDay - firstDay + 1 <= (long) maxPoints * OVERSAMPLING) {
+            rollup = Rollup.DAY;
+            first = firstDay;
+            last = lastDay;
+        } else if ((lastDay - firstDay) / 7 + 1 <= (long) maxPoints * OVERSAMPLING) {
+            rollup = Rollup.WEEK;
+            first = weekOf(firstDay);
+            last = weekOf(lastDay);
+        } else {
+            rollup = Rollup.MONTH;
+            first = from.getYear() * 12L + from.getMonthValue() - 1;
+            last = to.getYear() * 12L + to.getMonthValue() - 1;
+        }
+        Buckets buckets = rollup == Rollup.DAY ? days : rollup == Rollup.WEEK ? weeks : months;
+        int size = (int) Math.max(0, last - first + 1);
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            counts[i] = buckets.get(first + i);
+        }
+
+        int[] kept = size > maxPoints ? largestTriangles(counts, maxPoints) : null;
+        int pointCount = kept == null ? size : kept.length;
+        long[] starts = new long[pointCount];
+        int[] pointCounts = new int[pointCount];
+        for (int point = 0; point < pointCount; point++) {
+            int bucket = kept == null ? point : kept[point];
+            starts[point] = startDay(rollup, first + bucket);
+            pointCounts[point] = counts[bucket];
+        }
+        return new Points(rollup, starts, pointCounts);
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets: which of the evenly spaced values to
+     * keep so that threshold of them look most like all of them. The first
+     * and last are always kept; from each bucket in between the one forming
+     * the largest triangle with the point kept before and the average of the
+     * next bucket. The threshold is at least 3.
+     */
+    static int[] largestTriangles(int[] values, int threshold) {
+        int size = values.length;
+        if (threshold >= size) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] kept = new int[threshold];
+        double every = (double) (size - 2) / (threshold - 2);
+        int previous = 0;
+        kept[0] = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket, or the last value for the last bucket
+            int nextStart = (int) ((bucket + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * every) + 1, size);
+            double averageX = 0;
+            double averageY = 0;
+            if (nextStart >= size - 1 || nextEnd <= nextStart) {
+                averageX = size - 1;
+                averageY = values[size - 1];
+            } else {
+                for (int i = nextStart; i < nextEnd; i++) {
+                    averageX += i;
+                    averageY += values[i];
+                }
+                averageX /= nextEnd - nextStart;
+                averageY /= nextEnd - nextStart;
+            }
+
+            int start = (int) (bucket * every) + 1;
+            int end = Math.min((int) ((bucket + 1) * every) + 1, size - 1);
+            double largest = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                // Twice the triangle's area
+                double area = Math.abs((previous - averageX) * (values[i] - values[previous])
+                        - (previous - i) * (averageY - values[previous]));
+                if (area > largest) {
+                    largest = area;
+                    chosen = i;
+                }
+            }
+            kept[bucket + 1] = chosen;
+            previous = chosen;
+        }
+        kept[threshold - 1] = size - 1;
+        return kept;
+    }
+
+    // Weeks start on Monday; 1970-01-01 was a Thursday
+    private static long weekOf(long epochDay) {
+        return Math.floorDiv(epochDay + 3, 7);
+    }
+
+    private static long startDay(Rollup rollup, long bucket) {
+        switch (rollup) {
+            case WEEK: return bucket * 7 - 3;
+            case MONTH: return LocalDate.of((int) Math.floorDiv(bucket, 12), Math.floorMod(bucket, 12) + 1, 1).toEpochDay();
+            default: return bucket;
+        }
+    }
+
+    // Counts for a run of consecutive indexes, growing either way as needed
+    private static final class Buckets {
+        private long base;
+        private int[] counts = new int[0];
+
+        void clear() {
+            counts = new int[0];
+        }
+
+        int get(long index) {
+            long at = index - base;
+            return at < 0 || at >= counts.length ? 0 : counts[(int) at];
+        }
+
+        void add(long index, int count) {
+            if (counts.length == 0) {
+                base = index;
+                counts = new int[64];
+            } else if (index < base) {
+                // Room before the first index as well, so a run of earlier dates grows it once
+                int grow = (int) Math.max(base - index, counts.length / 2);
+                int[] grown = new int[counts.length + grow];
+                System.arraycopy(counts, 0, grown, grow, counts.length);
+                counts = grown;
+                base -= grow;
+            } else if (index - base >= counts.length) {
+                counts = Arrays.copyOf(counts, (int) Math.max(index - base + 1, counts.length * 2L));
+            }
+            counts[(int) (index - base)] += count;
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.components.SearchPipeline;
+import upsa.clinic.components.TableSearchIndex;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.IdSequence;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.StringDictionary;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
@@ -14,11 +24,17 @@ import java.time.format.DateTimeParseException;
 
 public class AppointmentPanel extends JPanel {
 
-    private DefaultTableModel model;
+    private EncodedTableModel model;
+    // Saved rows were restored, so the sample data is not needed
+    private boolean restored;
     private JTable table;
     private JTextField searchField;
     private TableRowSorter<DefaultTableModel> sorter;
+    private TableSearchIndex searchIndex;
+    private SearchPipeline<TableSearchIndex.Result> searchPipeline;
     private JLabel statsLabel;
+    private final IdSequence appointmentIds = IdSequence.forName("appointment", 6);
+    private final EventBus events = EventBus.shared();
 
     public AppointmentPanel() {
         setLayout(new BorderLayout());
@@ -36,8 +52,12 @@ public class AppointmentPanel extends JPanel {
         // Side actions panel
         add(createActionsPanel(), BorderLayout.EAST);
 
-        // Load sample data
-        loadSampleData();
+        setupSearch();
+
+        // Load sample data on the first run only
+        if (!restored) {
+            loadSampleData();
+        }
         updateStats();
     }
 
@@ -81,13 +101,7 @@ public class AppointmentPanel extends JPanel {
         searchButton.setForeground(Color.WHITE);
         searchButton.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         searchButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
-        searchButton.addActionListener(e -> filter(searchField.getText().trim()));
-
-        searchField.addKeyListener(new KeyAdapter() {
-            public void keyReleased(KeyEvent e) {
-                filter(searchField.getText().trim());
-            }
-        });
+        searchButton.addActionListener(e -> searchPipeline.searchNow());
 
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchButton, BorderLayout.EAST);
@@ -114,7 +128,7 @@ public class AppointmentPanel extends JPanel {
         tablePanel.setBorder(BorderFactory.createEmptyBorder(0, 25, 25, 25));
 
         // Create table model with enhanced columns
-        model = new DefaultTableModel(
+        model = new EncodedTableModel(
                 new String[]{"ID", "Date", "Time", "Patient", "Doctor", "Department", "Status", "Notes"}, 0
         ) {
             @Override
@@ -122,6 +136,11 @@ public class AppointmentPanel extends JPanel {
                 return false; // Make table read-only
             }
         };
+        model.encode(4, StringDictionary.shared("doctor"))
+                .encode(5, StringDictionary.shared("department"))
+                .encode(6, StringDictionary.shared("appointment status", "Scheduled", "Completed", "Cancelled"));
+        restored = Persistence.open("appointments", model);
+        ClinicStats.shared().watchAppointments(model);
 
         table = new JTable(model);
         table.setRowHeight(36);
@@ -213,12 +232,14 @@ public class AppointmentPanel extends JPanel {
         return button;
     }
 
-    private void filter(String query) {
-        if (query.isEmpty()) {
-            table.setRowSorter(null);
-        } else {
-            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + query));
-        }
+    private void setupSearch() {
+        // Keystrokes are debounced and matched off the EDT
+        searchIndex = new TableSearchIndex(model);
+        searchPipeline = new SearchPipeline<>(searchField, searchIndex::match, this::applySearch);
+    }
+
+    private void applySearch(TableSearchIndex.Result result) {
+        sorter.setRowFilter(result == null ? null : searchIndex.rowFilter(result));
         updateStats();
     }
 
@@ -252,9 +273,10 @@ public class AppointmentPanel extends JPanel {
         if (result == JOptionPane.OK_OPTION) {
             try {
                 LocalDate.parse(dateField.getText().trim());
-                int newId = model.getRowCount() + 1;
+                // The ID column holds ints, so an ID past their range is refused rather than wrapped
+                int id = Math.toIntExact(appointmentIds.next());
                 model.addRow(new Object[]{
-                        newId,
+                        id,
                         dateField.getText().trim(),
                         timeField.getText().trim(),
                         patientField.getText().trim(),
@@ -263,10 +285,13 @@ public class AppointmentPanel extends JPanel {
                         "Scheduled",
                         notesArea.getText().trim()
                 });
+                events.publish(ClinicEvent.Type.APPOINTMENT_BOOKED, String.valueOf(id), patientField.getText().trim(), 0);
                 updateStats();
                 JOptionPane.showMessageDialog(this, "Appointment scheduled successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
             } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format. Please use YYYY-MM-DD.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (UncheckedIOException | ArithmeticException ex) {
+                JOptionPane.showMessageDialog(this, "Could not assign a new ID: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -316,6 +341,7 @@ public class AppointmentPanel extends JPanel {
                 model.setValueAt(doctorField.getText().trim(), modelRow, 4);
                 model.setValueAt(departmentField.getSelectedItem(), modelRow, 5);
                 model.setValueAt(notesArea.getText().trim(), modelRow, 7);
+                publish(ClinicEvent.Type.APPOINTMENT_CHANGED, modelRow);
                 updateStats();
             } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -337,6 +363,7 @@ public class AppointmentPanel extends JPanel {
 
         if (confirm == JOptionPane.YES_OPTION) {
             model.setValueAt("Cancelled", modelRow, 6);
+            publish(ClinicEvent.Type.APPOINTMENT_CANCELLED, modelRow);
             updateStats();
         }
     }
@@ -349,6 +376,7 @@ public class AppointmentPanel extends JPanel {
         }
         int modelRow = table.convertRowIndexToModel(viewRow);
         model.setValueAt("Completed", modelRow, 6);
+        publish(ClinicEvent.Type.APPOINTMENT_COMPLETED, modelRow);
         updateStats();
     }
 
@@ -373,6 +401,7 @@ public class AppointmentPanel extends JPanel {
                 model.setValueAt(newDate.getText().trim(), modelRow, 1);
                 model.setValueAt(newTime.getText().trim(), modelRow, 2);
                 model.setValueAt("Rescheduled", modelRow, 6);
+                publish(ClinicEvent.Type.APPOINTMENT_CHANGED, modelRow);
                 updateStats();
             } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -380,9 +409,13 @@ public class AppointmentPanel extends JPanel {
         }
     }
 
+    private void publish(ClinicEvent.Type type, int modelRow) {
+        events.publish(type, String.valueOf(model.getValueAt(modelRow, 0)), String.valueOf(model.getValueAt(modelRow, 3)), 0);
+    }
+
     private void reload() {
         searchField.setText("");
-        table.setRowSorter(null);
+        sorter.setRowFilter(null);
         updateStats();
         JOptionPane.showMessageDialog(this, "Appointments refreshed!", "Reload", JOptionPane.INFORMATION_MESSAGE);
     }
@@ -401,16 +434,9 @@ public class AppointmentPanel extends JPanel {
 
     private void updateStats() {
         int total = model.getRowCount();
-        int scheduled = 0, completed = 0, cancelled = 0;
-
-        for (int i = 0; i < model.getRowCount(); i++) {
-            String status = model.getValueAt(i, 6).toString();
-            switch (status.toLowerCase()) {
-                case "scheduled": scheduled++; break;
-                case "completed": completed++; break;
-                case "cancelled": cancelled++; break;
-            }
-        }
+        int scheduled = model.count(6, "Scheduled");
+        int completed = model.count(6, "Completed");
+        int cancelled = model.count(6, "Cancelled");
 
         String stats = String.format("Total: %d | Scheduled: %d | Completed: %d | Cancelled: %d",
                 total, scheduled, completed, cancelled);
@@ -1,9 +1,14 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.StringDictionary;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*; // ADD THIS IMPORT
 import java.time.LocalDate;
@@ -11,10 +16,16 @@ import java.time.format.DateTimeFormatter;
 
 public class BedManagementPanel extends JPanel {
 
-    private DefaultTableModel model;
+    // Beds in all wards, also the dashboard's occupancy base
+    static final int TOTAL_BEDS = 50;
+
+    private EncodedTableModel model;
+    // Saved rows were restored, so the sample data is not needed
+    private boolean restored;
     private JTable table;
     private JTextField searchField;
     private JLabel statsLabel;
+    private final EventBus events = EventBus.shared();
 
     public BedManagementPanel() {
         setLayout(new BorderLayout());
@@ -32,8 +43,10 @@ public class BedManagementPanel extends JPanel {
         // Side actions panel
         add(createActionsPanel(), BorderLayout.EAST);
 
-        // Load sample data
-        loadSampleData();
+        // Load sample data on the first run only
+        if (!restored) {
+            loadSampleData();
+        }
         updateStats();
     }
 
@@ -102,7 +115,7 @@ public class BedManagementPanel extends JPanel {
         tablePanel.setBorder(BorderFactory.createEmptyBorder(0, 25, 25, 25));
 
         // Create table model for bed management
-        model = new DefaultTableModel(
+        model = new EncodedTableModel(
                 new String[]{
                         "Bed No", "Ward", "Patient ID", "Patient Name", "Admission Date",
                         "Condition", "Doctor", "Status", "Priority"
@@ -113,6 +126,12 @@ public class BedManagementPanel extends JPanel {
                 return false;
             }
         };
+        model.encode(1, StringDictionary.shared("ward", "General Ward", "ICU", "Maternity", "Pediatrics"))
+                .encode(6, StringDictionary.shared("doctor"))
+                .encode(7, StringDictionary.shared("bed status"))
+                .encode(8, StringDictionary.shared("priority"));
+        restored = Persistence.open("beds", model);
+        ClinicStats.shared().watchBeds(model);
 
         table = new JTable(model);
         table.setRowHeight(36);
@@ -244,6 +263,8 @@ public class BedManagementPanel extends JPanel {
                     "Occupied",
                     priorityField.getSelectedItem()
             });
+            events.publish(ClinicEvent.Type.BED_ASSIGNED, bedNoField.getText().trim(),
+                    patientNameField.getText().trim(), 0);
 
             updateStats();
             JOptionPane.showMessageDialog(this, "Bed assigned successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -263,7 +284,9 @@ public class BedManagementPanel extends JPanel {
                 "Confirm Discharge", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
 
         if (confirm == JOptionPane.YES_OPTION) {
+            String bed = model.getValueAt(row, 0).toString();
             model.removeRow(row);
+            events.publish(ClinicEvent.Type.BED_RELEASED, bed, patientName, 0);
             updateStats();
             JOptionPane.showMessageDialog(this, "Patient discharged successfully!", "Discharged", JOptionPane.INFORMATION_MESSAGE);
         }
@@ -294,12 +317,14 @@ public class BedManagementPanel extends JPanel {
         if (result == JOptionPane.OK_OPTION) {
             model.setValueAt(newBedField.getText().trim(), row, 0);
             model.setValueAt(newWardField.getSelectedItem(), row, 1);
+            events.publish(ClinicEvent.Type.BED_TRANSFERRED, newBedField.getText().trim(),
+                    model.getValueAt(row, 3).toString(), 0);
             JOptionPane.showMessageDialog(this, "Patient transferred successfully!", "Transfer Complete", JOptionPane.INFORMATION_MESSAGE);
         }
     }
 
     private void showAvailableBeds() {
-        int totalBeds = 50; // Example total beds
+        int totalBeds = TOTAL_BEDS;
         int occupiedBeds = model.getRowCount();
         int availableBeds = totalBeds - occupiedBeds;
 
@@ -318,13 +343,7 @@ public class BedManagementPanel extends JPanel {
     }
 
     private int getWardCount(String ward) {
-        int count = 0;
-        for (int i = 0; i < model.getRowCount(); i++) {
-            if (model.getValueAt(i, 1).equals(ward)) {
-                count++;
-            }
-        }
-        return count;
+        return model.count(1, ward);
     }
 
     private void maintenanceMode() {
@@ -375,7 +394,7 @@ public class BedManagementPanel extends JPanel {
     }
 
     private void updateStats() {
-        int totalBeds = 50;
+        int totalBeds = TOTAL_BEDS;
         int occupied = model.getRowCount();
         int available = totalBeds - occupied;
         double occupancyRate = (occupied * 100.0) / totalBeds;
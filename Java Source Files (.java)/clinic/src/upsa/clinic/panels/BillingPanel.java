@@ -1,12 +1,23 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.components.SearchPipeline;
+import upsa.clinic.components.TableSearchIndex;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.IdSequence;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.RowAggregate;
+import upsa.clinic.data.StringDictionary;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.UncheckedIOException;
 import java.text.DecimalFormat;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -14,14 +25,21 @@ import java.time.format.DateTimeParseException;
 
 public class BillingPanel extends JPanel {
 
-    private DefaultTableModel model;
+    private EncodedTableModel model;
+    // Saved rows were restored, so the sample data is not needed
+    private boolean restored;
     private JTable table;
     private JTextField searchField;
     private TableRowSorter<DefaultTableModel> sorter;
+    private TableSearchIndex searchIndex;
+    private SearchPipeline<TableSearchIndex.Result> searchPipeline;
     private JLabel statsLabel;
+    private final IdSequence invoiceIds = IdSequence.forName("invoice", 1006);
+    private final EventBus events = EventBus.shared();
     private DecimalFormat currencyFormat = new DecimalFormat("₵#,##0.00");
-    private double totalRevenue = 0.0;
-    private double pendingAmount = 0.0;
+    // In half pesewas, as a partly paid invoice counts half as revenue and half as pending
+    private RowAggregate revenue;
+    private RowAggregate pendingAmount;
 
     public BillingPanel() {
         setLayout(new BorderLayout());
@@ -39,8 +57,12 @@ public class BillingPanel extends JPanel {
         // Side actions panel
         add(createActionsPanel(), BorderLayout.EAST);
 
-        // Load sample data
-        loadSampleData();
+        setupSearch();
+
+        // Load sample data on the first run only
+        if (!restored) {
+            loadSampleData();
+        }
         updateStats();
     }
 
@@ -84,13 +106,7 @@ public class BillingPanel extends JPanel {
         searchButton.setForeground(Color.WHITE);
         searchButton.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         searchButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
-        searchButton.addActionListener(e -> filter(searchField.getText().trim()));
-
-        searchField.addKeyListener(new KeyAdapter() {
-            public void keyReleased(KeyEvent e) {
-                filter(searchField.getText().trim());
-            }
-        });
+        searchButton.addActionListener(e -> searchPipeline.searchNow());
 
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchButton, BorderLayout.EAST);
@@ -117,7 +133,7 @@ public class BillingPanel extends JPanel {
         tablePanel.setBorder(BorderFactory.createEmptyBorder(0, 25, 25, 25));
 
         // Create table model with enhanced columns
-        model = new DefaultTableModel(
+        model = new EncodedTableModel(
                 new String[]{"Invoice#", "Patient", "Service", "Date", "Amount", "Status", "Due Date", "Insurance"}, 0
         ) {
             @Override
@@ -130,6 +146,12 @@ public class BillingPanel extends JPanel {
                 return String.class;
             }
         };
+        model.encode(2, StringDictionary.shared("service"))
+                .encode(5, StringDictionary.shared("invoice status", "Unpaid", "Paid", "Pending", "Partially Paid"))
+                .encode(7, StringDictionary.shared("insurance"));
+        restored = Persistence.open("billing", model);
+        ClinicStats.shared().watchBilling(model);
+        watchAmounts();
 
         table = new JTable(model);
         table.setRowHeight(36);
@@ -224,12 +246,14 @@ public class BillingPanel extends JPanel {
         return button;
     }
 
-    private void filter(String query) {
-        if (query.isEmpty()) {
-            table.setRowSorter(null);
-        } else {
-            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + query));
-        }
+    private void setupSearch() {
+        // Keystrokes are debounced and matched off the EDT
+        searchIndex = new TableSearchIndex(model);
+        searchPipeline = new SearchPipeline<>(searchField, searchIndex::match, this::applySearch);
+    }
+
+    private void applySearch(TableSearchIndex.Result result) {
+        sorter.setRowFilter(result == null ? null : searchIndex.rowFilter(result));
         updateStats();
     }
 
@@ -237,7 +261,7 @@ public class BillingPanel extends JPanel {
         JPanel formPanel = new JPanel(new GridLayout(8, 2, 10, 10));
         formPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-        JTextField invoiceField = new JTextField(String.valueOf(1000 + model.getRowCount() + 1));
+        JTextField invoiceField = new JTextField("Assigned on save");
         invoiceField.setEditable(false);
         JTextField patientField = new JTextField();
         JComboBox<String> serviceField = new JComboBox<>(new String[]{
@@ -278,8 +302,9 @@ public class BillingPanel extends JPanel {
                 double amount = Double.parseDouble(amountField.getText().trim());
                 String formattedAmount = currencyFormat.format(amount);
 
+                String invoiceId = "INV-" + invoiceIds.next();
                 model.addRow(new Object[]{
-                        invoiceField.getText().trim(),
+                        invoiceId,
                         patientField.getText().trim(),
                         serviceField.getSelectedItem(),
                         dateField.getText().trim(),
@@ -288,6 +313,12 @@ public class BillingPanel extends JPanel {
                         dueDateField.getText().trim(),
                         insuranceField.getSelectedItem()
                 });
+                events.publish(ClinicEvent.Type.INVOICE_CREATED, invoiceId, patientField.getText().trim(),
+                        Math.round(amount * 100));
+                if ("Paid".equals(statusField.getSelectedItem())) {
+                    events.publish(ClinicEvent.Type.INVOICE_PAID, invoiceId, patientField.getText().trim(),
+                            Math.round(amount * 100));
+                }
 
                 updateStats();
                 JOptionPane.showMessageDialog(this, "Invoice created successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -295,6 +326,8 @@ public class BillingPanel extends JPanel {
                 JOptionPane.showMessageDialog(this, "Invalid date format. Please use YYYY-MM-DD.", "Error", JOptionPane.ERROR_MESSAGE);
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid amount. Please enter a valid number.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (UncheckedIOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not assign a new ID: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -314,6 +347,7 @@ public class BillingPanel extends JPanel {
 
         if (confirm == JOptionPane.YES_OPTION) {
             model.setValueAt("Paid", modelRow, 5);
+            publish(ClinicEvent.Type.INVOICE_PAID, modelRow);
             updateStats();
             JOptionPane.showMessageDialog(this, "Invoice marked as paid!", "Success", JOptionPane.INFORMATION_MESSAGE);
         }
@@ -383,15 +417,27 @@ public class BillingPanel extends JPanel {
                 "Confirm Deletion", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
 
         if (confirm == JOptionPane.YES_OPTION) {
+            publish(ClinicEvent.Type.INVOICE_REMOVED, modelRow);
             model.removeRow(modelRow);
             updateStats();
             JOptionPane.showMessageDialog(this, "Invoice deleted successfully!", "Deleted", JOptionPane.INFORMATION_MESSAGE);
         }
     }
 
+    private void publish(ClinicEvent.Type type, int modelRow) {
+        long pesewas;
+        try {
+            pesewas = Math.round(Double.parseDouble(
+                    model.getValueAt(modelRow, 4).toString().replace("₵", "").replace(",", "")) * 100);
+        } catch (NumberFormatException e) {
+            pesewas = 0;
+        }
+        events.publish(type, model.getValueAt(modelRow, 0).toString(), model.getValueAt(modelRow, 1).toString(), pesewas);
+    }
+
     private void reload() {
         searchField.setText("");
-        table.setRowSorter(null);
+        sorter.setRowFilter(null);
         updateStats();
         JOptionPane.showMessageDialog(this, "Billing data refreshed!", "Reload", JOptionPane.INFORMATION_MESSAGE);
     }
@@ -408,45 +454,34 @@ public class BillingPanel extends JPanel {
         model.addRow(new Object[]{"INV-1005", "Kofi Johnson", "Surgery", "2025-05-08", "₵1,500.00", "Partially Paid", "2025-06-08", "Private"});
     }
 
+    // Totals follow the model's events, so updateStats only reads them
+    private void watchAmounts() {
+        StringDictionary statuses = model.dictionary(5);
+        int paid = statuses.encode("Paid");
+        int unpaid = statuses.encode("Unpaid");
+        int pending = statuses.encode("Pending");
+        int partiallyPaid = statuses.encode("Partially Paid");
+        revenue = new RowAggregate(model, row -> {
+            int status = model.code(row, 5);
+            long pesewas = ClinicStats.pesewas(model.getValueAt(row, 4));
+            return status == paid ? 2 * pesewas : status == partiallyPaid ? pesewas : 0; // Assume half paid
+        }, () -> { });
+        pendingAmount = new RowAggregate(model, row -> {
+            int status = model.code(row, 5);
+            long pesewas = ClinicStats.pesewas(model.getValueAt(row, 4));
+            return status == unpaid || status == pending ? 2 * pesewas : status == partiallyPaid ? pesewas : 0;
+        }, () -> { });
+    }
+
     private void updateStats() {
         int total = model.getRowCount();
-        int paid = 0, unpaid = 0, pending = 0;
-        totalRevenue = 0.0;
-        pendingAmount = 0.0;
-
-        for (int i = 0; i < model.getRowCount(); i++) {
-            String status = model.getValueAt(i, 5).toString();
-            String amountStr = model.getValueAt(i, 4).toString().replace("₵", "").replace(",", "");
-
-            try {
-                double amount = Double.parseDouble(amountStr);
-
-                switch (status.toLowerCase()) {
-                    case "paid":
-                        paid++;
-                        totalRevenue += amount;
-                        break;
-                    case "unpaid":
-                        unpaid++;
-                        pendingAmount += amount;
-                        break;
-                    case "pending":
-                        pending++;
-                        pendingAmount += amount;
-                        break;
-                    case "partially paid":
-                        pending++;
-                        pendingAmount += amount * 0.5; // Assume half paid
-                        totalRevenue += amount * 0.5;
-                        break;
-                }
-            } catch (NumberFormatException e) {
-                // Skip invalid amounts
-            }
-        }
+        int paid = model.count(5, "Paid");
+        int unpaid = model.count(5, "Unpaid");
+        int pending = model.count(5, "Pending") + model.count(5, "Partially Paid");
 
         String stats = String.format("Invoices: %d | Paid: %d | Unpaid: %d | Pending: %d | Revenue: %s | Pending: %s",
-                total, paid, unpaid, pending, currencyFormat.format(totalRevenue), currencyFormat.format(pendingAmount));
+                total, paid, unpaid, pending, currencyFormat.format(revenue.total() / 200.0),
+                currencyFormat.format(pendingAmount.total() / 200.0));
         statsLabel.setText(stats);
     }
 }
\ No newline at end of file
@@ -1,21 +1,51 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.components.BackgroundCache;
+import upsa.clinic.components.RevenueChart;
+import upsa.clinic.components.TickScheduler;
+import upsa.clinic.components.VisitsChart;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.ClinicStats.Stat;
+import upsa.clinic.data.EventBus;
 
 import javax.swing.*;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Random;
 
 public class DashboardPanel extends JPanel {
 
     private JLabel welcomeLabel;
     private JLabel dateLabel;
-    private Timer animationTimer;
-    private int animationStep = 0;
+    // Latest thing done at any panel of this desk
+    private JLabel activityLabel;
+    private EventBus.Subscription activity;
+    private static final DateTimeFormatter ACTIVITY_TIME = DateTimeFormatter.ofPattern("HH:mm");
+    private static final String[] WELCOME_MESSAGES = {
+            "Welcome to UPSA Clinic Dashboard",
+            "Managing Healthcare Excellence",
+            "Patient Care at Its Best",
+            "Innovative Medical Solutions"
+    };
+    private int messageIndex = 0;
+    // Run by the shared scheduler while the dashboard is showing
+    private TickScheduler.Task clockTask;
+    private TickScheduler.Task welcomeTask;
+    // Value label of each stat card
+    private final Map<Stat, JLabel> statValues = new EnumMap<>(Stat.class);
+    private final VisitsChart visitsChart = new VisitsChart(ClinicStats.shared().getVisits());
+    private final ChangeListener statsListener = e -> {
+        updateStats();
+        visitsChart.repaint();
+    };
 
     public DashboardPanel() {
         setLayout(new BorderLayout());
@@ -29,9 +59,6 @@ public class DashboardPanel extends JPanel {
 
         // Main content with stats and charts
         add(createMainContentPanel(), BorderLayout.CENTER);
-
-        // Start animations
-        startAnimations();
     }
 
     private JPanel createHeaderPanel() {
@@ -47,7 +74,7 @@ public class DashboardPanel extends JPanel {
         iconLabel.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 32));
         iconLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 15));
 
-        welcomeLabel = new JLabel("Welcome to UPSA Clinic Dashboard");
+        welcomeLabel = new JLabel(WELCOME_MESSAGES[0]);
         welcomeLabel.setFont(new Font("Segoe UI", Font.BOLD, 24));
         welcomeLabel.setForeground(Colors.TEXT_PRIMARY);
 
@@ -60,9 +87,18 @@ public class DashboardPanel extends JPanel {
         dateLabel.setForeground(Colors.TEXT_SECONDARY);
         updateDateTime();
 
-        JPanel datePanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        activityLabel = new JLabel(" ");
+        activityLabel.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        activityLabel.setForeground(Colors.TEXT_MUTED);
+        dateLabel.setAlignmentX(Component.RIGHT_ALIGNMENT);
+        activityLabel.setAlignmentX(Component.RIGHT_ALIGNMENT);
+
+        JPanel datePanel = new JPanel();
+        datePanel.setLayout(new BoxLayout(datePanel, BoxLayout.Y_AXIS));
         datePanel.setBackground(Colors.BACKGROUND);
         datePanel.add(dateLabel);
+        datePanel.add(Box.createRigidArea(new Dimension(0, 4)));
+        datePanel.add(activityLabel);
 
         headerPanel.add(welcomePanel, BorderLayout.WEST);
         headerPanel.add(datePanel, BorderLayout.EAST);
@@ -89,20 +125,20 @@ public class DashboardPanel extends JPanel {
         statsPanel.setBackground(Colors.BACKGROUND);
         statsPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 20, 0));
 
-        // Medical statistics cards
-        statsPanel.add(createModernStatCard("📊", "Today's Appointments", "24", "Scheduled", Colors.INFO));
-        statsPanel.add(createModernStatCard("👥", "Total Patients", "1,248", "Registered", Colors.PRIMARY));
-        statsPanel.add(createModernStatCard("⚕️", "Active Doctors", "18", "On Duty", Colors.SUCCESS));
-        statsPanel.add(createModernStatCard("💊", "Pharmacy Stock", "92%", "Available", Colors.WARNING));
-        statsPanel.add(createModernStatCard("💰", "Monthly Revenue", "₵16,968", "This Month", Colors.MEDICAL_GREEN));
-        statsPanel.add(createModernStatCard("🛏️", "Bed Occupancy", "78%", "Occupied", Colors.MEDICAL_BLUE));
-        statsPanel.add(createModernStatCard("❤️", "Patient Vitals", "156", "Monitored", Colors.MEDICAL_RED));
-        statsPanel.add(createModernStatCard("📋", "Pending Tests", "34", "Awaiting Results", Colors.MEDICAL_PURPLE));
+        // Medical statistics cards, kept up to date by ClinicStats
+        statsPanel.add(createModernStatCard("📊", "Today's Appointments", Stat.APPOINTMENTS_TODAY, "Scheduled", Colors.INFO));
+        statsPanel.add(createModernStatCard("👥", "Total Patients", Stat.PATIENTS, "Registered", Colors.PRIMARY));
+        statsPanel.add(createModernStatCard("⚕️", "Active Doctors", Stat.ACTIVE_DOCTORS, "On Duty", Colors.SUCCESS));
+        statsPanel.add(createModernStatCard("💊", "Pharmacy Stock", Stat.DRUGS_IN_STOCK, "In Stock", Colors.WARNING));
+        statsPanel.add(createModernStatCard("💰", "Monthly Revenue", Stat.REVENUE_THIS_MONTH, "This Month", Colors.MEDICAL_GREEN));
+        statsPanel.add(createModernStatCard("🛏️", "Bed Occupancy", Stat.OCCUPIED_BEDS, "Occupied", Colors.MEDICAL_BLUE));
+        statsPanel.add(createModernStatCard("❤️", "Patient Vitals", Stat.VITALS_MONITORED, "Monitored", Colors.MEDICAL_RED));
+        statsPanel.add(createModernStatCard("📋", "Unpaid Bills", Stat.INVOICES_DUE, "Awaiting Payment", Colors.MEDICAL_PURPLE));
 
         return statsPanel;
     }
 
-    private JPanel createModernStatCard(String icon, String title, String value, String subtitle, Color color) {
+    private JPanel createModernStatCard(String icon, String title, Stat stat, String subtitle, Color color) {
         JPanel card = new JPanel(new BorderLayout(10, 10));
         card.setBackground(Color.WHITE);
         card.setBorder(BorderFactory.createCompoundBorder(
@@ -120,9 +156,10 @@ public class DashboardPanel extends JPanel {
         textPanel.setLayout(new BoxLayout(textPanel, BoxLayout.Y_AXIS));
         textPanel.setOpaque(false);
 
-        JLabel valueLabel = new JLabel(value);
+        JLabel valueLabel = new JLabel("—");
         valueLabel.setFont(new Font("Segoe UI", Font.BOLD, 24));
         valueLabel.setForeground(color);
+        statValues.put(stat, valueLabel);
 
         JLabel titleLabel = new JLabel(title);
         titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
@@ -149,15 +186,23 @@ public class DashboardPanel extends JPanel {
         chartsPanel.setBackground(Colors.BACKGROUND);
 
         // Patient visits chart
-        chartsPanel.add(createChartPanel("📈 Patient Visits Trend", "Monthly patient visit statistics", createSampleChart()));
+        JComboBox<VisitsChart.Range> rangeBox = new JComboBox<>(VisitsChart.Range.values());
+        rangeBox.setSelectedItem(visitsChart.getRange());
+        rangeBox.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        rangeBox.addActionListener(e -> visitsChart.setRange((VisitsChart.Range) rangeBox.getSelectedItem()));
+        chartsPanel.add(createChartPanel("📈 Patient Visits Trend", "Appointments kept, per day, week or month", visitsChart, rangeBox));
 
         // Revenue chart
-        chartsPanel.add(createChartPanel("💰 Revenue Analysis", "Monthly revenue breakdown", createRevenueChart()));
+        chartsPanel.add(createChartPanel("💰 Revenue Analysis", "Monthly revenue breakdown", new RevenueChart()));
 
         return chartsPanel;
     }
 
     private JPanel createChartPanel(String title, String description, JPanel chartContent) {
+        return createChartPanel(title, description, chartContent, null);
+    }
+
+    private JPanel createChartPanel(String title, String description, JPanel chartContent, JComponent control) {
         JPanel chartPanel = new JPanel(new BorderLayout());
         chartPanel.setBackground(Color.WHITE);
         chartPanel.setBorder(BorderFactory.createCompoundBorder(
@@ -179,6 +224,9 @@ public class DashboardPanel extends JPanel {
 
         headerPanel.add(titleLabel, BorderLayout.NORTH);
         headerPanel.add(descLabel, BorderLayout.SOUTH);
+        if (control != null) {
+            headerPanel.add(control, BorderLayout.EAST);
+        }
 
         chartPanel.add(headerPanel, BorderLayout.NORTH);
         chartPanel.add(chartContent, BorderLayout.CENTER);
@@ -186,110 +234,27 @@ public class DashboardPanel extends JPanel {
         return chartPanel;
     }
 
-    private JPanel createSampleChart() {
-        JPanel chart = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                Graphics2D g2d = (Graphics2D) g;
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-                int width = getWidth();
-                int height = getHeight();
-                int padding = 40;
-
-                // Draw grid
-                g2d.setColor(Colors.BORDER_LIGHT);
-                for (int i = 1; i <= 4; i++) {
-                    int y = padding + (height - 2 * padding) * i / 5;
-                    g2d.drawLine(padding, y, width - padding, y);
-                }
-
-                // Draw data points
-                int[] visits = {120, 180, 220, 190, 250, 300, 280, 320, 350, 380, 400, 420};
-                int maxVisits = 500;
-                int pointCount = visits.length;
-
-                // Draw line
-                g2d.setColor(Colors.PRIMARY);
-                g2d.setStroke(new BasicStroke(3));
-                for (int i = 0; i < pointCount - 1; i++) {
-                    int x1 = padding + (width - 2 * padding) * i / (pointCount - 1);
-                    int y1 = height - padding - (height - 2 * padding) * visits[i] / maxVisits;
-                    int x2 = padding + (width - 2 * padding) * (i + 1) / (pointCount - 1);
-                    int y2 = height - padding - (height - 2 * padding) * visits[i + 1] / maxVisits;
-                    g2d.drawLine(x1, y1, x2, y2);
-                }
-
-                // Draw points
-                g2d.setColor(Colors.ACCENT);
-                for (int i = 0; i < pointCount; i++) {
-                    int x = padding + (width - 2 * padding) * i / (pointCount - 1);
-                    int y = height - padding - (height - 2 * padding) * visits[i] / maxVisits;
-                    g2d.fillOval(x - 4, y - 4, 8, 8);
-                }
-
-                // Draw labels
-                g2d.setColor(Colors.TEXT_SECONDARY);
-                g2d.setFont(new Font("Segoe UI", Font.PLAIN, 10));
-                String[] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
-                for (int i = 0; i < pointCount; i++) {
-                    int x = padding + (width - 2 * padding) * i / (pointCount - 1);
-                    g2d.drawString(months[i], x - 10, height - padding + 15);
-                }
-            }
-        };
-        chart.setPreferredSize(new Dimension(400, 250));
-        chart.setBackground(Color.WHITE);
-        return chart;
+    // Shows the latest figures; a dash while the table behind a card is not open
+    private void updateStats() {
+        ClinicStats stats = ClinicStats.shared();
+        for (Map.Entry<Stat, JLabel> card : statValues.entrySet()) {
+            Stat stat = card.getKey();
+            long value = stats.get(stat);
+            card.getValue().setText(value < 0 ? "—" : formatStat(stat, value, stats.rows(stat)));
+        }
     }
 
-    private JPanel createRevenueChart() {
-        JPanel chart = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                Graphics2D g2d = (Graphics2D) g;
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-                int width = getWidth();
-                int height = getHeight();
-                int padding = 40;
-
-                // Draw bars
-                double[] revenue = {12000, 14000, 13000, 16000, 15500, 16968, 18000, 17500, 19000, 18500, 20000, 19500};
-                double maxRevenue = 25000;
-                int barCount = revenue.length;
-                int barWidth = (width - 2 * padding) / barCount;
-
-                for (int i = 0; i < barCount; i++) {
-                    int barHeight = (int) ((height - 2 * padding) * revenue[i] / maxRevenue);
-                    int x = padding + i * barWidth + barWidth / 4;
-                    int y = height - padding - barHeight;
-
-                    g2d.setColor(Colors.CHART_COLORS[i % Colors.CHART_COLORS.length]);
-                    g2d.fillRect(x, y, barWidth / 2, barHeight);
-
-                    // Draw value on top
-                    g2d.setColor(Colors.TEXT_PRIMARY);
-                    g2d.setFont(new Font("Segoe UI", Font.PLAIN, 9));
-                    String value = "₵" + (int)(revenue[i] / 1000) + "K";
-                    g2d.drawString(value, x - 5, y - 5);
-                }
-
-                // Draw labels
-                g2d.setColor(Colors.TEXT_SECONDARY);
-                g2d.setFont(new Font("Segoe UI", Font.PLAIN, 10));
-                String[] months = {"J", "F", "M", "A", "M", "J", "J", "A", "S", "O", "N", "D"};
-                for (int i = 0; i < barCount; i++) {
-                    int x = padding + i * barWidth + barWidth / 4;
-                    g2d.drawString(months[i], x + 5, height - padding + 15);
-                }
-            }
-        };
-        chart.setPreferredSize(new Dimension(400, 250));
-        chart.setBackground(Color.WHITE);
-        return chart;
+    private static String formatStat(Stat stat, long value, int rows) {
+        switch (stat) {
+            case DRUGS_IN_STOCK: return percent(value, rows);
+            case OCCUPIED_BEDS: return percent(value, BedManagementPanel.TOTAL_BEDS);
+            case REVENUE_THIS_MONTH: return String.format("₵%,d", value / 100);
+            default: return String.format("%,d", value);
+        }
+    }
+
+    private static String percent(long part, int whole) {
+        return whole <= 0 ? "0%" : Math.round(part * 100.0 / whole) + "%";
     }
 
     private void updateDateTime() {
@@ -301,53 +266,65 @@ public class DashboardPanel extends JPanel {
 
     private void startAnimations() {
         // Update date every minute
-        Timer dateTimer = new Timer(60000, e -> updateDateTime());
-        dateTimer.start();
-
-        // Welcome message animation
-        animationTimer = new Timer(100, new ActionListener() {
-            private String[] welcomeMessages = {
-                    "Welcome to UPSA Clinic Dashboard",
-                    "Managing Healthcare Excellence",
-                    "Patient Care at Its Best",
-                    "Innovative Medical Solutions"
-            };
-            private int messageIndex = 0;
-
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                animationStep++;
-                if (animationStep % 50 == 0) { // Change message every 5 seconds
-                    messageIndex = (messageIndex + 1) % welcomeMessages.length;
-                    welcomeLabel.setText(welcomeMessages[messageIndex]);
-                }
-            }
+        clockTask = TickScheduler.shared().schedule(this, "dashboard clock", 60_000, () -> {
+            updateDateTime();
+            ClinicStats.shared().checkDate();
+        });
+
+        // Change welcome message every 5 seconds
+        welcomeTask = TickScheduler.shared().schedule(this, "welcome message", 5_000, () -> {
+            messageIndex = (messageIndex + 1) % WELCOME_MESSAGES.length;
+            welcomeLabel.setText(WELCOME_MESSAGES[messageIndex]);
         });
-        animationTimer.start();
     }
 
+    private void stopAnimations() {
+        if (clockTask != null) {
+            clockTask.cancel();
+            clockTask = null;
+        }
+        if (welcomeTask != null) {
+            welcomeTask.cancel();
+            welcomeTask = null;
+        }
+    }
+
+    // Background and medical pattern, drawn once per size; they cover the whole panel
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        // Add subtle background pattern for medical theme
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        // Draw subtle medical pattern in background
-        g2d.setColor(new Color(245, 248, 255));
-        for (int i = 0; i < getWidth(); i += 50) {
-            for (int j = 0; j < getHeight(); j += 50) {
-                g2d.drawString("⚕", i, j);
-            }
+        BackgroundCache.shared().paint(g, this, BackgroundCache.Style.DASHBOARD_PATTERN);
+    }
+
+    // Only the last event of each batch is shown, so a burst costs one label update
+    private void showActivity(ClinicEvent event, boolean endOfBatch) {
+        if (endOfBatch) {
+            String time = Instant.ofEpochMilli(event.getTime()).atZone(ZoneId.systemDefault()).format(ACTIVITY_TIME);
+            activityLabel.setText(time + " · " + event.describe());
+        }
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (activity == null) {
+            activity = EventBus.shared().subscribeOnEdt("dashboard", this::showActivity);
+        }
+        if (clockTask == null) {
+            startAnimations();
         }
+        ClinicStats.shared().addChangeListener(statsListener);
+        updateStats();
     }
 
     // Clean up timers when panel is removed
     @Override
     public void removeNotify() {
         super.removeNotify();
-        if (animationTimer != null) {
-            animationTimer.stop();
+        stopAnimations();
+        if (activity != null) {
+            activity.close();
+            activity = null;
         }
+        ClinicStats.shared().removeChangeListener(statsListener);
     }
 }
\ No newline at end of file
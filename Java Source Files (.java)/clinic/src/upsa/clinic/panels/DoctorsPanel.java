@@ -1,21 +1,37 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.components.SearchPipeline;
+import upsa.clinic.components.TableSearchIndex;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.IdSequence;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.StringDictionary;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.UncheckedIOException;
 import java.util.Random;
 
 public class DoctorsPanel extends JPanel {
 
-    private DefaultTableModel model;
+    private EncodedTableModel model;
+    // Saved rows were restored, so the sample data is not needed
+    private boolean restored;
     private JTable table;
     private JTextField searchField;
     private TableRowSorter<DefaultTableModel> sorter;
+    private TableSearchIndex searchIndex;
+    private SearchPipeline<TableSearchIndex.Result> searchPipeline;
     private JLabel statsLabel;
+    private final IdSequence doctorIds = IdSequence.forName("doctor", 1006);
+    private final EventBus events = EventBus.shared();
 
     public DoctorsPanel() {
         setLayout(new BorderLayout());
@@ -33,8 +49,12 @@ public class DoctorsPanel extends JPanel {
         // Side actions panel
         add(createActionsPanel(), BorderLayout.EAST);
 
-        // Load sample data
-        loadSampleData();
+        setupSearch();
+
+        // Load sample data on the first run only
+        if (!restored) {
+            loadSampleData();
+        }
         updateStats();
     }
 
@@ -78,13 +98,7 @@ public class DoctorsPanel extends JPanel {
         searchButton.setForeground(Color.WHITE);
         searchButton.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         searchButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
-        searchButton.addActionListener(e -> filter(searchField.getText().trim()));
-
-        searchField.addKeyListener(new KeyAdapter() {
-            public void keyReleased(KeyEvent e) {
-                filter(searchField.getText().trim());
-            }
-        });
+        searchButton.addActionListener(e -> searchPipeline.searchNow());
 
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchButton, BorderLayout.EAST);
@@ -111,7 +125,7 @@ public class DoctorsPanel extends JPanel {
         tablePanel.setBorder(BorderFactory.createEmptyBorder(0, 25, 25, 25));
 
         // Create table model with enhanced columns
-        model = new DefaultTableModel(
+        model = new EncodedTableModel(
                 new String[]{"ID", "Name", "Specialty", "Department", "Phone", "Email", "Availability", "Status", "Experience"}, 0
         ) {
             @Override
@@ -119,6 +133,12 @@ public class DoctorsPanel extends JPanel {
                 return false; // Make table read-only
             }
         };
+        model.encode(2, StringDictionary.shared("specialty"))
+                .encode(3, StringDictionary.shared("department"))
+                .encode(6, StringDictionary.shared("availability"))
+                .encode(7, StringDictionary.shared("doctor status", "Active", "On Leave", "Inactive"));
+        restored = Persistence.open("doctors", model);
+        ClinicStats.shared().watchDoctors(model);
 
         table = new JTable(model);
         table.setRowHeight(36);
@@ -211,12 +231,14 @@ public class DoctorsPanel extends JPanel {
         return button;
     }
 
-    private void filter(String query) {
-        if (query.isEmpty()) {
-            table.setRowSorter(null);
-        } else {
-            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + query));
-        }
+    private void setupSearch() {
+        // Keystrokes are debounced and matched off the EDT
+        searchIndex = new TableSearchIndex(model);
+        searchPipeline = new SearchPipeline<>(searchField, searchIndex::match, this::applySearch);
+    }
+
+    private void applySearch(TableSearchIndex.Result result) {
+        sorter.setRowFilter(result == null ? null : searchIndex.rowFilter(result));
         updateStats();
     }
 
@@ -264,20 +286,25 @@ public class DoctorsPanel extends JPanel {
                 JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
 
         if (result == JOptionPane.OK_OPTION) {
-            int newId = model.getRowCount() + 1;
-            model.addRow(new Object[]{
-                    "DOC-" + newId,
-                    nameField.getText().trim(),
-                    specialtyField.getSelectedItem(),
-                    departmentField.getSelectedItem(),
-                    phoneField.getText().trim(),
-                    emailField.getText().trim(),
-                    availabilityField.getSelectedItem(),
-                    statusField.getSelectedItem(),
-                    experienceField.getSelectedItem()
-            });
-            updateStats();
-            JOptionPane.showMessageDialog(this, "Doctor added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            try {
+                String doctorId = "DOC-" + doctorIds.next();
+                model.addRow(new Object[]{
+                        doctorId,
+                        nameField.getText().trim(),
+                        specialtyField.getSelectedItem(),
+                        departmentField.getSelectedItem(),
+                        phoneField.getText().trim(),
+                        emailField.getText().trim(),
+                        availabilityField.getSelectedItem(),
+                        statusField.getSelectedItem(),
+                        experienceField.getSelectedItem()
+                });
+                events.publish(ClinicEvent.Type.DOCTOR_ADDED, doctorId, nameField.getText().trim(), 0);
+                updateStats();
+                JOptionPane.showMessageDialog(this, "Doctor added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            } catch (UncheckedIOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not assign a new ID: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
         }
     }
 
@@ -342,6 +369,8 @@ public class DoctorsPanel extends JPanel {
             model.setValueAt(emailField.getText().trim(), modelRow, 5);
             model.setValueAt(availabilityField.getSelectedItem(), modelRow, 6);
             model.setValueAt(statusField.getSelectedItem(), modelRow, 7);
+            events.publish(ClinicEvent.Type.DOCTOR_UPDATED, model.getValueAt(modelRow, 0).toString(),
+                    nameField.getText().trim(), 0);
             updateStats();
         }
     }
@@ -425,13 +454,15 @@ public class DoctorsPanel extends JPanel {
 
         if (confirm == JOptionPane.YES_OPTION) {
             model.setValueAt(newStatus, modelRow, 7);
+            events.publish(ClinicEvent.Type.DOCTOR_UPDATED, model.getValueAt(modelRow, 0).toString(),
+                    model.getValueAt(modelRow, 1).toString(), 0);
             updateStats();
         }
     }
 
     private void reload() {
         searchField.setText("");
-        table.setRowSorter(null);
+        sorter.setRowFilter(null);
         updateStats();
         JOptionPane.showMessageDialog(this, "Doctors list refreshed!", "Reload", JOptionPane.INFORMATION_MESSAGE);
     }
@@ -450,16 +481,9 @@ public class DoctorsPanel extends JPanel {
 
     private void updateStats() {
         int total = model.getRowCount();
-        int active = 0, onLeave = 0, inactive = 0;
-
-        for (int i = 0; i < model.getRowCount(); i++) {
-            String status = model.getValueAt(i, 7).toString();
-            switch (status.toLowerCase()) {
-                case "active": active++; break;
-                case "on leave": onLeave++; break;
-                case "inactive": inactive++; break;
-            }
-        }
+        int active = model.count(7, "Active");
+        int onLeave = model.count(7, "On Leave");
+        int inactive = model.count(7, "Inactive");
 
         String stats = String.format("Total: %d | Active: %d | On Leave: %d | Inactive: %d",
                 total, active, onLeave, inactive);
@@ -1,9 +1,10 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.StringDictionary;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.time.LocalDateTime;
@@ -11,7 +12,7 @@ import java.time.format.DateTimeFormatter;
 
 public class MessagesPanel extends JPanel {
 
-    private DefaultTableModel model;
+    private EncodedTableModel model;
     private JTable table;
     private JTextField toField;
     private JTextField subjectField;
@@ -124,7 +125,7 @@ public class MessagesPanel extends JPanel {
         searchPanel.add(searchControls, BorderLayout.WEST);
 
         // Messages table
-        model = new DefaultTableModel(
+        model = new EncodedTableModel(
                 new String[]{"", "From", "To", "Subject", "Priority", "Date", "Status"}, 0
         ) {
             @Override
@@ -137,6 +138,8 @@ public class MessagesPanel extends JPanel {
                 return column == 0 ? Icon.class : String.class;
             }
         };
+        model.encode(4, StringDictionary.shared("priority"))
+                .encode(6, StringDictionary.shared("message status", "Unread", "Read"));
 
         table = new JTable(model);
         table.setRowHeight(40);
@@ -473,19 +476,8 @@ public class MessagesPanel extends JPanel {
 
     private void updateStats() {
         int total = model.getRowCount();
-        int unread = 0, urgent = 0;
-
-        for (int i = 0; i < model.getRowCount(); i++) {
-            String status = model.getValueAt(i, 6).toString();
-            String priority = model.getValueAt(i, 4).toString();
-
-            if ("Unread".equals(status)) {
-                unread++;
-            }
-            if ("Urgent".equals(priority)) {
-                urgent++;
-            }
-        }
+        int unread = model.count(6, "Unread");
+        int urgent = model.count(4, "Urgent");
 
         String stats = String.format("Total: %d | Unread: %d | Urgent: %d", total, unread, urgent);
         statsLabel.setText(stats);
@@ -1,9 +1,14 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.EncodedTableModel;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.StringDictionary;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*; // ADD THIS IMPORT
 import java.time.LocalDate;
@@ -11,9 +16,12 @@ import java.time.format.DateTimeFormatter;
 
 public class PatientVitalsPanel extends JPanel {
 
-    private DefaultTableModel model;
+    private EncodedTableModel model;
+    // Saved rows were restored, so the sample data is not needed
+    private boolean restored;
     private JTable table;
     private JTextField searchField;
+    private final EventBus events = EventBus.shared();
 
     public PatientVitalsPanel() {
         setLayout(new BorderLayout());
@@ -31,8 +39,10 @@ public class PatientVitalsPanel extends JPanel {
         // Side actions panel
         add(createActionsPanel(), BorderLayout.EAST);
 
-        // Load sample data
-        loadSampleData();
+        // Load sample data on the first run only
+        if (!restored) {
+            loadSampleData();
+        }
     }
 
     private JPanel createHeaderPanel() {
@@ -93,7 +103,7 @@ public class PatientVitalsPanel extends JPanel {
         tablePanel.setBorder(BorderFactory.createEmptyBorder(0, 25, 25, 25));
 
         // Create table model for vitals
-        model = new DefaultTableModel(
+        model = new EncodedTableModel(
                 new String[]{
                         "Patient ID", "Patient Name", "Temperature (°C)", "Blood Pressure",
                         "Heart Rate", "Oxygen Saturation", "Respiratory Rate", "Weight (kg)",
@@ -105,6 +115,9 @@ public class PatientVitalsPanel extends JPanel {
                 return false;
             }
         };
+        model.encode(11, StringDictionary.shared("vitals status", "Normal", "Fever", "High Fever"));
+        restored = Persistence.open("vitals", model);
+        ClinicStats.shared().watchVitals(model);
 
         table = new JTable(model);
         table.setRowHeight(36);
@@ -253,6 +266,8 @@ public class PatientVitalsPanel extends JPanel {
                         LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE),
                         status
                 });
+                events.publish(ClinicEvent.Type.VITALS_RECORDED, patientIdField.getText().trim(),
+                        patientNameField.getText().trim(), 0);
 
                 JOptionPane.showMessageDialog(this, "Vitals recorded successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
             } catch (NumberFormatException ex) {
@@ -340,6 +355,8 @@ public class PatientVitalsPanel extends JPanel {
                 model.setValueAt(String.format("%.1f", bmi), row, 9);
                 model.setValueAt(LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE), row, 10);
                 model.setValueAt(status, row, 11);
+                events.publish(ClinicEvent.Type.VITALS_UPDATED, model.getValueAt(row, 0).toString(),
+                        model.getValueAt(row, 1).toString(), 0);
 
                 JOptionPane.showMessageDialog(this, "Vitals updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
             } catch (NumberFormatException ex) {
@@ -353,9 +370,9 @@ public class PatientVitalsPanel extends JPanel {
         alerts.append("⚠️ CRITICAL VITALS ALERTS\n\n");
 
         int criticalCount = 0;
+        int highFever = model.dictionary(11).lookup("High Fever");
         for (int i = 0; i < model.getRowCount(); i++) {
-            String status = model.getValueAt(i, 11).toString();
-            if (status.equals("High Fever")) {
+            if (model.code(i, 11) == highFever) {
                 alerts.append("🔥 HIGH FEVER: ").append(model.getValueAt(i, 1))
                         .append(" - ").append(model.getValueAt(i, 2)).append("°C\n");
                 criticalCount++;
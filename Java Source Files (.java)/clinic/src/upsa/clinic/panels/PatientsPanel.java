@@ -1,25 +1,81 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.components.SearchPipeline;
+import upsa.clinic.components.TickScheduler;
+import upsa.clinic.data.AgeIndex;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicRestore;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.DuplicateDetector;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.FacetIndex;
+import upsa.clinic.data.FuzzyNameIndex;
+import upsa.clinic.data.IdSequence;
+import upsa.clinic.data.Journal;
+import upsa.clinic.data.MedicalRecord;
+import upsa.clinic.data.MedicalRecordStore;
+import upsa.clinic.data.PatientCsvImporter;
+import upsa.clinic.data.Persistence;
+import upsa.clinic.data.PatientStore;
+import upsa.clinic.data.PatientTableModel;
+import upsa.clinic.data.SlotBitmap;
+import upsa.clinic.data.TrigramIndex;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.time.Period;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 public class PatientsPanel extends JPanel {
 
-    private DefaultTableModel model;
+    // Rows either side of the selection whose medical records are prefetched
+    private static final int RECORD_PREFETCH_ROWS = 2;
+
+    private final PatientStore store = new PatientStore();
+    // Restored before the indexes below are built, so they index the saved rows in one pass
+    private final boolean restored = Persistence.open("patients", store);
+    private final TrigramIndex searchIndex = new TrigramIndex(store);
+    private final FuzzyNameIndex nameIndex = new FuzzyNameIndex(store);
+    private final FacetIndex facets = new FacetIndex(store);
+    private final DuplicateDetector duplicates = new DuplicateDetector(store);
+    private final AgeIndex ageBands = new AgeIndex(store);
+    private final IdSequence patientIds = IdSequence.forName("patient", 1006);
+    private final MedicalRecordStore records = MedicalRecordStore.open();
+    private final EventBus events = EventBus.shared();
+    private PatientTableModel model;
     private JTable table;
     private JTextField searchField;
-    private TableRowSorter<DefaultTableModel> sorter;
+    private TableRowSorter<PatientTableModel> sorter;
+    private SearchPipeline<int[]> searchPipeline;
     private JLabel statsLabel;
 
+    // Latest text search result (null when the search box is empty) and the chosen facet values
+    private int[] searchResult;
+    private final Map<Integer, String> facetSelection = new LinkedHashMap<>();
+    private int ageSelection = -1;
+
+    // Checks each minute whether the day has changed, to move age bands on; runs while the panel is showing
+    private static final int DAY_CHECK_MILLIS = 60_000;
+    private TickScheduler.Task dayCheckTask;
+    private LocalDate agesAsOf;
+
+    // Registered while the panel is in a window, so a closed session's panel is not kept alive
+    private final ClinicRestore.Listener restoreListener = this::restored;
+
     public PatientsPanel() {
         setLayout(new BorderLayout());
         setBackground(Colors.BACKGROUND);
@@ -36,9 +92,42 @@ public class PatientsPanel extends JPanel {
         // Side actions panel
         add(createActionsPanel(), BorderLayout.EAST);
 
-        // Load sample data
-        loadSampleData();
+        ClinicStats.shared().watchPatients(store);
+
+        // Load sample data on the first run only
+        if (!restored) {
+            loadSampleData();
+        }
         updateStats();
+        agesAsOf = store.today();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (dayCheckTask == null) {
+            // A check missed while hidden runs as soon as the panel is shown again
+            dayCheckTask = TickScheduler.shared().schedule(this, "patient ages", DAY_CHECK_MILLIS, this::checkDay);
+        }
+        ClinicRestore.addListener(restoreListener);
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        if (dayCheckTask != null) {
+            dayCheckTask.cancel();
+            dayCheckTask = null;
+        }
+        ClinicRestore.removeListener(restoreListener);
+    }
+
+    private void restored(String part) {
+        if (part.equals("patients")) {
+            patientsRestored();
+        } else if (part.equals(ClinicRestore.RECORDS)) {
+            records.clearCache();
+        }
     }
 
     private JPanel createHeaderPanel() {
@@ -81,14 +170,10 @@ public class PatientsPanel extends JPanel {
         searchButton.setForeground(Color.WHITE);
         searchButton.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         searchButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
-        searchButton.addActionListener(e -> filterTable(searchField.getText().trim()));
+        searchButton.addActionListener(e -> searchPipeline.searchNow());
 
-        searchField.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                filterTable(searchField.getText().trim());
-            }
-        });
+        // Name, Index No, Phone and Condition matches from the trigram index, off the EDT
+        searchPipeline = new SearchPipeline<>(searchField, this::matchPatients, this::filterTable);
 
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchButton, BorderLayout.EAST);
@@ -114,18 +199,8 @@ public class PatientsPanel extends JPanel {
         JPanel tablePanel = new JPanel(new BorderLayout());
         tablePanel.setBorder(BorderFactory.createEmptyBorder(0, 25, 25, 25));
 
-        // Create table model with enhanced columns including student details
-        model = new DefaultTableModel(
-                new String[]{
-                        "ID", "Full Name", "Index No", "Program", "Level", "Gender", "DOB", "Age",
-                        "Blood Group", "Genotype", "Sickling", "Phone", "Condition", "Status"
-                }, 0
-        ) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make table read-only
-            }
-        };
+        // Table model backed by the columnar patient store
+        model = new PatientTableModel(store);
 
         table = new JTable(model);
         table.setRowHeight(36);
@@ -156,8 +231,17 @@ public class PatientsPanel extends JPanel {
 
         // Add row sorter
         sorter = new TableRowSorter<>(model);
+        // An edited row moves to its place; otherwise the next add or delete re-sorts every row
+        sorter.setSortsOnUpdates(true);
         table.setRowSorter(sorter);
 
+        // Load the records around the selection so the next one opens instantly
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                prefetchRecordsAround(table.getSelectedRow());
+            }
+        });
+
         JScrollPane scrollPane = new JScrollPane(table);
         scrollPane.setBorder(BorderFactory.createLineBorder(Colors.BORDER));
         scrollPane.getViewport().setBackground(Color.WHITE);
@@ -176,20 +260,29 @@ public class PatientsPanel extends JPanel {
 
         // Action buttons
         JButton addButton = createActionButton("➕ Add Patient", Colors.SUCCESS, e -> addPatient());
+        JButton importButton = createActionButton("📥 Import CSV", Colors.MEDICAL_TEAL, e -> importPatients());
         JButton editButton = createActionButton("✏️ Edit", Colors.INFO, e -> editPatient());
         JButton viewButton = createActionButton("👁️ View Details", Colors.PRIMARY, e -> viewPatient());
         JButton medicalButton = createActionButton("❤️ Medical Record", Colors.MEDICAL_RED, e -> viewMedicalRecord());
+        JButton filterButton = createActionButton("🧬 Filter", Colors.MEDICAL_PURPLE, e -> showFacetFilter());
+        JButton duplicatesButton = createActionButton("👥 Duplicates", Colors.WARNING, e -> findDuplicates());
         JButton deleteButton = createActionButton("🗑️ Delete", Colors.DANGER, e -> deletePatient());
         JButton reloadButton = createActionButton("🔄 Reload", Colors.SECONDARY, e -> reload());
 
         actionsPanel.add(addButton);
         actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+        actionsPanel.add(importButton);
+        actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         actionsPanel.add(editButton);
         actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         actionsPanel.add(viewButton);
         actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         actionsPanel.add(medicalButton);
         actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+        actionsPanel.add(filterButton);
+        actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+        actionsPanel.add(duplicatesButton);
+        actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         actionsPanel.add(deleteButton);
         actionsPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         actionsPanel.add(reloadButton);
@@ -223,15 +316,107 @@ public class PatientsPanel extends JPanel {
         return button;
     }
 
-    private void filterTable(String query) {
+    // Runs on the search worker; misspelt names fall back to ranked similar names
+    private int[] matchPatients(String query) {
         if (query.isEmpty()) {
-            table.setRowSorter(null);
+            return null;
+        }
+        int[] matches = searchIndex.search(query);
+        if (matches.length == 0 && FuzzyNameIndex.isNameQuery(query)) {
+            matches = nameIndex.search(query, FuzzyNameIndex.DEFAULT_LIMIT);
+        }
+        return matches;
+    }
+
+    private void filterTable(int[] matchingSlots) {
+        searchResult = matchingSlots;
+        applyFilters();
+    }
+
+    // Shows the text search result narrowed to the selected facets and age band
+    private void applyFilters() {
+        if (facetSelection.isEmpty() && ageSelection < 0) {
+            if (searchResult == null) {
+                model.clearFilter();
+            } else {
+                model.setFilter(searchResult.clone());
+            }
         } else {
-            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + query));
+            SlotBitmap selected = ageSelection < 0 ? facets.select(facetSelection)
+                    : facetSelection.isEmpty() ? ageBands.select(ageSelection)
+                    : facets.select(facetSelection).and(ageBands.select(ageSelection));
+            if (searchResult == null) {
+                model.setFilter(selected.toArray());
+            } else {
+                // Keep the search order, which is ranked for similar-name results
+                int[] slots = new int[searchResult.length];
+                int count = 0;
+                for (int slot : searchResult) {
+                    if (selected.contains(slot)) {
+                        slots[count++] = slot;
+                    }
+                }
+                model.setFilter(Arrays.copyOf(slots, count));
+            }
         }
         updateStats();
     }
 
+    private void showFacetFilter() {
+        JPanel formPanel = new JPanel(new GridLayout(FacetIndex.FACETED_COLUMNS.length + 1, 2, 10, 10));
+        formPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JComboBox<?>[] fields = new JComboBox<?>[FacetIndex.FACETED_COLUMNS.length];
+        List<List<String>> fieldValues = new ArrayList<>();
+        for (int i = 0; i < fields.length; i++) {
+            int column = FacetIndex.FACETED_COLUMNS[i];
+            List<String> values = facets.values(column);
+            fieldValues.add(values);
+
+            // "Any" first, then every value with its patient count
+            String[] items = new String[values.size() + 1];
+            items[0] = "Any";
+            for (int v = 0; v < values.size(); v++) {
+                items[v + 1] = values.get(v) + " (" + facets.count(column, values.get(v)) + ")";
+            }
+            JComboBox<String> field = new JComboBox<>(items);
+            String current = facetSelection.get(column);
+            if (current != null) {
+                field.setSelectedIndex(values.indexOf(current) + 1);
+            }
+            fields[i] = field;
+
+            formPanel.add(new JLabel(PatientStore.COLUMNS[column] + ":"));
+            formPanel.add(field);
+        }
+
+        String[] ageItems = new String[AgeIndex.BANDS.length + 1];
+        ageItems[0] = "Any";
+        for (int band = 0; band < AgeIndex.BANDS.length; band++) {
+            ageItems[band + 1] = AgeIndex.BANDS[band] + " (" + ageBands.count(band) + ")";
+        }
+        JComboBox<String> ageField = new JComboBox<>(ageItems);
+        ageField.setSelectedIndex(ageSelection + 1);
+        formPanel.add(new JLabel("Age:"));
+        formPanel.add(ageField);
+
+        int result = JOptionPane.showConfirmDialog(this, formPanel, "Filter Patients",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+
+        if (result == JOptionPane.OK_OPTION) {
+            facetSelection.clear();
+            for (int i = 0; i < fields.length; i++) {
+                int column = FacetIndex.FACETED_COLUMNS[i];
+                int selected = fields[i].getSelectedIndex();
+                if (selected > 0) {
+                    facetSelection.put(column, fieldValues.get(i).get(selected - 1));
+                }
+            }
+            ageSelection = ageField.getSelectedIndex() - 1;
+            applyFilters();
+        }
+    }
+
     private void addPatient() {
         JPanel formPanel = new JPanel(new GridLayout(14, 2, 10, 10));
         formPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -288,32 +473,221 @@ public class PatientsPanel extends JPanel {
         if (result == JOptionPane.OK_OPTION) {
             try {
                 LocalDate birthDate = LocalDate.parse(dobField.getText().trim());
-                int age = Period.between(birthDate, LocalDate.now()).getYears();
 
-                int newId = model.getRowCount() + 1;
-                model.addRow(new Object[]{
-                        "PAT-" + newId,
+                Object[] row = {
+                        null,
                         nameField.getText().trim(),
                         indexField.getText().trim(),
                         programField.getSelectedItem(),
                         levelField.getSelectedItem(),
                         genderField.getSelectedItem(),
-                        dobField.getText().trim(),
-                        age,
+                        birthDate,
+                        null, // Age is worked out from the DOB
                         bloodGroupField.getSelectedItem(),
                         genotypeField.getSelectedItem(),
                         sicklingField.getSelectedItem(),
                         phoneField.getText().trim(),
                         conditionField.getText().trim(),
                         statusField.getSelectedItem()
-                });
+                };
 
-                updateStats();
+                List<DuplicateDetector.Match> matches = duplicates.check(row);
+                if (!matches.isEmpty() && !confirmDespiteDuplicates(matches)) {
+                    return;
+                }
+
+                row[PatientStore.COL_ID] = "PAT-" + patientIds.next();
+                model.addRow(row);
+                // Already confirmed above; nothing left to report for this insert
+                duplicates.drainFlagged();
+                events.publish(ClinicEvent.Type.PATIENT_REGISTERED, (String) row[PatientStore.COL_ID],
+                        nameField.getText().trim(), 0);
+
+                searchPipeline.searchNow();
                 JOptionPane.showMessageDialog(this, "Patient added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
             } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format. Please use YYYY-MM-DD.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (UncheckedIOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not assign a new ID: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    private boolean confirmDespiteDuplicates(List<DuplicateDetector.Match> matches) {
+        StringBuilder message = new StringBuilder("This patient may already be registered:\n\n");
+        for (int i = 0; i < Math.min(5, matches.size()); i++) {
+            DuplicateDetector.Match match = matches.get(i);
+            message.append("• ").append(describe(match.getOtherSlot()))
+                    .append(" — ").append(match.getReason()).append("\n");
+        }
+        if (matches.size() > 5) {
+            message.append("• ... and ").append(matches.size() - 5).append(" more\n");
+        }
+        message.append("\nRegister anyway?");
+        return JOptionPane.showConfirmDialog(this, message.toString(), "Possible Duplicate",
+                JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION;
+    }
+
+    private String describe(int slot) {
+        if (!store.isLive(slot)) {
+            return "(deleted)";
+        }
+        return store.getString(slot, PatientStore.COL_ID) + " " + store.getString(slot, PatientStore.COL_NAME)
+                + " (" + store.getString(slot, PatientStore.COL_INDEX_NO) + ", " + store.getString(slot, PatientStore.COL_DOB) + ")";
+    }
+
+    private void findDuplicates() {
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        long start = System.nanoTime();
+        new SwingWorker<List<DuplicateDetector.Match>, Void>() {
+            @Override
+            protected List<DuplicateDetector.Match> doInBackground() {
+                return duplicates.findAll();
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    showDuplicates(get(), (System.nanoTime() - start) / 1_000_000);
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(PatientsPanel.this, "Duplicate check failed: " + cause.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void showDuplicates(List<DuplicateDetector.Match> matches, long elapsedMillis) {
+        if (matches.isEmpty()) {
+            JOptionPane.showMessageDialog(this, String.format("No likely duplicates among %,d patients.", store.size()),
+                    "Duplicates", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        int shown = Math.min(matches.size(), DuplicateDetector.MAX_FLAGGED);
+        Object[][] rows = new Object[shown][];
+        for (int i = 0; i < shown; i++) {
+            DuplicateDetector.Match match = matches.get(i);
+            rows[i] = new Object[]{describe(match.getSlot()), describe(match.getOtherSlot()),
+                    match.getReason(), String.format("%.0f%%", 100 * match.getScore())};
+        }
+        JTable resultTable = new JTable(rows, new String[]{"Patient", "Possible Duplicate", "Reason", "Score"});
+        resultTable.setEnabled(false);
+        resultTable.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        JScrollPane scrollPane = new JScrollPane(resultTable);
+        scrollPane.setPreferredSize(new Dimension(800, 400));
+
+        JPanel panel = new JPanel(new BorderLayout(0, 10));
+        panel.add(new JLabel(String.format("%,d likely duplicate pairs among %,d patients (%,d ms)%s",
+                matches.size(), store.size(), elapsedMillis,
+                shown < matches.size() ? String.format(", showing the first %,d", shown) : "")), BorderLayout.NORTH);
+        panel.add(scrollPane, BorderLayout.CENTER);
+        JOptionPane.showMessageDialog(this, panel, "Duplicates", JOptionPane.WARNING_MESSAGE);
+    }
+
+    private void importPatients() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import Patients from CSV");
+        chooser.setFileFilter(new FileNameExtensionFilter("CSV files (*.csv)", "csv"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+
+        ProgressMonitor monitor = new ProgressMonitor(this, "Importing " + file.getFileName(), "Reading...", 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+
+        // Whatever is flagged from here on comes from this import
+        duplicates.drainFlagged();
+
+        // Parsing runs in the background; batches are added on the EDT without holding up the parsers
+        SwingWorker<PatientCsvImporter.Result, int[]> worker = new SwingWorker<PatientCsvImporter.Result, int[]>() {
+            private final PatientCsvImporter importer =
+                    new PatientCsvImporter(new PatientCsvImporter.EdtSink(model::addRows), patientIds);
+
+            @Override
+            protected PatientCsvImporter.Result doInBackground() throws Exception {
+                return importer.importFile(file, (bytesRead, totalBytes, imported, rejected) -> {
+                    setProgress((int) (100 * bytesRead / Math.max(1, totalBytes)));
+                    publish(new int[]{imported, rejected});
+                });
+            }
+
+            @Override
+            protected void process(List<int[]> counts) {
+                int[] latest = counts.get(counts.size() - 1);
+                monitor.setNote(String.format("%,d imported, %,d rejected", latest[0], latest[1]));
+                if (monitor.isCanceled()) {
+                    importer.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                searchPipeline.searchNow();
+                updateStats();
+                try {
+                    PatientCsvImporter.Result result = get();
+                    if (result.getImported() > 0) {
+                        events.publish(ClinicEvent.Type.PATIENTS_IMPORTED, file.getFileName().toString(), null,
+                                result.getImported());
+                    }
+                    showImportSummary(result);
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(PatientsPanel.this, "Import failed: " + cause.getMessage(),
+                            "Import Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                monitor.setProgress((Integer) e.getNewValue());
+            }
+        });
+        worker.execute();
+    }
+
+    private void showImportSummary(PatientCsvImporter.Result result) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(result.isCancelled() ? "Import cancelled.\n\n" : "Import complete.\n\n");
+        summary.append(String.format("• Imported: %,d%n", result.getImported()));
+        summary.append(String.format("• Rejected: %,d%n", result.getRejected()));
+        int duplicateCount = duplicates.flaggedCount();
+        List<DuplicateDetector.Match> flagged = duplicates.drainFlagged();
+        summary.append(String.format("• Possible duplicates: %,d%n", duplicateCount));
+
+        if (!flagged.isEmpty()) {
+            summary.append("\nPossible duplicates:\n");
+            for (int i = 0; i < Math.min(20, flagged.size()); i++) {
+                DuplicateDetector.Match match = flagged.get(i);
+                summary.append("• ").append(describe(match.getSlot())).append(" ↔ ")
+                        .append(describe(match.getOtherSlot())).append(" — ").append(match.getReason()).append("\n");
+            }
+            if (duplicateCount > 20) {
+                summary.append("• ... and ").append(duplicateCount - 20).append(" more (use 👥 Duplicates)\n");
+            }
+        }
+
+        if (!result.getErrors().isEmpty()) {
+            summary.append("\nRejected rows:\n");
+            for (String error : result.getErrors()) {
+                summary.append("• ").append(error).append("\n");
+            }
+            if (result.getRejected() > result.getErrors().size()) {
+                summary.append("• ... and ").append(result.getRejected() - result.getErrors().size()).append(" more\n");
             }
         }
+
+        JTextArea textArea = new JTextArea(summary.toString(), 15, 50);
+        textArea.setEditable(false);
+        textArea.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        textArea.setBackground(Colors.BACKGROUND);
+
+        JOptionPane.showMessageDialog(this, new JScrollPane(textArea), "Import Patients",
+                result.getRejected() > 0 || duplicateCount > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
     }
 
     private void editPatient() {
@@ -388,23 +762,27 @@ public class PatientsPanel extends JPanel {
         if (result == JOptionPane.OK_OPTION) {
             try {
                 LocalDate birthDate = LocalDate.parse(dobField.getText().trim());
-                int age = Period.between(birthDate, LocalDate.now()).getYears();
-
-                model.setValueAt(nameField.getText().trim(), modelRow, 1);
-                model.setValueAt(indexField.getText().trim(), modelRow, 2);
-                model.setValueAt(programField.getSelectedItem(), modelRow, 3);
-                model.setValueAt(levelField.getSelectedItem(), modelRow, 4);
-                model.setValueAt(genderField.getSelectedItem(), modelRow, 5);
-                model.setValueAt(dobField.getText().trim(), modelRow, 6);
-                model.setValueAt(age, modelRow, 7);
-                model.setValueAt(bloodGroupField.getSelectedItem(), modelRow, 8);
-                model.setValueAt(genotypeField.getSelectedItem(), modelRow, 9);
-                model.setValueAt(sicklingField.getSelectedItem(), modelRow, 10);
-                model.setValueAt(phoneField.getText().trim(), modelRow, 11);
-                model.setValueAt(conditionField.getText().trim(), modelRow, 12);
-                model.setValueAt(statusField.getSelectedItem(), modelRow, 13);
 
-                updateStats();
+                model.setRow(modelRow, new Object[]{
+                        model.getValueAt(modelRow, PatientStore.COL_ID),
+                        nameField.getText().trim(),
+                        indexField.getText().trim(),
+                        programField.getSelectedItem(),
+                        levelField.getSelectedItem(),
+                        genderField.getSelectedItem(),
+                        birthDate,
+                        null, // Age is worked out from the DOB
+                        bloodGroupField.getSelectedItem(),
+                        genotypeField.getSelectedItem(),
+                        sicklingField.getSelectedItem(),
+                        phoneField.getText().trim(),
+                        conditionField.getText().trim(),
+                        statusField.getSelectedItem()
+                });
+                events.publish(ClinicEvent.Type.PATIENT_UPDATED, String.valueOf(model.getValueAt(modelRow, PatientStore.COL_ID)),
+                        nameField.getText().trim(), 0);
+
+                searchPipeline.searchNow();
             } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format.", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -413,12 +791,43 @@ public class PatientsPanel extends JPanel {
 
     private void viewPatient() {
         int viewRow = table.getSelectedRow();
-        if (viewRow == -1) {
-            JOptionPane.showMessageDialog(this, "Please select a patient to view.", "No Selection", JOptionPane.WARNING_MESSAGE);
+        if (viewRow != -1) {
+            showProfile(model.slotAt(table.convertRowIndexToModel(viewRow)));
             return;
         }
-        int modelRow = table.convertRowIndexToModel(viewRow);
 
+        // Nothing selected; look the patient up by name, tolerating misspellings
+        String name = JOptionPane.showInputDialog(this, "No patient selected. Enter a name to look up:",
+                "Find Patient", JOptionPane.QUESTION_MESSAGE);
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        int[] candidates = nameIndex.search(name, FuzzyNameIndex.DEFAULT_LIMIT);
+        if (candidates.length == 0) {
+            JOptionPane.showMessageDialog(this, "No patient found with a name like \"" + name.trim() + "\".",
+                    "Not Found", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        String[] choices = new String[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            choices[i] = store.getString(candidates[i], PatientStore.COL_NAME) + "  ("
+                    + store.getString(candidates[i], PatientStore.COL_ID) + ", "
+                    + store.getString(candidates[i], PatientStore.COL_INDEX_NO) + ")";
+        }
+        JList<String> list = new JList<>(choices);
+        list.setSelectedIndex(0);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(Math.min(choices.length, 10));
+
+        int result = JOptionPane.showConfirmDialog(this, new JScrollPane(list), "Closest Matches",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result == JOptionPane.OK_OPTION && list.getSelectedIndex() != -1) {
+            showProfile(candidates[list.getSelectedIndex()]);
+        }
+    }
+
+    private void showProfile(int slot) {
         StringBuilder profile = new StringBuilder();
         profile.append("🏥 PATIENT PROFILE\n\n");
 
@@ -429,7 +838,7 @@ public class PatientsPanel extends JPanel {
         };
 
         for (int i = 0; i < fields.length; i++) {
-            profile.append("• ").append(fields[i]).append(": ").append(model.getValueAt(modelRow, i)).append("\n");
+            profile.append("• ").append(fields[i]).append(": ").append(store.get(slot, i)).append("\n");
         }
 
         profile.append("\n📊 Medical Summary:\n");
@@ -446,10 +855,23 @@ public class PatientsPanel extends JPanel {
         scrollPane.setPreferredSize(new Dimension(500, 400));
 
         JOptionPane.showMessageDialog(this, scrollPane,
-                "Patient Profile - " + model.getValueAt(modelRow, 1),
+                "Patient Profile - " + store.get(slot, PatientStore.COL_NAME),
                 JOptionPane.INFORMATION_MESSAGE);
     }
 
+    private void prefetchRecordsAround(int viewRow) {
+        if (viewRow < 0) {
+            return;
+        }
+        List<String> patientIds = new ArrayList<>();
+        int first = Math.max(0, viewRow - RECORD_PREFETCH_ROWS);
+        int last = Math.min(table.getRowCount() - 1, viewRow + RECORD_PREFETCH_ROWS);
+        for (int row = first; row <= last; row++) {
+            patientIds.add(model.getValueAt(table.convertRowIndexToModel(row), PatientStore.COL_ID).toString());
+        }
+        records.prefetch(patientIds);
+    }
+
     private void viewMedicalRecord() {
         int viewRow = table.getSelectedRow();
         if (viewRow == -1) {
@@ -457,35 +879,101 @@ public class PatientsPanel extends JPanel {
             return;
         }
         int modelRow = table.convertRowIndexToModel(viewRow);
+        Object[] patient = new Object[PatientStore.COLUMNS.length];
+        for (int column = 0; column < patient.length; column++) {
+            patient[column] = model.getValueAt(modelRow, column);
+        }
+        String patientId = patient[PatientStore.COL_ID].toString();
+
+        // Usually prefetched by the time it is opened; otherwise read off the EDT
+        MedicalRecord cached = records.cached(patientId);
+        if (cached != null) {
+            try {
+                showMedicalRecord(patient, records.load(patientId));
+            } catch (IOException ex) {
+                showRecordError(ex);
+            }
+            return;
+        }
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<MedicalRecord, Void>() {
+            @Override
+            protected MedicalRecord doInBackground() throws IOException {
+                return records.load(patientId);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    showMedicalRecord(patient, get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    showRecordError(ex.getCause() != null ? ex.getCause() : ex);
+                }
+            }
+        }.execute();
+    }
+
+    private void showMedicalRecord(Object[] patient, MedicalRecord record) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("❤️ MEDICAL RECORD FOR %s%n%n", patient[PatientStore.COL_NAME]));
+        text.append(String.format("Blood Group: %s%n", patient[PatientStore.COL_BLOOD_GROUP]));
+        text.append(String.format("Genotype: %s%n", patient[PatientStore.COL_GENOTYPE]));
+        text.append(String.format("Sickling Status: %s%n", patient[PatientStore.COL_SICKLING]));
+        text.append(String.format("Current Condition: %s%n%n", patient[PatientStore.COL_CONDITION]));
+
+        text.append("Medical History:\n");
+        text.append("• Allergies: ").append(listOrNone(record.getAllergies())).append("\n");
+        text.append("• Chronic Conditions: ").append(listOrNone(record.getConditions())).append("\n");
+        text.append("• Current Medications: ").append(listOrNone(record.getMedications())).append("\n\n");
+
+        List<MedicalRecord.Visit> visits = record.getVisits();
+        text.append("Visit Notes:\n");
+        if (visits.isEmpty()) {
+            text.append("• None recorded\n");
+        }
+        for (int i = visits.size() - 1; i >= Math.max(0, visits.size() - 10); i--) {
+            text.append("• ").append(visits.get(i).getDate()).append(": ").append(visits.get(i).getNote()).append("\n");
+        }
+
+        JTextArea textArea = new JTextArea(text.toString(), 18, 50);
+        textArea.setEditable(false);
+        textArea.setLineWrap(true);
+        textArea.setWrapStyleWord(true);
+        textArea.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+
+        String title = "Medical Record - " + patient[PatientStore.COL_NAME];
+        String[] options = {"Add Visit Note", "Close"};
+        int choice = JOptionPane.showOptionDialog(this, new JScrollPane(textArea), title,
+                JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE, null, options, options[1]);
+        updateStats();
 
-        String patientName = model.getValueAt(modelRow, 1).toString();
-        String medicalRecord = String.format(
-                "❤️ MEDICAL RECORD FOR %s\n\n" +
-                        "Blood Group: %s\n" +
-                        "Genotype: %s\n" +
-                        "Sickling Status: %s\n" +
-                        "Current Condition: %s\n\n" +
-                        "Medical History:\n" +
-                        "• Allergies: None reported\n" +
-                        "• Chronic Conditions: %s\n" +
-                        "• Current Medications: Prescribed treatment\n" +
-                        "• Last Checkup: %s\n\n" +
-                        "Vital Signs (Last Reading):\n" +
-                        "• Blood Pressure: 120/80 mmHg\n" +
-                        "• Heart Rate: 72 bpm\n" +
-                        "• Temperature: 36.8°C\n" +
-                        "• Oxygen Saturation: 98%%",
-                patientName,
-                model.getValueAt(modelRow, 8),
-                model.getValueAt(modelRow, 9),
-                model.getValueAt(modelRow, 10),
-                model.getValueAt(modelRow, 12),
-                model.getValueAt(modelRow, 12),
-                LocalDate.now().minusDays(15)
-        );
-
-        JOptionPane.showMessageDialog(this, medicalRecord,
-                "Medical Record - " + patientName, JOptionPane.INFORMATION_MESSAGE);
+        if (choice == 0) {
+            JTextArea noteArea = new JTextArea(5, 40);
+            noteArea.setLineWrap(true);
+            noteArea.setWrapStyleWord(true);
+            int result = JOptionPane.showConfirmDialog(this, new JScrollPane(noteArea), "Visit Note - " + patient[PatientStore.COL_NAME],
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            String note = noteArea.getText().trim();
+            if (result == JOptionPane.OK_OPTION && !note.isEmpty()) {
+                try {
+                    MedicalRecord updated = record.withVisit(LocalDate.now(), note);
+                    records.save(updated);
+                    showMedicalRecord(patient, updated);
+                } catch (IOException ex) {
+                    showRecordError(ex);
+                }
+            }
+        }
+    }
+
+    private static String listOrNone(List<String> values) {
+        return values.isEmpty() ? "None recorded" : String.join(", ", values);
+    }
+
+    private void showRecordError(Throwable error) {
+        JOptionPane.showMessageDialog(this, "Could not access the medical record: " + error.getMessage(),
+                "Error", JOptionPane.ERROR_MESSAGE);
     }
 
     private void deletePatient() {
@@ -502,70 +990,111 @@ public class PatientsPanel extends JPanel {
                 "Confirm Deletion", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
 
         if (confirm == JOptionPane.YES_OPTION) {
+            String patientId = String.valueOf(model.getValueAt(modelRow, PatientStore.COL_ID));
+            String name = String.valueOf(model.getValueAt(modelRow, 1));
             model.removeRow(modelRow);
+            events.publish(ClinicEvent.Type.PATIENT_REMOVED, patientId, name, 0);
             updateStats();
             JOptionPane.showMessageDialog(this, "Patient deleted successfully!", "Deleted", JOptionPane.INFORMATION_MESSAGE);
         }
     }
 
+    private void checkDay() {
+        LocalDate today = store.today();
+        if (!today.equals(agesAsOf)) {
+            agesAsOf = today;
+            refreshAges();
+        }
+    }
+
+    // Ages are read live, so only the bands, the age filter and the visible rows need refreshing
+    private void refreshAges() {
+        if (ageBands.advanceTo(store.today()) > 0 && ageSelection >= 0) {
+            applyFilters();
+        }
+        if (model.getRowCount() > 0) {
+            model.fireTableRowsUpdated(0, model.getRowCount() - 1);
+        }
+        updateStats();
+    }
+
     private void reload() {
         searchField.setText("");
-        table.setRowSorter(null);
+        searchResult = null;
+        facetSelection.clear();
+        ageSelection = -1;
+        model.clearFilter();
         updateStats();
         JOptionPane.showMessageDialog(this, "Patient data refreshed!", "Reload", JOptionPane.INFORMATION_MESSAGE);
     }
 
+    // Every row was replaced, so filters over the old slots no longer apply
+    private void patientsRestored() {
+        searchField.setText("");
+        searchResult = null;
+        facetSelection.clear();
+        ageSelection = -1;
+        model.clearFilter();
+        model.fireTableDataChanged();
+        updateStats();
+    }
+
     private void loadSampleData() {
         // Clear existing data
-        model.setRowCount(0);
+        model.clear();
 
         // Add sample patients with enhanced student information
         model.addRow(new Object[]{
                 "PAT-1001", "Ama Mensah", "UPSA2023001", "BSc Information Technology", "300", "Female",
-                "1996-05-12", Period.between(LocalDate.of(1996,5,12), LocalDate.now()).getYears(),
+                "1996-05-12", null,
                 "O+", "AA", "Negative", "024-111-2222", "Diabetes", "Active"
         });
 
         model.addRow(new Object[]{
                 "PAT-1002", "Kwame Ofori", "UPSA2023002", "BSc Business Administration", "200", "Male",
-                "1998-08-25", Period.between(LocalDate.of(1998,8,25), LocalDate.now()).getYears(),
+                "1998-08-25", null,
                 "A+", "AS", "Positive", "024-333-4444", "Hypertension", "Active"
         });
 
         model.addRow(new Object[]{
                 "PAT-1003", "Esi Boateng", "UPSA2023003", "BSc Accounting", "400", "Female",
-                "1995-12-03", Period.between(LocalDate.of(1995,12,3), LocalDate.now()).getYears(),
+                "1995-12-03", null,
                 "B-", "AA", "Negative", "024-555-6666", "Asthma", "Active"
         });
 
         model.addRow(new Object[]{
                 "PAT-1004", "Yaw Bonsu", "UPSA2023004", "BSc Nursing", "100", "Male",
-                "2000-03-18", Period.between(LocalDate.of(2000,3,18), LocalDate.now()).getYears(),
+                "2000-03-18", null,
                 "AB+", "AS", "Negative", "024-777-8888", "None", "Active"
         });
 
         model.addRow(new Object[]{
                 "PAT-1005", "Akua Serwaa", "UPSA2023005", "Diploma in Management", "Graduate", "Female",
-                "1993-07-30", Period.between(LocalDate.of(1993,7,30), LocalDate.now()).getYears(),
+                "1993-07-30", null,
                 "O-", "AA", "Negative", "024-999-0000", "Migraine", "Inactive"
         });
     }
 
     private void updateStats() {
-        int total = model.getRowCount();
-        int active = 0, inactive = 0, discharged = 0;
-
-        for (int i = 0; i < model.getRowCount(); i++) {
-            String status = model.getValueAt(i, 13).toString();
-            switch (status.toLowerCase()) {
-                case "active": active++; break;
-                case "inactive": inactive++; break;
-                case "discharged": discharged++; break;
-            }
-        }
+        int total = store.size();
+        int active = facets.count(PatientStore.COL_STATUS, "Active");
+        int inactive = facets.count(PatientStore.COL_STATUS, "Inactive");
+        int discharged = facets.count(PatientStore.COL_STATUS, "Discharged");
 
         String stats = String.format("Total: %d | Active: %d | Inactive: %d | Discharged: %d",
                 total, active, inactive, discharged);
+        if (model.isFiltered()) {
+            stats += " | Showing: " + model.getRowCount();
+        }
+        if (!facetSelection.isEmpty() || ageSelection >= 0) {
+            List<String> filter = new ArrayList<>(facetSelection.values());
+            if (ageSelection >= 0) {
+                filter.add("Age " + AgeIndex.BANDS[ageSelection]);
+            }
+            stats += " | Filter: " + String.join(", ", filter);
+        }
+        statsLabel.setToolTipText(searchPipeline.describeLatency() + " | " + records.describeStats()
+                + " | " + Journal.shared().describeStats());
         statsLabel.setText(stats);
     }
 }
\ No newline at end of file
@@ -1,23 +1,53 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.components.SearchPipeline;
+import upsa.clinic.components.TableSearchIndex;
+import upsa.clinic.components.TickScheduler;
+import upsa.clinic.data.ClinicEvent;
+import upsa.clinic.data.ClinicStats;
+import upsa.clinic.data.ClinicRestore;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.IdSequence;
+import upsa.clinic.data.InventoryFile;
+import upsa.clinic.data.InventoryTableModel;
+import upsa.clinic.data.RowAggregate;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 
 public class PharmacyPanel extends JPanel {
 
-    private DefaultTableModel model;
+    private final InventoryFile inventory = InventoryFile.open();
+    private InventoryTableModel model;
+    // Follow the model's events, so updateStats only reads them
+    private RowAggregate inStock, lowStock, outOfStock, totalValue;
     private JTable table;
     private JTextField searchField;
-    private TableRowSorter<DefaultTableModel> sorter;
+    private TableRowSorter<InventoryTableModel> sorter;
+    private TableSearchIndex searchIndex;
+    private SearchPipeline<TableSearchIndex.Result> searchPipeline;
     private JLabel statsLabel;
+    private final IdSequence drugIds = IdSequence.forName("drug", 1006);
+    private final EventBus events = EventBus.shared();
+
+    // Picks up dispensing and restocking done at other desks sharing the inventory file
+    private static final int POLL_MILLIS = 2000;
+    private TickScheduler.Task pollTask;
+    private boolean openFailureShown;
+
+    // A restore writes through its own handle; no need to wait for the next poll
+    private final ClinicRestore.Listener restoreListener = part -> {
+        if (ClinicRestore.PHARMACY.equals(part)) {
+            pollInventory();
+        }
+    };
 
     public PharmacyPanel() {
         setLayout(new BorderLayout());
@@ -35,8 +65,12 @@ public class PharmacyPanel extends JPanel {
         // Side actions panel
         add(createActionsPanel(), BorderLayout.EAST);
 
-        // Load sample data
-        loadSampleData();
+        setupSearch();
+
+        // Load sample data on the first run only
+        if (inventory.isNew()) {
+            loadSampleData();
+        }
         updateStats();
     }
 
@@ -80,13 +114,7 @@ public class PharmacyPanel extends JPanel {
         searchButton.setForeground(Color.WHITE);
         searchButton.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         searchButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
-        searchButton.addActionListener(e -> filter(searchField.getText().trim()));
-
-        searchField.addKeyListener(new KeyAdapter() {
-            public void keyReleased(KeyEvent e) {
-                filter(searchField.getText().trim());
-            }
-        });
+        searchButton.addActionListener(e -> searchPipeline.searchNow());
 
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchButton, BorderLayout.EAST);
@@ -112,15 +140,13 @@ public class PharmacyPanel extends JPanel {
         JPanel tablePanel = new JPanel(new BorderLayout());
         tablePanel.setBorder(BorderFactory.createEmptyBorder(0, 25, 25, 25));
 
-        // Create table model with enhanced columns
-        model = new DefaultTableModel(
-                new String[]{"ID", "Drug Name", "Category", "Quantity", "Unit Price", "Total Value", "Expiry Date", "Supplier", "Status"}, 0
-        ) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make table read-only
-            }
-        };
+        // Cells are read straight from the inventory file
+        model = new InventoryTableModel(inventory);
+        ClinicStats.shared().watchPharmacy(model);
+        inStock = countStatus("in stock");
+        lowStock = countStatus("low stock");
+        outOfStock = countStatus("out of stock");
+        totalValue = new RowAggregate(model, row -> inventory.getQuantity(row) * inventory.getUnitPrice(row), () -> { });
 
         table = new JTable(model);
         table.setRowHeight(36);
@@ -219,12 +245,14 @@ public class PharmacyPanel extends JPanel {
         return button;
     }
 
-    private void filter(String query) {
-        if (query.isEmpty()) {
-            table.setRowSorter(null);
-        } else {
-            sorter.setRowFilter(RowFilter.regexFilter("(?i)" + query));
-        }
+    private void setupSearch() {
+        // Keystrokes are debounced and matched off the EDT
+        searchIndex = new TableSearchIndex(model);
+        searchPipeline = new SearchPipeline<>(searchField, searchIndex::match, this::applySearch);
+    }
+
+    private void applySearch(TableSearchIndex.Result result) {
+        sorter.setRowFilter(result == null ? null : searchIndex.rowFilter(result));
         updateStats();
     }
 
@@ -268,20 +296,19 @@ public class PharmacyPanel extends JPanel {
                 LocalDate expiryDate = LocalDate.parse(expiryField.getText().trim());
                 int quantity = Integer.parseInt(quantityField.getText().trim());
                 double unitPrice = Double.parseDouble(priceField.getText().trim());
-                double totalValue = quantity * unitPrice;
 
-                int newId = model.getRowCount() + 1;
-                model.addRow(new Object[]{
-                        "DRUG-" + newId,
+                String drugId = "DRUG-" + drugIds.next();
+                inventory.add(
+                        drugId,
                         nameField.getText().trim(),
-                        categoryField.getSelectedItem(),
+                        (String) categoryField.getSelectedItem(),
                         quantity,
-                        String.format("₵%.2f", unitPrice),
-                        String.format("₵%.2f", totalValue),
-                        expiryField.getText().trim(),
-                        supplierField.getSelectedItem(),
-                        statusField.getSelectedItem()
-                });
+                        Math.round(unitPrice * 100),
+                        expiryDate,
+                        (String) supplierField.getSelectedItem(),
+                        (String) statusField.getSelectedItem()
+                );
+                events.publish(ClinicEvent.Type.DRUG_ADDED, drugId, nameField.getText().trim(), quantity);
 
                 updateStats();
                 JOptionPane.showMessageDialog(this, "Drug added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -289,6 +316,8 @@ public class PharmacyPanel extends JPanel {
                 JOptionPane.showMessageDialog(this, "Invalid date format. Please use YYYY-MM-DD.", "Error", JOptionPane.ERROR_MESSAGE);
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid number format for quantity or price.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (UncheckedIOException | IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, "Could not add the drug: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -300,6 +329,7 @@ public class PharmacyPanel extends JPanel {
             return;
         }
         int modelRow = table.convertRowIndexToModel(viewRow);
+        String drugId = inventory.getId(modelRow);
 
         JPanel formPanel = new JPanel(new GridLayout(7, 2, 10, 10));
         formPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -346,22 +376,19 @@ public class PharmacyPanel extends JPanel {
                 LocalDate expiryDate = LocalDate.parse(expiryField.getText().trim());
                 int quantity = Integer.parseInt(quantityField.getText().trim());
                 double unitPrice = Double.parseDouble(priceField.getText().trim());
-                double totalValue = quantity * unitPrice;
 
-                model.setValueAt(nameField.getText().trim(), modelRow, 1);
-                model.setValueAt(categoryField.getSelectedItem(), modelRow, 2);
-                model.setValueAt(quantity, modelRow, 3);
-                model.setValueAt(String.format("₵%.2f", unitPrice), modelRow, 4);
-                model.setValueAt(String.format("₵%.2f", totalValue), modelRow, 5);
-                model.setValueAt(expiryField.getText().trim(), modelRow, 6);
-                model.setValueAt(supplierField.getSelectedItem(), modelRow, 7);
-                model.setValueAt(statusField.getSelectedItem(), modelRow, 8);
+                inventory.update(currentRow(drugId), nameField.getText().trim(), (String) categoryField.getSelectedItem(),
+                        quantity, Math.round(unitPrice * 100), expiryDate, (String) supplierField.getSelectedItem(),
+                        (String) statusField.getSelectedItem());
+                events.publish(ClinicEvent.Type.DRUG_UPDATED, drugId, nameField.getText().trim(), quantity);
 
                 updateStats();
             } catch (DateTimeParseException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid date format.", "Error", JOptionPane.ERROR_MESSAGE);
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid number format.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (UncheckedIOException | IllegalStateException ex) {
+                JOptionPane.showMessageDialog(this, "Could not save the drug: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -373,6 +400,7 @@ public class PharmacyPanel extends JPanel {
             return;
         }
         int modelRow = table.convertRowIndexToModel(viewRow);
+        String drugId = inventory.getId(modelRow);
 
         int confirm = JOptionPane.showConfirmDialog(this,
                 "Are you sure you want to remove this drug?\nDrug: " + model.getValueAt(modelRow, 1) +
@@ -380,9 +408,19 @@ public class PharmacyPanel extends JPanel {
                 "Confirm Removal", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            model.removeRow(modelRow);
-            updateStats();
-            JOptionPane.showMessageDialog(this, "Drug removed successfully!", "Removed", JOptionPane.INFORMATION_MESSAGE);
+            try {
+                int row = inventory.rowOf(drugId);
+                // Already gone if another desk removed it meanwhile
+                if (row != -1) {
+                    String name = inventory.getName(row);
+                    inventory.remove(row);
+                    events.publish(ClinicEvent.Type.DRUG_REMOVED, drugId, name, 0);
+                }
+                updateStats();
+                JOptionPane.showMessageDialog(this, "Drug removed successfully!", "Removed", JOptionPane.INFORMATION_MESSAGE);
+            } catch (UncheckedIOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not remove the drug: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
         }
     }
 
@@ -393,9 +431,10 @@ public class PharmacyPanel extends JPanel {
             return;
         }
         int modelRow = table.convertRowIndexToModel(viewRow);
+        String drugId = inventory.getId(modelRow);
 
-        String currentDrug = model.getValueAt(modelRow, 1).toString();
-        String currentQty = model.getValueAt(modelRow, 3).toString();
+        String currentDrug = inventory.getName(modelRow);
+        int currentQty = inventory.getQuantity(modelRow);
 
         JTextField restockField = new JTextField("0");
         Object[] message = {
@@ -410,20 +449,14 @@ public class PharmacyPanel extends JPanel {
         if (result == JOptionPane.OK_OPTION) {
             try {
                 int addQty = Integer.parseInt(restockField.getText().trim());
-                int current = Integer.parseInt(currentQty);
-                int newQty = current + addQty;
-
-                // Update quantity
-                model.setValueAt(newQty, modelRow, 3);
-
-                // Update total value
-                double unitPrice = Double.parseDouble(model.getValueAt(modelRow, 4).toString().replace("₵", ""));
-                double totalValue = newQty * unitPrice;
-                model.setValueAt(String.format("₵%.2f", totalValue), modelRow, 5);
+                if (addQty < 0) {
+                    JOptionPane.showMessageDialog(this, "Please enter a valid number.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
 
-                // Update status
-                String newStatus = getStockStatus(newQty);
-                model.setValueAt(newStatus, modelRow, 8);
+                // Quantity, total value and status are updated in place
+                int newQty = inventory.addStock(currentRow(drugId), addQty, this::getStockStatus);
+                events.publish(ClinicEvent.Type.DRUG_RESTOCKED, drugId, currentDrug, addQty);
 
                 updateStats();
                 JOptionPane.showMessageDialog(this,
@@ -431,6 +464,8 @@ public class PharmacyPanel extends JPanel {
                         "Restock Complete", JOptionPane.INFORMATION_MESSAGE);
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter a valid number.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (UncheckedIOException | IllegalStateException ex) {
+                JOptionPane.showMessageDialog(this, "Could not restock: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -442,9 +477,10 @@ public class PharmacyPanel extends JPanel {
             return;
         }
         int modelRow = table.convertRowIndexToModel(viewRow);
+        String drugId = inventory.getId(modelRow);
 
-        String currentDrug = model.getValueAt(modelRow, 1).toString();
-        String currentQty = model.getValueAt(modelRow, 3).toString();
+        String currentDrug = inventory.getName(modelRow);
+        int currentQty = inventory.getQuantity(modelRow);
 
         JTextField dispenseField = new JTextField("1");
         JTextField patientField = new JTextField();
@@ -462,26 +498,24 @@ public class PharmacyPanel extends JPanel {
         if (result == JOptionPane.OK_OPTION) {
             try {
                 int dispenseQty = Integer.parseInt(dispenseField.getText().trim());
-                int current = Integer.parseInt(currentQty);
+                if (dispenseQty < 0) {
+                    JOptionPane.showMessageDialog(this, "Please enter valid numbers.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
 
-                if (dispenseQty > current) {
+                // Checked against the stock at this moment, which another desk may have dispensed from
+                int row = currentRow(drugId);
+                int newQty = inventory.addStock(row, -dispenseQty, this::getStockStatus);
+                if (newQty == -1) {
                     JOptionPane.showMessageDialog(this,
-                            "Insufficient stock! Available: " + current,
+                            "Insufficient stock! Available: " + inventory.getQuantity(row),
                             "Stock Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
-
-                int newQty = current - dispenseQty;
-                model.setValueAt(newQty, modelRow, 3);
-
-                // Update total value
-                double unitPrice = Double.parseDouble(model.getValueAt(modelRow, 4).toString().replace("₵", ""));
-                double totalValue = newQty * unitPrice;
-                model.setValueAt(String.format("₵%.2f", totalValue), modelRow, 5);
-
-                // Update status
-                String newStatus = getStockStatus(newQty);
-                model.setValueAt(newStatus, modelRow, 8);
+                events.publish(ClinicEvent.Type.DRUG_DISPENSED, drugId, currentDrug, dispenseQty);
+                if (!getStockStatus(newQty).equals("In Stock")) {
+                    events.publish(ClinicEvent.Type.STOCK_LOW, drugId, currentDrug, newQty);
+                }
 
                 updateStats();
                 JOptionPane.showMessageDialog(this,
@@ -490,6 +524,8 @@ public class PharmacyPanel extends JPanel {
                         "Dispense Complete", JOptionPane.INFORMATION_MESSAGE);
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter valid numbers.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (UncheckedIOException | IllegalStateException ex) {
+                JOptionPane.showMessageDialog(this, "Could not dispense: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -504,8 +540,8 @@ public class PharmacyPanel extends JPanel {
 
         for (int i = 0; i < model.getRowCount(); i++) {
             try {
-                int quantity = Integer.parseInt(model.getValueAt(i, 3).toString());
-                LocalDate expiry = LocalDate.parse(model.getValueAt(i, 6).toString());
+                int quantity = inventory.getQuantity(i);
+                LocalDate expiry = inventory.getExpiry(i);
 
                 // Check low stock
                 if (quantity < 20) {
@@ -515,7 +551,7 @@ public class PharmacyPanel extends JPanel {
                 }
 
                 // Check expiry (within 30 days) - FIXED: Added missing parenthesis
-                if (expiry.isBefore(today.plusDays(30))) {
+                if (expiry != null && expiry.isBefore(today.plusDays(30))) {
                     long daysUntilExpiry = java.time.temporal.ChronoUnit.DAYS.between(today, expiry);
                     if (daysUntilExpiry <= 0) {
                         alerts.append("🚨 EXPIRED: ").append(model.getValueAt(i, 1))
@@ -563,12 +599,63 @@ public class PharmacyPanel extends JPanel {
     }
 
     private void reload() {
+        inventory.poll();
         searchField.setText("");
-        table.setRowSorter(null);
+        sorter.setRowFilter(null);
         updateStats();
         JOptionPane.showMessageDialog(this, "Pharmacy inventory refreshed!", "Reload", JOptionPane.INFORMATION_MESSAGE);
     }
 
+    // Polls while the panel is in a window, shown or not, so the dashboard's figures stay current
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (pollTask == null && inventory.isPersistent()) {
+            pollTask = TickScheduler.shared().scheduleWhileHidden(this, "pharmacy poll", POLL_MILLIS, this::pollInventory);
+        }
+        ClinicRestore.addListener(restoreListener);
+        if (inventory.getOpenFailure() != null && !openFailureShown) {
+            openFailureShown = true;
+            SwingUtilities.invokeLater(this::showOpenFailure);
+        }
+    }
+
+    private void showOpenFailure() {
+        JOptionPane.showMessageDialog(
+                this,
+                "The pharmacy inventory could not be opened:\n" + inventory.getOpenFailure().getMessage() + "\n\n" +
+                        "Stock changes made now will be lost when the clinic closes.\n" +
+                        "Fix the problem and restart the clinic to work on the saved inventory.",
+                "Inventory Not Saved",
+                JOptionPane.ERROR_MESSAGE
+        );
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+        ClinicRestore.removeListener(restoreListener);
+    }
+
+    private void pollInventory() {
+        if (inventory.poll() > 0) {
+            updateStats();
+        }
+    }
+
+    // Row of a drug now; dialogs stay open while other desks' changes move rows
+    private int currentRow(String drugId) {
+        int row = inventory.rowOf(drugId);
+        if (row == -1) {
+            throw new IllegalStateException("the drug was removed at another desk");
+        }
+        return row;
+    }
+
     private String getStockStatus(int quantity) {
         if (quantity == 0) return "Out of Stock";
         if (quantity < 20) return "Low Stock";
@@ -576,59 +663,33 @@ public class PharmacyPanel extends JPanel {
     }
 
     private void loadSampleData() {
-        // Clear existing data
-        model.setRowCount(0);
+        // Add sample drugs with enhanced information; prices are in pesewas
+        inventory.add("DRUG-1001", "Paracetamol 500mg", "Analgesics", 120, 50,
+                LocalDate.of(2026, 3, 1), "MediCorp Ghana", "In Stock");
 
-        // Add sample drugs with enhanced information
-        model.addRow(new Object[]{
-                "DRUG-1001", "Paracetamol 500mg", "Analgesics", 120, "₵0.50", "₵60.00",
-                "2026-03-01", "MediCorp Ghana", "In Stock"
-        });
+        inventory.add("DRUG-1002", "Amoxicillin 250mg", "Antibiotics", 50, 120,
+                LocalDate.of(2025, 11, 11), "PharmaPlus Ltd", "Low Stock");
 
-        model.addRow(new Object[]{
-                "DRUG-1002", "Amoxicillin 250mg", "Antibiotics", 50, "₵1.20", "₵60.00",
-                "2025-11-11", "PharmaPlus Ltd", "Low Stock"
-        });
+        inventory.add("DRUG-1003", "Vitamin C 1000mg", "Vitamins", 200, 250,
+                LocalDate.of(2026, 12, 15), "HealthSupplies Inc", "In Stock");
 
-        model.addRow(new Object[]{
-                "DRUG-1003", "Vitamin C 1000mg", "Vitamins", 200, "₵2.50", "₵500.00",
-                "2026-12-15", "HealthSupplies Inc", "In Stock"
-        });
+        inventory.add("DRUG-1004", "Insulin Syringes", "Medical Supplies", 15, 80,
+                LocalDate.of(2027, 1, 20), "Local Supplier", "Low Stock");
 
-        model.addRow(new Object[]{
-                "DRUG-1004", "Insulin Syringes", "Medical Supplies", 15, "₵0.80", "₵12.00",
-                "2027-01-20", "Local Supplier", "Low Stock"
-        });
+        inventory.add("DRUG-1005", "Ibuprofen 400mg", "Analgesics", 0, 75,
+                LocalDate.of(2025, 9, 30), "MediCorp Ghana", "Out of Stock");
+    }
 
-        model.addRow(new Object[]{
-                "DRUG-1005", "Ibuprofen 400mg", "Analgesics", 0, "₵0.75", "₵0.00",
-                "2025-09-30", "MediCorp Ghana", "Out of Stock"
-        });
+    private RowAggregate countStatus(String status) {
+        return new RowAggregate(model, row -> status.equalsIgnoreCase(inventory.getStatus(row)) ? 1 : 0, () -> { });
     }
 
     private void updateStats() {
-        int totalItems = model.getRowCount();
-        int inStock = 0, lowStock = 0, outOfStock = 0;
-        double totalValue = 0.0;
-
-        for (int i = 0; i < model.getRowCount(); i++) {
-            String status = model.getValueAt(i, 8).toString();
-            switch (status.toLowerCase()) {
-                case "in stock": inStock++; break;
-                case "low stock": lowStock++; break;
-                case "out of stock": outOfStock++; break;
-            }
-
-            try {
-                String valueStr = model.getValueAt(i, 5).toString().replace("₵", "");
-                totalValue += Double.parseDouble(valueStr);
-            } catch (NumberFormatException e) {
-                // Skip invalid values
-            }
-        }
+        int totalItems = inventory.size();
 
-        String stats = String.format("Items: %d | In Stock: %d | Low: %d | Out: %d | Total Value: ₵%.2f",
-                totalItems, inStock, lowStock, outOfStock, totalValue);
+        String stats = String.format("Items: %d | In Stock: %d | Low: %d | Out: %d | Total Value: %s",
+                totalItems, inStock.total(), lowStock.total(), outOfStock.total(),
+                InventoryTableModel.formatCedis(totalValue.total()));
         statsLabel.setText(stats);
     }
 }
\ No newline at end of file
@@ -1,20 +1,49 @@
 package upsa.clinic.panels;
 
 import upsa.clinic.Colors;
+import upsa.clinic.components.TickScheduler;
+import upsa.clinic.data.AutoBackup;
+import upsa.clinic.data.BackupEngine;
+import upsa.clinic.data.BackupManifest;
+import upsa.clinic.data.BackupStore;
+import upsa.clinic.data.ClinicRestore;
+import upsa.clinic.data.EventBus;
+import upsa.clinic.data.Replication;
+import upsa.clinic.data.RestoreEngine;
+import upsa.clinic.data.StringDictionary;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class SettingsPanel extends JPanel {
 
+    private static final Duration[] INTERVALS = {
+            Duration.ofHours(1), Duration.ofHours(4), Duration.ofHours(12), Duration.ofDays(1)
+    };
+    private static final String[] INTERVAL_LABELS = {
+            "Every hour", "Every 4 hours", "Every 12 hours", "Every day"
+    };
+
     private JComboBox<String> themeCombo;
     private JComboBox<String> languageCombo;
     private JCheckBox notificationsCheck;
     private JCheckBox autoBackupCheck;
     private JCheckBox compactModeCheck;
     private JSlider fontSizeSlider;
+    // Scheduled backups, and the one a "Backup Now" runs through
+    private final AutoBackup autoBackup = AutoBackup.forClinic();
+    // The restore in progress, or null
+    private RestoreEngine runningRestore;
 
     public SettingsPanel() {
         setLayout(new BorderLayout());
@@ -274,7 +303,24 @@ public class SettingsPanel extends JPanel {
         // Backup settings
         JPanel backupPanel = createSectionPanel("Backup & Data");
 
-        autoBackupCheck = new JCheckBox("Automatic Daily Backup", true);
+        autoBackupCheck = new JCheckBox("Automatic Backup", true);
+        JComboBox<String> backupInterval = new JComboBox<>(INTERVAL_LABELS);
+        Duration interval = autoBackup.getInterval();
+        int known = Arrays.asList(INTERVALS).indexOf(interval);
+        if (known < 0) {
+            backupInterval.addItem(String.format("Every %d minutes", interval.toMinutes()));
+            backupInterval.setSelectedIndex(INTERVALS.length);
+        } else {
+            backupInterval.setSelectedIndex(known);
+        }
+        backupInterval.addActionListener(e -> {
+            int index = backupInterval.getSelectedIndex();
+            if (index < INTERVALS.length) {
+                autoBackup.setInterval(INTERVALS[index]);
+            }
+        });
+        autoBackupCheck.addActionListener(e -> autoBackup.setEnabled(autoBackupCheck.isSelected()));
+        autoBackup.setEnabled(autoBackupCheck.isSelected());
         JComboBox<String> backupLocation = new JComboBox<>(new String[]{
                 "Local Server", "Cloud Storage", "External Drive", "Network Location"
         });
@@ -288,6 +334,8 @@ public class SettingsPanel extends JPanel {
 
         backupPanel.add(autoBackupCheck);
         backupPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+        backupPanel.add(createFormField("Back Up:", backupInterval));
+        backupPanel.add(Box.createRigidArea(new Dimension(0, 10)));
         backupPanel.add(createFormField("Backup Location:", backupLocation));
         backupPanel.add(Box.createRigidArea(new Dimension(0, 15)));
         backupPanel.add(backupNowBtn);
@@ -497,21 +545,218 @@ public class SettingsPanel extends JPanel {
     }
 
     private void performBackup() {
+        if (autoBackup.isRunning()) {
+            JOptionPane.showMessageDialog(this, "A backup is already running.", "Backup", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (runningRestore != null) {
+            JOptionPane.showMessageDialog(this, "Please wait for the restore to finish.", "Backup",
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        ProgressMonitor monitor = new ProgressMonitor(this, "Backing up clinic data", "Scanning files...", 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+
+        // Freezing a view, chunking, hashing and compression run in the background, throttled
+        // so the desk stays responsive
+        SwingWorker<AutoBackup.Run, long[]> worker = new SwingWorker<AutoBackup.Run, long[]>() {
+            @Override
+            protected AutoBackup.Run doInBackground() throws Exception {
+                return autoBackup.backupNow((scanned, total, stored, deduplicated) -> {
+                    setProgress((int) (100 * scanned / Math.max(1, total)));
+                    publish(new long[]{scanned, total, stored, deduplicated});
+                });
+            }
+
+            @Override
+            protected void process(List<long[]> updates) {
+                long[] latest = updates.get(updates.size() - 1);
+                monitor.setNote(String.format("%s of %s read, %s written, %s already backed up",
+                        megabytes(latest[0]), megabytes(latest[1]), megabytes(latest[2]), megabytes(latest[3])));
+                if (monitor.isCanceled()) {
+                    autoBackup.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                try {
+                    showBackupSummary(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(SettingsPanel.this, "Backup failed: " + cause.getMessage(),
+                            "Backup Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                monitor.setProgress((Integer) e.getNewValue());
+            }
+        });
+        worker.execute();
+    }
+
+    private void showBackupSummary(AutoBackup.Run run) {
+        BackupEngine.Result result = run.getResult();
+        if (result.isCancelled()) {
+            JOptionPane.showMessageDialog(this,
+                    "Backup cancelled.\n\nChunks copied so far are kept and will not be copied again next time.",
+                    "Backup", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        long total = result.getTotalBytes();
         JOptionPane.showMessageDialog(this,
-                "System backup initiated!\n\n" +
-                        "• Patient records: Backing up...\n" +
-                        "• Medical data: Backing up...\n" +
-                        "• Pharmacy inventory: Backing up...\n" +
-                        "• System settings: Backing up...\n\n" +
-                        "Backup will complete in the background.",
-                "Backup Started", JOptionPane.INFORMATION_MESSAGE);
+                "Backup complete!\n\n" +
+                        String.format("• Files: %,d (%,d unchanged since the last backup)%n", result.getFiles(),
+                                result.getUnchangedFiles()) +
+                        String.format("• Data: %s%n", megabytes(total)) +
+                        String.format("• Written: %s compressed, %,d new chunks%n", megabytes(result.getStoredBytes()),
+                                result.getNewChunks()) +
+                        String.format("• Saved by deduplication: %s (%.0f%%)%n", megabytes(result.getDeduplicatedBytes()),
+                                100.0 * result.getDeduplicatedBytes() / Math.max(1, total)) +
+                        String.format("• Time: %.1f s, locks held %.1f ms%n", run.getElapsedMillis() / 1000.0,
+                                run.getLockMillis()) +
+                        "• Saved to: " + result.getManifest().getParent().getParent(),
+                "Backup Complete", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
     }
 
     private void restoreData() {
+        if (autoBackup.isRunning() || runningRestore != null) {
+            JOptionPane.showMessageDialog(this, "Please wait for the running backup or restore to finish.",
+                    "Restore Data", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        RestoreEngine engine;
+        List<Path> backups;
+        try {
+            engine = RestoreEngine.forClinic();
+            backups = engine.getStore().listBackups();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Cannot open the backup store: " + ex.getMessage(),
+                    "Restore Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (backups.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "There is no backup to restore from yet.",
+                    "Restore Data", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        // Newest backup first
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("EEE d MMM yyyy, HH:mm").withZone(ZoneId.systemDefault());
+        String[] backupChoices = new String[backups.size()];
+        for (int i = 0; i < backupChoices.length; i++) {
+            backupChoices[i] = format.format(BackupStore.createdAt(backups.get(backups.size() - 1 - i)));
+        }
+        String[] partChoices = new String[ClinicRestore.PARTS.size() + 1];
+        partChoices[0] = partLabel(ClinicRestore.EVERYTHING);
+        for (int i = 0; i < ClinicRestore.PARTS.size(); i++) {
+            partChoices[i + 1] = partLabel(ClinicRestore.PARTS.get(i));
+        }
+        JComboBox<String> backupCombo = new JComboBox<>(backupChoices);
+        JComboBox<String> partCombo = new JComboBox<>(partChoices);
+
+        JPanel formPanel = new JPanel(new GridLayout(2, 2, 10, 10));
+        formPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        formPanel.add(new JLabel("Backup:"));
+        formPanel.add(backupCombo);
+        formPanel.add(new JLabel("Restore:"));
+        formPanel.add(partCombo);
+
+        int result = JOptionPane.showConfirmDialog(this, formPanel, "Restore Data",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+        Path backup = backups.get(backups.size() - 1 - backupCombo.getSelectedIndex());
+        String part = partCombo.getSelectedIndex() == 0 ? ClinicRestore.EVERYTHING
+                : ClinicRestore.PARTS.get(partCombo.getSelectedIndex() - 1);
+        String label = partLabel(part);
+        String when = (String) backupCombo.getSelectedItem();
+
+        int confirm = JOptionPane.showConfirmDialog(this,
+                label + " will be replaced with the backup of " + when + ".\n" +
+                        "Changes made since then will be lost. Continue?",
+                "Confirm Restore", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
+        }
+        runningRestore = engine;
+
+        ProgressMonitor monitor = new ProgressMonitor(this, "Restoring " + label.toLowerCase(),
+                "Reading the backup...", 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+
+        // Chunks are read and checked on several threads; only the final swap of rows happens on the EDT
+        SwingWorker<RestoreEngine.Result, long[]> worker = new SwingWorker<RestoreEngine.Result, long[]>() {
+            @Override
+            protected RestoreEngine.Result doInBackground() throws Exception {
+                BackupManifest manifest = BackupManifest.read(backup);
+                return ClinicRestore.restore(engine, manifest, part, (restored, total) -> {
+                    setProgress((int) (100 * restored / Math.max(1, total)));
+                    publish(new long[]{restored, total});
+                });
+            }
+
+            @Override
+            protected void process(List<long[]> updates) {
+                long[] latest = updates.get(updates.size() - 1);
+                monitor.setNote(String.format("%s of %s restored and checked", megabytes(latest[0]), megabytes(latest[1])));
+                if (monitor.isCanceled()) {
+                    engine.cancel();
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                runningRestore = null;
+                try {
+                    showRestoreSummary(get(), label, when);
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(SettingsPanel.this, "Restore failed: " + cause.getMessage(),
+                            "Restore Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                monitor.setProgress((Integer) e.getNewValue());
+            }
+        });
+        worker.execute();
+    }
+
+    private void showRestoreSummary(RestoreEngine.Result result, String label, String when) {
+        if (result.isCancelled()) {
+            JOptionPane.showMessageDialog(this, "Restore cancelled.\n\nNothing was changed.",
+                    "Restore Data", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
         JOptionPane.showMessageDialog(this,
-                "Data restoration requires administrative approval.\n" +
-                        "Please contact system administrator for data restoration procedures.",
-                "Restore Data", JOptionPane.WARNING_MESSAGE);
+                "Restore complete!\n\n" +
+                        "• Restored: " + label + " from the backup of " + when + "\n" +
+                        String.format("• Files: %,d rebuilt from %,d chunks, every checksum verified%n",
+                                result.getFiles(), result.getChunks()) +
+                        String.format("• Data: %s%n", megabytes(result.getTotalBytes())) +
+                        String.format("• Rebuilt and checked in %.1f s", result.getElapsedMillis() / 1000.0),
+                "Restore Complete", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private static String partLabel(String part) {
+        if (ClinicRestore.EVERYTHING.equals(part)) {
+            return "Everything";
+        } else if (ClinicRestore.RECORDS.equals(part)) {
+            return "Medical records";
+        }
+        return Character.toUpperCase(part.charAt(0)) + part.substring(1);
     }
 
     private void clearCache() {
@@ -533,7 +778,11 @@ public class SettingsPanel extends JPanel {
                         "• OS: " + System.getProperty("os.name") + " " + System.getProperty("os.version") + "\n" +
                         "• Architecture: " + System.getProperty("os.arch") + "\n" +
                         "• User: " + System.getProperty("user.name") + "\n" +
-                        "• Memory: " + (Runtime.getRuntime().maxMemory() / (1024 * 1024)) + " MB\n\n" +
+                        "• Memory: " + (Runtime.getRuntime().maxMemory() / (1024 * 1024)) + " MB\n" +
+                        "• " + Replication.describeStats() + "\n" +
+                        "• " + EventBus.shared().describeStats() + "\n" +
+                        "• " + TickScheduler.shared().describeStats() + "\n" +
+                        "• Shared values: " + StringDictionary.describeShared() + "\n\n" +
                         "Clinic Information:\n" +
                         "• Institution: UPSA Medical Center\n" +
                         "• License: Educational Use\n" +